@@ -15,6 +15,7 @@
  */
 package com.alibaba.rocketmq.broker;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
@@ -29,15 +30,21 @@ import com.alibaba.rocketmq.broker.client.*;
 import com.alibaba.rocketmq.broker.client.net.Broker2Client;
 import com.alibaba.rocketmq.broker.client.rebalance.RebalanceLockManager;
 import com.alibaba.rocketmq.broker.filtersrv.FilterServerManager;
+import com.alibaba.rocketmq.broker.latency.BrokerFastFailure;
+import com.alibaba.rocketmq.broker.longpolling.NotifyMessageArrivingListener;
 import com.alibaba.rocketmq.broker.longpolling.PullRequestHoldService;
 import com.alibaba.rocketmq.broker.mqtrace.ConsumeMessageHook;
 import com.alibaba.rocketmq.broker.mqtrace.SendMessageHook;
+import com.alibaba.rocketmq.broker.offset.ConsumeLagManager;
 import com.alibaba.rocketmq.broker.offset.ConsumerOffsetManager;
 import com.alibaba.rocketmq.broker.out.BrokerOuterAPI;
 import com.alibaba.rocketmq.broker.processor.*;
 import com.alibaba.rocketmq.broker.slave.SlaveSynchronize;
 import com.alibaba.rocketmq.broker.subscription.SubscriptionGroupManager;
 import com.alibaba.rocketmq.broker.topic.TopicConfigManager;
+import com.alibaba.rocketmq.broker.transaction.TransactionCheckService;
+import com.alibaba.rocketmq.broker.transaction.file.FileTransactionStore;
+import com.alibaba.rocketmq.broker.transaction.file.FileTransactionStoreConfig;
 import com.alibaba.rocketmq.common.*;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
@@ -50,6 +57,7 @@ import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
 import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
 import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.netty.RequestTaskQueue;
 import com.alibaba.rocketmq.store.DefaultMessageStore;
 import com.alibaba.rocketmq.store.MessageStore;
 import com.alibaba.rocketmq.store.config.BrokerRole;
@@ -76,6 +84,8 @@ public class BrokerController {
     private final DataVersion configDataVersion = new DataVersion();
     // 消费偏移管理类
     private final ConsumerOffsetManager consumerOffsetManager;
+    // 消费落后统计
+    private final ConsumeLagManager consumeLagManager;
     // 消费者管理类
     private final ConsumerManager consumerManager;
     // 生产者管理类
@@ -109,21 +119,35 @@ public class BrokerController {
     private TopicConfigManager topicConfigManager;
     private ExecutorService sendMessageExecutor;
     private ExecutorService pullMessageExecutor;
+    // 读磁盘的拉消息请求
+    private ExecutorService pullColdMessageExecutor;
     private ExecutorService adminBrokerExecutor;
     private ExecutorService clientManageExecutor;
+    // 按时间重置消费进度时并行查找各队列位点
+    private ExecutorService resetOffsetExecutor;
     // 是否定期更新broker的备份broker的IP地址
     private boolean updateMasterHAServerAddrPeriodically = false;
+    // 上次注册时的Broker权限
+    private int lastRegisterBrokerPermission = -1;
     // Broker状态类
     private BrokerStats brokerStats;
     // 阻塞队列(发送)
     private final BlockingQueue<Runnable> sendThreadPoolQueue;
     // 拉取队列
     private final BlockingQueue<Runnable> pullThreadPoolQueue;
+    // 冷数据拉消息队列，与普通拉消息一样做快速失败
+    private final BlockingQueue<Runnable> pullColdThreadPoolQueue;
+    // 客户端管理队列（心跳、位点）
+    private final BlockingQueue<Runnable> clientManagerThreadPoolQueue;
+    // 排队超时请求快速失败
+    private final BrokerFastFailure brokerFastFailure;
     // 过滤服务管理
     private final FilterServerManager filterServerManager;
     // Broker状态管理
     private final BrokerStatsManager brokerStatsManager;
     private InetSocketAddress storeHost;
+    // 事务回查服务，未开启时为null
+    private TransactionCheckService transactionCheckService;
 
 
     public BrokerController(final BrokerConfig brokerConfig, final NettyServerConfig nettyServerConfig,
@@ -133,6 +157,7 @@ public class BrokerController {
         this.nettyClientConfig = nettyClientConfig;
         this.messageStoreConfig = messageStoreConfig;
         this.consumerOffsetManager = new ConsumerOffsetManager(this);
+        this.consumeLagManager = new ConsumeLagManager(this);
         this.topicConfigManager = new TopicConfigManager(this);
         this.pullMessageProcessor = new PullMessageProcessor(this);
         this.pullRequestHoldService = new PullRequestHoldService(this);
@@ -153,11 +178,18 @@ public class BrokerController {
         // 构造broker和broker slave 节点间数据同步的对象
         this.slaveSynchronize = new SlaveSynchronize(this);
         // 发送消息任务队列
-        this.sendThreadPoolQueue =
-                new LinkedBlockingQueue<Runnable>(this.brokerConfig.getSendThreadPoolQueueCapacity());
+        this.sendThreadPoolQueue = this.createThreadPoolQueue(
+            this.brokerConfig.getSendThreadPoolQueueCapacity(), this.brokerConfig.getWaitTimeMillsInSendQueue());
         // 拉取消息任务队列
-        this.pullThreadPoolQueue =
-                new LinkedBlockingQueue<Runnable>(this.brokerConfig.getPullThreadPoolQueueCapacity());
+        this.pullThreadPoolQueue = this.createThreadPoolQueue(
+            this.brokerConfig.getPullThreadPoolQueueCapacity(), this.brokerConfig.getWaitTimeMillsInPullQueue());
+        this.pullColdThreadPoolQueue = this.createThreadPoolQueue(
+            this.brokerConfig.getPullThreadPoolQueueCapacity(), this.brokerConfig.getWaitTimeMillsInPullQueue());
+        // 客户端管理任务队列，心跳不做快速失败
+        this.clientManagerThreadPoolQueue =
+                this.createThreadPoolQueue(this.brokerConfig.getClientManagerThreadPoolQueueCapacity(), 0);
+        this.registerRequestPriority();
+        this.brokerFastFailure = new BrokerFastFailure(this);
         // 初始化broker状态管理类
         this.brokerStatsManager = new BrokerStatsManager(this.brokerConfig.getBrokerClusterName());
         // 设置broker IP和端口
@@ -178,7 +210,11 @@ public class BrokerController {
 
         if (result) {
             try {
-                this.messageStore = new DefaultMessageStore(this.messageStoreConfig, this.brokerStatsManager);
+                DefaultMessageStore defaultMessageStore =
+                        new DefaultMessageStore(this.messageStoreConfig, this.brokerStatsManager);
+                defaultMessageStore.setMessageArrivingListener(
+                    new NotifyMessageArrivingListener(this.pullRequestHoldService));
+                this.messageStore = defaultMessageStore;
             }
             catch (IOException e) {
                 result = false;
@@ -188,6 +224,17 @@ public class BrokerController {
 
         result = result && this.messageStore.load();
 
+        // 事务回查只在Master上进行
+        if (result && this.brokerConfig.isTransactionCheckEnable()
+                && BrokerRole.SLAVE != this.messageStoreConfig.getBrokerRole()) {
+            FileTransactionStoreConfig fileTransactionStoreConfig = new FileTransactionStoreConfig();
+            fileTransactionStoreConfig.setStorePathTransaction(
+                this.messageStoreConfig.getStorePathRootDir() + File.separator + "transaction");
+            FileTransactionStore transactionStore = new FileTransactionStore(fileTransactionStoreConfig);
+            result = transactionStore.open();
+            this.transactionCheckService = new TransactionCheckService(this, transactionStore);
+        }
+
         if (result) {
             // 创建netty 服务端
             this.remotingServer =
@@ -209,13 +256,37 @@ public class BrokerController {
                 this.pullThreadPoolQueue, //
                 new ThreadFactoryImpl("PullMessageThread_"));
 
+            if (this.brokerConfig.isPullColdMessageIsolationEnable()) {
+                this.pullColdMessageExecutor = new ThreadPoolExecutor(//
+                    this.brokerConfig.getPullColdMessageThreadPoolNums(), //
+                    this.brokerConfig.getPullColdMessageThreadPoolNums(), //
+                    1000 * 60, //
+                    TimeUnit.MILLISECONDS, //
+                    this.pullColdThreadPoolQueue, //
+                    new ThreadFactoryImpl("PullColdMessageThread_"));
+            }
+
             this.adminBrokerExecutor =
                     Executors.newFixedThreadPool(this.brokerConfig.getAdminBrokerThreadPoolNums(),
                         new ThreadFactoryImpl("AdminBrokerThread_"));
 
-            this.clientManageExecutor =
-                    Executors.newFixedThreadPool(this.brokerConfig.getClientManageThreadPoolNums(),
-                        new ThreadFactoryImpl("ClientManageThread_"));
+            this.clientManageExecutor = new ThreadPoolExecutor(//
+                this.brokerConfig.getClientManageThreadPoolNums(), //
+                this.brokerConfig.getClientManageThreadPoolNums(), //
+                1000 * 60, //
+                TimeUnit.MILLISECONDS, //
+                this.clientManagerThreadPoolQueue, //
+                new ThreadFactoryImpl("ClientManageThread_"));
+
+            // 队列满时由提交线程自己执行，不会拒绝
+            this.resetOffsetExecutor = new ThreadPoolExecutor(//
+                this.brokerConfig.getResetOffsetThreadPoolNums(), //
+                this.brokerConfig.getResetOffsetThreadPoolNums(), //
+                1000 * 60, //
+                TimeUnit.MILLISECONDS, //
+                new LinkedBlockingQueue<Runnable>(10000), //
+                new ThreadFactoryImpl("ResetOffsetThread_"), //
+                new ThreadPoolExecutor.CallerRunsPolicy());
             // 注册netty通信请求处理类
             this.registerProcessor();
             // 构造broker信息统计类
@@ -253,12 +324,42 @@ public class BrokerController {
                 public void run() {
                     try {
                         BrokerController.this.consumerOffsetManager.scanUnsubscribedTopic();
+                        BrokerController.this.consumeLagManager.scanExpiredCache();
                     }
                     catch (Exception e) {
                         log.error("schedule scanUnsubscribedTopic error.", e);
                     }
                 }
             }, 10, 60, TimeUnit.MINUTES);
+            // 清理长时间没有拉取的冷数据队列
+            if (this.pullColdMessageExecutor != null) {
+                this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            BrokerController.this.pullMessageProcessor
+                                .scanIdleColdQueue(PullMessageProcessor.ColdQueueIdleMillis);
+                        }
+                        catch (Exception e) {
+                            log.error("schedule scanIdleColdQueue error.", e);
+                        }
+                    }
+                }, 1, 1, TimeUnit.MINUTES);
+            }
+            // 每分钟整点记录一次Topic、订阅组的时间序列统计
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        BrokerController.this.brokerStatsManager.recordTimeSeries(
+                            BrokerController.this.consumerOffsetManager.computeConsumerLagTable());
+                    }
+                    catch (Exception e) {
+                        log.error("schedule recordTimeSeries error.", e);
+                    }
+                }
+            }, UtilAll.computNextMinutesTimeMillis() - System.currentTimeMillis(), 1000 * 60,
+                TimeUnit.MILLISECONDS);
             // 更新nameserver地址
             if (this.brokerConfig.getNamesrvAddr() != null) {
                 this.brokerOuterAPI.updateNameServerAddressList(this.brokerConfig.getNamesrvAddr());
@@ -322,6 +423,43 @@ public class BrokerController {
     }
 
 
+    /**
+     * 创建处理线程池的阻塞队列，开启公平调度时使用RequestTaskQueue
+     */
+    private BlockingQueue<Runnable> createThreadPoolQueue(final int capacity, final long waitTimeMillis) {
+        if (this.brokerConfig.isRequestScheduleFairQueueEnable()) {
+            return new RequestTaskQueue(capacity,
+                this.brokerConfig.isBrokerFastFailureEnable() ? waitTimeMillis : 0);
+        }
+
+        return new LinkedBlockingQueue<Runnable>(capacity);
+    }
+
+
+    /**
+     * 公平调度时各请求码的优先级，未注册的请求码为PriorityNormal
+     */
+    private void registerRequestPriority() {
+        if (this.sendThreadPoolQueue instanceof RequestTaskQueue) {
+            RequestTaskQueue queue = (RequestTaskQueue) this.sendThreadPoolQueue;
+            queue.registerPriority(RequestCode.END_TRANSACTION, RequestTaskQueue.PriorityHigh);
+            queue.registerPriority(RequestCode.CONSUMER_SEND_MSG_BACK, RequestTaskQueue.PriorityLow);
+        }
+
+        if (this.pullThreadPoolQueue instanceof RequestTaskQueue) {
+            RequestTaskQueue queue = (RequestTaskQueue) this.pullThreadPoolQueue;
+            queue.registerPriority(RequestCode.QUERY_MESSAGE, RequestTaskQueue.PriorityLow);
+            queue.registerPriority(RequestCode.VIEW_MESSAGE_BY_ID, RequestTaskQueue.PriorityLow);
+        }
+
+        if (this.clientManagerThreadPoolQueue instanceof RequestTaskQueue) {
+            RequestTaskQueue queue = (RequestTaskQueue) this.clientManagerThreadPoolQueue;
+            queue.registerPriority(RequestCode.HEART_BEAT, RequestTaskQueue.PriorityHigh);
+            queue.registerPriority(RequestCode.UNREGISTER_CLIENT, RequestTaskQueue.PriorityHigh);
+        }
+    }
+
+
     // 注册消息处理类
     public void registerProcessor() {
         /**
@@ -369,6 +507,8 @@ public class BrokerController {
          */
         this.remotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET, clientProcessor,
             this.clientManageExecutor);
+        this.remotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET_BATCH, clientProcessor,
+            this.clientManageExecutor);
         this.remotingServer.registerProcessor(RequestCode.QUERY_CONSUMER_OFFSET, clientProcessor,
             this.clientManageExecutor);
 
@@ -411,6 +551,16 @@ public class BrokerController {
     }
 
 
+    public ConsumeLagManager getConsumeLagManager() {
+        return consumeLagManager;
+    }
+
+
+    public ExecutorService getResetOffsetExecutor() {
+        return resetOffsetExecutor;
+    }
+
+
     public MessageStore getMessageStore() {
         return messageStore;
     }
@@ -470,6 +620,10 @@ public class BrokerController {
             this.clientHousekeepingService.shutdown();
         }
 
+        if (this.brokerFastFailure != null) {
+            this.brokerFastFailure.shutdown();
+        }
+
         if (this.pullRequestHoldService != null) {
             this.pullRequestHoldService.shutdown();
         }
@@ -478,6 +632,11 @@ public class BrokerController {
             this.remotingServer.shutdown();
         }
 
+        // 先停止接收请求，再关闭事务存储，避免关闭后仍有Prepared或结束事务的记录写入
+        if (this.transactionCheckService != null) {
+            this.transactionCheckService.shutdown();
+        }
+
         if (this.messageStore != null) {
             this.messageStore.shutdown();
         }
@@ -499,10 +658,22 @@ public class BrokerController {
             this.pullMessageExecutor.shutdown();
         }
 
+        if (this.pullColdMessageExecutor != null) {
+            this.pullColdMessageExecutor.shutdown();
+        }
+
         if (this.adminBrokerExecutor != null) {
             this.adminBrokerExecutor.shutdown();
         }
 
+        if (this.clientManageExecutor != null) {
+            this.clientManageExecutor.shutdown();
+        }
+
+        if (this.resetOffsetExecutor != null) {
+            this.resetOffsetExecutor.shutdown();
+        }
+
         if (this.brokerOuterAPI != null) {
             this.brokerOuterAPI.shutdown();
         }
@@ -547,6 +718,10 @@ public class BrokerController {
             this.pullRequestHoldService.start();
         }
 
+        if (this.transactionCheckService != null) {
+            this.transactionCheckService.start();
+        }
+
         if (this.clientHousekeepingService != null) {
             this.clientHousekeepingService.start();
         }
@@ -555,6 +730,10 @@ public class BrokerController {
             this.filterServerManager.start();
         }
 
+        if (this.brokerConfig.isBrokerFastFailureEnable()) {
+            this.brokerFastFailure.start();
+        }
+
         this.registerBrokerAll(true, false);
         // 10秒之后启动，每隔30秒执行一次，向nameserver注册broker所有信息
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
@@ -581,16 +760,26 @@ public class BrokerController {
     public synchronized void registerBrokerAll(final boolean checkOrderConfig, boolean oneway) {
         TopicConfigSerializeWrapper topicConfigWrapper =
                 this.getTopicConfigManager().buildTopicConfigSerializeWrapper();
-
-        if (!PermName.isWriteable(this.getBrokerConfig().getBrokerPermission())
-                || !PermName.isReadable(this.getBrokerConfig().getBrokerPermission())) {
-            ConcurrentHashMap<String, TopicConfig> topicConfigTable =
-                    new ConcurrentHashMap<String, TopicConfig>(topicConfigWrapper.getTopicConfigTable());
-            for (TopicConfig topicConfig : topicConfigTable.values()) {
-                topicConfig.setPerm(this.getBrokerConfig().getBrokerPermission());
-            }
-            topicConfigWrapper.setTopicConfigTable(topicConfigTable);
+        this.applyBrokerPermission(topicConfigWrapper);
+
+        // Broker权限变化会影响所有Topic，需要全量注册
+        final int brokerPermission = this.getBrokerConfig().getBrokerPermission();
+        BrokerOuterAPI.TopicConfigDeltaBuilder deltaBuilder = null;
+        if (this.brokerConfig.isRegisterBrokerDeltaEnable()
+                && brokerPermission == this.lastRegisterBrokerPermission) {
+            deltaBuilder = new BrokerOuterAPI.TopicConfigDeltaBuilder() {
+                @Override
+                public TopicConfigSerializeWrapper buildDelta(final DataVersion baseDataVersion) {
+                    TopicConfigSerializeWrapper delta = BrokerController.this.getTopicConfigManager()
+                        .buildTopicConfigDelta(baseDataVersion);
+                    if (delta != null) {
+                        BrokerController.this.applyBrokerPermission(delta);
+                    }
+                    return delta;
+                }
+            };
         }
+        this.lastRegisterBrokerPermission = brokerPermission;
 
         RegisterBrokerResult registerBrokerResult = this.brokerOuterAPI.registerBrokerAll(//
             this.brokerConfig.getBrokerClusterName(), //
@@ -599,6 +788,8 @@ public class BrokerController {
             this.brokerConfig.getBrokerId(), //
             this.getHAServerAddr(), //
             topicConfigWrapper, //
+            deltaBuilder, //
+            this.brokerConfig.isCompressRegisterBrokerBody(), //
             this.filterServerManager.buildNewFilterServerList(), //
             oneway);
 
@@ -616,6 +807,19 @@ public class BrokerController {
     }
 
 
+    private void applyBrokerPermission(final TopicConfigSerializeWrapper topicConfigWrapper) {
+        if (!PermName.isWriteable(this.getBrokerConfig().getBrokerPermission())
+                || !PermName.isReadable(this.getBrokerConfig().getBrokerPermission())) {
+            ConcurrentHashMap<String, TopicConfig> topicConfigTable =
+                    new ConcurrentHashMap<String, TopicConfig>(topicConfigWrapper.getTopicConfigTable());
+            for (TopicConfig topicConfig : topicConfigTable.values()) {
+                topicConfig.setPerm(this.getBrokerConfig().getBrokerPermission());
+            }
+            topicConfigWrapper.setTopicConfigTable(topicConfigTable);
+        }
+    }
+
+
     public TopicConfigManager getTopicConfigManager() {
         return topicConfigManager;
     }
@@ -709,6 +913,11 @@ public class BrokerController {
     }
 
 
+    public TransactionCheckService getTransactionCheckService() {
+        return transactionCheckService;
+    }
+
+
     public BrokerOuterAPI getBrokerOuterAPI() {
         return brokerOuterAPI;
     }
@@ -724,6 +933,11 @@ public class BrokerController {
     }
 
 
+    public ExecutorService getPullColdMessageExecutor() {
+        return pullColdMessageExecutor;
+    }
+
+
     public BrokerStats getBrokerStats() {
         return brokerStats;
     }
@@ -739,6 +953,21 @@ public class BrokerController {
     }
 
 
+    public BlockingQueue<Runnable> getPullThreadPoolQueue() {
+        return pullThreadPoolQueue;
+    }
+
+
+    public BlockingQueue<Runnable> getPullColdThreadPoolQueue() {
+        return pullColdThreadPoolQueue;
+    }
+
+
+    public BlockingQueue<Runnable> getClientManagerThreadPoolQueue() {
+        return clientManagerThreadPoolQueue;
+    }
+
+
     public FilterServerManager getFilterServerManager() {
         return filterServerManager;
     }
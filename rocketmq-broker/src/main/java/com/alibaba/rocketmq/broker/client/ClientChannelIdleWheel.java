@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * 检测客户端连接空闲的时间轮<br>
+ * 每个连接注册时放入一次，到期时才检查最后心跳时间，有心跳则按新的到期时间重新放入，
+ * 心跳本身不操作时间轮，每个连接在一个超时周期内只被检查一次，不再全量扫描
+ */
+public class ClientChannelIdleWheel {
+    private final long tickMillis;
+    private final long expiredTimeoutMillis;
+    private final List<ConcurrentLinkedQueue<WheelEntry>> slots;
+    // 已处理到的tick，只有推进线程修改
+    private volatile long currentTick;
+
+    /**
+     * 连接到期时的回调，只在推进时间轮的线程中调用
+     */
+    public interface ExpiredHandler {
+        /**
+         * @return 连接仍在注册表中，且就是这个ClientChannelInfo
+         */
+        boolean isRegistered(final String group, final ClientChannelInfo clientChannelInfo);
+
+
+        /**
+         * 连接超过expiredTimeoutMillis没有心跳
+         */
+        void onExpired(final String group, final ClientChannelInfo clientChannelInfo);
+    }
+
+    static class WheelEntry {
+        private final String group;
+        private final ClientChannelInfo clientChannelInfo;
+        private final long deadline;
+
+
+        WheelEntry(String group, ClientChannelInfo clientChannelInfo, long deadline) {
+            this.group = group;
+            this.clientChannelInfo = clientChannelInfo;
+            this.deadline = deadline;
+        }
+    }
+
+
+    public ClientChannelIdleWheel(final long tickMillis, final long expiredTimeoutMillis) {
+        this.tickMillis = tickMillis;
+        this.expiredTimeoutMillis = expiredTimeoutMillis;
+        // 一圈覆盖一个超时周期，正常情况下每个连接转一圈就会被检查
+        int slotNums = (int) (expiredTimeoutMillis / tickMillis) + 2;
+        this.slots = new ArrayList<ConcurrentLinkedQueue<WheelEntry>>(slotNums);
+        for (int i = 0; i < slotNums; i++) {
+            this.slots.add(new ConcurrentLinkedQueue<WheelEntry>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+
+    /**
+     * 新连接注册时调用，按最后心跳时间计算到期时间
+     */
+    public void add(final String group, final ClientChannelInfo clientChannelInfo) {
+        this.add(new WheelEntry(group, clientChannelInfo, clientChannelInfo.getLastUpdateTimestamp()
+                + this.expiredTimeoutMillis));
+    }
+
+
+    private void add(final WheelEntry entry) {
+        // 已经处理过的tick放到下一个tick，保证不会等待一整圈
+        long tick = Math.max(entry.deadline / this.tickMillis, this.currentTick + 1);
+        this.slots.get((int) (tick % this.slots.size())).add(entry);
+    }
+
+
+    /**
+     * 推进到当前时间，处理到期的连接
+     *
+     * @return 本次超时的连接数
+     */
+    public int advance(final ExpiredHandler handler) {
+        final long now = System.currentTimeMillis();
+        final long nowTick = now / this.tickMillis;
+        int expired = 0;
+        // 推进线程停顿太久时，最多处理一圈即可覆盖所有槽
+        long tick = Math.max(this.currentTick + 1, nowTick - this.slots.size() + 1);
+        for (; tick <= nowTick; tick++) {
+            ConcurrentLinkedQueue<WheelEntry> slot = this.slots.get((int) (tick % this.slots.size()));
+            List<WheelEntry> reschedule = new ArrayList<WheelEntry>();
+            WheelEntry entry;
+            while ((entry = slot.poll()) != null) {
+                if (entry.deadline > now) {
+                    // 还没到期（多于一圈），留到之后处理
+                    reschedule.add(entry);
+                    continue;
+                }
+
+                if (!handler.isRegistered(entry.group, entry.clientChannelInfo)) {
+                    continue;
+                }
+
+                long deadline = entry.clientChannelInfo.getLastUpdateTimestamp() + this.expiredTimeoutMillis;
+                if (deadline <= now) {
+                    handler.onExpired(entry.group, entry.clientChannelInfo);
+                    expired++;
+                }
+                else {
+                    reschedule.add(new WheelEntry(entry.group, entry.clientChannelInfo, deadline));
+                }
+            }
+
+            this.currentTick = tick;
+            for (WheelEntry e : reschedule) {
+                this.add(e);
+            }
+        }
+
+        return expired;
+    }
+}
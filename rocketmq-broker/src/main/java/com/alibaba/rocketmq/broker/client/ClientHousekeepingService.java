@@ -49,7 +49,20 @@ public class ClientHousekeepingService implements ChannelEventListener {
 
 
     public void start() {
-        // 定时扫描过期的连接
+        // 按时间轮刻度推进Producer、Consumer连接的空闲检测
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ClientHousekeepingService.this.scanIdleClientChannel();
+                }
+                catch (Exception e) {
+                    log.error("", e);
+                }
+            }
+        }, 1000 * 10, ProducerManager.IdleWheelTickMillis, TimeUnit.MILLISECONDS);
+
+        // 定时扫描过期的Filter Server连接与过期的队列锁
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
@@ -69,10 +82,15 @@ public class ClientHousekeepingService implements ChannelEventListener {
     }
 
 
-    private void scanExceptionChannel() {
+    private void scanIdleClientChannel() {
         this.brokerController.getProducerManager().scanNotActiveChannel();
         this.brokerController.getConsumerManager().scanNotActiveChannel();
+    }
+
+
+    private void scanExceptionChannel() {
         this.brokerController.getFilterServerManager().scanNotActiveChannel();
+        this.brokerController.getRebalanceLockManager().scanExpiredLock();
     }
 
 
@@ -56,6 +56,9 @@ public class ConsumerGroupInfo {
     // 从哪里开始消费
     private volatile ConsumeFromWhere consumeFromWhere;
     private volatile long lastUpdateTimestamp = System.currentTimeMillis();
+    // 各连接最近一次完整心跳的订阅关系指纹，subVersion由各客户端自己生成，所以不能整组共用一个指纹
+    private final ConcurrentHashMap<Channel, Integer> subscriptionFingerprintTable =
+            new ConcurrentHashMap<Channel, Integer>(16);
 
 
     public ConsumerGroupInfo(String groupName, ConsumeType consumeType, MessageModel messageModel,
@@ -137,6 +140,7 @@ public class ConsumerGroupInfo {
      */
     public void unregisterChannel(final ClientChannelInfo clientChannelInfo) {
         ClientChannelInfo old = this.channelInfoTable.remove(clientChannelInfo.getChannel());
+        this.subscriptionFingerprintTable.remove(clientChannelInfo.getChannel());
         if (old != null) {
             log.info("unregister a consumer[{}] from consumerGroupInfo {}", this.groupName, old.toString());
         }
@@ -145,6 +149,7 @@ public class ConsumerGroupInfo {
 
     public boolean doChannelCloseEvent(final String remoteAddr, final Channel channel) {
         final ClientChannelInfo info = this.channelInfoTable.remove(channel);
+        this.subscriptionFingerprintTable.remove(channel);
         if (info != null) {
             log.warn(
                 "NETTY EVENT: remove not active channel[{}] from ConsumerGroupInfo groupChannelTable, consumer group: {}",
@@ -156,6 +161,36 @@ public class ConsumerGroupInfo {
     }
 
 
+    /**
+     * 记录连接完整心跳的订阅关系指纹
+     */
+    public void updateSubscriptionFingerprint(final Channel channel, final int subscriptionFingerprint) {
+        this.subscriptionFingerprintTable.put(channel, subscriptionFingerprint);
+    }
+
+
+    /**
+     * 连接的指纹与最近一次完整心跳一致时，才能只刷新连接
+     */
+    public boolean matchSubscriptionFingerprint(final Channel channel, final int subscriptionFingerprint) {
+        Integer fingerprint = this.subscriptionFingerprintTable.get(channel);
+        return fingerprint != null && fingerprint.intValue() == subscriptionFingerprint;
+    }
+
+
+    /**
+     * 组的订阅关系被某个连接改变后，其他连接需要重新发送完整心跳
+     */
+    public void clearSubscriptionFingerprint() {
+        this.subscriptionFingerprintTable.clear();
+    }
+
+
+    public void removeSubscriptionFingerprint(final Channel channel) {
+        this.subscriptionFingerprintTable.remove(channel);
+    }
+
+
     /**
      * 更新netty连接 返回值表示是否发生变更
      */
@@ -321,4 +356,5 @@ public class ConsumerGroupInfo {
     public void setConsumeFromWhere(ConsumeFromWhere consumeFromWhere) {
         this.consumeFromWhere = consumeFromWhere;
     }
+
 }
@@ -35,7 +35,8 @@ import io.netty.channel.Channel;
 
 
 /**
- * Consumer连接、订阅关系管理
+ * Consumer连接、订阅关系管理<br>
+ * 已注册连接的心跳不加锁，只有新连接加入、删除消费组时按组名分段加锁；空闲连接由时间轮检测
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-26
@@ -49,10 +50,76 @@ public class ConsumerManager {
     private final ConsumerIdsChangeListener consumerIdsChangeListener;
     // channel 超时时间
     private static final long ChannelExpiredTimeout = 1000 * 120;
+    private static final int GroupLockStripes = 32;
+    private final Object[] groupLocks = new Object[GroupLockStripes];
+    private final ClientChannelIdleWheel idleWheel =
+            new ClientChannelIdleWheel(ProducerManager.IdleWheelTickMillis, ChannelExpiredTimeout);
+    private final ClientChannelIdleWheel.ExpiredHandler expiredHandler =
+            new ClientChannelIdleWheel.ExpiredHandler() {
+                @Override
+                public boolean isRegistered(String group, ClientChannelInfo clientChannelInfo) {
+                    ConsumerGroupInfo consumerGroupInfo = ConsumerManager.this.consumerTable.get(group);
+                    return consumerGroupInfo != null && consumerGroupInfo.getChannelInfoTable()
+                        .get(clientChannelInfo.getChannel()) == clientChannelInfo;
+                }
+
+
+                @Override
+                public void onExpired(String group, ClientChannelInfo clientChannelInfo) {
+                    ConsumerGroupInfo consumerGroupInfo = ConsumerManager.this.consumerTable.get(group);
+                    if (null == consumerGroupInfo || !consumerGroupInfo.getChannelInfoTable()
+                        .remove(clientChannelInfo.getChannel(), clientChannelInfo)) {
+                        return;
+                    }
+                    consumerGroupInfo.removeSubscriptionFingerprint(clientChannelInfo.getChannel());
+
+                    log.warn("SCAN: remove expired channel from ConsumerManager consumerTable. "
+                            + "channel={}, consumerGroup={}",
+                        RemotingHelper.parseChannelRemoteAddr(clientChannelInfo.getChannel()), group);
+                    RemotingUtil.closeChannel(clientChannelInfo.getChannel());
+
+                    if (ConsumerManager.this.removeGroupIfEmpty(group, consumerGroupInfo)) {
+                        log.warn("SCAN: remove expired channel from ConsumerManager consumerTable, "
+                                + "all clear, consumerGroup={}",
+                            group);
+                    }
+                }
+            };
 
 
     public ConsumerManager(final ConsumerIdsChangeListener consumerIdsChangeListener) {
         this.consumerIdsChangeListener = consumerIdsChangeListener;
+        for (int i = 0; i < GroupLockStripes; i++) {
+            this.groupLocks[i] = new Object();
+        }
+    }
+
+
+    private Object groupLock(final String group) {
+        return this.groupLocks[(group.hashCode() & Integer.MAX_VALUE) % GroupLockStripes];
+    }
+
+
+    /**
+     * 消费组没有连接时删除，与新连接加入互斥
+     */
+    private boolean removeGroupIfEmpty(final String group, final ConsumerGroupInfo consumerGroupInfo) {
+        synchronized (this.groupLock(group)) {
+            return consumerGroupInfo.getChannelInfoTable().isEmpty()
+                    && this.consumerTable.remove(group, consumerGroupInfo);
+        }
+    }
+
+
+    /**
+     * 所有消费组的连接数
+     */
+    public int getChannelCount() {
+        int count = 0;
+        for (ConsumerGroupInfo consumerGroupInfo : this.consumerTable.values()) {
+            count += consumerGroupInfo.getChannelInfoTable().size();
+        }
+        return count;
     }
 
 
@@ -130,12 +197,9 @@ public class ConsumerManager {
             ConsumerGroupInfo info = next.getValue();
             boolean removed = info.doChannelCloseEvent(remoteAddr, channel);
             if (removed) {
-                if (info.getChannelInfoTable().isEmpty()) {
-                    ConsumerGroupInfo remove = this.consumerTable.remove(next.getKey());
-                    if (remove != null) {
-                        log.info("ungister consumer ok, no any connection, and remove consumer group, {}",
-                            next.getKey());
-                    }
+                if (this.removeGroupIfEmpty(next.getKey(), info)) {
+                    log.info("ungister consumer ok, no any connection, and remove consumer group, {}",
+                        next.getKey());
                 }
                 // 执行监听，通知客户端（consumerID 发生变化）
                 this.consumerIdsChangeListener.consumerIdsChanged(next.getKey(), info.getAllChannel());
@@ -149,17 +213,40 @@ public class ConsumerManager {
      */
     public boolean registerConsumer(final String group, final ClientChannelInfo clientChannelInfo,
             ConsumeType consumeType, MessageModel messageModel, ConsumeFromWhere consumeFromWhere,
-            final Set<SubscriptionData> subList) {
+            final Set<SubscriptionData> subList, final int subscriptionFingerprint) {
         ConsumerGroupInfo consumerGroupInfo = this.consumerTable.get(group);
-        if (null == consumerGroupInfo) {
-            ConsumerGroupInfo tmp = new ConsumerGroupInfo(group, consumeType, messageModel, consumeFromWhere);
-            ConsumerGroupInfo prev = this.consumerTable.putIfAbsent(group, tmp);
-            consumerGroupInfo = prev != null ? prev : tmp;
+        boolean r1;
+        if (consumerGroupInfo != null
+                && consumerGroupInfo.getChannelInfoTable().containsKey(clientChannelInfo.getChannel())) {
+            // 已注册连接的心跳
+            r1 = consumerGroupInfo.updateChannel(clientChannelInfo, consumeType, messageModel,
+                consumeFromWhere);
+        }
+        else {
+            synchronized (this.groupLock(group)) {
+                consumerGroupInfo = this.consumerTable.get(group);
+                if (null == consumerGroupInfo) {
+                    consumerGroupInfo =
+                            new ConsumerGroupInfo(group, consumeType, messageModel, consumeFromWhere);
+                    this.consumerTable.put(group, consumerGroupInfo);
+                }
+
+                r1 = consumerGroupInfo.updateChannel(clientChannelInfo, consumeType, messageModel,
+                    consumeFromWhere);
+            }
+        }
+
+        // 新连接或者替换了连接信息，放入空闲检测时间轮
+        if (consumerGroupInfo.getChannelInfoTable().get(clientChannelInfo.getChannel()) == clientChannelInfo) {
+            this.idleWheel.add(group, clientChannelInfo);
         }
 
-        boolean r1 = consumerGroupInfo.updateChannel(clientChannelInfo, consumeType, messageModel,
-            consumeFromWhere);
         boolean r2 = consumerGroupInfo.updateSubscription(subList);
+        if (r2) {
+            consumerGroupInfo.clearSubscriptionFingerprint();
+        }
+        consumerGroupInfo.updateSubscriptionFingerprint(clientChannelInfo.getChannel(),
+            subscriptionFingerprint);
 
         if (r1 || r2) {
             // ConsumerId列表变化，通知所有Consumer
@@ -170,6 +257,50 @@ public class ConsumerManager {
     }
 
 
+    /**
+     * 处理不携带订阅关系的心跳，只刷新连接
+     *
+     * @return 订阅关系指纹与Broker记录的不一致时返回false，客户端需要重新发送完整心跳
+     */
+    public boolean registerConsumerWithoutSub(final String group, final ClientChannelInfo clientChannelInfo,
+            ConsumeType consumeType, MessageModel messageModel, ConsumeFromWhere consumeFromWhere,
+            final int subscriptionFingerprint) {
+        ConsumerGroupInfo consumerGroupInfo = this.consumerTable.get(group);
+        if (null == consumerGroupInfo || !consumerGroupInfo
+            .matchSubscriptionFingerprint(clientChannelInfo.getChannel(), subscriptionFingerprint)) {
+            return false;
+        }
+
+        boolean r1;
+        if (consumerGroupInfo.getChannelInfoTable().containsKey(clientChannelInfo.getChannel())) {
+            r1 = consumerGroupInfo.updateChannel(clientChannelInfo, consumeType, messageModel,
+                consumeFromWhere);
+        }
+        else {
+            synchronized (this.groupLock(group)) {
+                // 加锁后再确认一次，Group可能刚被删除
+                if (this.consumerTable.get(group) != consumerGroupInfo) {
+                    return false;
+                }
+
+                r1 = consumerGroupInfo.updateChannel(clientChannelInfo, consumeType, messageModel,
+                    consumeFromWhere);
+            }
+        }
+
+        if (consumerGroupInfo.getChannelInfoTable().get(clientChannelInfo.getChannel()) == clientChannelInfo) {
+            this.idleWheel.add(group, clientChannelInfo);
+        }
+
+        if (r1) {
+            // ConsumerId列表变化，通知所有Consumer
+            this.consumerIdsChangeListener.consumerIdsChanged(group, consumerGroupInfo.getAllChannel());
+        }
+
+        return true;
+    }
+
+
     /**
      * 注销consumer
      * 
@@ -180,11 +311,8 @@ public class ConsumerManager {
         ConsumerGroupInfo consumerGroupInfo = this.consumerTable.get(group);
         if (null != consumerGroupInfo) {
             consumerGroupInfo.unregisterChannel(clientChannelInfo);
-            if (consumerGroupInfo.getChannelInfoTable().isEmpty()) {
-                ConsumerGroupInfo remove = this.consumerTable.remove(group);
-                if (remove != null) {
-                    log.info("ungister consumer ok, no any connection, and remove consumer group, {}", group);
-                }
+            if (this.removeGroupIfEmpty(group, consumerGroupInfo)) {
+                log.info("ungister consumer ok, no any connection, and remove consumer group, {}", group);
             }
             // ConsumerId列表变化，通知所有Consumer
             this.consumerIdsChangeListener.consumerIdsChanged(group, consumerGroupInfo.getAllChannel());
@@ -193,38 +321,10 @@ public class ConsumerManager {
 
 
     /**
-     * 扫描出空闲的连接并关闭移除
+     * 推进空闲检测时间轮，关闭并移除到期的连接
      */
     public void scanNotActiveChannel() {
-        Iterator<Entry<String, ConsumerGroupInfo>> it = this.consumerTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConsumerGroupInfo> next = it.next();
-            String group = next.getKey();
-            ConsumerGroupInfo consumerGroupInfo = next.getValue();
-            ConcurrentHashMap<Channel, ClientChannelInfo> channelInfoTable =
-                    consumerGroupInfo.getChannelInfoTable();
-
-            Iterator<Entry<Channel, ClientChannelInfo>> itChannel = channelInfoTable.entrySet().iterator();
-            while (itChannel.hasNext()) {
-                Entry<Channel, ClientChannelInfo> nextChannel = itChannel.next();
-                ClientChannelInfo clientChannelInfo = nextChannel.getValue();
-                long diff = System.currentTimeMillis() - clientChannelInfo.getLastUpdateTimestamp();
-                if (diff > ChannelExpiredTimeout) {
-                    log.warn(
-                        "SCAN: remove expired channel from ConsumerManager consumerTable. channel={}, consumerGroup={}",
-                        RemotingHelper.parseChannelRemoteAddr(clientChannelInfo.getChannel()), group);
-                    RemotingUtil.closeChannel(clientChannelInfo.getChannel());
-                    itChannel.remove();
-                }
-            }
-
-            if (channelInfoTable.isEmpty()) {
-                log.warn(
-                    "SCAN: remove expired channel from ConsumerManager consumerTable, all clear, consumerGroup={}",
-                    group);
-                it.remove();
-            }
-        }
+        this.idleWheel.advance(this.expiredHandler);
     }
 
 
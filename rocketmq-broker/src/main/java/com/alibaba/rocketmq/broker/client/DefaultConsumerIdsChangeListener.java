@@ -38,6 +38,11 @@ public class DefaultConsumerIdsChangeListener implements ConsumerIdsChangeListen
 
     @Override
     public void consumerIdsChanged(String group, List<Channel> channels) {
+        if (null == channels || channels.isEmpty()) {
+            // 订阅组已经没有在线的Consumer
+            this.brokerController.getPullMessageProcessor().removeColdQueue(group);
+        }
+
         if (channels != null && brokerController.getBrokerConfig().isNotifyConsumerIdsChangedEnable()) {
             for (Channel chl : channels) {
                 this.brokerController.getBroker2Client().notifyConsumerIdsChanged(chl, group);
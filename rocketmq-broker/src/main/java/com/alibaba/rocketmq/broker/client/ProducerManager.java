@@ -15,13 +15,11 @@
  */
 package com.alibaba.rocketmq.broker.client;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,21 +31,82 @@ import io.netty.channel.Channel;
 
 
 /**
- * 管理Producer组及各个Producer连接
+ * 管理Producer组及各个Producer连接<br>
+ * 已注册连接的心跳不加锁，只有创建、删除Producer组时按组名分段加锁；空闲连接由时间轮检测
  *
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-26
  */
 public class ProducerManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
-    private static final long LockTimeoutMillis = 3000;
     private static final long ChannelExpiredTimeout = 1000 * 120;
-    private final Lock groupChannelLock = new ReentrantLock();
-    private final HashMap<String /* group name */, HashMap<Channel, ClientChannelInfo>> groupChannelTable =
-            new HashMap<String, HashMap<Channel, ClientChannelInfo>>();
+    // 空闲检测时间轮的刻度，与ClientHousekeepingService推进的间隔一致
+    public static final long IdleWheelTickMillis = 1000;
+    private static final int GroupLockStripes = 32;
+    private final Object[] groupLocks = new Object[GroupLockStripes];
+    // group name -> 连接
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Channel, ClientChannelInfo>> groupChannelTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Channel, ClientChannelInfo>>(1024);
+    private final ClientChannelIdleWheel idleWheel =
+            new ClientChannelIdleWheel(IdleWheelTickMillis, ChannelExpiredTimeout);
+    private final ClientChannelIdleWheel.ExpiredHandler expiredHandler =
+            new ClientChannelIdleWheel.ExpiredHandler() {
+                @Override
+                public boolean isRegistered(String group, ClientChannelInfo clientChannelInfo) {
+                    Map<Channel, ClientChannelInfo> channelTable =
+                            ProducerManager.this.groupChannelTable.get(group);
+                    return channelTable != null
+                            && channelTable.get(clientChannelInfo.getChannel()) == clientChannelInfo;
+                }
+
+
+                @Override
+                public void onExpired(String group, ClientChannelInfo clientChannelInfo) {
+                    if (ProducerManager.this.removeChannel(group, clientChannelInfo.getChannel(),
+                        clientChannelInfo)) {
+                        log.warn("SCAN: remove expired channel[{}] from ProducerManager groupChannelTable, "
+                                + "producer group name: {}",
+                            RemotingHelper.parseChannelRemoteAddr(clientChannelInfo.getChannel()), group);
+                        RemotingUtil.closeChannel(clientChannelInfo.getChannel());
+                    }
+                }
+            };
 
 
     public ProducerManager() {
+        for (int i = 0; i < GroupLockStripes; i++) {
+            this.groupLocks[i] = new Object();
+        }
+    }
+
+
+    private Object groupLock(final String group) {
+        return this.groupLocks[(group.hashCode() & Integer.MAX_VALUE) % GroupLockStripes];
+    }
+
+
+    /**
+     * 从producer组中删除连接，组为空时删除组
+     *
+     * @param clientChannelInfo
+     *            不为null时只删除这个ClientChannelInfo
+     */
+    private boolean removeChannel(final String group, final Channel channel,
+            final ClientChannelInfo clientChannelInfo) {
+        synchronized (this.groupLock(group)) {
+            ConcurrentHashMap<Channel, ClientChannelInfo> channelTable = this.groupChannelTable.get(group);
+            if (null == channelTable) {
+                return false;
+            }
+
+            boolean removed = clientChannelInfo != null ? channelTable.remove(channel, clientChannelInfo)
+                    : channelTable.remove(channel) != null;
+            if (channelTable.isEmpty()) {
+                this.groupChannelTable.remove(group);
+                log.info("unregister a producer group[{}] from groupChannelTable", group);
+            }
+            return removed;
+        }
     }
 
 
@@ -55,149 +114,119 @@ public class ProducerManager {
     public HashMap<String, HashMap<Channel, ClientChannelInfo>> getGroupChannelTable() {
         HashMap<String /* group name */, HashMap<Channel, ClientChannelInfo>> newGroupChannelTable =
                 new HashMap<String, HashMap<Channel, ClientChannelInfo>>();
-        try {
-            // 获取锁
-            if (this.groupChannelLock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-                try {
-                    newGroupChannelTable.putAll(groupChannelTable);
-                }
-                finally {
-                    groupChannelLock.unlock();
-                }
-            }
-        }
-        catch (InterruptedException e) {
-            log.error("", e);
+        for (Map.Entry<String, ConcurrentHashMap<Channel, ClientChannelInfo>> entry : this.groupChannelTable
+            .entrySet()) {
+            newGroupChannelTable.put(entry.getKey(),
+                new HashMap<Channel, ClientChannelInfo>(entry.getValue()));
         }
         return newGroupChannelTable;
     }
 
 
     /**
-     * 扫描出空闲的连接并关闭移除
+     * 获取一个producer组的连接，组不存在时返回null
      */
-    public void scanNotActiveChannel() {
-        try {
-            if (this.groupChannelLock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-                try {
-                    for (final Map.Entry<String, HashMap<Channel, ClientChannelInfo>> entry : this.groupChannelTable
-                        .entrySet()) {
-                        final String group = entry.getKey();
-                        final HashMap<Channel, ClientChannelInfo> chlMap = entry.getValue();
-
-                        Iterator<Entry<Channel, ClientChannelInfo>> it = chlMap.entrySet().iterator();
-                        while (it.hasNext()) {
-                            Entry<Channel, ClientChannelInfo> item = it.next();
-                            // final Integer id = item.getKey();
-                            final ClientChannelInfo info = item.getValue();
-
-                            long diff = System.currentTimeMillis() - info.getLastUpdateTimestamp();
-                            if (diff > ChannelExpiredTimeout) {
-                                it.remove();
-                                log.warn(
-                                    "SCAN: remove expired channel[{}] from ProducerManager groupChannelTable, "
-                                            + "producer group name: {}",
-                                    RemotingHelper.parseChannelRemoteAddr(info.getChannel()), group);
-                                RemotingUtil.closeChannel(info.getChannel());
-                            }
-                        }
-                    }
-                }
-                finally {
-                    this.groupChannelLock.unlock();
+    public HashMap<Channel, ClientChannelInfo> getGroupChannelTable(final String group) {
+        ConcurrentHashMap<Channel, ClientChannelInfo> channelTable = this.groupChannelTable.get(group);
+        if (channelTable != null) {
+            return new HashMap<Channel, ClientChannelInfo>(channelTable);
+        }
+        return null;
+    }
+
+
+    /**
+     * 获取producer组下可用的连接，事务回查使用
+     */
+    public List<Channel> getActiveChannels(final String group) {
+        List<Channel> channels = new ArrayList<Channel>();
+        ConcurrentHashMap<Channel, ClientChannelInfo> channelTable = this.groupChannelTable.get(group);
+        if (channelTable != null) {
+            for (Channel channel : channelTable.keySet()) {
+                if (channel.isActive()) {
+                    channels.add(channel);
                 }
             }
-            else {
-                log.warn("ProducerManager scanNotActiveChannel lock timeout");
-            }
         }
-        catch (InterruptedException e) {
-            log.error("", e);
+        return channels;
+    }
+
+
+    /**
+     * 所有producer组的连接数
+     */
+    public int getChannelCount() {
+        int count = 0;
+        for (ConcurrentHashMap<Channel, ClientChannelInfo> channelTable : this.groupChannelTable.values()) {
+            count += channelTable.size();
         }
+        return count;
     }
 
 
     /**
-     * netty连接关闭的时候，从producer组删除 channel（即删除HashMap中元素）
+     * 推进空闲检测时间轮，关闭并移除到期的连接
+     */
+    public void scanNotActiveChannel() {
+        this.idleWheel.advance(this.expiredHandler);
+    }
+
+
+    /**
+     * netty连接关闭的时候，从producer组删除 channel
      *
      * @param remoteAddr
      * @param channel
      */
     public void doChannelCloseEvent(final String remoteAddr, final Channel channel) {
         if (channel != null) {
-            try {
-                if (this.groupChannelLock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-                    try {
-                        for (final Map.Entry<String, HashMap<Channel, ClientChannelInfo>> entry : this.groupChannelTable
-                            .entrySet()) {
-                            final String group = entry.getKey();
-                            final HashMap<Channel, ClientChannelInfo> clientChannelInfoTable =
-                                    entry.getValue();
-                            final ClientChannelInfo clientChannelInfo =
-                                    clientChannelInfoTable.remove(channel);
-                            if (clientChannelInfo != null) {
-                                log.info(
-                                    "NETTY EVENT: remove channel[{}][{}] from ProducerManager groupChannelTable, "
-                                            + "producer group: {}",
-                                    clientChannelInfo.toString(), remoteAddr, group);
-                            }
-
-                        }
-                    }
-                    finally {
-                        this.groupChannelLock.unlock();
-                    }
-                }
-                else {
-                    log.warn("ProducerManager doChannelCloseEvent lock timeout");
+            for (final Map.Entry<String, ConcurrentHashMap<Channel, ClientChannelInfo>> entry : this.groupChannelTable
+                .entrySet()) {
+                final String group = entry.getKey();
+                final ClientChannelInfo clientChannelInfo = entry.getValue().get(channel);
+                if (clientChannelInfo != null && this.removeChannel(group, channel, null)) {
+                    log.info("NETTY EVENT: remove channel[{}][{}] from ProducerManager groupChannelTable, "
+                            + "producer group: {}",
+                        clientChannelInfo.toString(), remoteAddr, group);
                 }
             }
-            catch (InterruptedException e) {
-                log.error("", e);
-            }
         }
     }
 
 
     /**
-     * 注册producer连接（向producer组添加元素）
+     * 注册producer连接，已注册的连接只更新心跳时间
      *
      * @param group
      * @param clientChannelInfo
      */
     public void registerProducer(final String group, final ClientChannelInfo clientChannelInfo) {
-        try {
-            ClientChannelInfo clientChannelInfoFound = null;
-
-            if (this.groupChannelLock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-                try {
-                    HashMap<Channel, ClientChannelInfo> channelTable = this.groupChannelTable.get(group);
-                    if (null == channelTable) {
-                        channelTable = new HashMap<Channel, ClientChannelInfo>();
-                        this.groupChannelTable.put(group, channelTable);
-                    }
+        ClientChannelInfo clientChannelInfoFound = null;
+        ConcurrentHashMap<Channel, ClientChannelInfo> channelTable = this.groupChannelTable.get(group);
+        if (channelTable != null) {
+            clientChannelInfoFound = channelTable.get(clientChannelInfo.getChannel());
+        }
 
-                    clientChannelInfoFound = channelTable.get(clientChannelInfo.getChannel());
-                    if (null == clientChannelInfoFound) {
-                        channelTable.put(clientChannelInfo.getChannel(), clientChannelInfo);
-                        log.info("new producer connected, group: {} channel: {}", group,
-                            clientChannelInfo.toString());
-                    }
-                }
-                finally {
-                    this.groupChannelLock.unlock();
+        if (null == clientChannelInfoFound) {
+            synchronized (this.groupLock(group)) {
+                channelTable = this.groupChannelTable.get(group);
+                if (null == channelTable) {
+                    channelTable = new ConcurrentHashMap<Channel, ClientChannelInfo>();
+                    this.groupChannelTable.put(group, channelTable);
                 }
 
-                if (clientChannelInfoFound != null) {
-                    clientChannelInfoFound.setLastUpdateTimestamp(System.currentTimeMillis());
+                clientChannelInfoFound =
+                        channelTable.putIfAbsent(clientChannelInfo.getChannel(), clientChannelInfo);
+                if (null == clientChannelInfoFound) {
+                    this.idleWheel.add(group, clientChannelInfo);
+                    log.info("new producer connected, group: {} channel: {}", group,
+                        clientChannelInfo.toString());
                 }
             }
-            else {
-                log.warn("ProducerManager registerProducer lock timeout");
-            }
         }
-        catch (InterruptedException e) {
-            log.error("", e);
+
+        if (clientChannelInfoFound != null) {
+            clientChannelInfoFound.setLastUpdateTimestamp(System.currentTimeMillis());
         }
     }
 
@@ -209,33 +238,9 @@ public class ProducerManager {
      * @param clientChannelInfo
      */
     public void unregisterProducer(final String group, final ClientChannelInfo clientChannelInfo) {
-        try {
-            if (this.groupChannelLock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
-                try {
-                    HashMap<Channel, ClientChannelInfo> channelTable = this.groupChannelTable.get(group);
-                    if (null != channelTable && !channelTable.isEmpty()) {
-                        ClientChannelInfo old = channelTable.remove(clientChannelInfo.getChannel());
-                        if (old != null) {
-                            log.info("unregister a producer[{}] from groupChannelTable {}", group,
-                                clientChannelInfo.toString());
-                        }
-
-                        if (channelTable.isEmpty()) {
-                            this.groupChannelTable.remove(group);
-                            log.info("unregister a producer group[{}] from groupChannelTable", group);
-                        }
-                    }
-                }
-                finally {
-                    this.groupChannelLock.unlock();
-                }
-            }
-            else {
-                log.warn("ProducerManager unregisterProducer lock timeout");
-            }
-        }
-        catch (InterruptedException e) {
-            log.error("", e);
+        if (this.removeChannel(group, clientChannelInfo.getChannel(), null)) {
+            log.info("unregister a producer[{}] from groupChannelTable {}", group,
+                clientChannelInfo.toString());
         }
     }
 }
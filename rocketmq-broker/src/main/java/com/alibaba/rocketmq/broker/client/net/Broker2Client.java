@@ -15,9 +15,13 @@
  */
 package com.alibaba.rocketmq.broker.client.net;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -147,28 +151,42 @@ public class Broker2Client {
             return response;
         }
 
-        Map<MessageQueue, Long> offsetTable = new HashMap<MessageQueue, Long>();
-        for (int i = 0; i < topicConfig.getWriteQueueNums(); i++) {
-            MessageQueue mq = new MessageQueue();
-            mq.setBrokerName(this.brokerController.getBrokerConfig().getBrokerName());
-            mq.setTopic(topic);
-            mq.setQueueId(i);
-
-            long consumerOffset =
+        final int queueNums = topicConfig.getWriteQueueNums();
+        long[] consumerOffsets = new long[queueNums];
+        for (int i = 0; i < queueNums; i++) {
+            consumerOffsets[i] =
                     this.brokerController.getConsumerOffsetManager().queryOffset(group, topic, i);
-            if (-1 == consumerOffset) {
+            if (-1 == consumerOffsets[i]) {
                 response.setCode(ResponseCode.SYSTEM_ERROR);
                 response.setRemark(String.format("THe consumer group <%s> not exist", group));
                 return response;
             }
+        }
+
+        long[] timeStampOffsets;
+        try {
+            timeStampOffsets = this.searchOffsetsByTime(topic, queueNums, timeStamp);
+        }
+        catch (Exception e) {
+            log.error("[reset-offset] search offset by time exception. topic={}, group={}",
+                new Object[] { topic, group }, e);
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("[reset-offset] search offset by time exception, " + e);
+            return response;
+        }
 
-            long timeStampOffset =
-                    this.brokerController.getMessageStore().getOffsetInQueueByTime(topic, i, timeStamp);
-            if (isForce || timeStampOffset < consumerOffset) {
-                offsetTable.put(mq, timeStampOffset);
+        Map<MessageQueue, Long> offsetTable = new HashMap<MessageQueue, Long>();
+        for (int i = 0; i < queueNums; i++) {
+            MessageQueue mq = new MessageQueue();
+            mq.setBrokerName(this.brokerController.getBrokerConfig().getBrokerName());
+            mq.setTopic(topic);
+            mq.setQueueId(i);
+
+            if (isForce || timeStampOffsets[i] < consumerOffsets[i]) {
+                offsetTable.put(mq, timeStampOffsets[i]);
             }
             else {
-                offsetTable.put(mq, consumerOffset);
+                offsetTable.put(mq, consumerOffsets[i]);
             }
         }
 
@@ -233,6 +251,32 @@ public class Broker2Client {
     }
 
 
+    /**
+     * 各队列按时间二分查找位点相互独立，提交到线程池并行执行
+     */
+    private long[] searchOffsetsByTime(final String topic, final int queueNums, final long timeStamp)
+            throws InterruptedException, ExecutionException {
+        final long[] offsets = new long[queueNums];
+        List<Future<?>> futures = new ArrayList<Future<?>>(queueNums);
+        for (int i = 0; i < queueNums; i++) {
+            final int queueId = i;
+            futures.add(this.brokerController.getResetOffsetExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    offsets[queueId] = Broker2Client.this.brokerController.getMessageStore()
+                        .getOffsetInQueueByTime(topic, queueId, timeStamp);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        return offsets;
+    }
+
+
     /**
      * Broker主动获取Consumer端的消息情况
      */
@@ -18,8 +18,10 @@ package com.alibaba.rocketmq.broker.client.rebalance;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +31,9 @@ import com.alibaba.rocketmq.common.message.MessageQueue;
 
 
 /**
- * 顺序消息争抢队列锁
+ * 顺序消息争抢队列锁<br>
+ * 不使用全局锁，队列锁的归属通过ConcurrentHashMap的putIfAbsent/replace与租约时间的CAS切换，
+ * 过期的锁按到期时间排队，定时清理时只检查已到期的锁
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-6-26
@@ -38,40 +42,42 @@ public class RebalanceLockManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.RebalanceLockLoggerName);
     private final static long RebalanceLockMaxLiveTime =
             Long.parseLong(System.getProperty("rocketmq.broker.rebalance.lockMaxLiveTime", "60000"));
-    private final Lock lock = new ReentrantLock();
+    // 已被释放或者抢占的锁，租约时间置为-1
+    private static final long Revoked = -1;
+    private final long lockMaxLiveTime;
     private final ConcurrentHashMap<String/* group */, ConcurrentHashMap<MessageQueue, LockEntry>> mqLockTable =
             new ConcurrentHashMap<String, ConcurrentHashMap<MessageQueue, LockEntry>>(1024);
+    // 按租约到期时间排序，续约不操作队列，到期时再检查
+    private final DelayQueue<LeaseCheck> leaseCheckQueue = new DelayQueue<LeaseCheck>();
 
     class LockEntry {
-        private String clientId;
-        private volatile long lastUpdateTimestamp = System.currentTimeMillis();
+        private final String clientId;
+        private final AtomicLong lastUpdateTimestamp;
 
 
-        public String getClientId() {
-            return clientId;
+        LockEntry(final String clientId, final long lastUpdateTimestamp) {
+            this.clientId = clientId;
+            this.lastUpdateTimestamp = new AtomicLong(lastUpdateTimestamp);
         }
 
 
-        public void setClientId(String clientId) {
-            this.clientId = clientId;
+        public String getClientId() {
+            return clientId;
         }
 
 
         public long getLastUpdateTimestamp() {
-            return lastUpdateTimestamp;
+            return lastUpdateTimestamp.get();
         }
 
 
-        public void setLastUpdateTimestamp(long lastUpdateTimestamp) {
-            this.lastUpdateTimestamp = lastUpdateTimestamp;
+        private boolean isExpired(final long timestamp, final long now) {
+            return timestamp == Revoked || (now - timestamp) > lockMaxLiveTime;
         }
 
 
         public boolean isExpired() {
-            boolean expired =
-                    (System.currentTimeMillis() - this.lastUpdateTimestamp) > RebalanceLockMaxLiveTime;
-
-            return expired;
+            return this.isExpired(this.lastUpdateTimestamp.get(), System.currentTimeMillis());
         }
 
 
@@ -79,98 +85,166 @@ public class RebalanceLockManager {
             boolean eq = this.clientId.equals(clientId);
             return eq && !this.isExpired();
         }
-    }
 
 
-    private boolean isLocked(final String group, final MessageQueue mq, final String clientId) {
-        ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
-        if (groupValue != null) {
-            LockEntry lockEntry = groupValue.get(mq);
-            if (lockEntry != null) {
-                boolean locked = lockEntry.isLocked(clientId);
-                if (locked) {
-                    lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
+        /**
+         * 未过期时续约
+         */
+        public boolean renew(final long now) {
+            for (;;) {
+                long timestamp = this.lastUpdateTimestamp.get();
+                if (this.isExpired(timestamp, now)) {
+                    return false;
                 }
+                if (this.lastUpdateTimestamp.compareAndSet(timestamp, now)) {
+                    return true;
+                }
+            }
+        }
 
-                return locked;
+
+        /**
+         * 已过期时作废，与续约互斥，作废后这个锁不能再续约
+         */
+        public boolean revokeIfExpired(final long now) {
+            for (;;) {
+                long timestamp = this.lastUpdateTimestamp.get();
+                if (timestamp == Revoked) {
+                    return true;
+                }
+                if (!this.isExpired(timestamp, now)) {
+                    return false;
+                }
+                if (this.lastUpdateTimestamp.compareAndSet(timestamp, Revoked)) {
+                    return true;
+                }
             }
         }
 
-        return false;
+
+        public void revoke() {
+            this.lastUpdateTimestamp.set(Revoked);
+        }
     }
 
+    static class LeaseCheck implements Delayed {
+        private final String group;
+        private final MessageQueue mq;
+        private final LockEntry lockEntry;
+        private final long deadline;
 
-    /**
-     * 尝试锁队列
-     * 
-     * @return 是否lock成功
-     */
-    public boolean tryLock(final String group, final MessageQueue mq, final String clientId) {
-        // 没有被锁住
-        if (!this.isLocked(group, mq, clientId)) {
-            try {
-                this.lock.lockInterruptibly();
-                try {
-                    ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
-                    if (null == groupValue) {
-                        groupValue = new ConcurrentHashMap<MessageQueue, LockEntry>(32);
-                        this.mqLockTable.put(group, groupValue);
-                    }
 
-                    LockEntry lockEntry = groupValue.get(mq);
-                    if (null == lockEntry) {
-                        lockEntry = new LockEntry();
-                        lockEntry.setClientId(clientId);
-                        groupValue.put(mq, lockEntry);
-                        log.info("tryLock, message queue not locked, I got it. Group: {} NewClientId: {} {}", //
-                            group, //
-                            clientId, //
-                            mq);
-                    }
+        LeaseCheck(String group, MessageQueue mq, LockEntry lockEntry, long deadline) {
+            this.group = group;
+            this.mq = mq;
+            this.lockEntry = lockEntry;
+            this.deadline = deadline;
+        }
 
-                    if (lockEntry.isLocked(clientId)) {
-                        lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
-                        return true;
-                    }
 
-                    String oldClientId = lockEntry.getClientId();
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+
+        @Override
+        public int compareTo(Delayed o) {
+            long other = ((LeaseCheck) o).deadline;
+            return this.deadline < other ? -1 : (this.deadline == other ? 0 : 1);
+        }
+    }
+
+
+    public RebalanceLockManager() {
+        this(RebalanceLockMaxLiveTime);
+    }
+
+
+    public RebalanceLockManager(final long lockMaxLiveTime) {
+        this.lockMaxLiveTime = lockMaxLiveTime;
+    }
+
+
+    private ConcurrentHashMap<MessageQueue, LockEntry> getOrCreateGroup(final String group) {
+        ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
+        if (null == groupValue) {
+            groupValue = new ConcurrentHashMap<MessageQueue, LockEntry>(32);
+            ConcurrentHashMap<MessageQueue, LockEntry> prev = this.mqLockTable.putIfAbsent(group, groupValue);
+            if (prev != null) {
+                groupValue = prev;
+            }
+        }
+
+        return groupValue;
+    }
+
+
+    private void addLeaseCheck(final String group, final MessageQueue mq, final LockEntry lockEntry) {
+        this.leaseCheckQueue.offer(new LeaseCheck(group, mq, lockEntry, lockEntry.getLastUpdateTimestamp()
+                + this.lockMaxLiveTime + 1));
+    }
 
-                    // 锁已经过期，抢占它
-                    if (lockEntry.isExpired()) {
-                        lockEntry.setClientId(clientId);
-                        lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
-                        log.warn(
-                            "tryLock, message queue lock expired, I got it. Group: {} OldClientId: {} NewClientId: {} {}", //
-                            group, //
-                            oldClientId, //
-                            clientId, //
-                            mq);
-                        return true;
-                    }
 
-                    // 锁被别的Client占用
-                    log.warn(
-                        "tryLock, message queue locked by other client. Group: {} OtherClientId: {} NewClientId: {} {}", //
+    private boolean tryLock(final String group, final ConcurrentHashMap<MessageQueue, LockEntry> groupValue,
+            final MessageQueue mq, final String clientId) {
+        for (;;) {
+            final long now = System.currentTimeMillis();
+            LockEntry lockEntry = groupValue.get(mq);
+            if (null == lockEntry) {
+                LockEntry newEntry = new LockEntry(clientId, now);
+                if (null == groupValue.putIfAbsent(mq, newEntry)) {
+                    this.addLeaseCheck(group, mq, newEntry);
+                    log.info("tryLock, message queue not locked, I got it. Group: {} NewClientId: {} {}", //
                         group, //
-                        oldClientId, //
                         clientId, //
                         mq);
-                    return false;
-                }
-                finally {
-                    this.lock.unlock();
+                    return true;
                 }
+                continue;
             }
-            catch (InterruptedException e) {
-                log.error("putMessage exception", e);
+
+            // 已经锁定，更新时间
+            if (lockEntry.getClientId().equals(clientId) && lockEntry.renew(now)) {
+                return true;
             }
+
+            // 锁已经过期，抢占它
+            if (lockEntry.revokeIfExpired(now)) {
+                LockEntry newEntry = new LockEntry(clientId, now);
+                if (groupValue.replace(mq, lockEntry, newEntry)) {
+                    this.addLeaseCheck(group, mq, newEntry);
+                    log.warn("tryLock, message queue lock expired, I got it. Group: {} OldClientId: {} "
+                            + "NewClientId: {} {}", //
+                        group, //
+                        lockEntry.getClientId(), //
+                        clientId, //
+                        mq);
+                    return true;
+                }
+                // 被别的Client抢先，或者刚被释放，重新检查
+                continue;
+            }
+
+            // 锁被别的Client占用
+            log.warn("tryLock, message queue locked by other client. Group: {} OtherClientId: {} "
+                    + "NewClientId: {} {}", //
+                group, //
+                lockEntry.getClientId(), //
+                clientId, //
+                mq);
+            return false;
         }
-        // 已经锁住，尝试更新时间
-        else {
-            // isLocked 中已经更新了时间，这里不需要再更新
-        }
+    }
 
-        return true;
+
+    /**
+     * 尝试锁队列
+     * 
+     * @return 是否lock成功
+     */
+    public boolean tryLock(final String group, final MessageQueue mq, final String clientId) {
+        return this.tryLock(group, this.getOrCreateGroup(group), mq, clientId);
     }
 
 
@@ -182,81 +256,11 @@ public class RebalanceLockManager {
     public Set<MessageQueue> tryLockBatch(final String group, final Set<MessageQueue> mqs,
             final String clientId) {
         Set<MessageQueue> lockedMqs = new HashSet<MessageQueue>(mqs.size());
-        Set<MessageQueue> notLockedMqs = new HashSet<MessageQueue>(mqs.size());
-
-        // 先通过不加锁的方式尝试查看哪些锁定，哪些没锁定
+        ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.getOrCreateGroup(group);
         for (MessageQueue mq : mqs) {
-            if (this.isLocked(group, mq, clientId)) {
+            if (this.tryLock(group, groupValue, mq, clientId)) {
                 lockedMqs.add(mq);
             }
-            else {
-                notLockedMqs.add(mq);
-            }
-        }
-
-        if (!notLockedMqs.isEmpty()) {
-            try {
-                this.lock.lockInterruptibly();
-                try {
-                    ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
-                    if (null == groupValue) {
-                        groupValue = new ConcurrentHashMap<MessageQueue, LockEntry>(32);
-                        this.mqLockTable.put(group, groupValue);
-                    }
-
-                    // 遍历没有锁住的队列
-                    for (MessageQueue mq : notLockedMqs) {
-                        LockEntry lockEntry = groupValue.get(mq);
-                        if (null == lockEntry) {
-                            lockEntry = new LockEntry();
-                            lockEntry.setClientId(clientId);
-                            groupValue.put(mq, lockEntry);
-                            log.info(
-                                "tryLockBatch, message queue not locked, I got it. Group: {} NewClientId: {} {}", //
-                                group, //
-                                clientId, //
-                                mq);
-                        }
-
-                        // 已经锁定
-                        if (lockEntry.isLocked(clientId)) {
-                            lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
-                            lockedMqs.add(mq);
-                            continue;
-                        }
-
-                        String oldClientId = lockEntry.getClientId();
-
-                        // 锁已经过期，抢占它
-                        if (lockEntry.isExpired()) {
-                            lockEntry.setClientId(clientId);
-                            lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
-                            log.warn(
-                                "tryLockBatch, message queue lock expired, I got it. Group: {} OldClientId: {} NewClientId: {} {}", //
-                                group, //
-                                oldClientId, //
-                                clientId, //
-                                mq);
-                            lockedMqs.add(mq);
-                            continue;
-                        }
-
-                        // 锁被别的Client占用
-                        log.warn(
-                            "tryLockBatch, message queue locked by other client. Group: {} OtherClientId: {} NewClientId: {} {}", //
-                            group, //
-                            oldClientId, //
-                            clientId, //
-                            mq);
-                    }
-                }
-                finally {
-                    this.lock.unlock();
-                }
-            }
-            catch (InterruptedException e) {
-                log.error("putMessage exception", e);
-            }
         }
 
         return lockedMqs;
@@ -264,49 +268,72 @@ public class RebalanceLockManager {
 
 
     public void unlockBatch(final String group, final Set<MessageQueue> mqs, final String clientId) {
-        try {
-            this.lock.lockInterruptibly();
-            try {
-                ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
-                if (null != groupValue) {
-                    for (MessageQueue mq : mqs) {
-                        LockEntry lockEntry = groupValue.get(mq);
-                        if (null != lockEntry) {
-                            if (lockEntry.getClientId().equals(clientId)) {
-                                groupValue.remove(mq);
-                                log.info("unlockBatch, Group: {} {} {}", //
-                                    group, //
-                                    mq, //
-                                    clientId);
-                            }
-                            else {
-                                log.warn("unlockBatch, but mq locked by other client: {}, Group: {} {} {}", //
-                                    lockEntry.getClientId(), //
-                                    group, //
-                                    mq, //
-                                    clientId);
-                            }
-                        }
-                        else {
-                            log.warn("unlockBatch, but mq not locked, Group: {} {} {}", //
-                                group, //
-                                mq, //
-                                clientId);
-                        }
+        ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
+        if (null != groupValue) {
+            for (MessageQueue mq : mqs) {
+                LockEntry lockEntry = groupValue.get(mq);
+                if (null != lockEntry) {
+                    if (lockEntry.getClientId().equals(clientId)) {
+                        lockEntry.revoke();
+                        groupValue.remove(mq, lockEntry);
+                        log.info("unlockBatch, Group: {} {} {}", //
+                            group, //
+                            mq, //
+                            clientId);
+                    }
+                    else {
+                        log.warn("unlockBatch, but mq locked by other client: {}, Group: {} {} {}", //
+                            lockEntry.getClientId(), //
+                            group, //
+                            mq, //
+                            clientId);
                     }
                 }
                 else {
-                    log.warn("unlockBatch, group not exist, Group: {} {}", //
+                    log.warn("unlockBatch, but mq not locked, Group: {} {} {}", //
                         group, //
+                        mq, //
                         clientId);
                 }
             }
-            finally {
-                this.lock.unlock();
-            }
         }
-        catch (InterruptedException e) {
-            log.error("putMessage exception", e);
+        else {
+            log.warn("unlockBatch, group not exist, Group: {} {}", //
+                group, //
+                clientId);
         }
     }
+
+
+    /**
+     * 清理租约到期的锁，只处理到期的检查项，仍在续约的锁按新的到期时间重新排队
+     * 
+     * @return 清理的锁个数
+     */
+    public int scanExpiredLock() {
+        int removed = 0;
+        LeaseCheck check;
+        while ((check = this.leaseCheckQueue.poll()) != null) {
+            ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(check.group);
+            // 已经被释放或者抢占
+            if (null == groupValue || groupValue.get(check.mq) != check.lockEntry) {
+                continue;
+            }
+
+            if (check.lockEntry.revokeIfExpired(System.currentTimeMillis())) {
+                if (groupValue.remove(check.mq, check.lockEntry)) {
+                    removed++;
+                    log.info("scanExpiredLock, remove expired lock, Group: {} {} {}", //
+                        check.group, //
+                        check.mq, //
+                        check.lockEntry.getClientId());
+                }
+            }
+            else {
+                this.addLeaseCheck(check.group, check.mq, check.lockEntry);
+            }
+        }
+
+        return removed;
+    }
 }
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.latency;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.remoting.netty.RequestTask;
+import com.alibaba.rocketmq.remoting.netty.RequestTaskQueue;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSysResponseCode;
+
+
+/**
+ * 定时清理线程池队列中排队过久的请求，尽早给客户端返回SYSTEM_BUSY，让客户端重试其他Broker
+ */
+public class BrokerFastFailure {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private final BrokerController brokerController;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors
+        .newSingleThreadScheduledExecutor(new ThreadFactoryImpl("BrokerFastFailureScheduledThread"));
+
+
+    public BrokerFastFailure(final BrokerController brokerController) {
+        this.brokerController = brokerController;
+    }
+
+
+    public void start() {
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BrokerFastFailure.this.cleanExpiredRequest();
+                }
+                catch (Exception e) {
+                    log.error("cleanExpiredRequest exception", e);
+                }
+            }
+        }, 1000, 10, TimeUnit.MILLISECONDS);
+    }
+
+
+    public void shutdown() {
+        this.scheduledExecutorService.shutdown();
+    }
+
+
+    private void cleanExpiredRequest() {
+        cleanExpiredRequestInQueue(this.brokerController.getSendThreadPoolQueue(),
+            this.brokerController.getBrokerConfig().getWaitTimeMillsInSendQueue());
+
+        cleanExpiredRequestInQueue(this.brokerController.getPullThreadPoolQueue(),
+            this.brokerController.getBrokerConfig().getWaitTimeMillsInPullQueue());
+
+        cleanExpiredRequestInQueue(this.brokerController.getPullColdThreadPoolQueue(),
+            this.brokerController.getBrokerConfig().getWaitTimeMillsInPullQueue());
+    }
+
+
+    public static int cleanExpiredRequestInQueue(final BlockingQueue<Runnable> queue,
+            final long maxWaitTimeMillis) {
+        if (queue instanceof RequestTaskQueue) {
+            return ((RequestTaskQueue) queue).cleanExpiredRequest();
+        }
+
+        if (maxWaitTimeMillis <= 0) {
+            return 0;
+        }
+
+        // 普通FIFO队列，队首即排队最久的请求
+        int cleaned = 0;
+        while (true) {
+            final Runnable runnable = queue.peek();
+            if (!(runnable instanceof RequestTask)) {
+                break;
+            }
+
+            final RequestTask rt = (RequestTask) runnable;
+            if ((System.currentTimeMillis() - rt.getCreateTimestamp()) <= maxWaitTimeMillis) {
+                break;
+            }
+
+            if (queue.remove(runnable)) {
+                rt.returnResponse(RemotingSysResponseCode.SYSTEM_BUSY,
+                    "[TIMEOUT_CLEAN_QUEUE]request wait in queue too long, please try another server");
+                cleaned++;
+            }
+        }
+
+        if (cleaned > 0) {
+            log.warn("clean {} expired request in queue, maxWaitTimeMillis {}", cleaned, maxWaitTimeMillis);
+        }
+        return cleaned;
+    }
+}
@@ -16,37 +16,110 @@
 package com.alibaba.rocketmq.broker.longpolling;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 
 /**
- * 长轮询请求
+ * 一个队列上挂起的长轮询请求，按拉取的起始Offset排序，消息到达时只取出Offset满足的请求
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-26
  */
 public class ManyPullRequest {
-    private final ArrayList<PullRequest> pullRequestList = new ArrayList<PullRequest>();
+    private final String topic;
+    private final int queueId;
+    private final TreeMap<Long/* pullFromThisOffset */, List<PullRequest>> pullRequestTable =
+            new TreeMap<Long, List<PullRequest>>();
+    private int size = 0;
+
+
+    public ManyPullRequest(final String topic, final int queueId) {
+        this.topic = topic;
+        this.queueId = queueId;
+    }
 
 
     public synchronized void addPullRequest(final PullRequest pullRequest) {
-        this.pullRequestList.add(pullRequest);
+        List<PullRequest> list = this.pullRequestTable.get(pullRequest.getPullFromThisOffset());
+        if (null == list) {
+            list = new ArrayList<PullRequest>(2);
+            this.pullRequestTable.put(pullRequest.getPullFromThisOffset(), list);
+        }
+        list.add(pullRequest);
+        this.size++;
+    }
+
+
+    /**
+     * 移除指定请求，返回false表示已经被其他路径（消息到达或超时）取走
+     */
+    public synchronized boolean removePullRequest(final PullRequest pullRequest) {
+        List<PullRequest> list = this.pullRequestTable.get(pullRequest.getPullFromThisOffset());
+        if (list != null) {
+            for (Iterator<PullRequest> it = list.iterator(); it.hasNext();) {
+                if (it.next() == pullRequest) {
+                    it.remove();
+                    this.size--;
+                    if (list.isEmpty()) {
+                        this.pullRequestTable.remove(pullRequest.getPullFromThisOffset());
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
 
-    public synchronized void addPullRequest(final List<PullRequest> many) {
-        this.pullRequestList.addAll(many);
+    /**
+     * 取出所有拉取起始Offset小于maxOffset的请求，这些请求已经可以拉到消息
+     */
+    public synchronized List<PullRequest> pollArrived(final long maxOffset) {
+        if (0 == this.size || this.pullRequestTable.firstKey() >= maxOffset) {
+            return null;
+        }
+
+        List<PullRequest> result = new ArrayList<PullRequest>();
+        for (Iterator<Entry<Long, List<PullRequest>>> it =
+                this.pullRequestTable.headMap(maxOffset).entrySet().iterator(); it.hasNext();) {
+            result.addAll(it.next().getValue());
+            it.remove();
+        }
+        this.size -= result.size();
+        return result;
     }
 
 
     // 复制并清除 拉取消息请求的集合
     public synchronized List<PullRequest> cloneListAndClear() {
-        if (!this.pullRequestList.isEmpty()) {
-            List<PullRequest> result = (ArrayList<PullRequest>) this.pullRequestList.clone();
-            this.pullRequestList.clear();
+        if (this.size > 0) {
+            List<PullRequest> result = new ArrayList<PullRequest>(this.size);
+            for (List<PullRequest> list : this.pullRequestTable.values()) {
+                result.addAll(list);
+            }
+            this.pullRequestTable.clear();
+            this.size = 0;
             return result;
         }
 
         return null;
     }
+
+
+    public synchronized boolean isEmpty() {
+        return 0 == this.size;
+    }
+
+
+    public String getTopic() {
+        return topic;
+    }
+
+
+    public int getQueueId() {
+        return queueId;
+    }
 }
@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.broker.longpolling;
 
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
 
 
 /**
@@ -35,6 +36,8 @@ public class PullRequest {
     private final long suspendTimestamp;
     // 开始拉取的偏移量
     private final long pullFromThisOffset;
+    // 时间轮上的超时任务，被消息唤醒时取消
+    private volatile Timeout timeout;
 
 
     public PullRequest(RemotingCommand requestCommand, Channel clientChannel, long timeoutMillis,
@@ -70,4 +73,17 @@ public class PullRequest {
     public long getPullFromThisOffset() {
         return pullFromThisOffset;
     }
+
+
+    public void cancelTimeout() {
+        Timeout t = this.timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
 }
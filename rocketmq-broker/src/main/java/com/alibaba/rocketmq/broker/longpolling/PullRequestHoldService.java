@@ -15,9 +15,9 @@
  */
 package com.alibaba.rocketmq.broker.longpolling;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,11 +25,15 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
-import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 
 
 /**
- * 拉消息请求管理，如果拉不到消息，则在这里Hold住，等待消息到来
+ * 拉消息请求管理，如果拉不到消息，则在这里Hold住，等待消息到来<br>
+ * 消息写入ConsumeQueue后由分发线程通知唤醒，超时由时间轮触发，后台线程只做低频的兜底检查
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-26
@@ -37,11 +41,16 @@ import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 public class PullRequestHoldService extends ServiceThread {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private static final String TOPIC_QUEUEID_SEPARATOR = "@";
+    // 兜底检查间隔，防止通知丢失导致请求一直挂到超时
+    private static final long CheckHoldRequestIntervalMillis = 5000;
     // 拉取消息请求的集合
     private ConcurrentHashMap<String/* topic@queueid */, ManyPullRequest> pullRequestTable =
             new ConcurrentHashMap<String, ManyPullRequest>(1024);
 
     private final BrokerController brokerController;
+    // 挂起请求的超时时间轮
+    private final HashedWheelTimer suspendTimeoutTimer =
+            RemotingUtil.createTimerWheel("PullRequestSuspendTimer", 10, 1024);
 
 
     public PullRequestHoldService(final BrokerController brokerController) {
@@ -50,7 +59,7 @@ public class PullRequestHoldService extends ServiceThread {
 
 
     private String buildKey(final String topic, final int queueId) {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(topic.length() + 8);
         sb.append(topic);
         sb.append(TOPIC_QUEUEID_SEPARATOR);
         sb.append(queueId);
@@ -69,7 +78,7 @@ public class PullRequestHoldService extends ServiceThread {
         String key = this.buildKey(topic, queueId);
         ManyPullRequest mpr = this.pullRequestTable.get(key);
         if (null == mpr) {
-            mpr = new ManyPullRequest();
+            mpr = new ManyPullRequest(topic, queueId);
             ManyPullRequest prev = this.pullRequestTable.putIfAbsent(key, mpr);
             if (prev != null) {
                 mpr = prev;
@@ -77,90 +86,74 @@ public class PullRequestHoldService extends ServiceThread {
         }
 
         mpr.addPullRequest(pullRequest);
+
+        final ManyPullRequest holder = mpr;
+        pullRequest.setTimeout(this.suspendTimeoutTimer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                // 超时与消息到达只有一方能取走请求
+                if (holder.removePullRequest(pullRequest)) {
+                    PullRequestHoldService.this.wakeup(pullRequest);
+                }
+            }
+        }, pullRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS));
+
+        // 拉消息与挂起之间可能已有消息写入，补查一次，避免错过通知
+        final long maxOffset = this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, queueId);
+        if (maxOffset > pullRequest.getPullFromThisOffset()) {
+            this.notifyMessageArriving(holder, maxOffset);
+        }
     }
 
 
     private void checkHoldRequest() {
-        for (String key : this.pullRequestTable.keySet()) {
-            String[] kArray = key.split(TOPIC_QUEUEID_SEPARATOR);
-            if (kArray != null && 2 == kArray.length) {
-                String topic = kArray[0];
-                int queueId = Integer.parseInt(kArray[1]);
-                final long offset =
-                        this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, queueId);
-                this.notifyMessageArriving(topic, queueId, offset);
+        for (ManyPullRequest mpr : this.pullRequestTable.values()) {
+            if (!mpr.isEmpty()) {
+                final long offset = this.brokerController.getMessageStore()
+                    .getMaxOffsetInQuque(mpr.getTopic(), mpr.getQueueId());
+                this.notifyMessageArriving(mpr, offset);
             }
         }
     }
 
 
     public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        ManyPullRequest mpr = this.pullRequestTable.get(this.buildKey(topic, queueId));
         if (mpr != null) {
-            List<PullRequest> requestList = mpr.cloneListAndClear();
-            if (requestList != null) {
-                List<PullRequest> replayList = new ArrayList<PullRequest>();
-
-                for (PullRequest request : requestList) {
-                    // 查看是否offset OK
-                    if (maxOffset > request.getPullFromThisOffset()) {
-                        try {
-                            this.brokerController.getPullMessageProcessor().excuteRequestWhenWakeup(
-                                request.getClientChannel(), request.getRequestCommand());
-                        }
-                        catch (RemotingCommandException e) {
-                            log.error("", e);
-                        }
-                        continue;
-                    }
-                    // 尝试取最新Offset
-                    else {
-                        final long newestOffset =
-                                this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, queueId);
-                        if (newestOffset > request.getPullFromThisOffset()) {
-                            try {
-                                this.brokerController.getPullMessageProcessor().excuteRequestWhenWakeup(
-                                    request.getClientChannel(), request.getRequestCommand());
-                            }
-                            catch (RemotingCommandException e) {
-                                log.error("", e);
-                            }
-                            continue;
-                        }
-                    }
-
-                    // 查看是否超时
-                    if (System.currentTimeMillis() >= (request.getSuspendTimestamp()
-                            + request.getTimeoutMillis())) {
-                        try {
-                            this.brokerController.getPullMessageProcessor().excuteRequestWhenWakeup(
-                                request.getClientChannel(), request.getRequestCommand());
-                        }
-                        catch (RemotingCommandException e) {
-                            log.error("", e);
-                        }
-                        continue;
-                    }
-
-                    // 当前不满足要求，重新放回Hold列表中
-                    replayList.add(request);
-                }
+            this.notifyMessageArriving(mpr, maxOffset);
+        }
+    }
 
-                if (!replayList.isEmpty()) {
-                    mpr.addPullRequest(replayList);
-                }
+
+    private void notifyMessageArriving(final ManyPullRequest mpr, final long maxOffset) {
+        List<PullRequest> requestList = mpr.pollArrived(maxOffset);
+        if (requestList != null) {
+            for (PullRequest request : requestList) {
+                request.cancelTimeout();
+                this.wakeup(request);
             }
         }
     }
 
 
+    private void wakeup(final PullRequest request) {
+        try {
+            this.brokerController.getPullMessageProcessor().excuteRequestWhenWakeup(
+                request.getClientChannel(), request.getRequestCommand());
+        }
+        catch (Throwable e) {
+            // 拉消息线程池满时会拒绝任务，异常不能抛给分发线程
+            log.error("wakeup pull request exception", e);
+        }
+    }
+
+
     @Override
     public void run() {
         log.info(this.getServiceName() + " service started");
         while (!this.isStoped()) {
             try {
-                this.waitForRunning(1000);
+                this.waitForRunning(CheckHoldRequestIntervalMillis);
                 this.checkHoldRequest();
             }
             catch (Exception e) {
@@ -168,6 +161,7 @@ public class PullRequestHoldService extends ServiceThread {
             }
         }
 
+        this.suspendTimeoutTimer.stop();
         log.info(this.getServiceName() + " service end");
     }
 
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.admin.ConsumeStats;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
+import com.alibaba.rocketmq.common.admin.OffsetWrapper;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+
+
+/**
+ * 消费落后统计<br>
+ * 队列最大位点与消费位点都在内存中，代价高的是查询位点对应消息的存储时间（读ConsumeQueue与CommitLog），
+ * 这里按队列缓存上次查询的位点与存储时间，位点没有变化时不再读消息存储
+ */
+public class ConsumeLagManager {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private static final String KEY_SEPARATOR = "@";
+
+    private final BrokerController brokerController;
+    // topic@group@queueId -> 消费的最后一条消息
+    private final ConcurrentHashMap<String, OffsetTimestamp> consumedTimestampTable =
+            new ConcurrentHashMap<String, OffsetTimestamp>(1024);
+    // topic@queueId -> 队列最新一条消息
+    private final ConcurrentHashMap<String, OffsetTimestamp> lastStoreTimestampTable =
+            new ConcurrentHashMap<String, OffsetTimestamp>(1024);
+
+    static class OffsetTimestamp {
+        private final long offset;
+        private final long timestamp;
+
+
+        OffsetTimestamp(final long offset, final long timestamp) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+        }
+    }
+
+
+    public ConsumeLagManager(BrokerController brokerController) {
+        this.brokerController = brokerController;
+    }
+
+
+    /**
+     * 查询一个订阅组的消费统计，Consumer不在线的时候也允许查询
+     * 
+     * @param group
+     * @param topic
+     *            为空时查询订阅组消费的所有topic
+     * @return
+     */
+    public ConsumeStats buildConsumeStats(final String group, final String topic) {
+        ConsumeStats consumeStats = new ConsumeStats();
+
+        Set<String> topics = new HashSet<String>();
+        if (UtilAll.isBlank(topic)) {
+            topics = this.brokerController.getConsumerOffsetManager().whichTopicByConsumer(group);
+        }
+        else {
+            topics.add(topic);
+        }
+
+        for (String t : topics) {
+            TopicConfig topicConfig = this.brokerController.getTopicConfigManager().selectTopicConfig(t);
+            if (null == topicConfig) {
+                log.warn("consumeStats, topic config not exist, {}", t);
+                continue;
+            }
+
+            if (!this.isConsumeStatsVisible(group, t)) {
+                log.warn("consumeStats, the consumer group[{}], topic[{}] not exist", group, t);
+                continue;
+            }
+
+            this.fillConsumeStats(consumeStats, group, topicConfig);
+        }
+
+        return consumeStats;
+    }
+
+
+    /**
+     * 一次构建Broker上所有订阅组的消费统计，以及每个队列最新一条消息的存储时间
+     */
+    public ConsumeStatsBatch buildConsumeStatsBatch() {
+        ConsumeStatsBatch batch = new ConsumeStatsBatch();
+        final String brokerName = this.brokerController.getBrokerConfig().getBrokerName();
+
+        for (TopicConfig topicConfig : this.brokerController.getTopicConfigManager().getTopicConfigTable()
+            .values()) {
+            final String topic = topicConfig.getTopicName();
+            Set<String> groups = this.brokerController.getConsumerOffsetManager().whichGroupByTopic(topic);
+            if (groups.isEmpty()) {
+                continue;
+            }
+
+            for (String group : groups) {
+                if (!this.isConsumeStatsVisible(group, topic)) {
+                    continue;
+                }
+
+                ConsumeStats consumeStats = batch.getConsumeStatsTable().get(group);
+                if (null == consumeStats) {
+                    consumeStats = new ConsumeStats();
+                    batch.getConsumeStatsTable().put(group, consumeStats);
+                }
+                this.fillConsumeStats(consumeStats, group, topicConfig);
+            }
+
+            for (int i = 0; i < topicConfig.getWriteQueueNums(); i++) {
+                long brokerOffset = this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, i);
+                long lastStoreTimestamp =
+                        this.lookupStoreTimestamp(this.lastStoreTimestampTable, topic + KEY_SEPARATOR + i,
+                            topic, i, brokerOffset - 1);
+                if (lastStoreTimestamp > 0) {
+                    batch.getLastStoreTimestampTable().put(new MessageQueue(topic, brokerName, i),
+                        lastStoreTimestamp);
+                }
+            }
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * 如果Consumer在线，而且这个topic没有被订阅，那么就跳过
+     */
+    private boolean isConsumeStatsVisible(final String group, final String topic) {
+        SubscriptionData findSubscriptionData =
+                this.brokerController.getConsumerManager().findSubscriptionData(group, topic);
+        return null != findSubscriptionData
+                || this.brokerController.getConsumerManager().findSubscriptionDataCount(group) <= 0;
+    }
+
+
+    private void fillConsumeStats(final ConsumeStats consumeStats, final String group,
+            final TopicConfig topicConfig) {
+        final String topic = topicConfig.getTopicName();
+        for (int i = 0; i < topicConfig.getWriteQueueNums(); i++) {
+            MessageQueue mq = new MessageQueue();
+            mq.setTopic(topic);
+            mq.setBrokerName(this.brokerController.getBrokerConfig().getBrokerName());
+            mq.setQueueId(i);
+
+            consumeStats.getOffsetTable().put(mq, this.buildOffsetWrapper(group, topic, i));
+        }
+
+        long consumeTps = (long) this.brokerController.getBrokerStatsManager().tpsGroupGetNums(group, topic);
+        consumeTps += consumeStats.getConsumeTps();
+        consumeStats.setConsumeTps(consumeTps);
+    }
+
+
+    private OffsetWrapper buildOffsetWrapper(final String group, final String topic, final int queueId) {
+        OffsetWrapper offsetWrapper = new OffsetWrapper();
+
+        long brokerOffset = this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, queueId);
+        if (brokerOffset < 0)
+            brokerOffset = 0;
+
+        long consumerOffset =
+                this.brokerController.getConsumerOffsetManager().queryOffset(group, topic, queueId);
+        if (consumerOffset < 0)
+            consumerOffset = 0;
+
+        offsetWrapper.setBrokerOffset(brokerOffset);
+        offsetWrapper.setConsumerOffset(consumerOffset);
+
+        // 查询消费者最后一条消息对应的时间戳
+        long lastTimestamp = this.lookupStoreTimestamp(this.consumedTimestampTable, //
+            topic + KEY_SEPARATOR + group + KEY_SEPARATOR + queueId, //
+            topic, queueId, consumerOffset - 1);
+        if (lastTimestamp > 0) {
+            offsetWrapper.setLastTimestamp(lastTimestamp);
+        }
+
+        return offsetWrapper;
+    }
+
+
+    private long lookupStoreTimestamp(final ConcurrentHashMap<String, OffsetTimestamp> table,
+            final String key, final String topic, final int queueId, final long offset) {
+        if (offset < 0) {
+            return -1;
+        }
+
+        OffsetTimestamp cached = table.get(key);
+        if (cached != null && cached.offset == offset) {
+            return cached.timestamp;
+        }
+
+        long timestamp =
+                this.brokerController.getMessageStore().getMessageStoreTimeStamp(topic, queueId, offset);
+        // 消息已被删除等情况不缓存，下次重新查询
+        if (timestamp > 0) {
+            table.put(key, new OffsetTimestamp(offset, timestamp));
+        }
+        return timestamp;
+    }
+
+
+    /**
+     * 清理已删除的topic与订阅组的缓存
+     */
+    public void scanExpiredCache() {
+        int removed = 0;
+        Iterator<Entry<String, OffsetTimestamp>> it = this.consumedTimestampTable.entrySet().iterator();
+        while (it.hasNext()) {
+            String[] items = it.next().getKey().split(KEY_SEPARATOR);
+            if (items.length != 3
+                    || this.brokerController.getConsumerOffsetManager().queryOffset(items[1], items[0],
+                        Integer.parseInt(items[2])) < 0) {
+                it.remove();
+                removed++;
+            }
+        }
+
+        it = this.lastStoreTimestampTable.entrySet().iterator();
+        while (it.hasNext()) {
+            String[] items = it.next().getKey().split(KEY_SEPARATOR);
+            if (items.length != 2
+                    || null == this.brokerController.getTopicConfigManager().selectTopicConfig(items[0])) {
+                it.remove();
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            log.info("scan expired consume lag cache, remove {}", removed);
+        }
+    }
+}
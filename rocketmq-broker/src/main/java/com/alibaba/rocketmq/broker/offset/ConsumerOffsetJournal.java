@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+
+
+/**
+ * 消费进度的追加写日志，每次持久化只追加有变化的topic@group，定期由全量快照截断<br>
+ * 记录格式：totalSize | topicLen | topic | groupLen | group | count | (queueId, offset) * count
+ */
+public class ConsumerOffsetJournal {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private final String fileName;
+    private DataOutputStream out;
+    private long fileSize = 0;
+    // 复用的队列快照缓冲区
+    private int[] queueIdBuffer = new int[64];
+    private long[] offsetBuffer = new long[64];
+
+
+    public ConsumerOffsetJournal(final String fileName) {
+        this.fileName = fileName;
+    }
+
+
+    /**
+     * 回放日志到offset表，遇到不完整的记录（写入过程中宕机）即停止
+     *
+     * @return 回放的记录数
+     */
+    public int replay(
+            final ConcurrentHashMap<String/* topic */, ConcurrentHashMap<String, QueueOffsetTable>> table) {
+        File file = new File(this.fileName);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int records = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            while (true) {
+                int totalSize = in.readInt();
+                if (totalSize <= 0 || totalSize > file.length()) {
+                    log.warn("consumer offset journal has illegal record size {}, stop replay", totalSize);
+                    break;
+                }
+                byte[] body = new byte[totalSize];
+                in.readFully(body);
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                String topic = readString(record);
+                String group = readString(record);
+                int count = record.readInt();
+                QueueOffsetTable offsetTable = ConsumerOffsetManager.findOrCreate(table, topic, group);
+                for (int i = 0; i < count; i++) {
+                    int queueId = record.readInt();
+                    long offset = record.readLong();
+                    offsetTable.set(queueId, offset);
+                }
+                records++;
+            }
+        }
+        catch (EOFException e) {
+            // 正常结束或最后一条记录不完整
+        }
+        catch (IOException e) {
+            log.error("replay consumer offset journal exception, " + this.fileName, e);
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+        log.info("replay consumer offset journal {} OK, records {}", this.fileName, records);
+        return records;
+    }
+
+
+    /**
+     * 追加所有有变化的offset表
+     *
+     * @return 追加的记录数
+     */
+    public int append(
+            final ConcurrentHashMap<String/* topic */, ConcurrentHashMap<String, QueueOffsetTable>> table)
+            throws IOException {
+        if (null == this.out) {
+            this.open(true);
+        }
+
+        int records = 0;
+        for (Entry<String, ConcurrentHashMap<String, QueueOffsetTable>> topicEntry : table.entrySet()) {
+            byte[] topic = null;
+            for (Entry<String, QueueOffsetTable> groupEntry : topicEntry.getValue().entrySet()) {
+                QueueOffsetTable offsetTable = groupEntry.getValue();
+                if (!offsetTable.isDirty()) {
+                    continue;
+                }
+                // 先清标记再取快照，快照之后的更新会在下一轮写入
+                offsetTable.setDirty(false);
+                if (offsetTable.capacity() > this.queueIdBuffer.length) {
+                    this.queueIdBuffer = new int[offsetTable.capacity()];
+                    this.offsetBuffer = new long[offsetTable.capacity()];
+                }
+                int count = offsetTable.snapshot(this.queueIdBuffer, this.offsetBuffer);
+
+                if (null == topic) {
+                    topic = topicEntry.getKey().getBytes(CHARSET);
+                }
+                byte[] group = groupEntry.getKey().getBytes(CHARSET);
+                int totalSize = 2 + topic.length + 2 + group.length + 4 + count * (4 + 8);
+
+                this.out.writeInt(totalSize);
+                this.out.writeShort(topic.length);
+                this.out.write(topic);
+                this.out.writeShort(group.length);
+                this.out.write(group);
+                this.out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    this.out.writeInt(this.queueIdBuffer[i]);
+                    this.out.writeLong(this.offsetBuffer[i]);
+                }
+                this.fileSize += 4 + totalSize;
+                records++;
+            }
+        }
+
+        this.out.flush();
+        return records;
+    }
+
+
+    /**
+     * 全量快照落盘后清空日志
+     */
+    public void truncate() throws IOException {
+        this.close();
+        this.open(false);
+    }
+
+
+    public void close() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            }
+            catch (IOException e) {
+                log.error("close consumer offset journal exception", e);
+            }
+            this.out = null;
+        }
+    }
+
+
+    public void delete() {
+        this.close();
+        File file = new File(this.fileName);
+        if (file.exists() && !file.delete()) {
+            log.warn("delete consumer offset journal {} failed", this.fileName);
+        }
+        this.fileSize = 0;
+    }
+
+
+    private void open(final boolean append) throws IOException {
+        File file = new File(this.fileName);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        this.out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 64 * 1024));
+        this.fileSize = append ? file.length() : 0;
+    }
+
+
+    private static String readString(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.alibaba.rocketmq.broker.offset;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -25,13 +26,17 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.broker.BrokerPathConfigHelper;
 import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerOffsetDeltaWrapper;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 
 
 /**
- * Consumer消费进度管理
+ * Consumer消费进度管理<br>
+ * 内存中按topic、group两级索引，每个topic@group的进度存放在long数组中；
+ * 开启consumerOffsetJournalEnable后，持久化只追加有变化的进度，定期写全量json快照
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-8-11
@@ -39,11 +44,20 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 public class ConsumerOffsetManager extends ConfigManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private static final String TOPIC_GROUP_SEPARATOR = "@";
-    // Consumer消费进度核心数据结构
-    private ConcurrentHashMap<String/* topic@group */, ConcurrentHashMap<Integer, Long>> offsetTable =
-            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
+    private static final String JOURNAL_SUFFIX = ".journal";
+    // Consumer消费进度核心数据结构，topic -> group -> 各队列进度
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>> offsetTableByTopic =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>>(512);
 
     private transient BrokerController brokerController;
+    private transient ConsumerOffsetJournal journal;
+    // 加载时回放过日志，关闭日志模式后需要在写完全量快照后删除
+    private transient boolean journalReplayed = false;
+    // 有删除操作时日志无法表达，下次持久化必须写全量快照
+    private transient volatile boolean snapshotRequired = false;
+    private transient long lastSnapshotTimestamp = 0;
+    // 标识本进程的进度变更序号，重启后序号重新开始，Slave需要全量同步
+    private transient final long sequenceEpoch = System.currentTimeMillis();
 
 
     public ConsumerOffsetManager() {
@@ -55,23 +69,56 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
 
+    static QueueOffsetTable findOrCreate(
+            final ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>> table,
+            final String topic, final String group) {
+        ConcurrentHashMap<String, QueueOffsetTable> groupTable = table.get(topic);
+        if (null == groupTable) {
+            groupTable = new ConcurrentHashMap<String, QueueOffsetTable>(16);
+            ConcurrentHashMap<String, QueueOffsetTable> prev = table.putIfAbsent(topic, groupTable);
+            if (prev != null) {
+                groupTable = prev;
+            }
+        }
+
+        QueueOffsetTable offsetTable = groupTable.get(group);
+        if (null == offsetTable) {
+            offsetTable = new QueueOffsetTable();
+            QueueOffsetTable prev = groupTable.putIfAbsent(group, offsetTable);
+            if (prev != null) {
+                offsetTable = prev;
+            }
+        }
+        return offsetTable;
+    }
+
+
+    private QueueOffsetTable findTable(final String group, final String topic) {
+        ConcurrentHashMap<String, QueueOffsetTable> groupTable = this.offsetTableByTopic.get(topic);
+        if (groupTable != null) {
+            return groupTable.get(group);
+        }
+        return null;
+    }
+
+
     /**
      * 扫描数据被删除了的topic，offset记录也对应删除
      */
     public void scanUnsubscribedTopic() {
-        Iterator<Entry<String, ConcurrentHashMap<Integer, Long>>> it = this.offsetTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConcurrentHashMap<Integer, Long>> next = it.next();
-            String topicAtGroup = next.getKey();
-            String[] arrays = topicAtGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (arrays != null && arrays.length == 2) {
-                String topic = arrays[0];
-                String group = arrays[1];
+        for (Entry<String, ConcurrentHashMap<String, QueueOffsetTable>> topicEntry : this.offsetTableByTopic
+            .entrySet()) {
+            String topic = topicEntry.getKey();
+            Iterator<Entry<String, QueueOffsetTable>> it = topicEntry.getValue().entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<String, QueueOffsetTable> next = it.next();
+                String group = next.getKey();
                 // 当前订阅关系里面没有group-topic订阅关系（消费端当前是停机的状态）并且offset落后很多,则删除消费进度
                 if (null == brokerController.getConsumerManager().findSubscriptionData(group, topic)
                         && this.offsetBehindMuchThanData(topic, next.getValue())) {
                     it.remove();
-                    log.warn("remove topic offset, {}", topicAtGroup);
+                    this.snapshotRequired = true;
+                    log.warn("remove topic offset, {}", topic + TOPIC_GROUP_SEPARATOR + group);
                 }
             }
         }
@@ -85,15 +132,16 @@ public class ConsumerOffsetManager extends ConfigManager {
      * @param table
      * @return
      */
-    private boolean offsetBehindMuchThanData(final String topic, ConcurrentHashMap<Integer, Long> table) {
-        Iterator<Entry<Integer, Long>> it = table.entrySet().iterator();
+    private boolean offsetBehindMuchThanData(final String topic, QueueOffsetTable table) {
         boolean result = !table.isEmpty();
 
-        while (it.hasNext() && result) {
-            Entry<Integer, Long> next = it.next();
+        for (int queueId = 0; queueId < table.capacity() && result; queueId++) {
+            long offsetInPersist = table.get(queueId);
+            if (offsetInPersist == QueueOffsetTable.NoOffset) {
+                continue;
+            }
             long minOffsetInStore =
-                    this.brokerController.getMessageStore().getMinOffsetInQuque(topic, next.getKey());
-            long offsetInPersist = next.getValue();
+                    this.brokerController.getMessageStore().getMinOffsetInQuque(topic, queueId);
             if (offsetInPersist > minOffsetInStore) {
                 result = false;
             }
@@ -112,15 +160,10 @@ public class ConsumerOffsetManager extends ConfigManager {
     public Set<String> whichTopicByConsumer(final String group) {
         Set<String> topics = new HashSet<String>();
 
-        Iterator<Entry<String, ConcurrentHashMap<Integer, Long>>> it = this.offsetTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConcurrentHashMap<Integer, Long>> next = it.next();
-            String topicAtGroup = next.getKey();
-            String[] arrays = topicAtGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (arrays != null && arrays.length == 2) {
-                if (group.equals(arrays[1])) {
-                    topics.add(arrays[0]);
-                }
+        for (Entry<String, ConcurrentHashMap<String, QueueOffsetTable>> next : this.offsetTableByTopic
+            .entrySet()) {
+            if (next.getValue().containsKey(group)) {
+                topics.add(next.getKey());
             }
         }
 
@@ -136,16 +179,9 @@ public class ConsumerOffsetManager extends ConfigManager {
     public Set<String> whichGroupByTopic(final String topic) {
         Set<String> groups = new HashSet<String>();
 
-        Iterator<Entry<String, ConcurrentHashMap<Integer, Long>>> it = this.offsetTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, ConcurrentHashMap<Integer, Long>> next = it.next();
-            String topicAtGroup = next.getKey();
-            String[] arrays = topicAtGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (arrays != null && arrays.length == 2) {
-                if (topic.equals(arrays[0])) {
-                    groups.add(arrays[1]);
-                }
-            }
+        ConcurrentHashMap<String, QueueOffsetTable> groupTable = this.offsetTableByTopic.get(topic);
+        if (groupTable != null) {
+            groups.addAll(groupTable.keySet());
         }
 
         return groups;
@@ -161,9 +197,21 @@ public class ConsumerOffsetManager extends ConfigManager {
      * @param offset
      */
     public void commitOffset(final String group, final String topic, final int queueId, final long offset) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        this.commitOffset(key, queueId, offset);
+        findOrCreate(this.offsetTableByTopic, topic, group).set(queueId, offset);
+    }
+
+
+    /**
+     * 批量提交同一个group下多个队列的消费偏移
+     * 
+     * @param group
+     * @param offsets
+     *            topic -> (queueId -> offset)
+     */
+    public void commitOffset(final String group, final Map<String, ? extends Map<Integer, Long>> offsets) {
+        for (Entry<String, ? extends Map<Integer, Long>> entry : offsets.entrySet()) {
+            findOrCreate(this.offsetTableByTopic, entry.getKey(), group).putAll(entry.getValue());
+        }
     }
 
 
@@ -176,13 +224,9 @@ public class ConsumerOffsetManager extends ConfigManager {
      * @return
      */
     public long queryOffset(final String group, final String topic, final int queueId) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null != map) {
-            Long offset = map.get(queueId);
-            if (offset != null)
-                return offset;
+        QueueOffsetTable table = this.findTable(group, topic);
+        if (null != table) {
+            return table.get(queueId);
         }
 
         return -1;
@@ -190,23 +234,32 @@ public class ConsumerOffsetManager extends ConfigManager {
 
 
     /**
-     * 提交消费偏移
+     * 计算每个topic@group各队列消费落后的消息数之和
      * 
-     * @param queueId
-     *            队列ID
-     * @param offset
-     *            偏移量
+     * @return
      */
-    private void commitOffset(final String key, final int queueId, final long offset) {
-        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null == map) {
-            map = new ConcurrentHashMap<Integer, Long>(32);
-            map.put(queueId, offset);
-            this.offsetTable.put(key, map);
-        }
-        else {
-            map.put(queueId, offset);
+    public Map<String/* topic@group */, Long> computeConsumerLagTable() {
+        Map<String, Long> lagTable = new HashMap<String, Long>();
+        for (Entry<String, ConcurrentHashMap<String, QueueOffsetTable>> topicEntry : this.offsetTableByTopic
+            .entrySet()) {
+            String topic = topicEntry.getKey();
+            for (Entry<String, QueueOffsetTable> groupEntry : topicEntry.getValue().entrySet()) {
+                QueueOffsetTable table = groupEntry.getValue();
+                long lag = 0;
+                for (int queueId = 0; queueId < table.capacity(); queueId++) {
+                    long offset = table.get(queueId);
+                    if (offset == QueueOffsetTable.NoOffset) {
+                        continue;
+                    }
+                    long maxOffset =
+                            this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, queueId);
+                    lag += Math.max(0, maxOffset - offset);
+                }
+                lagTable.put(topic + TOPIC_GROUP_SEPARATOR + groupEntry.getKey(), lag);
+            }
         }
+
+        return lagTable;
     }
 
 
@@ -237,12 +290,92 @@ public class ConsumerOffsetManager extends ConfigManager {
             ConsumerOffsetManager obj =
                     RemotingSerializable.fromJson(jsonString, ConsumerOffsetManager.class);
             if (obj != null) {
-                this.offsetTable = obj.offsetTable;
+                this.offsetTableByTopic = obj.offsetTableByTopic;
             }
         }
     }
 
 
+    /**
+     * 加载json快照后回放offset日志
+     */
+    @Override
+    public boolean load() {
+        boolean result = super.load();
+        if (result) {
+            this.journalReplayed = this.journal().replay(this.offsetTableByTopic) > 0;
+        }
+        return result;
+    }
+
+
+    /**
+     * 未开启日志时与原来一样全量写json；开启后只追加有变化的进度，
+     * 到达快照间隔、日志过大或者有删除操作时写全量快照并截断日志
+     */
+    @Override
+    public synchronized void persist() {
+        if (!this.brokerController.getBrokerConfig().isConsumerOffsetJournalEnable()) {
+            super.persist();
+            if (this.journalReplayed) {
+                this.journal().delete();
+                this.journalReplayed = false;
+            }
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final boolean needSnapshot = this.snapshotRequired //
+                || (now - this.lastSnapshotTimestamp) >= this.brokerController.getBrokerConfig()
+                    .getConsumerOffsetSnapshotInterval() //
+                || this.journal().getFileSize() >= this.brokerController.getBrokerConfig()
+                    .getConsumerOffsetJournalMaxBytes();
+        if (needSnapshot) {
+            this.persistSnapshot(now);
+            return;
+        }
+
+        try {
+            this.journal().append(this.offsetTableByTopic);
+        }
+        catch (IOException e) {
+            log.error("append consumer offset journal exception, try snapshot next time", e);
+            this.snapshotRequired = true;
+        }
+    }
+
+
+    private void persistSnapshot(final long now) {
+        // 快照之后的更新会重新标记为dirty，写入后续的日志
+        for (ConcurrentHashMap<String, QueueOffsetTable> groupTable : this.offsetTableByTopic.values()) {
+            for (QueueOffsetTable table : groupTable.values()) {
+                table.setDirty(false);
+            }
+        }
+        this.snapshotRequired = false;
+
+        String fileName = this.configFilePath();
+        try {
+            MixAll.string2File(this.encode(true), fileName);
+            // 快照写成功后才能截断日志，截断前宕机最多回放出稍旧的进度，导致少量重复消费
+            this.journal().truncate();
+            this.lastSnapshotTimestamp = now;
+        }
+        catch (IOException e) {
+            log.error("persist consumer offset snapshot exception, " + fileName, e);
+            this.snapshotRequired = true;
+        }
+    }
+
+
+    private ConsumerOffsetJournal journal() {
+        if (null == this.journal) {
+            this.journal = new ConsumerOffsetJournal(this.configFilePath() + JOURNAL_SUFFIX);
+        }
+        return this.journal;
+    }
+
+
     /**
      * 获取持久化ConsumerOffsetManager对象的磁盘路径
      * 
@@ -255,44 +388,113 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
 
+    /**
+     * 序列化用，返回topic@group格式的进度快照，修改返回值不影响内存中的进度
+     */
     public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> getOffsetTable() {
-        return offsetTable;
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table =
+                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
+        for (Entry<String, ConcurrentHashMap<String, QueueOffsetTable>> topicEntry : this.offsetTableByTopic
+            .entrySet()) {
+            for (Entry<String, QueueOffsetTable> groupEntry : topicEntry.getValue().entrySet()) {
+                table.put(topicEntry.getKey() + TOPIC_GROUP_SEPARATOR + groupEntry.getKey(),
+                    new ConcurrentHashMap<Integer, Long>(groupEntry.getValue().toMap()));
+            }
+        }
+        return table;
     }
 
 
+    /**
+     * 反序列化用，替换全部进度
+     */
     public void setOffsetTable(ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
-        this.offsetTable = offsetTable;
+        ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>> table =
+                new ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>>(512);
+        putAll(table, offsetTable);
+        this.offsetTableByTopic = table;
+    }
+
+
+    /**
+     * 构建Slave同步用的增量，只包含变更序号之后有更新的topic@group；epoch不是本进程时返回全量
+     */
+    public ConsumerOffsetDeltaWrapper buildConsumerOffsetDelta(final long epoch, final long baseSequence) {
+        ConsumerOffsetDeltaWrapper wrapper = new ConsumerOffsetDeltaWrapper();
+        final boolean fullSync = epoch != this.sequenceEpoch;
+        // 必须先取序号再遍历，保证序号不大于它的更新都已包含在本次增量中
+        final long sequence = QueueOffsetTable.currentChangeSequence();
+        for (Entry<String, ConcurrentHashMap<String, QueueOffsetTable>> topicEntry : this.offsetTableByTopic
+            .entrySet()) {
+            for (Entry<String, QueueOffsetTable> groupEntry : topicEntry.getValue().entrySet()) {
+                Map<Integer, Long> offsets =
+                        groupEntry.getValue().toMapIfChangedAfter(fullSync ? -1 : baseSequence);
+                if (offsets != null) {
+                    String key = topicEntry.getKey() + TOPIC_GROUP_SEPARATOR + groupEntry.getKey();
+                    wrapper.getOffsetTable().put(key, new ConcurrentHashMap<Integer, Long>(offsets));
+                }
+            }
+        }
+
+        wrapper.setEpoch(this.sequenceEpoch);
+        wrapper.setSequence(sequence);
+        wrapper.setFullSync(fullSync);
+        return wrapper;
+    }
+
+
+    /**
+     * 合并topic@group格式的进度，例如Slave从Master同步的进度
+     */
+    public void putAllOffsets(final Map<String/* topic@group */, ? extends Map<Integer, Long>> offsetTable) {
+        putAll(this.offsetTableByTopic, offsetTable);
+    }
+
+
+    private static void putAll(
+            final ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>> table,
+            final Map<String, ? extends Map<Integer, Long>> offsetTable) {
+        if (null == offsetTable) {
+            return;
+        }
+
+        for (Entry<String, ? extends Map<Integer, Long>> entry : offsetTable.entrySet()) {
+            String[] arrays = entry.getKey().split(TOPIC_GROUP_SEPARATOR);
+            if (arrays != null && arrays.length == 2 && entry.getValue() != null) {
+                findOrCreate(table, arrays[0], arrays[1]).putAll(entry.getValue());
+            }
+        }
     }
 
 
     public Map<Integer, Long> queryMinOffsetInAllGroup(final String topic, final String filterGroups) {
 
         Map<Integer, Long> queueMinOffset = new HashMap<Integer, Long>();
-        Set<String> topicGroups = this.offsetTable.keySet();
+        ConcurrentHashMap<String, QueueOffsetTable> groupTable = this.offsetTableByTopic.get(topic);
+        if (null == groupTable) {
+            return queueMinOffset;
+        }
+
+        Set<String> filterGroupSet = new HashSet<String>();
         if (!UtilAll.isBlank(filterGroups)) {
-            for (String group : filterGroups.split(",")) {
-                Iterator<String> it = topicGroups.iterator();
-                while (it.hasNext()) {
-                    if (group.equals(it.next().split(TOPIC_GROUP_SEPARATOR)[1])) {
-                        it.remove();
-                    }
-                }
-            }
+            filterGroupSet.addAll(Arrays.asList(filterGroups.split(",")));
         }
-        for (String topicGroup : topicGroups) {
-            String[] topicGroupArr = topicGroup.split(TOPIC_GROUP_SEPARATOR);
-            if (topic.equals(topicGroupArr[0])) {
-                for (Entry<Integer, Long> entry : this.offsetTable.get(topicGroup).entrySet()) {
-                    long minOffset = this.brokerController.getMessageStore().getMinOffsetInQuque(topic,
-                        entry.getKey());
-                    if (entry.getValue() >= minOffset) {
-                        Long offset = queueMinOffset.get(entry.getKey());
-                        if (offset == null) {
-                            queueMinOffset.put(entry.getKey(), Math.min(Long.MAX_VALUE, entry.getValue()));
-                        }
-                        else {
-                            queueMinOffset.put(entry.getKey(), Math.min(entry.getValue(), offset));
-                        }
+
+        for (Entry<String, QueueOffsetTable> groupEntry : groupTable.entrySet()) {
+            if (filterGroupSet.contains(groupEntry.getKey())) {
+                continue;
+            }
+
+            for (Entry<Integer, Long> entry : groupEntry.getValue().toMap().entrySet()) {
+                long minOffset = this.brokerController.getMessageStore().getMinOffsetInQuque(topic,
+                    entry.getKey());
+                if (entry.getValue() >= minOffset) {
+                    Long offset = queueMinOffset.get(entry.getKey());
+                    if (offset == null) {
+                        queueMinOffset.put(entry.getKey(), Math.min(Long.MAX_VALUE, entry.getValue()));
+                    }
+                    else {
+                        queueMinOffset.put(entry.getKey(), Math.min(entry.getValue(), offset));
                     }
                 }
             }
@@ -302,17 +504,23 @@ public class ConsumerOffsetManager extends ConfigManager {
 
 
     public Map<Integer, Long> queryOffset(final String group, final String topic) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        return this.offsetTable.get(key);
+        QueueOffsetTable table = this.findTable(group, topic);
+        if (table != null) {
+            return table.toMap();
+        }
+        return null;
     }
 
 
     public void cloneOffset(final String srcGroup, final String destGroup, final String topic) {
-        ConcurrentHashMap<Integer, Long> offsets =
-                this.offsetTable.get(topic + TOPIC_GROUP_SEPARATOR + srcGroup);
+        QueueOffsetTable offsets = this.findTable(srcGroup, topic);
         if (offsets != null) {
-            this.offsetTable.put(topic + TOPIC_GROUP_SEPARATOR + destGroup, offsets);
+            ConcurrentHashMap<String, QueueOffsetTable> groupTable = this.offsetTableByTopic.get(topic);
+            if (groupTable != null) {
+                QueueOffsetTable copy = offsets.copy();
+                groupTable.put(destGroup, copy);
+                copy.markChanged();
+            }
         }
     }
 }
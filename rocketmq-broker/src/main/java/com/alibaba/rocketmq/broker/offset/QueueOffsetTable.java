@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 一个topic@group下各队列的消费进度，按queueId下标存放在long数组中，避免装箱与key拼接<br>
+ * 写操作按表加锁，读操作无锁
+ */
+public class QueueOffsetTable {
+    // 未提交过进度的队列
+    public static final long NoOffset = -1;
+    // 进程内全局递增的变更序号，Slave据此增量同步
+    private static final AtomicLong ChangeSequence = new AtomicLong(0);
+    private volatile long[] offsets;
+    // 自上次写入offset日志以来是否有更新
+    private volatile boolean dirty = false;
+    // 最后一次更新时的变更序号，只在锁内修改
+    private long changeSequence = 0;
+
+
+    public QueueOffsetTable() {
+        this(8);
+    }
+
+
+    public QueueOffsetTable(final int initQueueNums) {
+        this.offsets = newArray(Math.max(initQueueNums, 1));
+    }
+
+
+    private static long[] newArray(final int size) {
+        long[] array = new long[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = NoOffset;
+        }
+        return array;
+    }
+
+
+    public long get(final int queueId) {
+        final long[] array = this.offsets;
+        if (queueId >= 0 && queueId < array.length) {
+            return array[queueId];
+        }
+        return NoOffset;
+    }
+
+
+    public synchronized void set(final int queueId, final long offset) {
+        if (queueId < 0) {
+            return;
+        }
+
+        long[] array = this.offsets;
+        if (queueId >= array.length) {
+            long[] newArray = newArray(Math.max(queueId + 1, array.length * 2));
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            array = newArray;
+        }
+        array[queueId] = offset;
+        // 重新发布数组引用，保证无锁读线程可见
+        this.offsets = array;
+        this.dirty = true;
+        this.changeSequence = ChangeSequence.incrementAndGet();
+    }
+
+
+    public synchronized void putAll(final Map<Integer, Long> table) {
+        for (Map.Entry<Integer, Long> entry : table.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                this.set(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+
+    public boolean isEmpty() {
+        for (long offset : this.offsets) {
+            if (offset != NoOffset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * 取出已提交进度的队列，返回queueId数组与offset数组，下标一一对应
+     */
+    public int snapshot(final int[] queueIds, final long[] offsetValues) {
+        final long[] array = this.offsets;
+        int count = 0;
+        for (int i = 0; i < array.length && count < queueIds.length; i++) {
+            if (array[i] != NoOffset) {
+                queueIds[count] = i;
+                offsetValues[count] = array[i];
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public int capacity() {
+        return this.offsets.length;
+    }
+
+
+    public Map<Integer, Long> toMap() {
+        final long[] array = this.offsets;
+        Map<Integer, Long> map = new HashMap<Integer, Long>(array.length);
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != NoOffset) {
+                map.put(i, array[i]);
+            }
+        }
+        return map;
+    }
+
+
+    /**
+     * 复制出的表没有变更序号，放入进度表后需调用markChanged，否则增量构建可能在放入前取到更大的序号而遗漏它
+     */
+    public synchronized QueueOffsetTable copy() {
+        QueueOffsetTable table = new QueueOffsetTable(this.offsets.length);
+        System.arraycopy(this.offsets, 0, table.offsets, 0, this.offsets.length);
+        table.dirty = true;
+        return table;
+    }
+
+
+    public synchronized void markChanged() {
+        this.changeSequence = ChangeSequence.incrementAndGet();
+    }
+
+
+    public static long currentChangeSequence() {
+        return ChangeSequence.get();
+    }
+
+
+    /**
+     * 在锁内判断，先取currentChangeSequence再逐表调用本方法，不会遗漏序号不大于它的更新
+     *
+     * @return baseSequence之后没有更新返回null
+     */
+    public synchronized Map<Integer, Long> toMapIfChangedAfter(final long baseSequence) {
+        if (this.changeSequence <= baseSequence) {
+            return null;
+        }
+        return this.toMap();
+    }
+
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+}
@@ -15,20 +15,25 @@
  */
 package com.alibaba.rocketmq.broker.out;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.namesrv.TopAddressing;
 import com.alibaba.rocketmq.common.protocol.RequestCode;
 import com.alibaba.rocketmq.common.protocol.ResponseCode;
 import com.alibaba.rocketmq.common.protocol.body.*;
+import com.alibaba.rocketmq.common.protocol.header.GetConfigDeltaRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerResponseHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.UnRegisterBrokerRequestHeader;
@@ -53,6 +58,19 @@ public class BrokerOuterAPI {
     private final RemotingClient remotingClient;
     private final TopAddressing topAddressing = new TopAddressing(MixAll.WS_ADDR);
     private String nameSrvAddr = null;
+    // 支持增量注册的Name Server，以及上次成功注册的版本
+    private final ConcurrentHashMap<String/* namesrvAddr */, DataVersion> registeredDataVersionTable =
+            new ConcurrentHashMap<String, DataVersion>();
+
+    /**
+     * 按Name Server上已注册的版本构建增量Topic配置
+     */
+    public interface TopicConfigDeltaBuilder {
+        /**
+         * @return 无法构建增量时返回null
+         */
+        TopicConfigSerializeWrapper buildDelta(final DataVersion baseDataVersion);
+    }
 
 
     public BrokerOuterAPI(final NettyClientConfig nettyClientConfig, RPCHook rpcHook) {
@@ -156,8 +174,10 @@ public class BrokerOuterAPI {
             final long brokerId, // 4
             final String haServerAddr, // 5
             final TopicConfigSerializeWrapper topicConfigWrapper, // 6
-            final List<String> filterServerList, // 7
-            final boolean oneway// 8
+            final DataVersion baseDataVersion, // 7
+            final boolean compressed, // 8
+            final List<String> filterServerList, // 9
+            final boolean oneway// 10
     ) throws RemotingCommandException, MQBrokerException, RemotingConnectException,
             RemotingSendRequestException, RemotingTimeoutException, InterruptedException {
 
@@ -173,7 +193,18 @@ public class BrokerOuterAPI {
         RegisterBrokerBody requestBody = new RegisterBrokerBody();
         requestBody.setTopicConfigSerializeWrapper(topicConfigWrapper);
         requestBody.setFilterServerList(filterServerList);
-        request.setBody(requestBody.encode());
+        requestBody.setBaseDataVersion(baseDataVersion);
+        byte[] body = requestBody.encode();
+        if (compressed) {
+            try {
+                body = UtilAll.compress(body, 5);
+                requestHeader.setCompressed(true);
+            }
+            catch (IOException e) {
+                log.warn("compress register broker body exception", e);
+            }
+        }
+        request.setBody(body);
 
         if (oneway) {
             try {
@@ -195,6 +226,8 @@ public class BrokerOuterAPI {
             result.setMasterAddr(responseHeader.getMasterAddr());
             result.setHaServerAddr(responseHeader.getHaServerAddr());
             result.setHaServerAddr(responseHeader.getHaServerAddr());
+            result.setDeltaRegisterSupported(Boolean.TRUE.equals(responseHeader.getDeltaRegisterSupported()));
+            result.setFullSyncRequired(Boolean.TRUE.equals(responseHeader.getFullSyncRequired()));
             if (response.getBody() != null) {
                 result.setKvTable(KVTable.decode(response.getBody(), KVTable.class));
             }
@@ -217,6 +250,30 @@ public class BrokerOuterAPI {
             final TopicConfigSerializeWrapper topicConfigWrapper, // 6
             final List<String> filterServerList, // 7
             final boolean oneway// 8
+    ) {
+        return this.registerBrokerAll(clusterName, brokerAddr, brokerName, brokerId, haServerAddr,
+            topicConfigWrapper, null, false, filterServerList, oneway);
+    }
+
+
+    /**
+     * 向所有Name Server注册。对支持增量注册且已有注册版本的Name Server只发送变更的Topic，
+     * Name Server发现基准版本不一致时要求全量注册
+     *
+     * @param deltaBuilder
+     *            为null表示只做全量注册
+     */
+    public RegisterBrokerResult registerBrokerAll(//
+            final String clusterName, // 1
+            final String brokerAddr, // 2
+            final String brokerName, // 3
+            final long brokerId, // 4
+            final String haServerAddr, // 5
+            final TopicConfigSerializeWrapper topicConfigWrapper, // 6
+            final TopicConfigDeltaBuilder deltaBuilder, // 7
+            final boolean compressed, // 8
+            final List<String> filterServerList, // 9
+            final boolean oneway// 10
     ) {
         RegisterBrokerResult registerBrokerResult = null;
 
@@ -224,15 +281,49 @@ public class BrokerOuterAPI {
         if (nameServerAddressList != null) {
             for (String namesrvAddr : nameServerAddressList) {
                 try {
+                    TopicConfigSerializeWrapper wrapper = topicConfigWrapper;
+                    DataVersion baseDataVersion = null;
+                    DataVersion registered = this.registeredDataVersionTable.get(namesrvAddr);
+                    if (deltaBuilder != null && registered != null) {
+                        TopicConfigSerializeWrapper delta = deltaBuilder.buildDelta(registered);
+                        if (delta != null) {
+                            wrapper = delta;
+                            baseDataVersion = registered;
+                        }
+                    }
+
+                    // 只对确认过支持增量注册的Name Server压缩
+                    final boolean compressBody = compressed && registered != null;
                     RegisterBrokerResult result = this.registerBroker(namesrvAddr, clusterName, brokerAddr,
-                        brokerName, brokerId, haServerAddr, topicConfigWrapper, filterServerList, oneway);
+                        brokerName, brokerId, haServerAddr, wrapper, baseDataVersion, compressBody,
+                        filterServerList, oneway);
+
+                    if (result != null && result.isFullSyncRequired()) {
+                        log.info("name server {} require full register, base data version {}", namesrvAddr,
+                            baseDataVersion);
+                        wrapper = topicConfigWrapper;
+                        result = this.registerBroker(namesrvAddr, clusterName, brokerAddr, brokerName,
+                            brokerId, haServerAddr, wrapper, null, compressBody, filterServerList, oneway);
+                    }
+
                     if (result != null) {
                         registerBrokerResult = result;
+                        if (result.isDeltaRegisterSupported()) {
+                            this.registeredDataVersionTable.put(namesrvAddr, wrapper.getDataVersion());
+                        }
+                        else {
+                            this.registeredDataVersionTable.remove(namesrvAddr);
+                        }
+                    }
+                    // 单向注册没有应答，按已发送的版本作为下次的基准，不一致时Name Server会要求全量
+                    else if (registered != null) {
+                        this.registeredDataVersionTable.put(namesrvAddr, wrapper.getDataVersion());
                     }
 
                     log.info("register broker to name server {} OK", namesrvAddr);
                 }
                 catch (Exception e) {
+                    this.registeredDataVersionTable.remove(namesrvAddr);
                     log.warn("registerBroker Exception, " + namesrvAddr, e);
                 }
             }
@@ -387,6 +478,71 @@ public class BrokerOuterAPI {
     }
 
 
+    /**
+     * Slave增量同步，Master不支持时返回null
+     */
+    private byte[] getConfigDelta(final String addr, final int requestCode, final long baseTimestamp,
+            final long baseCounter) throws InterruptedException, RemotingTimeoutException,
+            RemotingSendRequestException, RemotingConnectException, MQBrokerException {
+        GetConfigDeltaRequestHeader requestHeader = new GetConfigDeltaRequestHeader();
+        requestHeader.setBaseTimestamp(baseTimestamp);
+        requestHeader.setBaseCounter(baseCounter);
+        RemotingCommand request = RemotingCommand.createRequestCommand(requestCode, requestHeader);
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, 3000);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS: {
+            return response.getBody();
+        }
+        case ResponseCode.REQUEST_CODE_NOT_SUPPORTED: {
+            return null;
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
+    /**
+     * 获取baseDataVersion之后变更的Topic配置，Master不支持增量同步时返回null
+     */
+    public TopicConfigDeltaWrapper getTopicConfigDelta(final String addr, final DataVersion baseDataVersion)
+            throws InterruptedException, RemotingTimeoutException, RemotingSendRequestException,
+            RemotingConnectException, MQBrokerException {
+        byte[] body = this.getConfigDelta(addr, RequestCode.GET_TOPIC_CONFIG_DELTA,
+            baseDataVersion.getTimestatmp(), baseDataVersion.getCounter().get());
+        return body != null ? TopicConfigDeltaWrapper.decode(body, TopicConfigDeltaWrapper.class) : null;
+    }
+
+
+    /**
+     * 获取baseDataVersion之后变更的订阅组配置，Master不支持增量同步时返回null
+     */
+    public SubscriptionGroupDeltaWrapper getSubscriptionGroupConfigDelta(final String addr,
+            final DataVersion baseDataVersion) throws InterruptedException, RemotingTimeoutException,
+            RemotingSendRequestException, RemotingConnectException, MQBrokerException {
+        byte[] body = this.getConfigDelta(addr, RequestCode.GET_SUBSCRIPTIONGROUP_CONFIG_DELTA,
+            baseDataVersion.getTimestatmp(), baseDataVersion.getCounter().get());
+        return body != null ? SubscriptionGroupDeltaWrapper.decode(body, SubscriptionGroupDeltaWrapper.class)
+                : null;
+    }
+
+
+    /**
+     * 获取变更序号之后有更新的消费进度，Master不支持增量同步时返回null
+     */
+    public ConsumerOffsetDeltaWrapper getConsumerOffsetDelta(final String addr, final long epoch,
+            final long baseSequence) throws InterruptedException, RemotingTimeoutException,
+            RemotingSendRequestException, RemotingConnectException, MQBrokerException {
+        byte[] body =
+                this.getConfigDelta(addr, RequestCode.GET_CONSUMER_OFFSET_DELTA, epoch, baseSequence);
+        return body != null ? ConsumerOffsetDeltaWrapper.decode(body, ConsumerOffsetDeltaWrapper.class)
+                : null;
+    }
+
+
     public void registerRPCHook(RPCHook rpcHook) {
         remotingClient.registerRPCHook(rpcHook);
     }
@@ -140,7 +140,7 @@ public abstract class AbstractSendMessageProcessor implements NettyRequestProces
         msgInner.setQueueId(queueIdInt);
         msgInner.setSysFlag(sysFlag);
         msgInner.setBornTimestamp(requestHeader.getBornTimestamp());
-        msgInner.setBornHost(ctx.channel().remoteAddress());
+        msgInner.setBornHost(RemotingHelper.parseChannelRemoteInetAddr(ctx.channel()));
         msgInner.setStoreHost(this.getStoreHost());
         msgInner.setReconsumeTimes(
             requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
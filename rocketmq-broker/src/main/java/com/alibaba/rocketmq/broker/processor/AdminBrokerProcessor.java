@@ -25,12 +25,13 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.broker.client.ClientChannelInfo;
 import com.alibaba.rocketmq.broker.client.ConsumerGroupInfo;
+import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.MQVersion;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.admin.ConsumeStats;
-import com.alibaba.rocketmq.common.admin.OffsetWrapper;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
 import com.alibaba.rocketmq.common.admin.TopicOffset;
 import com.alibaba.rocketmq.common.admin.TopicStatsTable;
 import com.alibaba.rocketmq.common.constant.LoggerName;
@@ -44,6 +45,7 @@ import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.common.protocol.header.filtersrv.RegisterFilterServerRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.filtersrv.RegisterFilterServerResponseHeader;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.common.stats.LatencySnapshot;
 import com.alibaba.rocketmq.common.stats.StatsItem;
 import com.alibaba.rocketmq.common.stats.StatsSnapshot;
 import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
@@ -51,6 +53,7 @@ import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.RequestWaitTimeStats.WaitTimeItem;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 import com.alibaba.rocketmq.store.DefaultMessageStore;
@@ -140,9 +143,19 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         // 查询消费进度，订阅组下的所有Topic
         case RequestCode.GET_CONSUME_STATS:
             return this.getConsumeStats(ctx, request);
+        case RequestCode.GET_ALL_CONSUME_STATS:
+            return this.getAllConsumeStats(ctx, request);
         case RequestCode.GET_ALL_CONSUMER_OFFSET:
             return this.getAllConsumerOffset(ctx, request);
 
+        // Slave增量同步
+        case RequestCode.GET_TOPIC_CONFIG_DELTA:
+            return this.getTopicConfigDelta(ctx, request);
+        case RequestCode.GET_SUBSCRIPTIONGROUP_CONFIG_DELTA:
+            return this.getSubscriptionGroupConfigDelta(ctx, request);
+        case RequestCode.GET_CONSUMER_OFFSET_DELTA:
+            return this.getConsumerOffsetDelta(ctx, request);
+
         // 定时进度
         case RequestCode.GET_ALL_DELAY_OFFSET:
             return this.getAllDelayOffset(ctx, request);
@@ -186,6 +199,8 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         // 查看Broker统计信息
         case RequestCode.VIEW_BROKER_STATS_DATA:
             return ViewBrokerStatsData(ctx, request);
+        case RequestCode.GET_BROKER_STATS_TIME_SERIES:
+            return this.getBrokerStatsTimeSeries(ctx, request);
         default:
             break;
         }
@@ -201,6 +216,33 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
         DefaultMessageStore messageStore = (DefaultMessageStore) this.brokerController.getMessageStore();
 
+        // 延迟分布只有最近一分钟的统计
+        if (messageStore.getBrokerStatsManager().isLatencyStats(requestHeader.getStatsName())) {
+            LatencySnapshot latency = messageStore.getBrokerStatsManager()
+                .getLatencyInMinute(requestHeader.getStatsName(), requestHeader.getStatsKey());
+            if (null == latency) {
+                response.setCode(ResponseCode.SYSTEM_ERROR);
+                response.setRemark(String.format("The stats <%s> <%s> not exist",
+                    requestHeader.getStatsName(), requestHeader.getStatsKey()));
+                return response;
+            }
+
+            BrokerStatsData brokerStatsData = new BrokerStatsData();
+            BrokerStatsItem it = new BrokerStatsItem();
+            it.setSum(latency.getCount());
+            it.setTps(latency.getCount() / 60.0);
+            it.setAvgpt(latency.getAvg());
+            brokerStatsData.setStatsMinute(it);
+            brokerStatsData.setStatsHour(new BrokerStatsItem());
+            brokerStatsData.setStatsDay(new BrokerStatsItem());
+            brokerStatsData.setLatencyMinute(latency);
+
+            response.setBody(brokerStatsData.encode());
+            response.setCode(ResponseCode.SUCCESS);
+            response.setRemark(null);
+            return response;
+        }
+
         StatsItem statsItem = messageStore.getBrokerStatsManager().getStatsItem(requestHeader.getStatsName(),
             requestHeader.getStatsKey());
         if (null == statsItem) {
@@ -248,6 +290,22 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
     }
 
 
+    private RemotingCommand getBrokerStatsTimeSeries(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final GetStatsTimeSeriesRequestHeader requestHeader = (GetStatsTimeSeriesRequestHeader) request
+            .decodeCommandCustomHeader(GetStatsTimeSeriesRequestHeader.class);
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+
+        StatsTimeSeriesBody body = new StatsTimeSeriesBody();
+        body.setSeriesList(this.brokerController.getBrokerStatsManager().exportTimeSeries(
+            requestHeader.getBeginTimestamp()));
+        response.setBody(body.encode());
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
     private RemotingCommand callConsumer(//
             final int requestCode, //
             final RemotingCommand request, //
@@ -378,84 +436,23 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         final GetConsumeStatsRequestHeader requestHeader = (GetConsumeStatsRequestHeader) request
             .decodeCommandCustomHeader(GetConsumeStatsRequestHeader.class);
 
-        ConsumeStats consumeStats = new ConsumeStats();
-
-        Set<String> topics = new HashSet<String>();
-        if (UtilAll.isBlank(requestHeader.getTopic())) {
-            topics = this.brokerController.getConsumerOffsetManager()
-                .whichTopicByConsumer(requestHeader.getConsumerGroup());
-        }
-        else {
-            topics.add(requestHeader.getTopic());
-        }
-
-        for (String topic : topics) {
-            TopicConfig topicConfig = this.brokerController.getTopicConfigManager().selectTopicConfig(topic);
-            if (null == topicConfig) {
-                log.warn("consumeStats, topic config not exist, {}", topic);
-                continue;
-            }
-
-            /**
-             * Consumer不在线的时候，也允许查询消费进度
-             */
-            {
-                SubscriptionData findSubscriptionData = this.brokerController.getConsumerManager()
-                    .findSubscriptionData(requestHeader.getConsumerGroup(), topic);
-                // 如果Consumer在线，而且这个topic没有被订阅，那么就跳过
-                if (null == findSubscriptionData //
-                        && this.brokerController.getConsumerManager()
-                            .findSubscriptionDataCount(requestHeader.getConsumerGroup()) > 0) {
-                    log.warn("consumeStats, the consumer group[{}], topic[{}] not exist",
-                        requestHeader.getConsumerGroup(), topic);
-                    continue;
-                }
-            }
-
-            for (int i = 0; i < topicConfig.getWriteQueueNums(); i++) {
-                MessageQueue mq = new MessageQueue();
-                mq.setTopic(topic);
-                mq.setBrokerName(this.brokerController.getBrokerConfig().getBrokerName());
-                mq.setQueueId(i);
-
-                OffsetWrapper offsetWrapper = new OffsetWrapper();
-
-                long brokerOffset = this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, i);
-                if (brokerOffset < 0)
-                    brokerOffset = 0;
-
-                long consumerOffset = this.brokerController.getConsumerOffsetManager().queryOffset(//
-                    requestHeader.getConsumerGroup(), //
-                    topic, //
-                    i);
-                if (consumerOffset < 0)
-                    consumerOffset = 0;
-
-                offsetWrapper.setBrokerOffset(brokerOffset);
-                offsetWrapper.setConsumerOffset(consumerOffset);
-
-                // 查询消费者最后一条消息对应的时间戳
-                long timeOffset = consumerOffset - 1;
-                if (timeOffset >= 0) {
-                    long lastTimestamp = this.brokerController.getMessageStore()
-                        .getMessageStoreTimeStamp(topic, i, timeOffset);
-                    if (lastTimestamp > 0) {
-                        offsetWrapper.setLastTimestamp(lastTimestamp);
-                    }
-                }
+        ConsumeStats consumeStats = this.brokerController.getConsumeLagManager().buildConsumeStats(
+            requestHeader.getConsumerGroup(), requestHeader.getTopic());
 
-                consumeStats.getOffsetTable().put(mq, offsetWrapper);
-            }
+        byte[] body = consumeStats.encode();
+        response.setBody(body);
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
 
-            long consumeTps = (long) this.brokerController.getBrokerStatsManager()
-                .tpsGroupGetNums(requestHeader.getConsumerGroup(), topic);
 
-            consumeTps += consumeStats.getConsumeTps();
-            consumeStats.setConsumeTps(consumeTps);
-        }
+    private RemotingCommand getAllConsumeStats(ChannelHandlerContext ctx, RemotingCommand request) {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
 
-        byte[] body = consumeStats.encode();
-        response.setBody(body);
+        ConsumeStatsBatch consumeStatsBatch =
+                this.brokerController.getConsumeLagManager().buildConsumeStatsBatch();
+        response.setBody(consumeStatsBatch.encode());
         response.setCode(ResponseCode.SUCCESS);
         response.setRemark(null);
         return response;
@@ -471,7 +468,7 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
 
         ProducerConnection bodydata = new ProducerConnection();
         HashMap<Channel, ClientChannelInfo> channelInfoHashMap = this.brokerController.getProducerManager()
-            .getGroupChannelTable().get(requestHeader.getProducerGroup());
+            .getGroupChannelTable(requestHeader.getProducerGroup());
         if (channelInfoHashMap != null) {
             Iterator<Map.Entry<Channel, ClientChannelInfo>> it = channelInfoHashMap.entrySet().iterator();
             while (it.hasNext()) {
@@ -933,6 +930,41 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         runtimeInfo.put("sendThreadPoolQueueCapacity",
             String.valueOf(this.brokerController.getBrokerConfig().getSendThreadPoolQueueCapacity()));
 
+        runtimeInfo.put("pullThreadPoolQueueSize",
+            String.valueOf(this.brokerController.getPullThreadPoolQueue().size()));
+
+        runtimeInfo.put("pullThreadPoolQueueCapacity",
+            String.valueOf(this.brokerController.getBrokerConfig().getPullThreadPoolQueueCapacity()));
+
+        // 各请求码的排队时间
+        for (Map.Entry<Integer, WaitTimeItem> entry : this.brokerController.getRemotingServer()
+            .getRequestWaitTimeStats().getWaitTimeTable().entrySet()) {
+            runtimeInfo.put("requestWaitTime_" + entry.getKey(), entry.getValue().toString());
+        }
+
+        // 客户端连接与心跳处理耗时
+        runtimeInfo.put("producerChannelCount",
+            String.valueOf(this.brokerController.getProducerManager().getChannelCount()));
+        runtimeInfo.put("consumerChannelCount",
+            String.valueOf(this.brokerController.getConsumerManager().getChannelCount()));
+        StatsSnapshot heartbeatCost =
+                this.brokerController.getBrokerStatsManager().getBrokerHeartbeatCostInMinute();
+        runtimeInfo.put("heartbeatTpsInMinute", String.format("%.2f", heartbeatCost.getTps()));
+        runtimeInfo.put("heartbeatCostAvgMicrosInMinute", String.format("%.2f", heartbeatCost.getAvgpt()));
+
+        // 收发消息的延迟分布，单位微秒
+        LatencySnapshot sendLatency =
+                this.brokerController.getBrokerStatsManager().getBrokerSendLatencyInMinute();
+        runtimeInfo.put("sendLatencyInMinute", sendLatency != null ? sendLatency.toString() : "");
+        LatencySnapshot pullLatency =
+                this.brokerController.getBrokerStatsManager().getBrokerPullLatencyInMinute();
+        runtimeInfo.put("pullLatencyInMinute", pullLatency != null ? pullLatency.toString() : "");
+
+        // 未结束事务的积压情况
+        if (this.brokerController.getTransactionCheckService() != null) {
+            this.brokerController.getTransactionCheckService().buildRuntimeInfo(runtimeInfo);
+        }
+
         return runtimeInfo;
     }
 
@@ -982,6 +1014,59 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
     }
 
 
+    private static DataVersion buildBaseDataVersion(final GetConfigDeltaRequestHeader requestHeader) {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.setTimestatmp(requestHeader.getBaseTimestamp());
+        dataVersion.getCounter().set(requestHeader.getBaseCounter());
+        return dataVersion;
+    }
+
+
+    private RemotingCommand getTopicConfigDelta(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final GetConfigDeltaRequestHeader requestHeader = (GetConfigDeltaRequestHeader) request
+            .decodeCommandCustomHeader(GetConfigDeltaRequestHeader.class);
+
+        TopicConfigDeltaWrapper delta = this.brokerController.getTopicConfigManager()
+            .buildTopicConfigDeltaWrapper(buildBaseDataVersion(requestHeader));
+        response.setBody(delta.encode());
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
+    private RemotingCommand getSubscriptionGroupConfigDelta(ChannelHandlerContext ctx,
+            RemotingCommand request) throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final GetConfigDeltaRequestHeader requestHeader = (GetConfigDeltaRequestHeader) request
+            .decodeCommandCustomHeader(GetConfigDeltaRequestHeader.class);
+
+        SubscriptionGroupDeltaWrapper delta = this.brokerController.getSubscriptionGroupManager()
+            .buildSubscriptionGroupDeltaWrapper(buildBaseDataVersion(requestHeader));
+        response.setBody(delta.encode());
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
+    private RemotingCommand getConsumerOffsetDelta(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final GetConfigDeltaRequestHeader requestHeader = (GetConfigDeltaRequestHeader) request
+            .decodeCommandCustomHeader(GetConfigDeltaRequestHeader.class);
+
+        ConsumerOffsetDeltaWrapper delta = this.brokerController.getConsumerOffsetManager()
+            .buildConsumerOffsetDelta(requestHeader.getBaseTimestamp(), requestHeader.getBaseCounter());
+        response.setBody(delta.encode());
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
     private RemotingCommand getAllDelayOffset(ChannelHandlerContext ctx, RemotingCommand request) {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
 
@@ -34,6 +34,7 @@ import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.protocol.RequestCode;
 import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchBody;
 import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
 import com.alibaba.rocketmq.common.protocol.heartbeat.HeartbeatData;
@@ -77,6 +78,8 @@ public class ClientManageProcessor implements NettyRequestProcessor {
         // 更新Consumer Offset
         case RequestCode.UPDATE_CONSUMER_OFFSET:
             return this.updateConsumerOffset(ctx, request);
+        case RequestCode.UPDATE_CONSUMER_OFFSET_BATCH:
+            return this.updateConsumerOffsetBatch(ctx, request);
         case RequestCode.QUERY_CONSUMER_OFFSET:
             return this.queryConsumerOffset(ctx, request);
         default:
@@ -125,24 +128,8 @@ public class ClientManageProcessor implements NettyRequestProcessor {
 
         // 消息轨迹：记录已经消费成功并提交 offset 的消息记录
         if (this.hasConsumeMessageHook()) {
-            // 执行hook
-            ConsumeMessageContext context = new ConsumeMessageContext();
-            context.setConsumerGroup(requestHeader.getConsumerGroup());
-            context.setTopic(requestHeader.getTopic());
-            context.setClientHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
-            context.setSuccess(true);
-            context.setStatus(ConsumeConcurrentlyStatus.CONSUME_SUCCESS.toString());
-            final SocketAddress storeHost =
-                    new InetSocketAddress(brokerController.getBrokerConfig().getBrokerIP1(),
-                        brokerController.getNettyServerConfig().getListenPort());
-
-            long preOffset = this.brokerController.getConsumerOffsetManager().queryOffset(
-                requestHeader.getConsumerGroup(), requestHeader.getTopic(), requestHeader.getQueueId());
-            Map<String, Long> messageIds =
-                    this.brokerController.getMessageStore().getMessageIds(requestHeader.getTopic(),
-                        requestHeader.getQueueId(), preOffset, requestHeader.getCommitOffset(), storeHost);
-            context.setMessageIds(messageIds);
-            this.executeConsumeMessageHookAfter(context);
+            this.executeConsumeMessageHookAfterCommit(ctx, requestHeader.getConsumerGroup(),
+                requestHeader.getTopic(), requestHeader.getQueueId(), requestHeader.getCommitOffset());
         }
         this.brokerController.getConsumerOffsetManager().commitOffset(requestHeader.getConsumerGroup(),
             requestHeader.getTopic(), requestHeader.getQueueId(), requestHeader.getCommitOffset());
@@ -152,6 +139,60 @@ public class ClientManageProcessor implements NettyRequestProcessor {
     }
 
 
+    private void executeConsumeMessageHookAfterCommit(final ChannelHandlerContext ctx, final String group,
+            final String topic, final int queueId, final long commitOffset) {
+        // 执行hook
+        ConsumeMessageContext context = new ConsumeMessageContext();
+        context.setConsumerGroup(group);
+        context.setTopic(topic);
+        context.setClientHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+        context.setSuccess(true);
+        context.setStatus(ConsumeConcurrentlyStatus.CONSUME_SUCCESS.toString());
+        final SocketAddress storeHost =
+                new InetSocketAddress(brokerController.getBrokerConfig().getBrokerIP1(),
+                    brokerController.getNettyServerConfig().getListenPort());
+
+        long preOffset = this.brokerController.getConsumerOffsetManager().queryOffset(group, topic, queueId);
+        Map<String, Long> messageIds = this.brokerController.getMessageStore().getMessageIds(topic, queueId,
+            preOffset, commitOffset, storeHost);
+        context.setMessageIds(messageIds);
+        this.executeConsumeMessageHookAfter(context);
+    }
+
+
+    /**
+     * 批量更新Consumer Offset，一个group在本Broker上的所有队列一次提交
+     */
+    private RemotingCommand updateConsumerOffsetBatch(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final UpdateConsumerOffsetBatchRequestHeader requestHeader =
+                (UpdateConsumerOffsetBatchRequestHeader) request
+                    .decodeCommandCustomHeader(UpdateConsumerOffsetBatchRequestHeader.class);
+
+        if (request.getBody() != null) {
+            UpdateConsumerOffsetBatchBody body =
+                    UpdateConsumerOffsetBatchBody.decode(request.getBody(), UpdateConsumerOffsetBatchBody.class);
+            if (body != null && body.getOffsetTable() != null) {
+                if (this.hasConsumeMessageHook()) {
+                    for (Map.Entry<String, Map<Integer, Long>> entry : body.getOffsetTable().entrySet()) {
+                        for (Map.Entry<Integer, Long> queueEntry : entry.getValue().entrySet()) {
+                            this.executeConsumeMessageHookAfterCommit(ctx, requestHeader.getConsumerGroup(),
+                                entry.getKey(), queueEntry.getKey(), queueEntry.getValue());
+                        }
+                    }
+                }
+                this.brokerController.getConsumerOffsetManager().commitOffset(
+                    requestHeader.getConsumerGroup(), body.getOffsetTable());
+            }
+        }
+
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
     private RemotingCommand queryConsumerOffset(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final RemotingCommand response =
@@ -266,7 +307,10 @@ public class ClientManageProcessor implements NettyRequestProcessor {
 
 
     public RemotingCommand heartBeat(ChannelHandlerContext ctx, RemotingCommand request) {
-        RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final long beginTimestamp = System.nanoTime();
+        RemotingCommand response = RemotingCommand.createResponseCommand(HeartbeatResponseHeader.class);
+        final HeartbeatResponseHeader responseHeader = (HeartbeatResponseHeader) response.readCustomHeader();
+        responseHeader.setWithoutSubSupported(true);
 
         HeartbeatData heartbeatData = HeartbeatData.decode(request.getBody(), HeartbeatData.class);
 
@@ -294,13 +338,30 @@ public class ClientManageProcessor implements NettyRequestProcessor {
                     PermName.PERM_WRITE | PermName.PERM_READ, topicSysFlag);
             }
 
+            if (heartbeatData.isWithoutSub()) {
+                // 订阅关系没变化的心跳只刷新连接，指纹不一致时让客户端重发完整心跳
+                boolean matched = this.brokerController.getConsumerManager().registerConsumerWithoutSub(//
+                    data.getGroupName(), //
+                    clientChannelInfo, //
+                    data.getConsumeType(), //
+                    data.getMessageModel(), //
+                    data.getConsumeFromWhere(), //
+                    data.getSubscriptionFingerprint()//
+                );
+                if (!matched) {
+                    responseHeader.setSubFingerprintMismatch(true);
+                }
+                continue;
+            }
+
             boolean changed = this.brokerController.getConsumerManager().registerConsumer(//
                 data.getGroupName(), //
                 clientChannelInfo, //
                 data.getConsumeType(), //
                 data.getMessageModel(), //
                 data.getConsumeFromWhere(), //
-                data.getSubscriptionDataSet()//
+                data.getSubscriptionDataSet(), //
+                data.getSubscriptionFingerprint()//
             );
 
             if (changed) {
@@ -324,6 +385,8 @@ public class ClientManageProcessor implements NettyRequestProcessor {
                 clientChannelInfo);
         }
 
+        this.brokerController.getBrokerStatsManager()
+            .incBrokerHeartbeatCost((int) ((System.nanoTime() - beginTimestamp) / 1000));
         response.setCode(ResponseCode.SUCCESS);
         response.setRemark(null);
         return response;
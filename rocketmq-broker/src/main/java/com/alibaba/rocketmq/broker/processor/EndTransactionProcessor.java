@@ -210,6 +210,11 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
                 case SLAVE_NOT_AVAILABLE:
                     response.setCode(ResponseCode.SUCCESS);
                     response.setRemark(null);
+                    // 事务已结束，不再回查
+                    if (this.brokerController.getTransactionCheckService() != null) {
+                        this.brokerController.getTransactionCheckService()
+                            .ended(requestHeader.getCommitLogOffset());
+                    }
                     break;
 
                 // Failed
@@ -17,8 +17,13 @@ package com.alibaba.rocketmq.broker.processor;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +55,7 @@ import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.RequestTask;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import com.alibaba.rocketmq.store.GetMessageResult;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
@@ -67,7 +73,13 @@ import io.netty.channel.*;
 public class PullMessageProcessor implements NettyRequestProcessor {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
 
+    // 冷数据队列超过这个时间没有拉取则清除
+    public static final long ColdQueueIdleMillis = 1000 * 60 * 2;
+
     private final BrokerController brokerController;
+    // 最近一次拉取落在磁盘上的队列及其最后一次拉取时间，后续拉取转到冷数据线程池
+    private final ConcurrentHashMap<String/* group@topic@queueId */, Long> coldQueueTable =
+            new ConcurrentHashMap<String, Long>();
 
 
     public PullMessageProcessor(final BrokerController brokerController) {
@@ -78,18 +90,114 @@ public class PullMessageProcessor implements NettyRequestProcessor {
     @Override
     public RemotingCommand processRequest(final ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
+        final ExecutorService coldExecutor = this.brokerController.getPullColdMessageExecutor();
+        if (coldExecutor != null && this.isColdQueue(request)) {
+            // 与普通请求一样包装成RequestTask，排队过久时由BrokerFastFailure快速失败
+            // 请求在拉消息线程池排队时已经统计过排队时间，这里不再重复统计
+            final RequestTask requestTask = new RequestTask(
+                this.buildPullTask(ctx.channel(), request, true), ctx.channel(), request,
+                this.brokerController.getRemotingServer().getRequestWaitTimeStats(), false);
+            try {
+                coldExecutor.execute(requestTask);
+                return null;
+            }
+            catch (RejectedExecutionException e) {
+                // 冷数据线程池满时在当前线程处理
+            }
+        }
+
         return this.processRequest(ctx.channel(), request, true);
     }
 
 
+    private static String buildColdQueueKey(final String group, final String topic, final Object queueId) {
+        return group + "@" + topic + "@" + queueId;
+    }
+
+
+    boolean isColdQueue(final RemotingCommand request) {
+        if (this.coldQueueTable.isEmpty()) {
+            return false;
+        }
+
+        Map<String, String> ext = request.getExtFields();
+        return ext != null && this.coldQueueTable.containsKey(
+            buildColdQueueKey(ext.get("consumerGroup"), ext.get("topic"), ext.get("queueId")));
+    }
+
+
+    void markColdQueue(final PullMessageRequestHeader requestHeader, final boolean cold) {
+        if (!this.brokerController.getBrokerConfig().isPullColdMessageIsolationEnable()) {
+            return;
+        }
+
+        final String key = buildColdQueueKey(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
+            requestHeader.getQueueId());
+        if (cold) {
+            this.coldQueueTable.put(key, System.currentTimeMillis());
+        }
+        else if (!this.coldQueueTable.isEmpty()) {
+            this.coldQueueTable.remove(key);
+        }
+    }
+
+
+    /**
+     * 订阅组下线时清除它的冷数据队列
+     */
+    public void removeColdQueue(final String group) {
+        final String prefix = group + "@";
+        Iterator<String> it = this.coldQueueTable.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * 清除超过idleMillis没有拉取的冷数据队列，例如Topic被删除或者订阅关系变化
+     * 
+     * @return 清除的队列数
+     */
+    public int scanIdleColdQueue(final long idleMillis) {
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        Iterator<Entry<String, Long>> it = this.coldQueueTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Long> next = it.next();
+            if (now - next.getValue() > idleMillis) {
+                it.remove();
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            log.info("scanIdleColdQueue remove {} idle cold queue", removed);
+        }
+        return removed;
+    }
+
+
     public void excuteRequestWhenWakeup(final Channel channel, final RemotingCommand request)
             throws RemotingCommandException {
-        Runnable run = new Runnable() {
+        this.brokerController.getPullMessageExecutor()
+            .submit(this.buildPullTask(channel, request, false));
+    }
+
+
+    /**
+     * 在线程池中处理拉消息请求的任务，并负责返回应答
+     */
+    private Runnable buildPullTask(final Channel channel, final RemotingCommand request,
+            final boolean brokerAllowSuspend) {
+        return new Runnable() {
             @Override
             public void run() {
                 try {
                     final RemotingCommand response =
-                            PullMessageProcessor.this.processRequest(channel, request, false);
+                            PullMessageProcessor.this.processRequest(channel, request, brokerAllowSuspend);
 
                     if (response != null) {
                         response.setOpaque(request.getOpaque());
@@ -121,8 +229,6 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 }
             }
         };
-
-        this.brokerController.getPullMessageExecutor().submit(run);
     }
 
 
@@ -286,10 +392,14 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             }
         }
 
+        final long beginTimestamp = System.nanoTime();
         final GetMessageResult getMessageResult = this.brokerController.getMessageStore().getMessage(
             requestHeader.getConsumerGroup(), requestHeader.getTopic(), requestHeader.getQueueId(),
             requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), subscriptionData);
+        this.brokerController.getBrokerStatsManager().recordPullLatency(requestHeader.getConsumerGroup(),
+            requestHeader.getTopic(), (System.nanoTime() - beginTimestamp) / 1000);
         if (getMessageResult != null) {
+            this.markColdQueue(requestHeader, getMessageResult.isSuggestPullingFromSlave());
             response.setRemark(getMessageResult.getStatus().name());
             responseHeader.setNextBeginOffset(getMessageResult.getNextBeginOffset());
             responseHeader.setMinOffset(getMessageResult.getMinOffset());
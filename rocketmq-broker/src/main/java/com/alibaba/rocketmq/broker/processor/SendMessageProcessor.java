@@ -25,6 +25,7 @@ import com.alibaba.rocketmq.broker.mqtrace.ConsumeMessageContext;
 import com.alibaba.rocketmq.broker.mqtrace.ConsumeMessageHook;
 import com.alibaba.rocketmq.broker.mqtrace.SendMessageContext;
 import com.alibaba.rocketmq.broker.mqtrace.SendMessageHook;
+import com.alibaba.rocketmq.broker.transaction.TransactionCheckService;
 import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
@@ -285,6 +286,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             final RemotingCommand request, //
             final SendMessageContext mqtraceContext, //
             final SendMessageRequestHeader requestHeader) throws RemotingCommandException {
+        final long beginTimestamp = System.nanoTime();
 
         final RemotingCommand response =
                 RemotingCommand.createResponseCommand(SendMessageResponseHeader.class);
@@ -332,7 +334,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         msgInner.setQueueId(queueIdInt);
         msgInner.setSysFlag(sysFlag);
         msgInner.setBornTimestamp(requestHeader.getBornTimestamp());
-        msgInner.setBornHost(ctx.channel().remoteAddress());
+        msgInner.setBornHost(RemotingHelper.parseChannelRemoteInetAddr(ctx.channel()));
         msgInner.setStoreHost(this.getStoreHost());
         msgInner.setReconsumeTimes(
             requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
@@ -401,6 +403,8 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                 this.brokerController.getBrokerStatsManager().incTopicPutSize(msgInner.getTopic(),
                     putMessageResult.getAppendMessageResult().getWroteBytes());
                 this.brokerController.getBrokerStatsManager().incBrokerPutNums();
+                this.brokerController.getBrokerStatsManager().recordSendLatency(msgInner.getTopic(),
+                    (System.nanoTime() - beginTimestamp) / 1000);
 
                 response.setRemark(null);
 
@@ -408,13 +412,19 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                 responseHeader.setQueueId(queueIdInt);
                 responseHeader.setQueueOffset(putMessageResult.getAppendMessageResult().getLogicsOffset());
 
+                // 记录Prepared消息，应答之前记录，保证Producer结束事务时已经可以找到
+                TransactionCheckService transactionCheckService =
+                        this.brokerController.getTransactionCheckService();
+                if (transactionCheckService != null && MessageSysFlag
+                    .getTransactionValue(sysFlag) == MessageSysFlag.TransactionPreparedType) {
+                    transactionCheckService.prepared(//
+                        putMessageResult.getAppendMessageResult().getWroteOffset(), //
+                        requestHeader.getProducerGroup(), //
+                        msgInner.getStoreTimestamp());
+                }
+
                 // 直接返回
                 doResponse(ctx, request, response);
-                if (this.brokerController.getBrokerConfig().isLongPollingEnable()) {
-                    this.brokerController.getPullRequestHoldService().notifyMessageArriving(
-                        requestHeader.getTopic(), queueIdInt,
-                        putMessageResult.getAppendMessageResult().getLogicsOffset() + 1);
-                }
 
                 // 消息轨迹：记录发送成功的消息
                 if (hasSendMessageHook()) {
@@ -24,8 +24,11 @@ import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.broker.subscription.SubscriptionGroupManager;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerOffsetDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.ConsumerOffsetSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.body.SubscriptionGroupDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.SubscriptionGroupWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 
@@ -43,6 +46,11 @@ public class SlaveSynchronize {
     private final BrokerController brokerController;
     // master broker 的ip地址
     private volatile String masterAddr = null;
+    // Master不支持增量同步时退回全量，切换Master后重新尝试
+    private volatile boolean deltaSupported = true;
+    // 消费进度已同步到的Master epoch与变更序号
+    private volatile long offsetEpoch = 0;
+    private volatile long offsetSequence = 0;
 
 
     public SlaveSynchronize(BrokerController brokerController) {
@@ -56,10 +64,26 @@ public class SlaveSynchronize {
 
 
     public void setMasterAddr(String masterAddr) {
+        if (masterAddr != null && !masterAddr.equals(this.masterAddr)) {
+            this.deltaSupported = true;
+            this.offsetEpoch = 0;
+            this.offsetSequence = 0;
+        }
         this.masterAddr = masterAddr;
     }
 
 
+    private boolean isDeltaSyncEnable() {
+        return this.deltaSupported && this.brokerController.getBrokerConfig().isSlaveSyncDeltaEnable();
+    }
+
+
+    private void markDeltaNotSupported(final String masterAddr) {
+        this.deltaSupported = false;
+        log.warn("master {} does not support delta synchronization, fall back to full", masterAddr);
+    }
+
+
     /**
      * 同步所有
      */
@@ -78,6 +102,24 @@ public class SlaveSynchronize {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null) {
             try {
+                if (this.isDeltaSyncEnable()) {
+                    TopicConfigDeltaWrapper delta = this.brokerController.getBrokerOuterAPI()
+                        .getTopicConfigDelta(masterAddrBak,
+                            this.brokerController.getTopicConfigManager().getDataVersion());
+                    if (delta != null) {
+                        this.brokerController.getTopicConfigManager().applyTopicConfigDelta(delta);
+                        if (delta.isFullSync() || !delta.getTopicConfigTable().isEmpty()
+                                || !delta.getRemovedTopics().isEmpty()) {
+                            log.info("update slave topic config from master, {}, "
+                                    + "full: {} changed: {} removed: {}",
+                                masterAddrBak, delta.isFullSync(), delta.getTopicConfigTable().size(),
+                                delta.getRemovedTopics().size());
+                        }
+                        return;
+                    }
+                    this.markDeltaNotSupported(masterAddrBak);
+                }
+
                 TopicConfigSerializeWrapper topicWrapper =
                         this.brokerController.getBrokerOuterAPI().getAllTopicConfig(masterAddrBak);
                 if (!this.brokerController.getTopicConfigManager().getDataVersion()
@@ -104,10 +146,25 @@ public class SlaveSynchronize {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null) {
             try {
+                if (this.isDeltaSyncEnable()) {
+                    ConsumerOffsetDeltaWrapper delta = this.brokerController.getBrokerOuterAPI()
+                        .getConsumerOffsetDelta(masterAddrBak, this.offsetEpoch, this.offsetSequence);
+                    if (delta != null) {
+                        // 由定时任务持久化，开启消费进度日志时只追加有变化的进度
+                        this.brokerController.getConsumerOffsetManager()
+                            .putAllOffsets(delta.getOffsetTable());
+                        this.offsetEpoch = delta.getEpoch();
+                        this.offsetSequence = delta.getSequence();
+                        log.info("update slave consumer offset from master, {}, full: {} changed: {}",
+                            masterAddrBak, delta.isFullSync(), delta.getOffsetTable().size());
+                        return;
+                    }
+                    this.markDeltaNotSupported(masterAddrBak);
+                }
+
                 ConsumerOffsetSerializeWrapper offsetWrapper =
                         this.brokerController.getBrokerOuterAPI().getAllConsumerOffset(masterAddrBak);
-                this.brokerController.getConsumerOffsetManager().getOffsetTable()
-                    .putAll(offsetWrapper.getOffsetTable());
+                this.brokerController.getConsumerOffsetManager().putAllOffsets(offsetWrapper.getOffsetTable());
                 this.brokerController.getConsumerOffsetManager().persist();
                 log.info("update slave consumer offset from master, {}", masterAddrBak);
             }
@@ -148,6 +205,25 @@ public class SlaveSynchronize {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null) {
             try {
+                if (this.isDeltaSyncEnable()) {
+                    SubscriptionGroupDeltaWrapper delta = this.brokerController.getBrokerOuterAPI()
+                        .getSubscriptionGroupConfigDelta(masterAddrBak,
+                            this.brokerController.getSubscriptionGroupManager().getDataVersion());
+                    if (delta != null) {
+                        this.brokerController.getSubscriptionGroupManager()
+                            .applySubscriptionGroupDelta(delta);
+                        if (delta.isFullSync() || !delta.getSubscriptionGroupTable().isEmpty()
+                                || !delta.getRemovedGroups().isEmpty()) {
+                            log.info("update slave Subscription Group from master, {}, "
+                                    + "full: {} changed: {} removed: {}",
+                                masterAddrBak, delta.isFullSync(), delta.getSubscriptionGroupTable().size(),
+                                delta.getRemovedGroups().size());
+                        }
+                        return;
+                    }
+                    this.markDeltaNotSupported(masterAddrBak);
+                }
+
                 SubscriptionGroupWrapper subscriptionWrapper = this.brokerController.getBrokerOuterAPI()
                     .getAllSubscriptionGroupConfig(masterAddrBak);
 
@@ -15,8 +15,10 @@
  */
 package com.alibaba.rocketmq.broker.subscription;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
@@ -28,6 +30,7 @@ import com.alibaba.rocketmq.common.ConfigManager;
 import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.body.SubscriptionGroupDeltaWrapper;
 import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 
@@ -46,6 +49,12 @@ public class SubscriptionGroupManager extends ConfigManager {
     private final ConcurrentHashMap<String, SubscriptionGroupConfig> subscriptionGroupTable =
             new ConcurrentHashMap<String, SubscriptionGroupConfig>(1024);
     private final DataVersion dataVersion = new DataVersion();
+    // 每个订阅组最后一次变更时的版本号（DataVersion.counter），用于Slave增量同步
+    private transient final ConcurrentHashMap<String, Long> groupChangeVersionTable =
+            new ConcurrentHashMap<String, Long>(1024);
+    private transient final Object dataVersionLock = new Object();
+    // 本进程开始记录变更时的版本号，更早的基准版本无法构建增量
+    private transient volatile long changeTrackingBeginCounter = 0;
 
 
     private void init() {
@@ -89,9 +98,9 @@ public class SubscriptionGroupManager extends ConfigManager {
             log.info("create new subscription group, " + config);
         }
 
-        this.dataVersion.nextVersion();
+        this.nextDataVersion(config.getGroupName());
 
-        this.persist();
+        this.persist(config.getGroupName());
     }
 
 
@@ -103,8 +112,8 @@ public class SubscriptionGroupManager extends ConfigManager {
                 subscriptionGroupConfig.setGroupName(group);
                 this.subscriptionGroupTable.putIfAbsent(group, subscriptionGroupConfig);
                 log.info("auto create a subscription group, {}", subscriptionGroupConfig.toString());
-                this.dataVersion.nextVersion();
-                this.persist();
+                this.nextDataVersion(group);
+                this.persist(group);
             }
         }
 
@@ -112,6 +121,179 @@ public class SubscriptionGroupManager extends ConfigManager {
     }
 
 
+    @Override
+    protected String encodeJournalValue(final String key) {
+        SubscriptionGroupConfig config = this.subscriptionGroupTable.get(key);
+        return config != null ? RemotingSerializable.toJson(config, false) : null;
+    }
+
+
+    @Override
+    protected String journalFilePath() {
+        return this.configFilePath() + ".journal";
+    }
+
+
+    @Override
+    protected boolean isJournalEnable() {
+        return this.brokerController.getBrokerConfig().isConfigJournalEnable();
+    }
+
+
+    @Override
+    protected long journalMaxBytes() {
+        return this.brokerController.getBrokerConfig().getConfigJournalMaxBytes();
+    }
+
+
+    @Override
+    protected void replayJournal(final String key, final String value) {
+        if (value != null) {
+            SubscriptionGroupConfig config =
+                    RemotingSerializable.fromJson(value, SubscriptionGroupConfig.class);
+            if (config != null) {
+                this.subscriptionGroupTable.put(key, config);
+            }
+        }
+        else {
+            this.subscriptionGroupTable.remove(key);
+        }
+    }
+
+
+    @Override
+    protected void afterJournalReplayed(final int records) {
+        this.dataVersion.nextVersion();
+    }
+
+
+    @Override
+    public boolean load() {
+        boolean result = super.load();
+        this.changeTrackingBeginCounter = this.dataVersion.getCounter().get();
+        return result;
+    }
+
+
+    /**
+     * 更新版本号，并记录本次变更的订阅组
+     */
+    private void nextDataVersion(final String... groups) {
+        synchronized (this.dataVersionLock) {
+            this.dataVersion.nextVersion();
+            final Long counter = this.dataVersion.getCounter().get();
+            for (String group : groups) {
+                this.groupChangeVersionTable.put(group, counter);
+            }
+        }
+    }
+
+
+    /**
+     * 基准版本是否由本进程产生，只有这种情况才能根据变更记录构建增量
+     */
+    private boolean isDeltaAvailable(final DataVersion baseDataVersion) {
+        if (null == baseDataVersion) {
+            return false;
+        }
+
+        final long baseCounter = baseDataVersion.getCounter().get();
+        final long counter = this.dataVersion.getCounter().get();
+        if (baseCounter < this.changeTrackingBeginCounter || baseCounter > counter) {
+            return false;
+        }
+
+        // 版本号相同但时间戳不同，说明不是同一份数据
+        return baseCounter != counter || baseDataVersion.getTimestatmp() == this.dataVersion.getTimestatmp();
+    }
+
+
+    /**
+     * 构建Slave同步用的增量，包含baseDataVersion之后变更与删除的订阅组，无法构建增量时返回全量
+     */
+    public SubscriptionGroupDeltaWrapper buildSubscriptionGroupDeltaWrapper(
+            final DataVersion baseDataVersion) {
+        SubscriptionGroupDeltaWrapper wrapper = new SubscriptionGroupDeltaWrapper();
+        ConcurrentHashMap<String, SubscriptionGroupConfig> table =
+                new ConcurrentHashMap<String, SubscriptionGroupConfig>();
+        synchronized (this.dataVersionLock) {
+            if (this.isDeltaAvailable(baseDataVersion)) {
+                final long baseCounter = baseDataVersion.getCounter().get();
+                for (Entry<String, Long> entry : this.groupChangeVersionTable.entrySet()) {
+                    if (entry.getValue() > baseCounter) {
+                        SubscriptionGroupConfig config = this.subscriptionGroupTable.get(entry.getKey());
+                        if (config != null) {
+                            table.put(entry.getKey(), config);
+                        }
+                        else {
+                            wrapper.getRemovedGroups().add(entry.getKey());
+                        }
+                    }
+                }
+                this.changeTrackingBeginCounter = Math.max(this.changeTrackingBeginCounter,
+                    pruneRemovedKeys(this.groupChangeVersionTable, this.subscriptionGroupTable, baseCounter));
+            }
+            else {
+                table.putAll(this.subscriptionGroupTable);
+                wrapper.setFullSync(true);
+            }
+
+            DataVersion dataVersion = new DataVersion();
+            dataVersion.assignNewOne(this.dataVersion);
+            wrapper.setDataVersion(dataVersion);
+        }
+        wrapper.setSubscriptionGroupTable(table);
+        return wrapper;
+    }
+
+
+    /**
+     * Slave合并Master的增量，版本号与Master保持一致，只持久化变更的订阅组
+     */
+    public void applySubscriptionGroupDelta(final SubscriptionGroupDeltaWrapper delta) {
+        Set<String> changes = new HashSet<String>();
+        synchronized (this.dataVersionLock) {
+            if (delta.isFullSync()) {
+                for (String group : this.subscriptionGroupTable.keySet()) {
+                    if (!delta.getSubscriptionGroupTable().containsKey(group)) {
+                        delta.getRemovedGroups().add(group);
+                    }
+                }
+            }
+
+            for (Entry<String, SubscriptionGroupConfig> entry : delta.getSubscriptionGroupTable()
+                .entrySet()) {
+                this.subscriptionGroupTable.put(entry.getKey(), entry.getValue());
+                changes.add(entry.getKey());
+            }
+            for (String group : delta.getRemovedGroups()) {
+                if (this.subscriptionGroupTable.remove(group) != null) {
+                    changes.add(group);
+                }
+            }
+
+            this.dataVersion.assignNewOne(delta.getDataVersion());
+            final Long counter = this.dataVersion.getCounter().get();
+            for (String group : changes) {
+                // Slave不会被其他节点增量同步，不需要保留删除记录
+                if (this.subscriptionGroupTable.containsKey(group)) {
+                    this.groupChangeVersionTable.put(group, counter);
+                }
+                else {
+                    this.groupChangeVersionTable.remove(group);
+                }
+            }
+        }
+
+        if (delta.isFullSync()) {
+            this.persist();
+        }
+        else {
+            this.persist(changes);
+        }
+    }
+
+
     @Override
     public String encode() {
         return this.encode(false);
@@ -168,8 +350,9 @@ public class SubscriptionGroupManager extends ConfigManager {
         SubscriptionGroupConfig old = this.subscriptionGroupTable.remove(groupName);
         if (old != null) {
             log.info("delete subscription group OK, subscription group: " + old);
-            this.dataVersion.nextVersion();
-            this.persist();
+            // 保留删除时的版本号，Slave增量同步时据此得知订阅组被删除
+            this.nextDataVersion(groupName);
+            this.persist(groupName);
         }
         else {
             log.warn("delete subscription group failed, subscription group: " + old + " not exist");
@@ -36,8 +36,10 @@ import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.protocol.body.KVTable;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import com.alibaba.rocketmq.common.sysflag.TopicSysFlag;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 
 
 /**
@@ -57,6 +59,12 @@ public class TopicConfigManager extends ConfigManager {
     private final ConcurrentHashMap<String, TopicConfig> topicConfigTable =
             new ConcurrentHashMap<String, TopicConfig>(1024);
     private final DataVersion dataVersion = new DataVersion();
+    // 每个Topic最后一次变更时的版本号（DataVersion.counter），用于增量注册
+    private transient final ConcurrentHashMap<String, Long> topicChangeVersionTable =
+            new ConcurrentHashMap<String, Long>(1024);
+    private transient final Object dataVersionLock = new Object();
+    // 本进程开始记录变更时的版本号，更早的基准版本无法构建增量
+    private transient volatile long changeTrackingBeginCounter = 0;
     // 系统默认的topic集合
     private final Set<String> systemTopicList = new HashSet<String>();
 
@@ -218,11 +226,11 @@ public class TopicConfigManager extends ConfigManager {
 
                         this.topicConfigTable.put(topic, topicConfig);
 
-                        this.dataVersion.nextVersion();
+                        this.nextDataVersion(topic);
 
                         createNew = true;
 
-                        this.persist();
+                        this.persist(topic);
                     }
                 }
                 finally {
@@ -269,8 +277,8 @@ public class TopicConfigManager extends ConfigManager {
                     log.info("create new topic {}", topicConfig);
                     this.topicConfigTable.put(topic, topicConfig);
                     createNew = true;
-                    this.dataVersion.nextVersion();
-                    this.persist();
+                    this.nextDataVersion(topic);
+                    this.persist(topic);
                 }
                 finally {
                     this.lockTopicConfigTable.unlock();
@@ -309,9 +317,9 @@ public class TopicConfigManager extends ConfigManager {
 
             this.topicConfigTable.put(topic, topicConfig);
 
-            this.dataVersion.nextVersion();
+            this.nextDataVersion(topic);
 
-            this.persist();
+            this.persist(topic);
             this.brokerController.registerBrokerAll(false, true);
         }
     }
@@ -333,9 +341,9 @@ public class TopicConfigManager extends ConfigManager {
 
             this.topicConfigTable.put(topic, topicConfig);
 
-            this.dataVersion.nextVersion();
+            this.nextDataVersion(topic);
 
-            this.persist();
+            this.persist(topic);
             this.brokerController.registerBrokerAll(false, true);
         }
     }
@@ -350,22 +358,22 @@ public class TopicConfigManager extends ConfigManager {
             log.info("create new topic, " + topicConfig);
         }
 
-        this.dataVersion.nextVersion();
+        this.nextDataVersion(topicConfig.getTopicName());
 
-        this.persist();
+        this.persist(topicConfig.getTopicName());
     }
 
 
     public void updateOrderTopicConfig(final KVTable orderKVTableFromNs) {
         // 根据 nameserver 上的 topic 配置同步检查更新 topic config 的顺序消息配置
         if (orderKVTableFromNs != null && orderKVTableFromNs.getTable() != null) {
-            boolean isChange = false;
+            Set<String> changedTopics = new HashSet<String>();
             Set<String> orderTopics = orderKVTableFromNs.getTable().keySet();
             for (String topic : orderTopics) {
                 TopicConfig topicConfig = this.topicConfigTable.get(topic);
                 if (topicConfig != null && !topicConfig.isOrder()) {
                     topicConfig.setOrder(true);
-                    isChange = true;
+                    changedTopics.add(topic);
                     log.info("update order topic config, topic={}, order={}", topic, true);
                 }
             }
@@ -374,13 +382,13 @@ public class TopicConfigManager extends ConfigManager {
                     TopicConfig topicConfig = this.topicConfigTable.get(topic);
                     if (topicConfig.isOrder()) {
                         topicConfig.setOrder(false);
-                        isChange = true;
+                        changedTopics.add(topic);
                         log.info("update order topic config, topic={}, order={}", topic, false);
                     }
                 }
             }
-            if (isChange) {
-                this.dataVersion.nextVersion();
+            if (!changedTopics.isEmpty()) {
+                this.nextDataVersion(changedTopics.toArray(new String[changedTopics.size()]));
                 this.persist();
             }
         }
@@ -402,8 +410,9 @@ public class TopicConfigManager extends ConfigManager {
         TopicConfig old = this.topicConfigTable.remove(topic);
         if (old != null) {
             log.info("delete topic config OK, topic: " + old);
-            this.dataVersion.nextVersion();
-            this.persist();
+            // 保留删除时的版本号，Slave增量同步时据此得知Topic被删除
+            this.nextDataVersion(topic);
+            this.persist(topic);
         }
         else {
             log.warn("delete topic config failed, topic: " + topic + " not exist");
@@ -411,14 +420,220 @@ public class TopicConfigManager extends ConfigManager {
     }
 
 
+    @Override
+    protected String encodeJournalValue(final String key) {
+        TopicConfig topicConfig = this.topicConfigTable.get(key);
+        return topicConfig != null ? RemotingSerializable.toJson(topicConfig, false) : null;
+    }
+
+
+    @Override
+    protected String journalFilePath() {
+        return this.configFilePath() + ".journal";
+    }
+
+
+    @Override
+    protected boolean isJournalEnable() {
+        return this.brokerController.getBrokerConfig().isConfigJournalEnable();
+    }
+
+
+    @Override
+    protected long journalMaxBytes() {
+        return this.brokerController.getBrokerConfig().getConfigJournalMaxBytes();
+    }
+
+
+    @Override
+    protected void replayJournal(final String key, final String value) {
+        if (value != null) {
+            TopicConfig topicConfig = RemotingSerializable.fromJson(value, TopicConfig.class);
+            if (topicConfig != null) {
+                this.topicConfigTable.put(key, topicConfig);
+            }
+        }
+        else {
+            this.topicConfigTable.remove(key);
+        }
+    }
+
+
+    @Override
+    protected void afterJournalReplayed(final int records) {
+        this.dataVersion.nextVersion();
+    }
+
+
+    @Override
+    public boolean load() {
+        boolean result = super.load();
+        this.changeTrackingBeginCounter = this.dataVersion.getCounter().get();
+        return result;
+    }
+
+
+    /**
+     * 更新版本号，并记录本次变更的Topic
+     */
+    private void nextDataVersion(final String... topics) {
+        synchronized (this.dataVersionLock) {
+            this.dataVersion.nextVersion();
+            final Long counter = this.dataVersion.getCounter().get();
+            for (String topic : topics) {
+                this.topicChangeVersionTable.put(topic, counter);
+            }
+        }
+    }
+
+
+    private DataVersion copyDataVersion() {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.assignNewOne(this.dataVersion);
+        return dataVersion;
+    }
+
+
     public TopicConfigSerializeWrapper buildTopicConfigSerializeWrapper() {
         TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
+        // 先取版本再取配置，配置只会比版本新，下次增量注册时会重复发送而不会遗漏
+        synchronized (this.dataVersionLock) {
+            topicConfigSerializeWrapper.setDataVersion(this.copyDataVersion());
+        }
         topicConfigSerializeWrapper.setTopicConfigTable(this.topicConfigTable);
-        topicConfigSerializeWrapper.setDataVersion(this.dataVersion);
         return topicConfigSerializeWrapper;
     }
 
 
+    /**
+     * 构建baseDataVersion之后变更的Topic配置
+     *
+     * @return 基准版本不是本进程产生的（例如版本号比当前还新）时返回null，需要全量注册
+     */
+    public TopicConfigSerializeWrapper buildTopicConfigDelta(final DataVersion baseDataVersion) {
+        TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
+        ConcurrentHashMap<String, TopicConfig> topicConfigTable = new ConcurrentHashMap<String, TopicConfig>();
+        synchronized (this.dataVersionLock) {
+            final long baseCounter = baseDataVersion.getCounter().get();
+            if (baseCounter > this.dataVersion.getCounter().get()) {
+                return null;
+            }
+
+            for (Entry<String, Long> entry : this.topicChangeVersionTable.entrySet()) {
+                if (entry.getValue() > baseCounter) {
+                    TopicConfig topicConfig = this.topicConfigTable.get(entry.getKey());
+                    if (topicConfig != null) {
+                        topicConfigTable.put(entry.getKey(), topicConfig);
+                    }
+                }
+            }
+            topicConfigSerializeWrapper.setDataVersion(this.copyDataVersion());
+        }
+        topicConfigSerializeWrapper.setTopicConfigTable(topicConfigTable);
+        return topicConfigSerializeWrapper;
+    }
+
+
+    /**
+     * 基准版本是否由本进程产生，只有这种情况才能根据变更记录构建增量
+     */
+    private boolean isDeltaAvailable(final DataVersion baseDataVersion) {
+        if (null == baseDataVersion) {
+            return false;
+        }
+
+        final long baseCounter = baseDataVersion.getCounter().get();
+        final long counter = this.dataVersion.getCounter().get();
+        if (baseCounter < this.changeTrackingBeginCounter || baseCounter > counter) {
+            return false;
+        }
+
+        // 版本号相同但时间戳不同，说明不是同一份数据
+        return baseCounter != counter || baseDataVersion.getTimestatmp() == this.dataVersion.getTimestatmp();
+    }
+
+
+    /**
+     * 构建Slave同步用的增量，包含baseDataVersion之后变更与删除的Topic，无法构建增量时返回全量
+     */
+    public TopicConfigDeltaWrapper buildTopicConfigDeltaWrapper(final DataVersion baseDataVersion) {
+        TopicConfigDeltaWrapper topicConfigDeltaWrapper = new TopicConfigDeltaWrapper();
+        ConcurrentHashMap<String, TopicConfig> topicConfigTable = new ConcurrentHashMap<String, TopicConfig>();
+        synchronized (this.dataVersionLock) {
+            if (this.isDeltaAvailable(baseDataVersion)) {
+                final long baseCounter = baseDataVersion.getCounter().get();
+                for (Entry<String, Long> entry : this.topicChangeVersionTable.entrySet()) {
+                    if (entry.getValue() > baseCounter) {
+                        TopicConfig topicConfig = this.topicConfigTable.get(entry.getKey());
+                        if (topicConfig != null) {
+                            topicConfigTable.put(entry.getKey(), topicConfig);
+                        }
+                        else {
+                            topicConfigDeltaWrapper.getRemovedTopics().add(entry.getKey());
+                        }
+                    }
+                }
+                this.changeTrackingBeginCounter = Math.max(this.changeTrackingBeginCounter,
+                    pruneRemovedKeys(this.topicChangeVersionTable, this.topicConfigTable, baseCounter));
+            }
+            else {
+                topicConfigTable.putAll(this.topicConfigTable);
+                topicConfigDeltaWrapper.setFullSync(true);
+            }
+            topicConfigDeltaWrapper.setDataVersion(this.copyDataVersion());
+        }
+        topicConfigDeltaWrapper.setTopicConfigTable(topicConfigTable);
+        return topicConfigDeltaWrapper;
+    }
+
+
+    /**
+     * Slave合并Master的增量，版本号与Master保持一致，只持久化变更的Topic
+     */
+    public void applyTopicConfigDelta(final TopicConfigDeltaWrapper delta) {
+        Set<String> changes = new HashSet<String>();
+        synchronized (this.dataVersionLock) {
+            if (delta.isFullSync()) {
+                for (String topic : this.topicConfigTable.keySet()) {
+                    if (!delta.getTopicConfigTable().containsKey(topic)) {
+                        delta.getRemovedTopics().add(topic);
+                    }
+                }
+            }
+
+            for (Entry<String, TopicConfig> entry : delta.getTopicConfigTable().entrySet()) {
+                this.topicConfigTable.put(entry.getKey(), entry.getValue());
+                changes.add(entry.getKey());
+            }
+            for (String topic : delta.getRemovedTopics()) {
+                if (this.topicConfigTable.remove(topic) != null) {
+                    changes.add(topic);
+                }
+            }
+
+            this.dataVersion.assignNewOne(delta.getDataVersion());
+            // Slave向Name Server增量注册时同样需要知道哪些Topic有变更
+            final Long counter = this.dataVersion.getCounter().get();
+            for (String topic : changes) {
+                // Slave不会被其他节点增量同步，不需要保留删除记录
+                if (this.topicConfigTable.containsKey(topic)) {
+                    this.topicChangeVersionTable.put(topic, counter);
+                }
+                else {
+                    this.topicChangeVersionTable.remove(topic);
+                }
+            }
+        }
+
+        if (delta.isFullSync()) {
+            this.persist();
+        }
+        else {
+            this.persist(changes);
+        }
+    }
+
+
     @Override
     public String encode() {
         return encode(false);
@@ -0,0 +1,249 @@
+package com.alibaba.rocketmq.broker.transaction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.header.CheckTransactionStateRequestHeader;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import io.netty.channel.Channel;
+
+
+/**
+ * 事务回查服务<br>
+ * 记录未结束的Prepared消息，按Commit Log Offset顺序扫描超时的事务，限流后向Producer回查事务状态
+ */
+public class TransactionCheckService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.TransactionLoggerName);
+    private static final int TraverseBatchSize = 256;
+
+    private final BrokerController brokerController;
+    private final TransactionStore transactionStore;
+    // 同一Producer组的回查请求轮流发往各个连接
+    private final AtomicInteger channelIndex = new AtomicInteger(0);
+    private final AtomicLong checkTimesTotal = new AtomicLong(0);
+    private final AtomicLong checkNoProducerTimesTotal = new AtomicLong(0);
+    private final AtomicLong checkDropTimesTotal = new AtomicLong(0);
+    // 各事务已回查的次数，只在回查线程中访问，每轮扫描后只保留仍未结束的事务，Broker重启后重新计数
+    private HashMap<Long/* offset */, Integer> checkTimesTable = new HashMap<Long, Integer>();
+
+
+    public TransactionCheckService(final BrokerController brokerController,
+            final TransactionStore transactionStore) {
+        this.brokerController = brokerController;
+        this.transactionStore = transactionStore;
+    }
+
+
+    /**
+     * Prepared消息写入成功后调用
+     */
+    public void prepared(final long commitLogOffset, final String producerGroup, final long storeTimestamp) {
+        TransactionRecord tr = new TransactionRecord();
+        tr.setOffset(commitLogOffset);
+        tr.setProducerGroup(producerGroup);
+        tr.setTimestamp(storeTimestamp);
+        if (!this.transactionStore.put(Collections.singletonList(tr))) {
+            log.warn("record prepared transaction failed, offset: {} producerGroup: {}", commitLogOffset,
+                producerGroup);
+        }
+    }
+
+
+    /**
+     * 事务提交或回滚后调用
+     */
+    public void ended(final long commitLogOffset) {
+        this.transactionStore.remove(Collections.singletonList(commitLogOffset));
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(
+                    this.brokerController.getBrokerConfig().getTransactionCheckIntervalMillis());
+                this.checkTransactionState();
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    /**
+     * 从最小的pk开始扫描，pk即Commit Log Offset，与写入时间同序，遇到未超时的事务即结束本轮扫描<br>
+     * 回查次数达到上限的事务不再回查，直接丢弃
+     */
+    public void checkTransactionState() {
+        final HashMap<Long, Integer> checkTimesTableNew = new HashMap<Long, Integer>();
+        try {
+            this.checkTransactionState(checkTimesTableNew);
+        }
+        finally {
+            this.checkTimesTable = checkTimesTableNew;
+        }
+    }
+
+
+    private void checkTransactionState(final HashMap<Long, Integer> checkTimesTableNew) {
+        final BrokerConfig brokerConfig = this.brokerController.getBrokerConfig();
+        final int maxPerSecond = Math.max(1, brokerConfig.getTransactionCheckMaxPerSecond());
+        final long now = System.currentTimeMillis();
+        long windowBeginTimestamp = now;
+        int checkTimesInWindow = 0;
+
+        long pk = this.transactionStore.minPK();
+        while (!this.isStoped()) {
+            List<TransactionRecord> trs = this.transactionStore.traverse(pk, TraverseBatchSize);
+            if (trs.isEmpty()) {
+                return;
+            }
+
+            for (TransactionRecord tr : trs) {
+                if (now - tr.getTimestamp() < brokerConfig.getTransactionTimeoutMillis()) {
+                    return;
+                }
+
+                // 限流，每秒最多发出maxPerSecond个回查请求
+                if (checkTimesInWindow >= maxPerSecond) {
+                    long sleepMillis = windowBeginTimestamp + 1000 - System.currentTimeMillis();
+                    if (sleepMillis > 0) {
+                        // shutdown时会被唤醒，不必等到限流窗口结束
+                        this.waitForRunning(sleepMillis);
+                        if (this.isStoped()) {
+                            return;
+                        }
+                    }
+                    windowBeginTimestamp = System.currentTimeMillis();
+                    checkTimesInWindow = 0;
+                }
+
+                Integer checkTimes = this.checkTimesTable.get(tr.getOffset());
+                if (null == checkTimes) {
+                    checkTimes = 0;
+                }
+                if (checkTimes >= brokerConfig.getTransactionCheckMax()) {
+                    log.warn("transaction checked {} times without result, drop it. offset: {} "
+                            + "producerGroup: {}", checkTimes, tr.getOffset(), tr.getProducerGroup());
+                    this.ended(tr.getOffset());
+                    this.checkDropTimesTotal.incrementAndGet();
+                    continue;
+                }
+
+                if (this.checkOneTransaction(tr)) {
+                    checkTimesInWindow++;
+                    checkTimes++;
+                }
+                if (checkTimes > 0) {
+                    checkTimesTableNew.put(tr.getOffset(), checkTimes);
+                }
+            }
+
+            pk = trs.get(trs.size() - 1).getOffset() + 1;
+        }
+    }
+
+
+    /**
+     * @return 是否发出了回查请求
+     */
+    private boolean checkOneTransaction(final TransactionRecord tr) {
+        final SelectMapedBufferResult selectMapedBufferResult =
+                this.brokerController.getMessageStore().selectOneMessageByOffset(tr.getOffset());
+        if (null == selectMapedBufferResult) {
+            // 消息所在的Commit Log文件已经删除，无法再回查
+            log.warn("prepared transaction message not found, drop it. offset: {} producerGroup: {}",
+                tr.getOffset(), tr.getProducerGroup());
+            this.ended(tr.getOffset());
+            return false;
+        }
+
+        boolean sent = false;
+        try {
+            MessageExt msgExt = MessageDecoder.decode(selectMapedBufferResult.getByteBuffer().slice(), false);
+            if (null == msgExt || MessageSysFlag
+                .getTransactionValue(msgExt.getSysFlag()) != MessageSysFlag.TransactionPreparedType) {
+                log.warn("not a prepared transaction message, drop it. offset: {}", tr.getOffset());
+                this.ended(tr.getOffset());
+                return false;
+            }
+
+            List<Channel> channels =
+                    this.brokerController.getProducerManager().getActiveChannels(tr.getProducerGroup());
+            if (channels.isEmpty()) {
+                this.checkNoProducerTimesTotal.incrementAndGet();
+                return false;
+            }
+
+            Channel channel =
+                    channels.get((this.channelIndex.getAndIncrement() & Integer.MAX_VALUE) % channels.size());
+            CheckTransactionStateRequestHeader requestHeader = new CheckTransactionStateRequestHeader();
+            requestHeader.setCommitLogOffset(tr.getOffset());
+            requestHeader.setTranStateTableOffset(msgExt.getQueueOffset());
+            requestHeader.setMsgId(msgExt.getMsgId());
+            this.brokerController.getBroker2Client().checkProducerTransactionState(channel, requestHeader,
+                selectMapedBufferResult);
+            sent = true;
+            this.checkTimesTotal.incrementAndGet();
+            return true;
+        }
+        finally {
+            // 发送成功后由Broker2Client负责释放
+            if (!sent) {
+                selectMapedBufferResult.release();
+            }
+        }
+    }
+
+
+    /**
+     * 未结束事务的积压情况
+     */
+    public void buildRuntimeInfo(final HashMap<String, String> runtimeInfo) {
+        long oldestTimestamp = 0;
+        List<TransactionRecord> trs = this.transactionStore.traverse(this.transactionStore.minPK(), 1);
+        if (!trs.isEmpty()) {
+            oldestTimestamp = trs.get(0).getTimestamp();
+        }
+
+        runtimeInfo.put("transactionPendingCount", String.valueOf(this.transactionStore.totalRecords()));
+        runtimeInfo.put("transactionPendingMaxAgeMillis",
+            String.valueOf(oldestTimestamp > 0 ? System.currentTimeMillis() - oldestTimestamp : 0));
+        runtimeInfo.put("transactionCheckTimesTotal", String.valueOf(this.checkTimesTotal.get()));
+        runtimeInfo.put("transactionCheckNoProducerTimesTotal",
+            String.valueOf(this.checkNoProducerTimesTotal.get()));
+        runtimeInfo.put("transactionCheckDropTimesTotal", String.valueOf(this.checkDropTimesTotal.get()));
+    }
+
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.transactionStore.close();
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return TransactionCheckService.class.getSimpleName();
+    }
+}
@@ -4,6 +4,8 @@ public class TransactionRecord {
     // Commit Log Offset
     private long offset;
     private String producerGroup;
+    // Prepared消息写入事务存储的时间
+    private long timestamp;
 
 
     public long getOffset() {
@@ -24,4 +26,14 @@ public class TransactionRecord {
     public void setProducerGroup(String producerGroup) {
         this.producerGroup = producerGroup;
     }
+
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
 }
@@ -0,0 +1,336 @@
+package com.alibaba.rocketmq.broker.transaction.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.transaction.TransactionRecord;
+import com.alibaba.rocketmq.broker.transaction.TransactionStore;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+
+
+/**
+ * 基于文件的事务存储，Prepared与结束记录顺序追加到日志，内存中维护未结束事务的索引
+ */
+public class FileTransactionStore implements TransactionStore {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.TransactionLoggerName);
+    /**
+     * 记录格式<br>
+     * totalSize(4) + magicCode(4) + pk(8) + timestamp(8) + groupLength(2) + producerGroup<br>
+     * 结束记录不带producerGroup
+     */
+    private static final int RecordHeaderSize = 4 + 4 + 8 + 8 + 2;
+    private static final int PreparedMagicCode = 0xAABBCC01;
+    private static final int RemovedMagicCode = 0xAABBCC02;
+    // 文件尾部空白，最后8个字节存放文件结束位置，删除文件时使用
+    private static final int BlankMagicCode = 0xBBCCDD03;
+    private static final int EndFileMinBlankLength = 4 + 4 + 8;
+    private static final byte[] EmptyGroup = new byte[0];
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final FileTransactionStoreConfig fileTransactionStoreConfig;
+    private final MapedFileQueue mapedFileQueue;
+    // 未结束的事务，按pk排序，供回查扫描
+    private final ConcurrentSkipListMap<Long /* pk */, TransactionRecord> openTransactionTable =
+            new ConcurrentSkipListMap<Long, TransactionRecord>();
+    // 未结束事务的Prepared记录在日志中的位置，只在锁内访问
+    private final HashMap<Long /* pk */, Long /* log position */> logPositionTable =
+            new HashMap<Long, Long>();
+    private final ScheduledExecutorService scheduledExecutorService = Executors
+        .newSingleThreadScheduledExecutor(new ThreadFactoryImpl("FileTransactionStoreScheduledThread"));
+
+
+    public FileTransactionStore(FileTransactionStoreConfig fileTransactionStoreConfig) {
+        this.fileTransactionStoreConfig = fileTransactionStoreConfig;
+        this.mapedFileQueue = new MapedFileQueue(fileTransactionStoreConfig.getStorePathTransaction(),
+            fileTransactionStoreConfig.getMapedFileSizeTransaction(), null);
+    }
+
+
+    @Override
+    public boolean open() {
+        if (!this.mapedFileQueue.load()) {
+            log.error("load transaction log failed");
+            return false;
+        }
+
+        synchronized (this) {
+            this.recover();
+        }
+
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileTransactionStore.this.mapedFileQueue.commit(0);
+                }
+                catch (Exception e) {
+                    log.error("flush transaction log exception", e);
+                }
+            }
+        }, 1000, this.fileTransactionStoreConfig.getFlushIntervalTransaction(), TimeUnit.MILLISECONDS);
+
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileTransactionStore.this.compact();
+                }
+                catch (Exception e) {
+                    log.error("compact transaction log exception", e);
+                }
+            }
+        }, 1000 * 60, this.fileTransactionStoreConfig.getCompactIntervalTransaction(), TimeUnit.MILLISECONDS);
+
+        log.info("open file transaction store OK, open transactions {}", this.openTransactionTable.size());
+        return true;
+    }
+
+
+    /**
+     * 从第一个文件开始重放日志，重建未结束事务的索引
+     */
+    private void recover() {
+        final int mapedFileSize = this.fileTransactionStoreConfig.getMapedFileSizeTransaction();
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        long processOffset = mapedFiles.isEmpty() ? 0 : mapedFiles.get(0).getFileFromOffset();
+        for (MapedFile mapedFile : mapedFiles) {
+            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+            int pos = 0;
+            boolean fileEnd = false;
+            while (pos + 4 + 4 <= mapedFileSize) {
+                int totalSize = byteBuffer.getInt(pos);
+                int magicCode = byteBuffer.getInt(pos + 4);
+                if (BlankMagicCode == magicCode) {
+                    fileEnd = true;
+                    break;
+                }
+
+                if ((magicCode != PreparedMagicCode && magicCode != RemovedMagicCode)
+                        || totalSize < RecordHeaderSize || pos + totalSize > mapedFileSize
+                        || byteBuffer.getShort(pos + 24) != totalSize - RecordHeaderSize) {
+                    break;
+                }
+
+                long pk = byteBuffer.getLong(pos + 8);
+                if (PreparedMagicCode == magicCode) {
+                    byte[] group = new byte[totalSize - RecordHeaderSize];
+                    byteBuffer.position(pos + RecordHeaderSize);
+                    byteBuffer.get(group);
+
+                    TransactionRecord tr = new TransactionRecord();
+                    tr.setOffset(pk);
+                    tr.setTimestamp(byteBuffer.getLong(pos + 16));
+                    tr.setProducerGroup(new String(group, CHARSET));
+                    this.openTransactionTable.put(pk, tr);
+                    this.logPositionTable.put(pk, mapedFile.getFileFromOffset() + pos);
+                }
+                else {
+                    this.openTransactionTable.remove(pk);
+                    this.logPositionTable.remove(pk);
+                }
+
+                pos += totalSize;
+            }
+
+            processOffset = mapedFile.getFileFromOffset() + (fileEnd ? mapedFileSize : pos);
+            if (!fileEnd) {
+                break;
+            }
+        }
+
+        this.mapedFileQueue.setCommittedWhere(processOffset);
+        this.mapedFileQueue.truncateDirtyFiles(processOffset);
+        log.info("recover transaction log over, max offset {}", processOffset);
+    }
+
+
+    /**
+     * 只在锁内调用
+     *
+     * @return 记录的位置，失败返回-1
+     */
+    private long appendRecord(final int magicCode, final long pk, final long timestamp, final byte[] group) {
+        final int mapedFileSize = this.fileTransactionStoreConfig.getMapedFileSizeTransaction();
+        final int totalSize = RecordHeaderSize + group.length;
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            log.error("create transaction log maped file error");
+            return -1;
+        }
+
+        // 剩余空间不足，填充空白并记下文件结束位置，换到新文件写入
+        int remaining = mapedFileSize - mapedFile.getWrotePostion();
+        if (remaining < totalSize + EndFileMinBlankLength) {
+            ByteBuffer blank = ByteBuffer.allocate(remaining);
+            blank.putInt(remaining);
+            blank.putInt(BlankMagicCode);
+            blank.putLong(remaining - 8, mapedFile.getFileFromOffset() + mapedFileSize - 1);
+            mapedFile.appendMessage(blank.array());
+
+            mapedFile = this.mapedFileQueue.getLastMapedFile();
+            if (null == mapedFile) {
+                log.error("create transaction log maped file error");
+                return -1;
+            }
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(totalSize);
+        record.putInt(totalSize);
+        record.putInt(magicCode);
+        record.putLong(pk);
+        record.putLong(timestamp);
+        record.putShort((short) group.length);
+        record.put(group);
+
+        long pos = mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+        if (mapedFile.appendMessage(record.array())) {
+            return pos;
+        }
+
+        return -1;
+    }
+
+
+    @Override
+    public void close() {
+        this.scheduledExecutorService.shutdown();
+        synchronized (this) {
+            this.mapedFileQueue.commit(0);
+            this.mapedFileQueue.shutdown(1000 * 3);
+        }
+    }
+
+
+    /**
+     * 删除所有文件，单元测试会使用
+     */
+    public void destroy() {
+        this.mapedFileQueue.destroy();
+    }
+
+
+    @Override
+    public synchronized boolean put(List<TransactionRecord> trs) {
+        for (TransactionRecord tr : trs) {
+            if (tr.getTimestamp() <= 0) {
+                tr.setTimestamp(System.currentTimeMillis());
+            }
+
+            long pos = this.appendRecord(PreparedMagicCode, tr.getOffset(), tr.getTimestamp(),
+                tr.getProducerGroup().getBytes(CHARSET));
+            if (pos < 0) {
+                log.error("put transaction record failed, pk: {} producerGroup: {}", tr.getOffset(),
+                    tr.getProducerGroup());
+                return false;
+            }
+
+            this.openTransactionTable.put(tr.getOffset(), tr);
+            this.logPositionTable.put(tr.getOffset(), pos);
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public synchronized void remove(List<Long> pks) {
+        long now = System.currentTimeMillis();
+        for (Long pk : pks) {
+            if (this.openTransactionTable.remove(pk) != null) {
+                this.logPositionTable.remove(pk);
+                if (this.appendRecord(RemovedMagicCode, pk, now, EmptyGroup) < 0) {
+                    log.error("remove transaction record failed, pk: {}", pk);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 从pk开始（包含pk）按顺序返回最多nums个未结束的事务
+     */
+    @Override
+    public List<TransactionRecord> traverse(long pk, int nums) {
+        List<TransactionRecord> trs = new ArrayList<TransactionRecord>(Math.min(nums, 1024));
+        for (TransactionRecord tr : this.openTransactionTable.tailMap(pk, true).values()) {
+            if (trs.size() >= nums) {
+                break;
+            }
+            trs.add(tr);
+        }
+
+        return trs;
+    }
+
+
+    /**
+     * 把除最后一个文件外的未结束事务搬到日志尾部，然后删除不再被引用的文件
+     */
+    public synchronized void compact() {
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (mapedFiles.size() <= 1) {
+            return;
+        }
+
+        long lastFileFromOffset = mapedFiles.get(mapedFiles.size() - 1).getFileFromOffset();
+        int moved = 0;
+        for (Entry<Long, Long> entry : this.logPositionTable.entrySet()) {
+            if (entry.getValue() < lastFileFromOffset) {
+                TransactionRecord tr = this.openTransactionTable.get(entry.getKey());
+                long pos = this.appendRecord(PreparedMagicCode, tr.getOffset(), tr.getTimestamp(),
+                    tr.getProducerGroup().getBytes(CHARSET));
+                if (pos < 0) {
+                    log.error("compact transaction log, move record failed, pk: {}", tr.getOffset());
+                    return;
+                }
+                entry.setValue(pos);
+                moved++;
+            }
+        }
+
+        // 搬动的记录落盘后才能删除旧文件
+        this.mapedFileQueue.commit(0);
+
+        long minLogPosition = this.mapedFileQueue.getMaxOffset();
+        for (Long pos : this.logPositionTable.values()) {
+            minLogPosition = Math.min(minLogPosition, pos);
+        }
+
+        int deleted = this.mapedFileQueue.deleteExpiredFileByOffset(minLogPosition, 8);
+        log.info("compact transaction log, move {} open transactions, delete {} files", moved, deleted);
+    }
+
+
+    @Override
+    public long totalRecords() {
+        return this.openTransactionTable.size();
+    }
+
+
+    @Override
+    public long minPK() {
+        Entry<Long, TransactionRecord> entry = this.openTransactionTable.firstEntry();
+        return entry != null ? entry.getKey() : 0;
+    }
+
+
+    @Override
+    public long maxPK() {
+        Entry<Long, TransactionRecord> entry = this.openTransactionTable.lastEntry();
+        return entry != null ? entry.getKey() : 0;
+    }
+}
@@ -0,0 +1,56 @@
+package com.alibaba.rocketmq.broker.transaction.file;
+
+import java.io.File;
+
+
+public class FileTransactionStoreConfig {
+    // 事务日志存储目录
+    private String storePathTransaction = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "transaction";
+    // 每个事务日志文件大小
+    private int mapedFileSizeTransaction = 1024 * 1024 * 16;
+    // 异步刷盘间隔
+    private int flushIntervalTransaction = 1000;
+    // 压缩间隔，把最早文件中未结束的事务搬到文件尾部，然后删除该文件
+    private int compactIntervalTransaction = 1000 * 60;
+
+
+    public String getStorePathTransaction() {
+        return storePathTransaction;
+    }
+
+
+    public void setStorePathTransaction(String storePathTransaction) {
+        this.storePathTransaction = storePathTransaction;
+    }
+
+
+    public int getMapedFileSizeTransaction() {
+        return mapedFileSizeTransaction;
+    }
+
+
+    public void setMapedFileSizeTransaction(int mapedFileSizeTransaction) {
+        this.mapedFileSizeTransaction = mapedFileSizeTransaction;
+    }
+
+
+    public int getFlushIntervalTransaction() {
+        return flushIntervalTransaction;
+    }
+
+
+    public void setFlushIntervalTransaction(int flushIntervalTransaction) {
+        this.flushIntervalTransaction = flushIntervalTransaction;
+    }
+
+
+    public int getCompactIntervalTransaction() {
+        return compactIntervalTransaction;
+    }
+
+
+    public void setCompactIntervalTransaction(int compactIntervalTransaction) {
+        this.compactIntervalTransaction = compactIntervalTransaction;
+    }
+}
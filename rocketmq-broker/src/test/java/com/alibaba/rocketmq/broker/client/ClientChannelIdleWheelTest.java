@@ -0,0 +1,48 @@
+package com.alibaba.rocketmq.broker.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+public class ClientChannelIdleWheelTest {
+    @Test
+    public void test_expire_idle_and_keep_refreshed() throws Exception {
+        ClientChannelIdleWheel wheel = new ClientChannelIdleWheel(10, 100);
+        final ClientChannelInfo idle = new ClientChannelInfo(null, "idle", null, 0);
+        final ClientChannelInfo active = new ClientChannelInfo(null, "active", null, 0);
+        final ClientChannelInfo removed = new ClientChannelInfo(null, "removed", null, 0);
+        wheel.add("G", idle);
+        wheel.add("G", active);
+        wheel.add("G", removed);
+
+        final Set<ClientChannelInfo> expired = new HashSet<ClientChannelInfo>();
+        ClientChannelIdleWheel.ExpiredHandler handler = new ClientChannelIdleWheel.ExpiredHandler() {
+            @Override
+            public boolean isRegistered(String group, ClientChannelInfo clientChannelInfo) {
+                return clientChannelInfo != removed;
+            }
+
+
+            @Override
+            public void onExpired(String group, ClientChannelInfo clientChannelInfo) {
+                expired.add(clientChannelInfo);
+            }
+        };
+
+        long begin = System.currentTimeMillis();
+        while (System.currentTimeMillis() - begin < 300) {
+            // active一直有心跳
+            active.setLastUpdateTimestamp(System.currentTimeMillis());
+            wheel.advance(handler);
+            Thread.sleep(5);
+        }
+
+        assertEquals(1, expired.size());
+        assertTrue(expired.contains(idle));
+    }
+}
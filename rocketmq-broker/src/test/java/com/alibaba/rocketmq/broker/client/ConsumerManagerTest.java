@@ -0,0 +1,101 @@
+package com.alibaba.rocketmq.broker.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.MQVersion;
+import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumeType;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
+import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.remoting.protocol.LanguageCode;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+/**
+ * 同一个组的多个客户端各自生成subVersion，不发送订阅关系的心跳按连接比对指纹
+ */
+public class ConsumerManagerTest {
+    private static final String Group = "GroupTest";
+
+
+    private static ConsumerData newConsumerData(final String subString, final long subVersion) {
+        SubscriptionData sub = new SubscriptionData("TopicTest", subString);
+        sub.setSubVersion(subVersion);
+        ConsumerData consumerData = new ConsumerData();
+        consumerData.setGroupName(Group);
+        consumerData.getSubscriptionDataSet().add(sub);
+        consumerData.setSubscriptionFingerprint(consumerData.buildSubscriptionFingerprint());
+        return consumerData;
+    }
+
+
+    private static boolean registerConsumer(final ConsumerManager consumerManager, final Channel channel,
+            final ConsumerData consumerData, final boolean withoutSub) {
+        ClientChannelInfo clientChannelInfo = new ClientChannelInfo(channel, channel.toString(),
+            LanguageCode.JAVA, MQVersion.CurrentVersion);
+        if (withoutSub) {
+            return consumerManager.registerConsumerWithoutSub(Group, clientChannelInfo,
+                ConsumeType.CONSUME_PASSIVELY, MessageModel.CLUSTERING,
+                ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET, consumerData.getSubscriptionFingerprint());
+        }
+
+        consumerManager.registerConsumer(Group, clientChannelInfo, ConsumeType.CONSUME_PASSIVELY,
+            MessageModel.CLUSTERING, ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET,
+            consumerData.getSubscriptionDataSet(), consumerData.getSubscriptionFingerprint());
+        return true;
+    }
+
+
+    @Test
+    public void test_fingerprint_per_client() {
+        ConsumerManager consumerManager = new ConsumerManager(new ConsumerIdsChangeListener() {
+            @Override
+            public void consumerIdsChanged(String group, List<Channel> channels) {
+            }
+        });
+        EmbeddedChannel channel1 = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        EmbeddedChannel channel2 = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        // 订阅相同，但两个客户端的subVersion不同
+        ConsumerData client1 = newConsumerData("*", 1000);
+        ConsumerData client2 = newConsumerData("*", 2000);
+
+        // 没有完整心跳时不能只刷新连接
+        assertFalse(registerConsumer(consumerManager, channel1, client1, true));
+
+        registerConsumer(consumerManager, channel1, client1, false);
+        registerConsumer(consumerManager, channel2, client2, false);
+
+        // 两个客户端交替心跳，都与各自的完整心跳一致
+        for (int i = 0; i < 3; i++) {
+            assertTrue(registerConsumer(consumerManager, channel1, client1, true));
+            assertTrue(registerConsumer(consumerManager, channel2, client2, true));
+        }
+
+        // client1重新订阅后发送完整心跳，组的订阅关系变化，client2也要重新发送完整心跳
+        ConsumerData client1New = newConsumerData("TagA", 3000);
+        client1New.getSubscriptionDataSet().add(new SubscriptionData("TopicOther", "*"));
+        client1New.setSubscriptionFingerprint(client1New.buildSubscriptionFingerprint());
+        registerConsumer(consumerManager, channel1, client1New, false);
+        assertTrue(registerConsumer(consumerManager, channel1, client1New, true));
+        assertFalse(registerConsumer(consumerManager, channel2, client2, true));
+        registerConsumer(consumerManager, channel2, client2, false);
+        assertTrue(registerConsumer(consumerManager, channel2, client2, true));
+
+        // 连接关闭后指纹随之清理
+        consumerManager.doChannelCloseEvent("127.0.0.1:0", channel2);
+        assertFalse(registerConsumer(consumerManager, channel2, client2, true));
+
+        channel1.close();
+        channel2.close();
+    }
+}
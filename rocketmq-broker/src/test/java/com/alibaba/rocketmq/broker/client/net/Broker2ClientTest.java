@@ -0,0 +1,138 @@
+package com.alibaba.rocketmq.broker.client.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.client.ClientChannelInfo;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.MQVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
+import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ResetOffsetBody;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumeType;
+import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.LanguageCode;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+/**
+ * 按时间重置消费进度时，各队列的时间查找在线程池中并行执行
+ */
+public class Broker2ClientTest {
+    private static final String Topic = "TopicTest";
+    private static final String Group = "GroupTest";
+    private static final int QueueNums = 16;
+
+    private String rootDir;
+    private BrokerController brokerController;
+    private DefaultMessageStore messageStore;
+    private EmbeddedChannel channel;
+    // 执行按时间查找位点的线程
+    private final Set<String> searchThreads = new CopyOnWriteArraySet<String>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = System.getProperty("java.io.tmpdir") + File.separator + "reset_offset_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(this.rootDir);
+        messageStoreConfig.setStorePathCommitLog(this.rootDir + File.separator + "commitlog");
+
+        this.messageStore = new DefaultMessageStore(messageStoreConfig, null) {
+            @Override
+            public long getOffsetInQueueByTime(String topic, int queueId, long timestamp) {
+                searchThreads.add(Thread.currentThread().getName());
+                return 1000 + queueId;
+            }
+        };
+        this.brokerController = new BrokerController(new BrokerConfig(), new NettyServerConfig(),
+            new NettyClientConfig(), messageStoreConfig) {
+            @Override
+            public MessageStore getMessageStore() {
+                return messageStore;
+            }
+        };
+        assertTrue(this.brokerController.initialize());
+
+        this.brokerController.getTopicConfigManager().updateTopicConfig(
+            new TopicConfig(Topic, QueueNums, QueueNums, PermName.PERM_READ | PermName.PERM_WRITE));
+        for (int i = 0; i < QueueNums; i++) {
+            // 队列0的消费进度比按时间查到的位点小
+            long offset = i == 0 ? 500 : 2000;
+            this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, i, offset);
+        }
+
+        this.channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        this.brokerController.getConsumerManager().registerConsumer(Group,
+            new ClientChannelInfo(this.channel, "client-1", LanguageCode.JAVA, MQVersion.CurrentVersion),
+            ConsumeType.CONSUME_PASSIVELY, MessageModel.CLUSTERING, ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET,
+            new HashSet<SubscriptionData>(), 0);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.channel.close();
+        this.brokerController.shutdown();
+        this.messageStore.shutdown();
+        IOTinyUtils.delete(new File(this.rootDir));
+    }
+
+
+    private Map<MessageQueue, Long> resetOffset(final boolean isForce) {
+        RemotingCommand response = this.brokerController.getBroker2Client().resetOffset(Topic, Group,
+            System.currentTimeMillis(), isForce);
+        assertEquals(ResponseCode.SUCCESS, response.getCode());
+        return ResetOffsetBody.decode(response.getBody(), ResetOffsetBody.class).getOffsetTable();
+    }
+
+
+    @Test
+    public void test_search_offsets_by_time() {
+        final String brokerName = this.brokerController.getBrokerConfig().getBrokerName();
+        Map<MessageQueue, Long> offsetTable = this.resetOffset(false);
+        assertEquals(QueueNums, offsetTable.size());
+        // 不强制时不会把消费进度往后调
+        assertEquals(500L, offsetTable.get(new MessageQueue(Topic, brokerName, 0)).longValue());
+        for (int i = 1; i < QueueNums; i++) {
+            assertEquals(1000L + i, offsetTable.get(new MessageQueue(Topic, brokerName, i)).longValue());
+        }
+
+        offsetTable = this.resetOffset(true);
+        assertEquals(1000L, offsetTable.get(new MessageQueue(Topic, brokerName, 0)).longValue());
+
+        // 查找都在重置线程池中执行
+        assertTrue(!this.searchThreads.isEmpty());
+        for (String threadName : this.searchThreads) {
+            assertTrue(threadName, threadName.startsWith("ResetOffsetThread_"));
+        }
+
+        // 每次重置通知一次Consumer
+        assertTrue(this.channel.readOutbound() instanceof RemotingCommand);
+        assertTrue(this.channel.readOutbound() instanceof RemotingCommand);
+    }
+}
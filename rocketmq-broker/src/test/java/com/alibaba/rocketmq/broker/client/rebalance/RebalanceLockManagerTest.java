@@ -0,0 +1,71 @@
+package com.alibaba.rocketmq.broker.client.rebalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+
+public class RebalanceLockManagerTest {
+    @Test
+    public void test_lock_unlock_and_expire() throws Exception {
+        RebalanceLockManager lockManager = new RebalanceLockManager(100);
+        MessageQueue mq = new MessageQueue("TopicTest", "broker-a", 0);
+        Set<MessageQueue> mqs = new HashSet<MessageQueue>();
+        mqs.add(mq);
+
+        assertEquals(1, lockManager.tryLockBatch("G", mqs, "c1").size());
+        assertTrue(lockManager.tryLock("G", mq, "c1"));
+        assertFalse(lockManager.tryLock("G", mq, "c2"));
+
+        lockManager.unlockBatch("G", mqs, "c1");
+        assertTrue(lockManager.tryLock("G", mq, "c2"));
+
+        // 租约到期后被清理，其他Client可以锁定
+        Thread.sleep(150);
+        assertEquals(1, lockManager.scanExpiredLock());
+        assertTrue(lockManager.tryLock("G", mq, "c1"));
+        assertEquals(0, lockManager.scanExpiredLock());
+    }
+
+
+    @Test
+    public void test_concurrent_lock_single_owner() throws Exception {
+        final RebalanceLockManager lockManager = new RebalanceLockManager(60000);
+        final MessageQueue mq = new MessageQueue("TopicTest", "broker-a", 0);
+        final AtomicInteger owners = new AtomicInteger(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            final String clientId = "c" + i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (lockManager.tryLock("G", mq, clientId)) {
+                            owners.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+        assertEquals(1, owners.get());
+    }
+}
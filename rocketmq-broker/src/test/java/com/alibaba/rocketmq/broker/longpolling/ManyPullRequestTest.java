@@ -0,0 +1,42 @@
+package com.alibaba.rocketmq.broker.longpolling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class ManyPullRequestTest {
+    private static PullRequest newPullRequest(long offset) {
+        return new PullRequest(null, null, 15000, System.currentTimeMillis(), offset);
+    }
+
+
+    @Test
+    public void test_poll_arrived_by_offset() {
+        ManyPullRequest mpr = new ManyPullRequest("TopicTest", 0);
+        PullRequest r10 = newPullRequest(10);
+        PullRequest r12 = newPullRequest(12);
+        PullRequest r20 = newPullRequest(20);
+        mpr.addPullRequest(r20);
+        mpr.addPullRequest(r10);
+        mpr.addPullRequest(r12);
+
+        // 最大Offset为10时，从10开始拉的请求仍然拉不到消息
+        assertNull(mpr.pollArrived(10));
+
+        List<PullRequest> arrived = mpr.pollArrived(13);
+        assertEquals(2, arrived.size());
+        assertTrue(arrived.contains(r10));
+        assertTrue(arrived.contains(r12));
+
+        // 已经被唤醒的请求不能再被超时取走
+        assertFalse(mpr.removePullRequest(r10));
+        assertTrue(mpr.removePullRequest(r20));
+        assertTrue(mpr.isEmpty());
+    }
+}
@@ -0,0 +1,106 @@
+package com.alibaba.rocketmq.broker.longpolling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 拉消息线程池拒绝任务时，唤醒挂起请求不能抛出异常
+ */
+public class PullRequestHoldServiceTest {
+    private static final String Topic = "TopicTest";
+
+    private String rootDir;
+    private BrokerController brokerController;
+    private DefaultMessageStore messageStore;
+    private ThreadPoolExecutor pullMessageExecutor;
+    // 被线程池拒绝的次数
+    private final AtomicInteger rejectedTimes = new AtomicInteger(0);
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = System.getProperty("java.io.tmpdir") + File.separator + "pull_hold_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(this.rootDir);
+        messageStoreConfig.setStorePathCommitLog(this.rootDir + File.separator + "commitlog");
+
+        this.messageStore = new DefaultMessageStore(messageStoreConfig, null) {
+            @Override
+            public long getMaxOffsetInQuque(String topic, int queueId) {
+                return 0;
+            }
+        };
+        this.pullMessageExecutor =
+                new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            rejectedTimes.incrementAndGet();
+                            throw new RejectedExecutionException("pull thread pool is full");
+                        }
+                    });
+        // 关闭后提交的任务都会被拒绝
+        this.pullMessageExecutor.shutdown();
+
+        this.brokerController = new BrokerController(new BrokerConfig(), new NettyServerConfig(),
+            new NettyClientConfig(), messageStoreConfig) {
+            @Override
+            public MessageStore getMessageStore() {
+                return messageStore;
+            }
+
+
+            @Override
+            public ExecutorService getPullMessageExecutor() {
+                return pullMessageExecutor;
+            }
+        };
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.brokerController.getPullRequestHoldService().shutdown();
+        this.brokerController.getBrokerStatsManager().shutdown();
+        this.messageStore.shutdown();
+        IOTinyUtils.delete(new File(this.rootDir));
+    }
+
+
+    @Test
+    public void test_wakeup_rejected() {
+        PullRequestHoldService service = this.brokerController.getPullRequestHoldService();
+        service.suspendPullRequest(Topic, 0, new PullRequest(null, null, 15000, System.currentTimeMillis(), 0));
+
+        // 分发线程通知消息到达，线程池拒绝任务的异常不会抛出
+        service.notifyMessageArriving(Topic, 0, 1);
+        assertEquals(1, this.rejectedTimes.get());
+
+        // 请求已经被取走，不会再次唤醒
+        service.notifyMessageArriving(Topic, 0, 2);
+        assertEquals(1, this.rejectedTimes.get());
+    }
+}
@@ -0,0 +1,177 @@
+package com.alibaba.rocketmq.broker.offset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
+import com.alibaba.rocketmq.common.admin.OffsetWrapper;
+import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 位点不变时命中缓存，位点移动或消息已删除时重新查询存储，以及过期缓存的清理
+ */
+public class ConsumeLagManagerTest {
+    private static final String Topic = "TopicTest";
+    private static final String Group = "GroupTest";
+
+    private String rootDir;
+    private BrokerController brokerController;
+    private DefaultMessageStore messageStore;
+    private ConsumeLagManager consumeLagManager;
+    private MessageQueue mq;
+    // 存储中每个队列的最大位点
+    private final AtomicLong maxOffset = new AtomicLong(10);
+    // 小于此位点的消息已被删除
+    private final AtomicLong minOffset = new AtomicLong(0);
+    // 查询消息存储时间的次数
+    private final AtomicInteger lookupTimes = new AtomicInteger(0);
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = System.getProperty("java.io.tmpdir") + File.separator + "consume_lag_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(this.rootDir);
+        messageStoreConfig.setStorePathCommitLog(this.rootDir + File.separator + "commitlog");
+
+        this.messageStore = new DefaultMessageStore(messageStoreConfig, null) {
+            @Override
+            public long getMaxOffsetInQuque(String topic, int queueId) {
+                return maxOffset.get();
+            }
+
+
+            @Override
+            public long getMinOffsetInQuque(String topic, int queueId) {
+                return minOffset.get();
+            }
+
+
+            @Override
+            public long getMessageStoreTimeStamp(String topic, int queueId, long offset) {
+                lookupTimes.incrementAndGet();
+                return offset < minOffset.get() ? -1 : 1000 + offset;
+            }
+        };
+        this.brokerController = new BrokerController(new BrokerConfig(), new NettyServerConfig(),
+            new NettyClientConfig(), messageStoreConfig) {
+            @Override
+            public MessageStore getMessageStore() {
+                return messageStore;
+            }
+        };
+        this.brokerController.getTopicConfigManager().updateTopicConfig(
+            new TopicConfig(Topic, 1, 1, PermName.PERM_READ | PermName.PERM_WRITE));
+        this.consumeLagManager = new ConsumeLagManager(this.brokerController);
+        this.mq = new MessageQueue(Topic, this.brokerController.getBrokerConfig().getBrokerName(), 0);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.brokerController.getBrokerStatsManager().shutdown();
+        this.messageStore.shutdown();
+        IOTinyUtils.delete(new File(this.rootDir));
+    }
+
+
+    private OffsetWrapper queryOffsetWrapper() {
+        OffsetWrapper offsetWrapper =
+                this.consumeLagManager.buildConsumeStats(Group, Topic).getOffsetTable().get(this.mq);
+        assertNotNull(offsetWrapper);
+        return offsetWrapper;
+    }
+
+
+    @Test
+    public void test_lookup_store_timestamp() {
+        this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, 0, 5);
+        assertEquals(1004, this.queryOffsetWrapper().getLastTimestamp());
+        assertEquals(1, this.lookupTimes.get());
+
+        // 位点没有变化，不再查询存储
+        assertEquals(1004, this.queryOffsetWrapper().getLastTimestamp());
+        assertEquals(1, this.lookupTimes.get());
+
+        // 位点移动后重新查询
+        this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, 0, 8);
+        assertEquals(1007, this.queryOffsetWrapper().getLastTimestamp());
+        assertEquals(2, this.lookupTimes.get());
+
+        // 消息已被删除，查询不到的结果不缓存
+        this.minOffset.set(100);
+        this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, 0, 9);
+        assertEquals(0, this.queryOffsetWrapper().getLastTimestamp());
+        assertEquals(3, this.lookupTimes.get());
+        assertEquals(0, this.queryOffsetWrapper().getLastTimestamp());
+        assertEquals(4, this.lookupTimes.get());
+    }
+
+
+    @Test
+    public void test_consume_stats_batch() {
+        this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, 0, 5);
+        ConsumeStatsBatch batch = this.consumeLagManager.buildConsumeStatsBatch();
+        assertEquals(1004, batch.getConsumeStatsTable().get(Group).getOffsetTable().get(this.mq)
+            .getLastTimestamp());
+        assertEquals(1009, batch.getLastStoreTimestampTable().get(this.mq).longValue());
+        assertEquals(2, this.lookupTimes.get());
+
+        batch = this.consumeLagManager.buildConsumeStatsBatch();
+        assertEquals(1009, batch.getLastStoreTimestampTable().get(this.mq).longValue());
+        assertEquals(2, this.lookupTimes.get());
+
+        // 有新消息写入，只重新查询队列最新一条消息
+        this.maxOffset.set(12);
+        batch = this.consumeLagManager.buildConsumeStatsBatch();
+        assertEquals(1011, batch.getLastStoreTimestampTable().get(this.mq).longValue());
+        assertEquals(3, this.lookupTimes.get());
+    }
+
+
+    @Test
+    public void test_scan_expired_cache() {
+        this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, 0, 5);
+        this.consumeLagManager.buildConsumeStatsBatch();
+        assertEquals(2, this.lookupTimes.get());
+
+        // topic与进度都还在，缓存保留
+        this.consumeLagManager.scanExpiredCache();
+        this.consumeLagManager.buildConsumeStatsBatch();
+        assertEquals(2, this.lookupTimes.get());
+
+        // 消费进度落后于存储被删除，topic也被删除，缓存随之清理
+        this.minOffset.set(100);
+        this.brokerController.getConsumerOffsetManager().scanUnsubscribedTopic();
+        assertEquals(-1, this.brokerController.getConsumerOffsetManager().queryOffset(Group, Topic, 0));
+        this.brokerController.getTopicConfigManager().deleteTopicConfig(Topic);
+        this.consumeLagManager.scanExpiredCache();
+
+        this.minOffset.set(0);
+        this.brokerController.getTopicConfigManager().updateTopicConfig(
+            new TopicConfig(Topic, 1, 1, PermName.PERM_READ | PermName.PERM_WRITE));
+        this.brokerController.getConsumerOffsetManager().commitOffset(Group, Topic, 0, 5);
+        this.consumeLagManager.buildConsumeStatsBatch();
+        assertEquals(4, this.lookupTimes.get());
+    }
+}
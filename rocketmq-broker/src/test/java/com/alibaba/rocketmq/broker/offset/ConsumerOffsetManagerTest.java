@@ -3,12 +3,21 @@
  */
 package com.alibaba.rocketmq.broker.offset;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerOffsetDeltaWrapper;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerOffsetSerializeWrapper;
 import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
 import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
@@ -49,4 +58,98 @@ public class ConsumerOffsetManagerTest {
 
         brokerController.shutdown();
     }
+
+
+    @Test
+    public void test_encode_compatible() {
+        ConsumerOffsetManager consumerOffsetManager = new ConsumerOffsetManager();
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        consumerOffsetManager.commitOffset("GROUP_A", "TOPIC_A", 3, 300);
+        consumerOffsetManager.commitOffset("GROUP_B", "TOPIC_A", 1, 10);
+
+        // json格式保持topic@group不变
+        ConsumerOffsetSerializeWrapper wrapper =
+                ConsumerOffsetSerializeWrapper.fromJson(consumerOffsetManager.encode(),
+                    ConsumerOffsetSerializeWrapper.class);
+        assertEquals(2, wrapper.getOffsetTable().get("TOPIC_A@GROUP_A").size());
+        assertEquals(300L, wrapper.getOffsetTable().get("TOPIC_A@GROUP_A").get(3).longValue());
+
+        ConsumerOffsetManager decoded = new ConsumerOffsetManager();
+        decoded.decode(consumerOffsetManager.encode());
+        assertEquals(100, decoded.queryOffset("GROUP_A", "TOPIC_A", 0));
+        assertEquals(-1, decoded.queryOffset("GROUP_A", "TOPIC_A", 1));
+        assertEquals(10, decoded.queryOffset("GROUP_B", "TOPIC_A", 1));
+    }
+
+
+    @Test
+    public void test_journal_replay() throws Exception {
+        File file = File.createTempFile("consumerOffset", ".journal");
+        file.deleteOnExit();
+
+        ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>> table =
+                new ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>>();
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(file.getPath());
+        journal.truncate();
+
+        ConsumerOffsetManager.findOrCreate(table, "TOPIC_A", "GROUP_A").set(0, 100);
+        ConsumerOffsetManager.findOrCreate(table, "TOPIC_A", "GROUP_B").set(1, 200);
+        assertEquals(2, journal.append(table));
+        // 没有变化不再写入
+        assertEquals(0, journal.append(table));
+
+        ConsumerOffsetManager.findOrCreate(table, "TOPIC_A", "GROUP_A").set(0, 150);
+        ConsumerOffsetManager.findOrCreate(table, "TOPIC_A", "GROUP_A").set(20, 5);
+        assertEquals(1, journal.append(table));
+        journal.close();
+
+        // 模拟写入一半宕机
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] { 0, 0, 0, 100, 0, 1 });
+        out.close();
+
+        ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>> replayed =
+                new ConcurrentHashMap<String, ConcurrentHashMap<String, QueueOffsetTable>>();
+        assertEquals(3, journal.replay(replayed));
+        assertEquals(150, replayed.get("TOPIC_A").get("GROUP_A").get(0));
+        assertEquals(5, replayed.get("TOPIC_A").get("GROUP_A").get(20));
+        assertEquals(200, replayed.get("TOPIC_A").get("GROUP_B").get(1));
+    }
+
+
+    @Test
+    public void test_slave_delta() {
+        ConsumerOffsetManager master = new ConsumerOffsetManager();
+        master.commitOffset("GROUP_A", "TOPIC_A", 0, 100);
+        master.commitOffset("GROUP_B", "TOPIC_A", 1, 10);
+
+        // epoch不一致时全量
+        ConsumerOffsetDeltaWrapper delta = master.buildConsumerOffsetDelta(0, 0);
+        assertTrue(delta.isFullSync());
+        assertEquals(2, delta.getOffsetTable().size());
+
+        ConsumerOffsetManager slave = new ConsumerOffsetManager();
+        slave.putAllOffsets(delta.getOffsetTable());
+        assertEquals(100, slave.queryOffset("GROUP_A", "TOPIC_A", 0));
+
+        // 没有更新时增量为空
+        delta = master.buildConsumerOffsetDelta(delta.getEpoch(), delta.getSequence());
+        assertFalse(delta.isFullSync());
+        assertEquals(0, delta.getOffsetTable().size());
+
+        master.commitOffset("GROUP_B", "TOPIC_A", 1, 20);
+        delta = master.buildConsumerOffsetDelta(delta.getEpoch(), delta.getSequence());
+        assertEquals(1, delta.getOffsetTable().size());
+        assertEquals(20L, delta.getOffsetTable().get("TOPIC_A@GROUP_B").get(1).longValue());
+
+        slave.putAllOffsets(delta.getOffsetTable());
+        assertEquals(20, slave.queryOffset("GROUP_B", "TOPIC_A", 1));
+        assertEquals(100, slave.queryOffset("GROUP_A", "TOPIC_A", 0));
+
+        // 克隆出的进度表同样会同步到Slave
+        master.cloneOffset("GROUP_A", "GROUP_C", "TOPIC_A");
+        delta = master.buildConsumerOffsetDelta(delta.getEpoch(), delta.getSequence());
+        assertEquals(1, delta.getOffsetTable().size());
+        assertEquals(100L, delta.getOffsetTable().get("TOPIC_A@GROUP_C").get(0).longValue());
+    }
 }
@@ -0,0 +1,186 @@
+package com.alibaba.rocketmq.broker.out;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.RegisterBrokerBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerRequestHeader;
+import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerResponseHeader;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 增量注册与压缩请求体在Broker与Name Server之间的往返
+ */
+public class BrokerOuterAPITest {
+    private NettyRemotingServer namesrv;
+    private BrokerOuterAPI brokerOuterAPI;
+    // Name Server收到的注册请求，按顺序记录
+    private final List<RegisterBrokerRequestHeader> requestHeaders =
+            new CopyOnWriteArrayList<RegisterBrokerRequestHeader>();
+    private final List<RegisterBrokerBody> requestBodies = new CopyOnWriteArrayList<RegisterBrokerBody>();
+    private final AtomicBoolean requireFullSync = new AtomicBoolean(false);
+
+
+    @Before
+    public void setUp() {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        this.namesrv = new NettyRemotingServer(serverConfig);
+        this.namesrv.registerProcessor(RequestCode.REGISTER_BROKER, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                RegisterBrokerRequestHeader requestHeader = (RegisterBrokerRequestHeader) request
+                    .decodeCommandCustomHeader(RegisterBrokerRequestHeader.class);
+                byte[] body = request.getBody();
+                if (Boolean.TRUE.equals(requestHeader.getCompressed())) {
+                    body = UtilAll.uncompress(body);
+                }
+                RegisterBrokerBody registerBrokerBody =
+                        RegisterBrokerBody.decode(body, RegisterBrokerBody.class);
+                requestHeaders.add(requestHeader);
+                requestBodies.add(registerBrokerBody);
+
+                RemotingCommand response =
+                        RemotingCommand.createResponseCommand(RegisterBrokerResponseHeader.class);
+                RegisterBrokerResponseHeader responseHeader =
+                        (RegisterBrokerResponseHeader) response.readCustomHeader();
+                responseHeader.setDeltaRegisterSupported(true);
+                if (registerBrokerBody.getBaseDataVersion() != null && requireFullSync.getAndSet(false)) {
+                    responseHeader.setFullSyncRequired(true);
+                }
+                response.setCode(ResponseCode.SUCCESS);
+                return response;
+            }
+        }, Executors.newSingleThreadExecutor());
+        this.namesrv.start();
+
+        this.brokerOuterAPI = new BrokerOuterAPI(new NettyClientConfig());
+        this.brokerOuterAPI.start();
+        this.brokerOuterAPI.updateNameServerAddressList("127.0.0.1:" + this.namesrv.localListenPort());
+    }
+
+
+    @After
+    public void tearDown() {
+        this.brokerOuterAPI.shutdown();
+        this.namesrv.shutdown();
+    }
+
+
+    private static TopicConfigSerializeWrapper buildWrapper(final DataVersion dataVersion,
+            final String... topics) {
+        ConcurrentHashMap<String, TopicConfig> topicConfigTable =
+                new ConcurrentHashMap<String, TopicConfig>();
+        for (String topic : topics) {
+            topicConfigTable.put(topic, new TopicConfig(topic));
+        }
+
+        TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+        DataVersion copy = new DataVersion();
+        copy.assignNewOne(dataVersion);
+        wrapper.setDataVersion(copy);
+        wrapper.setTopicConfigTable(topicConfigTable);
+        return wrapper;
+    }
+
+
+    private void registerBrokerAll(final TopicConfigSerializeWrapper full,
+            final TopicConfigSerializeWrapper delta, final List<DataVersion> bases) {
+        this.brokerOuterAPI.registerBrokerAll("DefaultCluster", "127.0.0.1:10911", "broker-a", 0,
+            "127.0.0.1:10912", full, new BrokerOuterAPI.TopicConfigDeltaBuilder() {
+                @Override
+                public TopicConfigSerializeWrapper buildDelta(DataVersion baseDataVersion) {
+                    bases.add(baseDataVersion);
+                    return delta;
+                }
+            }, true, new ArrayList<String>(), false);
+    }
+
+
+    @Test
+    public void test_delta_register_compressed() {
+        List<DataVersion> bases = new ArrayList<DataVersion>();
+        DataVersion dataVersion = new DataVersion();
+        TopicConfigSerializeWrapper full = buildWrapper(dataVersion, "TopicA", "TopicB");
+
+        // 首次注册Name Server尚未确认支持增量，全量且不压缩
+        this.registerBrokerAll(full, null, bases);
+        assertTrue(bases.isEmpty());
+        assertEquals(1, this.requestBodies.size());
+        assertFalse(Boolean.TRUE.equals(this.requestHeaders.get(0).getCompressed()));
+        assertNull(this.requestBodies.get(0).getBaseDataVersion());
+        RegisterBrokerBody body = this.requestBodies.get(0);
+        assertEquals(2, body.getTopicConfigSerializeWrapper().getTopicConfigTable().size());
+
+        // 之后只发送变更的Topic，请求体压缩，基准为上次注册的版本
+        DataVersion base = new DataVersion();
+        base.assignNewOne(dataVersion);
+        dataVersion.nextVersion();
+        full = buildWrapper(dataVersion, "TopicA", "TopicB", "TopicC");
+        this.registerBrokerAll(full, buildWrapper(dataVersion, "TopicC"), bases);
+        assertEquals(base, bases.get(0));
+        assertEquals(2, this.requestBodies.size());
+        assertTrue(this.requestHeaders.get(1).getCompressed());
+        body = this.requestBodies.get(1);
+        assertEquals(base, body.getBaseDataVersion());
+        assertEquals(dataVersion, body.getTopicConfigSerializeWrapper().getDataVersion());
+        assertEquals(1, body.getTopicConfigSerializeWrapper().getTopicConfigTable().size());
+        assertNotNull(body.getTopicConfigSerializeWrapper().getTopicConfigTable().get("TopicC"));
+    }
+
+
+    @Test
+    public void test_full_sync_required() {
+        List<DataVersion> bases = new ArrayList<DataVersion>();
+        DataVersion dataVersion = new DataVersion();
+        this.registerBrokerAll(buildWrapper(dataVersion, "TopicA"), null, bases);
+
+        // Name Server要求全量时，同一轮内重发全量配置
+        this.requireFullSync.set(true);
+        dataVersion.nextVersion();
+        TopicConfigSerializeWrapper full = buildWrapper(dataVersion, "TopicA", "TopicB");
+        this.registerBrokerAll(full, buildWrapper(dataVersion, "TopicB"), bases);
+        assertEquals(3, this.requestBodies.size());
+        assertNotNull(this.requestBodies.get(1).getBaseDataVersion());
+        RegisterBrokerBody body = this.requestBodies.get(2);
+        assertNull(body.getBaseDataVersion());
+        assertTrue(this.requestHeaders.get(2).getCompressed());
+        assertEquals(2, body.getTopicConfigSerializeWrapper().getTopicConfigTable().size());
+
+        // 全量注册成功后恢复增量
+        DataVersion base = new DataVersion();
+        base.assignNewOne(dataVersion);
+        dataVersion.nextVersion();
+        this.registerBrokerAll(buildWrapper(dataVersion, "TopicA", "TopicB", "TopicC"),
+            buildWrapper(dataVersion, "TopicC"), bases);
+        assertEquals(4, this.requestBodies.size());
+        assertEquals(base, this.requestBodies.get(3).getBaseDataVersion());
+    }
+}
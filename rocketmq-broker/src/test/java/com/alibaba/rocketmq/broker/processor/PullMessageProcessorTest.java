@@ -0,0 +1,202 @@
+package com.alibaba.rocketmq.broker.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.latency.BrokerFastFailure;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.netty.RequestTask;
+import com.alibaba.rocketmq.remoting.netty.RequestWaitTimeStats;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+/**
+ * 冷数据队列的识别、清除，以及转到冷数据线程池后的快速失败与排队时间统计
+ */
+public class PullMessageProcessorTest {
+    private static final long WaitTimeMillsInPullQueue = 100;
+
+    private String rootDir;
+    private BrokerController brokerController;
+    private PullMessageProcessor processor;
+
+
+    @Before
+    public void setUp() {
+        this.rootDir = System.getProperty("java.io.tmpdir") + File.separator + "pull_cold_"
+                + System.currentTimeMillis();
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setPullColdMessageIsolationEnable(true);
+        brokerConfig.setPullColdMessageThreadPoolNums(1);
+        brokerConfig.setWaitTimeMillsInPullQueue(WaitTimeMillsInPullQueue);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(this.rootDir);
+        messageStoreConfig.setStorePathCommitLog(this.rootDir + File.separator + "commitlog");
+
+        this.brokerController = new BrokerController(brokerConfig, new NettyServerConfig(),
+            new NettyClientConfig(), messageStoreConfig);
+        assertTrue(this.brokerController.initialize());
+        this.processor = this.brokerController.getPullMessageProcessor();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.brokerController.shutdown();
+        IOTinyUtils.delete(new File(this.rootDir));
+    }
+
+
+    private static PullMessageRequestHeader buildHeader(final String group, final int queueId) {
+        PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
+        requestHeader.setConsumerGroup(group);
+        requestHeader.setTopic("TopicTest");
+        requestHeader.setQueueId(queueId);
+        requestHeader.setQueueOffset(0L);
+        requestHeader.setMaxMsgNums(32);
+        requestHeader.setSysFlag(0);
+        requestHeader.setCommitOffset(0L);
+        requestHeader.setSuspendTimeoutMillis(0L);
+        requestHeader.setSubVersion(0L);
+        return requestHeader;
+    }
+
+
+    private static RemotingCommand buildRequest(final String group, final int queueId) {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, buildHeader(group, queueId));
+        request.makeCustomHeaderToNet();
+        return request;
+    }
+
+
+    @Test
+    public void test_cold_queue_detection() {
+        assertFalse(this.processor.isColdQueue(buildRequest("G1", 0)));
+
+        this.processor.markColdQueue(buildHeader("G1", 0), true);
+        assertTrue(this.processor.isColdQueue(buildRequest("G1", 0)));
+        assertFalse(this.processor.isColdQueue(buildRequest("G1", 1)));
+        assertFalse(this.processor.isColdQueue(buildRequest("G2", 0)));
+
+        // 追上内存中的数据后回到普通线程池
+        this.processor.markColdQueue(buildHeader("G1", 0), false);
+        assertFalse(this.processor.isColdQueue(buildRequest("G1", 0)));
+    }
+
+
+    @Test
+    public void test_cold_queue_eviction() throws Exception {
+        this.processor.markColdQueue(buildHeader("G1", 0), true);
+        this.processor.markColdQueue(buildHeader("G1", 1), true);
+        this.processor.markColdQueue(buildHeader("G2", 0), true);
+
+        // 订阅组下线
+        this.processor.removeColdQueue("G1");
+        assertFalse(this.processor.isColdQueue(buildRequest("G1", 0)));
+        assertFalse(this.processor.isColdQueue(buildRequest("G1", 1)));
+        assertTrue(this.processor.isColdQueue(buildRequest("G2", 0)));
+
+        // 长时间没有拉取
+        assertEquals(0, this.processor.scanIdleColdQueue(PullMessageProcessor.ColdQueueIdleMillis));
+        Thread.sleep(20);
+        assertEquals(1, this.processor.scanIdleColdQueue(10));
+        assertFalse(this.processor.isColdQueue(buildRequest("G2", 0)));
+    }
+
+
+    @Test
+    public void test_cold_pull_fast_fail() throws Exception {
+        this.processor.markColdQueue(buildHeader("G1", 0), true);
+
+        // 占住冷数据线程池唯一的线程，让请求在队列中排队
+        final CountDownLatch blocker = new CountDownLatch(1);
+        this.brokerController.getPullColdMessageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                }
+                catch (InterruptedException e) {
+                }
+            }
+        });
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        try {
+            RemotingCommand request = buildRequest("G1", 0);
+            assertNull(this.processor.processRequest(channel.pipeline().firstContext(), request));
+            assertEquals(1, this.brokerController.getPullColdThreadPoolQueue().size());
+
+            Thread.sleep(WaitTimeMillsInPullQueue * 2);
+            assertEquals(1, BrokerFastFailure.cleanExpiredRequestInQueue(
+                this.brokerController.getPullColdThreadPoolQueue(), WaitTimeMillsInPullQueue));
+
+            RemotingCommand response = (RemotingCommand) channel.readOutbound();
+            assertEquals(RemotingSysResponseCode.SYSTEM_BUSY, response.getCode());
+            assertEquals(request.getOpaque(), response.getOpaque());
+        }
+        finally {
+            blocker.countDown();
+            channel.finish();
+        }
+    }
+
+
+    @Test
+    public void test_cold_pull_wait_time_recorded_once() throws Exception {
+        this.processor.markColdQueue(buildHeader("G1", 0), true);
+        final RequestWaitTimeStats waitTimeStats =
+                this.brokerController.getRemotingServer().getRequestWaitTimeStats();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        try {
+            // 与通信层一样包装成RequestTask执行，冷数据请求再转到冷数据线程池
+            final RemotingCommand request = buildRequest("G1", 0);
+            final EmbeddedChannel ch = channel;
+            new RequestTask(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        assertNull(processor.processRequest(ch.pipeline().firstContext(), request));
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, channel, request, waitTimeStats).run();
+
+            // 冷数据线程池只有一个线程，后提交的任务完成时拉消息请求已经执行完
+            this.brokerController.getPullColdMessageExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(3, TimeUnit.SECONDS);
+
+            assertEquals(1, waitTimeStats.getWaitTimeTable().get(RequestCode.PULL_MESSAGE).getCount().get());
+        }
+        finally {
+            channel.finish();
+        }
+    }
+}
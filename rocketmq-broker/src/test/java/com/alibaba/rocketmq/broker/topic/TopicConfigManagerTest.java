@@ -3,14 +3,24 @@
  */
 package com.alibaba.rocketmq.broker.topic;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.Test;
 
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
 import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
 import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
@@ -50,4 +60,160 @@ public class TopicConfigManagerTest {
 
         brokerController.shutdown();
     }
+
+
+    private static BrokerController buildBrokerController(final String rootDir) {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        return new BrokerController(new BrokerConfig(), new NettyServerConfig(), new NettyClientConfig(),
+            messageStoreConfig);
+    }
+
+
+    private static DataVersion copyDataVersion(final DataVersion dataVersion) {
+        DataVersion copy = new DataVersion();
+        copy.assignNewOne(dataVersion);
+        return copy;
+    }
+
+
+    @Test
+    public void test_buildTopicConfigDelta() throws Exception {
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "topic_delta_"
+                + System.currentTimeMillis();
+        try {
+            TopicConfigManager topicConfigManager = buildBrokerController(rootDir).getTopicConfigManager();
+            DataVersion base = copyDataVersion(topicConfigManager.getDataVersion());
+            topicConfigManager.updateTopicConfig(new TopicConfig("TopicA"));
+            topicConfigManager.updateTopicConfig(new TopicConfig("TopicB"));
+
+            // 只包含基准版本之后变更的Topic
+            TopicConfigSerializeWrapper delta = topicConfigManager.buildTopicConfigDelta(base);
+            assertEquals(2, delta.getTopicConfigTable().size());
+            assertTrue(delta.getTopicConfigTable().containsKey("TopicA"));
+            assertTrue(delta.getTopicConfigTable().containsKey("TopicB"));
+            assertEquals(topicConfigManager.getDataVersion(), delta.getDataVersion());
+
+            base = delta.getDataVersion();
+            topicConfigManager.updateTopicConfig(new TopicConfig("TopicC"));
+            delta = topicConfigManager.buildTopicConfigDelta(base);
+            assertEquals(1, delta.getTopicConfigTable().size());
+            assertTrue(delta.getTopicConfigTable().containsKey("TopicC"));
+
+            // 版本号比当前还新，不是本进程产生的版本
+            DataVersion unknown = copyDataVersion(topicConfigManager.getDataVersion());
+            unknown.nextVersion();
+            assertNull(topicConfigManager.buildTopicConfigDelta(unknown));
+        }
+        finally {
+            IOTinyUtils.delete(new File(rootDir));
+        }
+    }
+
+
+    @Test
+    public void test_applyTopicConfigDelta() throws Exception {
+        String masterRootDir = System.getProperty("java.io.tmpdir") + File.separator + "topic_delta_master_"
+                + System.currentTimeMillis();
+        String slaveRootDir = System.getProperty("java.io.tmpdir") + File.separator + "topic_delta_slave_"
+                + System.currentTimeMillis();
+        try {
+            TopicConfigManager master = buildBrokerController(masterRootDir).getTopicConfigManager();
+            TopicConfigManager slave = buildBrokerController(slaveRootDir).getTopicConfigManager();
+            master.updateTopicConfig(new TopicConfig("TopicA"));
+            master.updateTopicConfig(new TopicConfig("TopicB"));
+            slave.updateTopicConfig(new TopicConfig("TopicSlaveOnly"));
+
+            // 首次同步没有基准版本，全量覆盖
+            TopicConfigDeltaWrapper delta = master.buildTopicConfigDeltaWrapper(null);
+            assertTrue(delta.isFullSync());
+            slave.applyTopicConfigDelta(delta);
+            assertEquals(master.getTopicConfigTable().keySet(), slave.getTopicConfigTable().keySet());
+            assertEquals(master.getDataVersion(), slave.getDataVersion());
+
+            TopicConfig topicConfig = new TopicConfig("TopicA");
+            topicConfig.setWriteQueueNums(8);
+            master.updateTopicConfig(topicConfig);
+            master.deleteTopicConfig("TopicB");
+
+            delta = master.buildTopicConfigDeltaWrapper(copyDataVersion(slave.getDataVersion()));
+            assertFalse(delta.isFullSync());
+            assertEquals(1, delta.getTopicConfigTable().size());
+            assertTrue(delta.getRemovedTopics().contains("TopicB"));
+
+            slave.applyTopicConfigDelta(delta);
+            assertEquals(8, slave.selectTopicConfig("TopicA").getWriteQueueNums());
+            assertNull(slave.selectTopicConfig("TopicB"));
+            assertEquals(master.getTopicConfigTable().keySet(), slave.getTopicConfigTable().keySet());
+            assertEquals(master.getDataVersion(), slave.getDataVersion());
+        }
+        finally {
+            IOTinyUtils.delete(new File(masterRootDir));
+            IOTinyUtils.delete(new File(slaveRootDir));
+        }
+    }
+
+
+    @Test
+    public void test_prune_removed_topics() throws Exception {
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "topic_prune_"
+                + System.currentTimeMillis();
+        try {
+            TopicConfigManager master = buildBrokerController(rootDir).getTopicConfigManager();
+            master.updateTopicConfig(new TopicConfig("TopicA"));
+            master.updateTopicConfig(new TopicConfig("TopicB"));
+            DataVersion beforeDelete = copyDataVersion(master.getDataVersion());
+            master.deleteTopicConfig("TopicB");
+
+            TopicConfigDeltaWrapper delta = master.buildTopicConfigDeltaWrapper(beforeDelete);
+            assertFalse(delta.isFullSync());
+            assertTrue(delta.getRemovedTopics().contains("TopicB"));
+
+            // Slave已越过删除记录，删除记录被清除
+            delta = master.buildTopicConfigDeltaWrapper(copyDataVersion(delta.getDataVersion()));
+            assertFalse(delta.isFullSync());
+            assertTrue(delta.getRemovedTopics().isEmpty());
+
+            // 更早的基准版本无法再得知删除，改为全量同步
+            delta = master.buildTopicConfigDeltaWrapper(beforeDelete);
+            assertTrue(delta.isFullSync());
+            assertFalse(delta.getTopicConfigTable().containsKey("TopicB"));
+        }
+        finally {
+            IOTinyUtils.delete(new File(rootDir));
+        }
+    }
+
+
+    @Test
+    public void test_journal_keeps_latest_value() throws Exception {
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "topic_journal_"
+                + System.currentTimeMillis();
+        try {
+            final BrokerController brokerController = buildBrokerController(rootDir);
+            brokerController.getBrokerConfig().setConfigJournalEnable(true);
+            final AtomicBoolean raced = new AtomicBoolean(false);
+            TopicConfigManager topicConfigManager = new TopicConfigManager(brokerController) {
+                @Override
+                public synchronized void persist(String key) {
+                    // 第一次追加日志前，另一个更新抢先修改内存并写完日志
+                    if (raced.compareAndSet(false, true)) {
+                        this.updateTopicConfig(new TopicConfig("TopicA", 8, 8, 6));
+                    }
+                    super.persist(key);
+                }
+            };
+            topicConfigManager.updateTopicConfig(new TopicConfig("TopicA", 4, 4, 6));
+            assertEquals(8, topicConfigManager.selectTopicConfig("TopicA").getReadQueueNums());
+
+            // 回放日志得到的是内存中的最新值
+            TopicConfigManager reloaded = new TopicConfigManager(brokerController);
+            assertTrue(reloaded.load());
+            assertEquals(8, reloaded.selectTopicConfig("TopicA").getReadQueueNums());
+        }
+        finally {
+            IOTinyUtils.delete(new File(rootDir));
+        }
+    }
 }
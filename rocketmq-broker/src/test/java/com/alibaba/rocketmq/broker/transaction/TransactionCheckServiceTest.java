@@ -0,0 +1,161 @@
+package com.alibaba.rocketmq.broker.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.client.ClientChannelInfo;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+/**
+ * Prepared消息记录、超时回查、结束事务后不再回查，以及回查次数上限
+ */
+public class TransactionCheckServiceTest {
+    private static final String ProducerGroup = "PG_TRANSACTION_TEST";
+
+    private String rootDir;
+    private BrokerController brokerController;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = System.getProperty("java.io.tmpdir") + File.separator + "transaction_check_"
+                + System.currentTimeMillis();
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTransactionCheckEnable(true);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(this.rootDir);
+        messageStoreConfig.setStorePathCommitLog(this.rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+
+        this.brokerController = new BrokerController(brokerConfig, new NettyServerConfig(),
+            new NettyClientConfig(), messageStoreConfig);
+        assertTrue(this.brokerController.initialize());
+        this.brokerController.getMessageStore().start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.brokerController.shutdown();
+        IOTinyUtils.delete(new File(this.rootDir));
+    }
+
+
+    private long putPreparedMessage() throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic("TopicTest");
+        msg.setBody("Hello".getBytes());
+        msg.setQueueId(0);
+        msg.setSysFlag(MessageSysFlag.TransactionPreparedType);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 10911));
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+        PutMessageResult result = this.brokerController.getMessageStore().putMessage(msg);
+        assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        return result.getAppendMessageResult().getWroteOffset();
+    }
+
+
+    private static long checkTimesTotal(final TransactionCheckService service) {
+        HashMap<String, String> runtimeInfo = new HashMap<String, String>();
+        service.buildRuntimeInfo(runtimeInfo);
+        return Long.parseLong(runtimeInfo.get("transactionCheckTimesTotal"));
+    }
+
+
+    @Test
+    public void test_prepared_check_ended() throws Exception {
+        TransactionCheckService service = this.brokerController.getTransactionCheckService();
+        assertNotNull(service);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        this.brokerController.getProducerManager().registerProducer(ProducerGroup,
+            new ClientChannelInfo(channel));
+
+        long offset = this.putPreparedMessage();
+        long timeout = this.brokerController.getBrokerConfig().getTransactionTimeoutMillis();
+        service.prepared(offset, ProducerGroup, System.currentTimeMillis() - timeout - 1000);
+
+        // 新写入的事务未超时，不回查
+        long fresh = this.putPreparedMessage();
+        service.prepared(fresh, ProducerGroup, System.currentTimeMillis());
+
+        service.checkTransactionState();
+        assertEquals(1, checkTimesTotal(service));
+        Object checkRequest = channel.readOutbound();
+        assertTrue(checkRequest instanceof FileRegion);
+        ((FileRegion) checkRequest).release();
+        assertNull(channel.readOutbound());
+
+        // Producer结束事务后不再回查
+        service.ended(offset);
+        service.checkTransactionState();
+        assertEquals(1, checkTimesTotal(service));
+        assertNull(channel.readOutbound());
+
+        HashMap<String, String> runtimeInfo = new HashMap<String, String>();
+        service.buildRuntimeInfo(runtimeInfo);
+        assertEquals("1", runtimeInfo.get("transactionPendingCount"));
+
+        channel.close();
+    }
+
+
+    @Test
+    public void test_drop_after_check_max() throws Exception {
+        TransactionCheckService service = this.brokerController.getTransactionCheckService();
+        this.brokerController.getBrokerConfig().setTransactionCheckMax(3);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        this.brokerController.getProducerManager().registerProducer(ProducerGroup,
+            new ClientChannelInfo(channel));
+
+        long offset = this.putPreparedMessage();
+        long timeout = this.brokerController.getBrokerConfig().getTransactionTimeoutMillis();
+        service.prepared(offset, ProducerGroup, System.currentTimeMillis() - timeout - 1000);
+
+        // Producer一直不结束事务，回查3次后丢弃
+        for (int i = 0; i < 5; i++) {
+            service.checkTransactionState();
+            Object checkRequest = channel.readOutbound();
+            if (checkRequest != null) {
+                ((FileRegion) checkRequest).release();
+            }
+        }
+        assertEquals(3, checkTimesTotal(service));
+
+        HashMap<String, String> runtimeInfo = new HashMap<String, String>();
+        service.buildRuntimeInfo(runtimeInfo);
+        assertEquals("0", runtimeInfo.get("transactionPendingCount"));
+        assertEquals("1", runtimeInfo.get("transactionCheckDropTimesTotal"));
+
+        channel.close();
+    }
+}
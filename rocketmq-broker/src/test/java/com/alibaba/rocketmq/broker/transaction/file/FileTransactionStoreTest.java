@@ -0,0 +1,109 @@
+package com.alibaba.rocketmq.broker.transaction.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.transaction.TransactionRecord;
+
+
+public class FileTransactionStoreTest {
+
+    private FileTransactionStoreConfig buildConfig() {
+        FileTransactionStoreConfig config = new FileTransactionStoreConfig();
+        config.setStorePathTransaction(System.getProperty("java.io.tmpdir") + File.separator
+                + "transaction_store_" + System.currentTimeMillis());
+        // 每个文件只能存放少量记录，便于测试换文件与压缩
+        config.setMapedFileSizeTransaction(1024);
+        return config;
+    }
+
+
+    private List<TransactionRecord> buildRecords(long begin, long end) {
+        List<TransactionRecord> trs = new ArrayList<TransactionRecord>();
+        for (long i = begin; i < end; i++) {
+            TransactionRecord tr = new TransactionRecord();
+            tr.setOffset(i);
+            tr.setProducerGroup("PG_" + i);
+            trs.add(tr);
+        }
+        return trs;
+    }
+
+
+    @Test
+    public void test_put_remove_recover() {
+        FileTransactionStoreConfig config = this.buildConfig();
+        FileTransactionStore store = new FileTransactionStore(config);
+        Assert.assertTrue(store.open());
+        try {
+            Assert.assertTrue(store.put(this.buildRecords(0, 100)));
+
+            List<Long> pks = new ArrayList<Long>();
+            for (long i = 0; i < 100; i += 2) {
+                pks.add(i);
+            }
+            store.remove(pks);
+
+            Assert.assertEquals(50, store.totalRecords());
+            Assert.assertEquals(1, store.minPK());
+            Assert.assertEquals(99, store.maxPK());
+
+            List<TransactionRecord> trs = store.traverse(51, 10);
+            Assert.assertEquals(10, trs.size());
+            Assert.assertEquals(51, trs.get(0).getOffset());
+            Assert.assertEquals(69, trs.get(9).getOffset());
+            store.close();
+
+            // 重新打开，从日志恢复未结束的事务
+            store = new FileTransactionStore(config);
+            Assert.assertTrue(store.open());
+            Assert.assertEquals(50, store.totalRecords());
+            trs = store.traverse(0, 100);
+            Assert.assertEquals(50, trs.size());
+            Assert.assertEquals(1, trs.get(0).getOffset());
+            Assert.assertEquals("PG_1", trs.get(0).getProducerGroup());
+            Assert.assertTrue(trs.get(0).getTimestamp() > 0);
+        }
+        finally {
+            store.close();
+            store.destroy();
+        }
+    }
+
+
+    @Test
+    public void test_compact() {
+        FileTransactionStoreConfig config = this.buildConfig();
+        FileTransactionStore store = new FileTransactionStore(config);
+        Assert.assertTrue(store.open());
+        try {
+            Assert.assertTrue(store.put(this.buildRecords(0, 200)));
+
+            List<Long> pks = new ArrayList<Long>();
+            for (long i = 1; i < 200; i++) {
+                pks.add(i);
+            }
+            store.remove(pks);
+            Assert.assertEquals(1, store.totalRecords());
+
+            // 只剩pk为0的事务，压缩后旧文件都被删除
+            store.compact();
+            store.compact();
+            Assert.assertTrue(new File(config.getStorePathTransaction()).list().length <= 2);
+            store.close();
+
+            store = new FileTransactionStore(config);
+            Assert.assertTrue(store.open());
+            Assert.assertEquals(1, store.totalRecords());
+            Assert.assertEquals("PG_0", store.traverse(0, 10).get(0).getProducerGroup());
+        }
+        finally {
+            store.close();
+            store.destroy();
+        }
+    }
+}
@@ -37,6 +37,15 @@ public class ClientConfig {
      * Pulling topic information interval from the named server
      */
     private int pollNameServerInteval = 1000 * 30;
+    /**
+     * Subscribe topic route change notification from the name server
+     */
+    private boolean topicRouteNotifyEnable = Boolean.parseBoolean(System.getProperty(
+        "rocketmq.client.topicRouteNotifyEnable", "false"));
+    /**
+     * Fallback full polling interval while route change notification is available
+     */
+    private int pollNameServerIntevalWhenNotified = 1000 * 60 * 5;
     /**
      * Heartbeat interval in microseconds with message broker
      */
@@ -45,6 +54,11 @@ public class ClientConfig {
      * Offset persistent interval for consumer
      */
     private int persistConsumerOffsetInterval = 1000 * 5;
+    /**
+     * Connections per broker address, requests to a chosen queue stick to one of them
+     */
+    private int clientChannelsPerBroker = Integer.parseInt(System.getProperty(
+        "rocketmq.client.channelsPerBroker", "1"));
 
 
     public String buildMQClientId() {
@@ -71,8 +85,11 @@ public class ClientConfig {
         this.instanceName = cc.instanceName;
         this.clientCallbackExecutorThreads = cc.clientCallbackExecutorThreads;
         this.pollNameServerInteval = cc.pollNameServerInteval;
+        this.topicRouteNotifyEnable = cc.topicRouteNotifyEnable;
+        this.pollNameServerIntevalWhenNotified = cc.pollNameServerIntevalWhenNotified;
         this.heartbeatBrokerInterval = cc.heartbeatBrokerInterval;
         this.persistConsumerOffsetInterval = cc.persistConsumerOffsetInterval;
+        this.clientChannelsPerBroker = cc.clientChannelsPerBroker;
     }
 
 
@@ -83,8 +100,11 @@ public class ClientConfig {
         cc.instanceName = instanceName;
         cc.clientCallbackExecutorThreads = clientCallbackExecutorThreads;
         cc.pollNameServerInteval = pollNameServerInteval;
+        cc.topicRouteNotifyEnable = topicRouteNotifyEnable;
+        cc.pollNameServerIntevalWhenNotified = pollNameServerIntevalWhenNotified;
         cc.heartbeatBrokerInterval = heartbeatBrokerInterval;
         cc.persistConsumerOffsetInterval = persistConsumerOffsetInterval;
+        cc.clientChannelsPerBroker = clientChannelsPerBroker;
         return cc;
     }
 
@@ -139,6 +159,26 @@ public class ClientConfig {
     }
 
 
+    public boolean isTopicRouteNotifyEnable() {
+        return topicRouteNotifyEnable;
+    }
+
+
+    public void setTopicRouteNotifyEnable(boolean topicRouteNotifyEnable) {
+        this.topicRouteNotifyEnable = topicRouteNotifyEnable;
+    }
+
+
+    public int getPollNameServerIntevalWhenNotified() {
+        return pollNameServerIntevalWhenNotified;
+    }
+
+
+    public void setPollNameServerIntevalWhenNotified(int pollNameServerIntevalWhenNotified) {
+        this.pollNameServerIntevalWhenNotified = pollNameServerIntevalWhenNotified;
+    }
+
+
     public int getHeartbeatBrokerInterval() {
         return heartbeatBrokerInterval;
     }
@@ -159,11 +199,23 @@ public class ClientConfig {
     }
 
 
+    public int getClientChannelsPerBroker() {
+        return clientChannelsPerBroker;
+    }
+
+
+    public void setClientChannelsPerBroker(int clientChannelsPerBroker) {
+        this.clientChannelsPerBroker = clientChannelsPerBroker;
+    }
+
+
     @Override
     public String toString() {
         return "ClientConfig [namesrvAddr=" + namesrvAddr + ", clientIP=" + clientIP + ", instanceName="
                 + instanceName + ", clientCallbackExecutorThreads=" + clientCallbackExecutorThreads
-                + ", pollNameServerInteval=" + pollNameServerInteval + ", heartbeatBrokerInterval="
+                + ", pollNameServerInteval=" + pollNameServerInteval + ", topicRouteNotifyEnable="
+                + topicRouteNotifyEnable + ", pollNameServerIntevalWhenNotified="
+                + pollNameServerIntevalWhenNotified + ", heartbeatBrokerInterval="
                 + heartbeatBrokerInterval + ", persistConsumerOffsetInterval=" + persistConsumerOffsetInterval
                 + "]";
     }
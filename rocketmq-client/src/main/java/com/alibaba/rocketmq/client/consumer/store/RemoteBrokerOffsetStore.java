@@ -29,9 +29,14 @@ import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchBody;
 import com.alibaba.rocketmq.common.protocol.header.QueryConsumerOffsetRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.UpdateConsumerOffsetRequestHeader;
+import com.alibaba.rocketmq.remoting.InvokeCallback;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
+import com.alibaba.rocketmq.remoting.netty.ResponseFuture;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 
 
 /**
@@ -42,6 +47,11 @@ import com.alibaba.rocketmq.remoting.exception.RemotingException;
  */
 public class RemoteBrokerOffsetStore implements OffsetStore {
     private final static Logger log = ClientLogger.getLog();
+    // 不支持批量提交进度的Broker，过期后重新探测，Broker升级后可恢复批量提交
+    final static long BatchUnsupportedExpireMillis = 1000 * 60 * 10;
+    private final static ConcurrentHashMap<String/* brokerAddr */, Long/* mark time */> //
+    BatchUnsupportedBrokerAddrs =
+            new ConcurrentHashMap<String, Long>();
     private final MQClientInstance mQClientFactory;
     private final String groupName;
     private final AtomicLong storeTimesTotal = new AtomicLong(0);
@@ -128,27 +138,57 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
         final HashSet<MessageQueue> unusedMQ = new HashSet<MessageQueue>();
         long times = this.storeTimesTotal.getAndIncrement();
 
-        if (mqs != null && !mqs.isEmpty()) {
-            for (MessageQueue mq : this.offsetTable.keySet()) {
+        // 按Broker聚合，每个Broker一次RPC提交所有队列
+        final HashMap<String/* brokerName */, List<MessageQueue>> brokerMQTable =
+                new HashMap<String, List<MessageQueue>>();
+        for (MessageQueue mq : this.offsetTable.keySet()) {
+            if (mqs.contains(mq)) {
+                List<MessageQueue> mqList = brokerMQTable.get(mq.getBrokerName());
+                if (null == mqList) {
+                    mqList = new ArrayList<MessageQueue>();
+                    brokerMQTable.put(mq.getBrokerName(), mqList);
+                }
+                mqList.add(mq);
+            }
+            else {
+                unusedMQ.add(mq);
+            }
+        }
+
+        for (Map.Entry<String, List<MessageQueue>> entry : brokerMQTable.entrySet()) {
+            try {
+                if (this.updateConsumeOffsetToBrokerBatch(entry.getKey(), entry.getValue())) {
+                    if ((times % 12) == 0) {
+                        log.info("Group: {} ClientId: {} updateConsumeOffsetToBroker batch {} {}", //
+                            this.groupName, //
+                            this.mQClientFactory.getClientId(), //
+                            entry.getKey(), //
+                            entry.getValue().size());
+                    }
+                    continue;
+                }
+            }
+            catch (Exception e) {
+                log.error("updateConsumeOffsetToBroker batch exception, " + entry.getKey(), e);
+                continue;
+            }
+
+            // Broker不支持批量提交，逐个队列提交
+            for (MessageQueue mq : entry.getValue()) {
                 AtomicLong offset = this.offsetTable.get(mq);
                 if (offset != null) {
-                    if (mqs.contains(mq)) {
-                        try {
-                            this.updateConsumeOffsetToBroker(mq, offset.get());
-                            if ((times % 12) == 0) {
-                                log.info("Group: {} ClientId: {} updateConsumeOffsetToBroker {} {}", //
-                                    this.groupName, //
-                                    this.mQClientFactory.getClientId(), //
-                                    mq, //
-                                    offset.get());
-                            }
-                        }
-                        catch (Exception e) {
-                            log.error("updateConsumeOffsetToBroker exception, " + mq.toString(), e);
+                    try {
+                        this.updateConsumeOffsetToBroker(mq, offset.get());
+                        if ((times % 12) == 0) {
+                            log.info("Group: {} ClientId: {} updateConsumeOffsetToBroker {} {}", //
+                                this.groupName, //
+                                this.mQClientFactory.getClientId(), //
+                                mq, //
+                                offset.get());
                         }
                     }
-                    else {
-                        unusedMQ.add(mq);
+                    catch (Exception e) {
+                        log.error("updateConsumeOffsetToBroker exception, " + mq.toString(), e);
                     }
                 }
             }
@@ -207,6 +247,98 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
     }
 
 
+    /**
+     * 批量提交同一个Broker上的队列进度
+     *
+     * @return 已知Broker不支持批量提交时返回false，由调用方逐个队列提交
+     */
+    private boolean updateConsumeOffsetToBrokerBatch(final String brokerName, final List<MessageQueue> mqs)
+            throws RemotingException, InterruptedException, MQClientException {
+        FindBrokerResult findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(brokerName);
+        if (null == findBrokerResult) {
+            this.mQClientFactory.updateTopicRouteInfoFromNameServer(mqs.get(0).getTopic());
+            findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(brokerName);
+        }
+
+        if (null == findBrokerResult) {
+            throw new MQClientException("The broker[" + brokerName + "] not exist", null);
+        }
+
+        final String brokerAddr = findBrokerResult.getBrokerAddr();
+        if (isBatchUnsupported(brokerAddr, System.currentTimeMillis())) {
+            return false;
+        }
+
+        UpdateConsumerOffsetBatchBody body = new UpdateConsumerOffsetBatchBody();
+        for (MessageQueue mq : mqs) {
+            AtomicLong offset = this.offsetTable.get(mq);
+            if (offset != null) {
+                body.addOffset(mq.getTopic(), mq.getQueueId(), offset.get());
+            }
+        }
+
+        // 异步提交，不阻塞持久化线程；Broker不支持时在回调中降级为逐个队列提交
+        this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetBatch(brokerAddr, this.groupName, body,
+            1000 * 5, new InvokeCallback() {
+                @Override
+                public void operationComplete(ResponseFuture responseFuture) {
+                    RemotingCommand response = responseFuture.getResponseCommand();
+                    if (null == response) {
+                        log.warn("updateConsumeOffsetToBroker batch failed, broker: {} sendRequestOK: {}",
+                            brokerAddr, responseFuture.isSendRequestOK());
+                        return;
+                    }
+
+                    if (ResponseCode.REQUEST_CODE_NOT_SUPPORTED == response.getCode()) {
+                        markBatchUnsupported(brokerAddr, System.currentTimeMillis());
+                        log.warn("broker {} not support batch update consumer offset, fallback", brokerAddr);
+                        RemoteBrokerOffsetStore.this.updateConsumeOffsetToBrokerOneByOne(mqs);
+                    }
+                    else if (response.getCode() != ResponseCode.SUCCESS) {
+                        log.warn("updateConsumeOffsetToBroker batch failed, broker: {} code: {} remark: {}",
+                            brokerAddr, response.getCode(), response.getRemark());
+                    }
+                }
+            });
+        return true;
+    }
+
+
+    private void updateConsumeOffsetToBrokerOneByOne(final List<MessageQueue> mqs) {
+        for (MessageQueue mq : mqs) {
+            AtomicLong offset = this.offsetTable.get(mq);
+            if (offset != null) {
+                try {
+                    this.updateConsumeOffsetToBroker(mq, offset.get());
+                }
+                catch (Exception e) {
+                    log.error("updateConsumeOffsetToBroker exception, " + mq.toString(), e);
+                }
+            }
+        }
+    }
+
+
+    static boolean isBatchUnsupported(final String brokerAddr, final long now) {
+        Long timestamp = BatchUnsupportedBrokerAddrs.get(brokerAddr);
+        if (null == timestamp) {
+            return false;
+        }
+
+        if (now - timestamp >= BatchUnsupportedExpireMillis) {
+            BatchUnsupportedBrokerAddrs.remove(brokerAddr, timestamp);
+            return false;
+        }
+
+        return true;
+    }
+
+
+    static void markBatchUnsupported(final String brokerAddr, final long timestamp) {
+        BatchUnsupportedBrokerAddrs.put(brokerAddr, timestamp);
+    }
+
+
     private long fetchConsumeOffsetFromBroker(MessageQueue mq)
             throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
         FindBrokerResult findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(mq.getBrokerName());
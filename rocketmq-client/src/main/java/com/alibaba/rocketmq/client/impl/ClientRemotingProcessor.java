@@ -17,10 +17,13 @@ package com.alibaba.rocketmq.client.impl;
 
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 
+import com.alibaba.rocketmq.client.VirtualEnvUtil;
 import com.alibaba.rocketmq.client.impl.factory.MQClientInstance;
 import com.alibaba.rocketmq.client.impl.producer.MQProducerInner;
 import com.alibaba.rocketmq.client.log.ClientLogger;
@@ -35,6 +38,7 @@ import com.alibaba.rocketmq.common.protocol.body.ConsumeMessageDirectlyResult;
 import com.alibaba.rocketmq.common.protocol.body.ConsumerRunningInfo;
 import com.alibaba.rocketmq.common.protocol.body.GetConsumerStatusBody;
 import com.alibaba.rocketmq.common.protocol.body.ResetOffsetBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicList;
 import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
@@ -75,6 +79,9 @@ public class ClientRemotingProcessor implements NettyRequestProcessor {
 
         case RequestCode.CONSUME_MESSAGE_DIRECTLY:
             return this.consumeMessageDirectly(ctx, request);
+
+        case RequestCode.NOTIFY_TOPIC_ROUTE_CHANGED:
+            return this.notifyTopicRouteChanged(ctx, request);
         default:
             break;
         }
@@ -185,6 +192,37 @@ public class ClientRemotingProcessor implements NettyRequestProcessor {
     }
 
 
+    /**
+     * Name Server通知Topic路由变化，立即从Name Server拉取最新路由
+     */
+    public RemotingCommand notifyTopicRouteChanged(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        try {
+            if (request.getBody() != null) {
+                TopicList topicList = TopicList.decode(request.getBody(), TopicList.class);
+                String projectGroupPrefix = this.mqClientFactory.getMQClientAPIImpl().getProjectGroupPrefix();
+                Set<String> topics = new HashSet<String>();
+                for (String topic : topicList.getTopicList()) {
+                    if (!UtilAll.isBlank(projectGroupPrefix)) {
+                        topics.add(VirtualEnvUtil.clearProjectGroup(topic, projectGroupPrefix));
+                    }
+                    else {
+                        topics.add(topic);
+                    }
+                }
+
+                log.info("receive name server's notification[{}], topic route changed: {}",
+                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()), topics);
+                this.mqClientFactory.onTopicRouteChanged(topics);
+            }
+        }
+        catch (Exception e) {
+            log.error("notifyTopicRouteChanged exception", RemotingHelper.exceptionSimpleDesc(e));
+        }
+        return null;
+    }
+
+
     public RemotingCommand resetOffset(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final ResetOffsetRequestHeader requestHeader =
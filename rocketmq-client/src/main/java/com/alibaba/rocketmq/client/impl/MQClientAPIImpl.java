@@ -15,6 +15,7 @@
  */
 package com.alibaba.rocketmq.client.impl;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.*;
@@ -38,6 +39,7 @@ import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.admin.ConsumeStats;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
 import com.alibaba.rocketmq.common.admin.OffsetWrapper;
 import com.alibaba.rocketmq.common.admin.TopicOffset;
 import com.alibaba.rocketmq.common.admin.TopicStatsTable;
@@ -91,6 +93,12 @@ public class MQClientAPIImpl {
     // nameserver IP地址
     private String nameSrvAddr = null;
     private String projectGroupPrefix;
+    // 不支持路由变更通知的Name Server，老版本对未知请求不应答，过期后重新探测
+    final static long TopicRouteListenerUnsupportedExpireMillis = 1000 * 60 * 10;
+    private final ConcurrentHashMap<String/* namesrvAddr */, Long/* mark time */> //
+    topicRouteListenerUnsupportedTable = new ConcurrentHashMap<String, Long>();
+    // 各Client从不同的Name Server开始订阅，分散通知压力
+    private final int topicRouteListenerIndex = Math.abs(new Random().nextInt(999));
 
 
     public MQClientAPIImpl(final NettyClientConfig nettyClientConfig,
@@ -116,6 +124,9 @@ public class MQClientAPIImpl {
 
         this.remotingClient.registerProcessor(RequestCode.CONSUME_MESSAGE_DIRECTLY,
             this.clientRemotingProcessor, null);
+
+        this.remotingClient.registerProcessor(RequestCode.NOTIFY_TOPIC_ROUTE_CHANGED,
+            this.clientRemotingProcessor, null);
     }
 
 
@@ -302,6 +313,18 @@ public class MQClientAPIImpl {
             final SendMessageRequestHeader requestHeader, final long timeoutMillis,
             final CommunicationMode communicationMode, final SendCallback sendCallback)
                     throws RemotingException, MQBrokerException, InterruptedException {
+        return this.sendMessage(addr, brokerName, msg, requestHeader, timeoutMillis, communicationMode,
+            sendCallback, -1);
+    }
+
+
+    /**
+     * 发送消息，shardingKey不小于0时，同一shardingKey的请求总是走到Broker的同一条连接上
+     */
+    public SendResult sendMessage(final String addr, final String brokerName, final Message msg,
+            final SendMessageRequestHeader requestHeader, final long timeoutMillis,
+            final CommunicationMode communicationMode, final SendCallback sendCallback,
+            final int shardingKey) throws RemotingException, MQBrokerException, InterruptedException {
         if (!UtilAll.isBlank(projectGroupPrefix)) {
             msg.setTopic(VirtualEnvUtil.buildWithProjectGroup(msg.getTopic(), projectGroupPrefix));
             requestHeader.setProducerGroup(
@@ -321,6 +344,9 @@ public class MQClientAPIImpl {
         }
 
         request.setBody(msg.getBody());
+        if (shardingKey >= 0) {
+            request.setShardingKey(shardingKey);
+        }
 
         switch (communicationMode) {
         case ONEWAY:
@@ -949,6 +975,33 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 批量更新Consumer Offset(异步)，老版本Broker不支持时应答REQUEST_CODE_NOT_SUPPORTED
+     */
+    public void updateConsumerOffsetBatch(final String addr, final String consumerGroup,
+            final UpdateConsumerOffsetBatchBody body, final long timeoutMillis,
+            final InvokeCallback invokeCallback) throws RemotingException, InterruptedException {
+        UpdateConsumerOffsetBatchRequestHeader requestHeader = new UpdateConsumerOffsetBatchRequestHeader();
+        requestHeader.setConsumerGroup(consumerGroup);
+        if (!UtilAll.isBlank(projectGroupPrefix)) {
+            requestHeader.setConsumerGroup(
+                VirtualEnvUtil.buildWithProjectGroup(requestHeader.getConsumerGroup(), projectGroupPrefix));
+            Map<String, Map<Integer, Long>> offsetTable = new HashMap<String, Map<Integer, Long>>();
+            for (Map.Entry<String, Map<Integer, Long>> entry : body.getOffsetTable().entrySet()) {
+                offsetTable.put(VirtualEnvUtil.buildWithProjectGroup(entry.getKey(), projectGroupPrefix),
+                    entry.getValue());
+            }
+            body.setOffsetTable(offsetTable);
+        }
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.UPDATE_CONSUMER_OFFSET_BATCH, requestHeader);
+        request.setBody(body.encode());
+
+        this.remotingClient.invokeAsync(addr, request, timeoutMillis, invokeCallback);
+    }
+
+
     /**
      * 更新Consumer Offset(单向)
      * 
@@ -985,12 +1038,13 @@ public class MQClientAPIImpl {
      * @param addr
      * @param heartbeatData
      * @param timeoutMillis
+     * @return 老版本Broker返回的各字段为null
      * @throws RemotingException
      * @throws MQBrokerException
      * @throws InterruptedException
      */
-    public void sendHearbeat(final String addr, final HeartbeatData heartbeatData, final long timeoutMillis)
-            throws RemotingException, MQBrokerException, InterruptedException {
+    public HeartbeatResponseHeader sendHearbeat(final String addr, final HeartbeatData heartbeatData,
+            final long timeoutMillis) throws RemotingException, MQBrokerException, InterruptedException {
         if (!UtilAll.isBlank(projectGroupPrefix)) {
             Set<ConsumerData> consumerDatas = heartbeatData.getConsumerDataSet();
             for (ConsumerData consumerData : consumerDatas) {
@@ -1010,13 +1064,17 @@ public class MQClientAPIImpl {
         }
 
         RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.HEART_BEAT, null);
+        // 多连接时心跳只走第0条连接，避免Broker把同一个客户端登记多次
+        request.setShardingKey(RemotingCommand.ControlChannelShardingKey);
 
         request.setBody(heartbeatData.encode());
         RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
         assert response != null;
         switch (response.getCode()) {
         case ResponseCode.SUCCESS: {
-            return;
+            HeartbeatResponseHeader responseHeader = (HeartbeatResponseHeader) response
+                .decodeCommandCustomHeader(HeartbeatResponseHeader.class);
+            return responseHeader != null ? responseHeader : new HeartbeatResponseHeader();
         }
         default:
             break;
@@ -1056,6 +1114,7 @@ public class MQClientAPIImpl {
         requestHeader.setConsumerGroup(consumerGroupWithProjectGroup);
         RemotingCommand request =
                 RemotingCommand.createRequestCommand(RequestCode.UNREGISTER_CLIENT, requestHeader);
+        request.setShardingKey(RemotingCommand.ControlChannelShardingKey);
 
         RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
         assert response != null;
@@ -1155,6 +1214,8 @@ public class MQClientAPIImpl {
         }
 
         RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.HEART_BEAT, null);
+        // 多连接时心跳只走第0条连接，避免Broker把同一个客户端登记多次
+        request.setShardingKey(RemotingCommand.ControlChannelShardingKey);
 
         request.setBody(heartbeat.encode());
         RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
@@ -1362,6 +1423,37 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 一次获取Broker上所有订阅组的消费状态（进度），以及每个队列最新一条消息的存储时间
+     * 
+     * @param addr
+     * @param timeoutMillis
+     * @return
+     * @throws InterruptedException
+     * @throws RemotingTimeoutException
+     * @throws RemotingSendRequestException
+     * @throws RemotingConnectException
+     * @throws MQBrokerException
+     */
+    public ConsumeStatsBatch getAllConsumeStats(final String addr, final long timeoutMillis)
+            throws InterruptedException, RemotingTimeoutException, RemotingSendRequestException,
+            RemotingConnectException, MQBrokerException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.GET_ALL_CONSUME_STATS, null);
+
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS: {
+            return ConsumeStatsBatch.decode(response.getBody(), ConsumeStatsBatch.class);
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
     /**
      * 从Broker获取消费状态（进度）
      * 
@@ -1737,6 +1829,95 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 向一台支持的Name Server订阅Topic路由变更通知。老版本Name Server对该请求不应答，
+     * 超时或明确不支持时记录下来，之后跳过该Name Server，避免每个周期都等待超时
+     *
+     * @return 没有可订阅的Name Server时返回false
+     */
+    public boolean registerTopicRouteListener(final Set<String> topics, final long timeoutMillis)
+            throws RemotingException, MQClientException, InterruptedException {
+        TopicList topicList = new TopicList();
+        for (String topic : topics) {
+            if (!UtilAll.isBlank(projectGroupPrefix)) {
+                topicList.getTopicList().add(VirtualEnvUtil.buildWithProjectGroup(topic, projectGroupPrefix));
+            }
+            else {
+                topicList.getTopicList().add(topic);
+            }
+        }
+
+        List<String> namesrvAddrList = this.remotingClient.getNameServerAddressList();
+        if (null == namesrvAddrList || namesrvAddrList.isEmpty()) {
+            return false;
+        }
+
+        RemotingException lastException = null;
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < namesrvAddrList.size(); i++) {
+            String addr = namesrvAddrList.get((this.topicRouteListenerIndex + i) % namesrvAddrList.size());
+            if (this.isTopicRouteListenerUnsupported(addr, now)) {
+                continue;
+            }
+
+            RemotingCommand request =
+                    RemotingCommand.createRequestCommand(RequestCode.REGISTER_TOPIC_ROUTE_LISTENER, null);
+            request.setBody(topicList.encode());
+
+            RemotingCommand response = null;
+            try {
+                response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+            }
+            catch (RemotingTimeoutException e) {
+                this.topicRouteListenerUnsupportedTable.put(addr, now);
+                log.warn("registerTopicRouteListener timeout, name server {} may not support it", addr);
+                continue;
+            }
+            catch (RemotingException e) {
+                lastException = e;
+                continue;
+            }
+
+            assert response != null;
+            switch (response.getCode()) {
+            case ResponseCode.SUCCESS: {
+                return true;
+            }
+            case ResponseCode.REQUEST_CODE_NOT_SUPPORTED: {
+                this.topicRouteListenerUnsupportedTable.put(addr, now);
+                log.info("name server {} not support topic route listener", addr);
+                continue;
+            }
+            default:
+                break;
+            }
+
+            throw new MQClientException(response.getCode(), response.getRemark());
+        }
+
+        if (lastException != null) {
+            throw lastException;
+        }
+
+        return false;
+    }
+
+
+    boolean isTopicRouteListenerUnsupported(final String addr, final long now) {
+        Long timestamp = this.topicRouteListenerUnsupportedTable.get(addr);
+        if (null == timestamp) {
+            return false;
+        }
+
+        if (now - timestamp >= TopicRouteListenerUnsupportedExpireMillis) {
+            this.topicRouteListenerUnsupportedTable.remove(addr, timestamp);
+            return false;
+        }
+
+        return true;
+    }
+
+
     public int wipeWritePermOfBroker(final String namesrvAddr, String brokerName, final long timeoutMillis)
             throws RemotingCommandException, RemotingConnectException, RemotingSendRequestException,
             RemotingTimeoutException, InterruptedException, MQClientException {
@@ -2833,4 +3014,49 @@ public class MQClientAPIImpl {
 
         throw new MQClientException(response.getCode(), response.getRemark());
     }
+
+
+    /**
+     * 拉取Broker的分钟级时间序列统计
+     * 
+     * @param brokerAddr
+     * @param beginTimestamp
+     *            只返回时间戳大于此值的点
+     * @param timeoutMillis
+     * @return
+     * @throws MQClientException
+     * @throws RemotingConnectException
+     * @throws RemotingSendRequestException
+     * @throws RemotingTimeoutException
+     * @throws InterruptedException
+     */
+    public StatsTimeSeriesBody getBrokerStatsTimeSeries(String brokerAddr, long beginTimestamp,
+            long timeoutMillis) throws MQClientException, RemotingConnectException,
+                    RemotingSendRequestException, RemotingTimeoutException, InterruptedException {
+        GetStatsTimeSeriesRequestHeader requestHeader = new GetStatsTimeSeriesRequestHeader();
+        requestHeader.setBeginTimestamp(beginTimestamp);
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.GET_BROKER_STATS_TIME_SERIES, requestHeader);
+
+        RemotingCommand response = this.remotingClient.invokeSync(brokerAddr, request, timeoutMillis);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS: {
+            byte[] body = response.getBody();
+            if (body != null) {
+                try {
+                    return StatsTimeSeriesBody.decode(body);
+                }
+                catch (IOException e) {
+                    throw new MQClientException("decode stats time series failed", e);
+                }
+            }
+        }
+        default:
+            break;
+        }
+
+        throw new MQClientException(response.getCode(), response.getRemark());
+    }
 }
@@ -47,6 +47,7 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.body.ConsumeMessageDirectlyResult;
 import com.alibaba.rocketmq.common.protocol.body.ConsumerRunningInfo;
+import com.alibaba.rocketmq.common.protocol.header.HeartbeatResponseHeader;
 import com.alibaba.rocketmq.common.protocol.heartbeat.*;
 import com.alibaba.rocketmq.common.protocol.route.BrokerData;
 import com.alibaba.rocketmq.common.protocol.route.QueueData;
@@ -102,6 +103,11 @@ public class MQClientInstance {
     private DatagramSocket datagramSocket;
 
     private final ConsumerStatsManager consumerStatsManager;
+    // 已经收到完整心跳且支持不携带订阅关系心跳的Broker，记录当时各Consumer Group的订阅关系指纹
+    private final ConcurrentHashMap<String/* address */, Map<String/* group */, Integer>>
+            brokerSubFingerprintTable = new ConcurrentHashMap<String, Map<String, Integer>>();
+    // 上次全量拉取Topic路由的时间
+    private volatile long lastPollNameServerTimestamp = 0;
 
 
     public MQClientInstance(ClientConfig clientConfig, int instanceIndex, String clientId, RPCHook rpcHook) {
@@ -110,6 +116,7 @@ public class MQClientInstance {
         this.nettyClientConfig = new NettyClientConfig();
         this.nettyClientConfig
                 .setClientCallbackExecutorThreads(clientConfig.getClientCallbackExecutorThreads());
+        this.nettyClientConfig.setClientChannelsPerAddr(clientConfig.getClientChannelsPerBroker());
         this.clientRemotingProcessor = new ClientRemotingProcessor(this);
         this.mQClientAPIImpl =
                 new MQClientAPIImpl(this.nettyClientConfig, this.clientRemotingProcessor, rpcHook);
@@ -204,7 +211,7 @@ public class MQClientInstance {
             @Override
             public void run() {
                 try {
-                    MQClientInstance.this.updateTopicRouteInfoFromNameServer();
+                    MQClientInstance.this.updateTopicRouteInfoPeriodically();
                 } catch (Exception e) {
                     log.error("ScheduledTask updateTopicRouteInfoFromNameServer exception", e);
                 }
@@ -276,6 +283,7 @@ public class MQClientInstance {
                             String addr = ee.getValue();
                             if (!this.isBrokerAddrExistInTopicRouteTable(addr)) {
                                 it.remove();
+                                this.brokerSubFingerprintTable.remove(addr);
                                 log.info("the broker addr[{} {}] is offline, remove it", brokerName, addr);
                             }
                         }
@@ -430,6 +438,13 @@ public class MQClientInstance {
             return;
         }
 
+        // 订阅关系没有变化时只向Broker发送指纹，发送前先取出，发送时Group名可能被改写
+        final Map<String, Integer> subFingerprints = new HashMap<String, Integer>();
+        for (ConsumerData consumerData : heartbeatData.getConsumerDataSet()) {
+            subFingerprints.put(consumerData.getGroupName(), consumerData.getSubscriptionFingerprint());
+        }
+        final HeartbeatData heartbeatDataWithoutSub = this.prepareHeartbeatDataWithoutSub(heartbeatData);
+
         Iterator<Entry<String, HashMap<Long, String>>> it = this.brokerAddrTable.entrySet().iterator();
         while (it.hasNext()) {
             Entry<String, HashMap<Long, String>> entry = it.next();
@@ -445,10 +460,30 @@ public class MQClientInstance {
                         }
 
                         try {
-                            this.mQClientAPIImpl.sendHearbeat(addr, heartbeatData, 3000);
+                            if (!consumerEmpty
+                                    && subFingerprints.equals(this.brokerSubFingerprintTable.get(addr))) {
+                                HeartbeatResponseHeader responseHeader = this.mQClientAPIImpl
+                                    .sendHearbeat(addr, heartbeatDataWithoutSub, 3000);
+                                if (!Boolean.TRUE.equals(responseHeader.getSubFingerprintMismatch())) {
+                                    log.debug("send heart beat without sub to broker[{} {} {}] success", //
+                                        brokerName, id, addr);
+                                    continue;
+                                }
+                                log.info("subscription fingerprint mismatch, send full heart beat to {}",
+                                    addr);
+                            }
+
+                            HeartbeatResponseHeader responseHeader =
+                                    this.mQClientAPIImpl.sendHearbeat(addr, heartbeatData, 3000);
+                            if (Boolean.TRUE.equals(responseHeader.getWithoutSubSupported())) {
+                                this.brokerSubFingerprintTable.put(addr, subFingerprints);
+                            } else {
+                                this.brokerSubFingerprintTable.remove(addr);
+                            }
                             log.info("send heart beat to broker[{} {} {}] success", brokerName, id, addr);
                             log.info(heartbeatData.toString());
                         } catch (Exception e) {
+                            this.brokerSubFingerprintTable.remove(addr);
                             log.error("send heart beat to broker exception", e);
                         }
                     }
@@ -475,6 +510,7 @@ public class MQClientInstance {
                 consumerData.setConsumeFromWhere(impl.consumeFromWhere());
                 consumerData.getSubscriptionDataSet().addAll(impl.subscriptions());
                 consumerData.setUnitMode(impl.isUnitMode());
+                consumerData.setSubscriptionFingerprint(consumerData.buildSubscriptionFingerprint());
 
                 heartbeatData.getConsumerDataSet().add(consumerData);
             }
@@ -495,7 +531,77 @@ public class MQClientInstance {
     }
 
 
+    /**
+     * 不携带订阅关系的心跳，Consumer只有订阅关系指纹
+     */
+    private HeartbeatData prepareHeartbeatDataWithoutSub(final HeartbeatData heartbeatData) {
+        HeartbeatData heartbeatDataWithoutSub = new HeartbeatData();
+        heartbeatDataWithoutSub.setClientID(heartbeatData.getClientID());
+        heartbeatDataWithoutSub.setWithoutSub(true);
+        heartbeatDataWithoutSub.getProducerDataSet().addAll(heartbeatData.getProducerDataSet());
+        for (ConsumerData consumerData : heartbeatData.getConsumerDataSet()) {
+            ConsumerData data = new ConsumerData();
+            data.setGroupName(consumerData.getGroupName());
+            data.setConsumeType(consumerData.getConsumeType());
+            data.setMessageModel(consumerData.getMessageModel());
+            data.setConsumeFromWhere(consumerData.getConsumeFromWhere());
+            data.setUnitMode(consumerData.isUnitMode());
+            data.setSubscriptionFingerprint(consumerData.getSubscriptionFingerprint());
+            heartbeatDataWithoutSub.getConsumerDataSet().add(data);
+        }
+
+        return heartbeatDataWithoutSub;
+    }
+
+
+    /**
+     * 订阅了路由变更通知时，只需低频全量拉取作为兜底，但每个周期都重新订阅，
+     * 保证Name Server切换或重启后仍能收到通知
+     */
+    private void updateTopicRouteInfoPeriodically() {
+        Set<String> topicList = this.collectTopicList();
+
+        boolean notified = false;
+        if (this.clientConfig.isTopicRouteNotifyEnable() && !topicList.isEmpty()) {
+            try {
+                notified = this.mQClientAPIImpl.registerTopicRouteListener(topicList, 3000);
+            } catch (Exception e) {
+                log.warn("registerTopicRouteListener Exception", e);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (!notified || (now - this.lastPollNameServerTimestamp) >= this.clientConfig
+            .getPollNameServerIntevalWhenNotified()) {
+            for (String topic : topicList) {
+                this.updateTopicRouteInfoFromNameServer(topic);
+            }
+            this.lastPollNameServerTimestamp = now;
+        }
+    }
+
+
+    /**
+     * Name Server通知路由变化，只更新本Client关注的Topic
+     */
+    public void onTopicRouteChanged(final Set<String> topics) {
+        Set<String> topicList = this.collectTopicList();
+        for (String topic : topics) {
+            if (topicList.contains(topic) || this.topicRouteTable.containsKey(topic)) {
+                this.updateTopicRouteInfoFromNameServer(topic);
+            }
+        }
+    }
+
+
     public void updateTopicRouteInfoFromNameServer() {
+        for (String topic : this.collectTopicList()) {
+            this.updateTopicRouteInfoFromNameServer(topic);
+        }
+    }
+
+
+    private Set<String> collectTopicList() {
         Set<String> topicList = new HashSet<String>();
 
         // Consumer
@@ -528,9 +634,7 @@ public class MQClientInstance {
             }
         }
 
-        for (String topic : topicList) {
-            this.updateTopicRouteInfoFromNameServer(topic);
-        }
+        return topicList;
     }
 
 
@@ -519,7 +519,8 @@ public class DefaultMQProducerImpl implements MQProducerInner {
                     mq = tmpmq;
                     brokersSent[times] = mq.getBrokerName();
                     try {
-                        sendResult = this.sendKernelImpl(msg, mq, communicationMode, sendCallback, timeout);
+                        sendResult = this.sendKernelImpl(msg, mq, communicationMode, sendCallback, timeout,
+                            false);
                         endTimestamp = System.currentTimeMillis();
                         switch (communicationMode) {
                         case ASYNC:
@@ -632,11 +633,20 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     }
 
 
+    /**
+     * 指定队列发送（如顺序消息）时，同一队列的请求固定走同一条连接，保证多连接下的发送顺序
+     */
+    private static int stickyShardingKey(final MessageQueue mq) {
+        return (mq.getTopic().hashCode() * 31 + mq.getQueueId()) & Integer.MAX_VALUE;
+    }
+
+
     private SendResult sendKernelImpl(final Message msg, //
             final MessageQueue mq, //
             final CommunicationMode communicationMode, //
             final SendCallback sendCallback, //
-            final long timeout)
+            final long timeout, //
+            final boolean sticky)
                     throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
 
         String brokerAddr = this.mQClientFactory.findBrokerAddressInPublish(mq.getBrokerName());
@@ -709,7 +719,8 @@ public class DefaultMQProducerImpl implements MQProducerInner {
                     requestHeader, // 4
                     timeout, // 5
                     communicationMode, // 6
-                    sendCallback// 7
+                    sendCallback, // 7
+                    sticky ? stickyShardingKey(mq) : -1// 8
                 );
 
                 if (this.hasSendMessageHook()) {
@@ -805,7 +816,7 @@ public class DefaultMQProducerImpl implements MQProducerInner {
             throw new MQClientException("message's topic not equal mq's topic", null);
         }
 
-        return this.sendKernelImpl(msg, mq, CommunicationMode.SYNC, null, timeout);
+        return this.sendKernelImpl(msg, mq, CommunicationMode.SYNC, null, timeout, true);
     }
 
 
@@ -828,7 +839,7 @@ public class DefaultMQProducerImpl implements MQProducerInner {
         }
 
         try {
-            this.sendKernelImpl(msg, mq, CommunicationMode.ASYNC, sendCallback, timeout);
+            this.sendKernelImpl(msg, mq, CommunicationMode.ASYNC, sendCallback, timeout, true);
         }
         catch (MQBrokerException e) {
             throw new MQClientException("unknow exception", e);
@@ -846,7 +857,7 @@ public class DefaultMQProducerImpl implements MQProducerInner {
 
         try {
             this.sendKernelImpl(msg, mq, CommunicationMode.ONEWAY, null,
-                this.defaultMQProducer.getSendMsgTimeout());
+                this.defaultMQProducer.getSendMsgTimeout(), true);
         }
         catch (MQBrokerException e) {
             throw new MQClientException("unknow exception", e);
@@ -890,7 +901,7 @@ public class DefaultMQProducerImpl implements MQProducerInner {
             }
 
             if (mq != null) {
-                return this.sendKernelImpl(msg, mq, communicationMode, sendCallback, timeout);
+                return this.sendKernelImpl(msg, mq, communicationMode, sendCallback, timeout, true);
             }
             else {
                 throw new MQClientException("select message queue return null.", null);
@@ -0,0 +1,23 @@
+package com.alibaba.rocketmq.client.consumer.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class RemoteBrokerOffsetStoreTest {
+
+    @Test
+    public void test_batch_unsupported_expire() {
+        final String brokerAddr = "127.0.0.1:10911";
+        final long now = System.currentTimeMillis();
+        Assert.assertFalse(RemoteBrokerOffsetStore.isBatchUnsupported(brokerAddr, now));
+
+        RemoteBrokerOffsetStore.markBatchUnsupported(brokerAddr, now);
+        Assert.assertTrue(RemoteBrokerOffsetStore.isBatchUnsupported(brokerAddr, now + 1000));
+
+        // 过期后重新探测批量提交
+        long expired = now + RemoteBrokerOffsetStore.BatchUnsupportedExpireMillis;
+        Assert.assertFalse(RemoteBrokerOffsetStore.isBatchUnsupported(brokerAddr, expired));
+        Assert.assertFalse(RemoteBrokerOffsetStore.isBatchUnsupported(brokerAddr, now + 1000));
+    }
+}
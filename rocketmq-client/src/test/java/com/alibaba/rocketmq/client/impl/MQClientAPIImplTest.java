@@ -0,0 +1,129 @@
+package com.alibaba.rocketmq.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 老版本Name Server不应答路由变更订阅请求，Client记录后不再每个周期等待超时
+ */
+public class MQClientAPIImplTest {
+    private static final long TimeoutMillis = 300;
+
+    private NettyRemotingServer oldNamesrv;
+    private NettyRemotingServer unsupportedNamesrv;
+    private NettyRemotingServer newNamesrv;
+    private final AtomicInteger oldNamesrvRequests = new AtomicInteger(0);
+    private final AtomicInteger newNamesrvRequests = new AtomicInteger(0);
+    private MQClientAPIImpl mqClientAPI;
+
+
+    private static NettyRemotingServer startNamesrv(final NettyRequestProcessor processor) {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        NettyRemotingServer server = new NettyRemotingServer(serverConfig);
+        if (processor != null) {
+            server.registerProcessor(RequestCode.REGISTER_TOPIC_ROUTE_LISTENER, processor,
+                Executors.newSingleThreadExecutor());
+        }
+        server.start();
+        return server;
+    }
+
+
+    private static String addr(final NettyRemotingServer server) {
+        return "127.0.0.1:" + server.localListenPort();
+    }
+
+
+    @Before
+    public void setUp() {
+        // 老版本Name Server对未知请求不应答
+        this.oldNamesrv = startNamesrv(new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                oldNamesrvRequests.incrementAndGet();
+                return null;
+            }
+        });
+        this.unsupportedNamesrv = startNamesrv(null);
+        this.newNamesrv = startNamesrv(new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                newNamesrvRequests.incrementAndGet();
+                RemotingCommand response = RemotingCommand.createResponseCommand(null);
+                response.setCode(ResponseCode.SUCCESS);
+                return response;
+            }
+        });
+
+        this.mqClientAPI = new MQClientAPIImpl(new NettyClientConfig(), null);
+        this.mqClientAPI.getRemotingClient().start();
+    }
+
+
+    @After
+    public void tearDown() {
+        this.mqClientAPI.shutdown();
+        this.oldNamesrv.shutdown();
+        this.unsupportedNamesrv.shutdown();
+        this.newNamesrv.shutdown();
+    }
+
+
+    @Test
+    public void test_topic_route_listener_unsupported() throws Exception {
+        Set<String> topics = new HashSet<String>(Arrays.asList("TopicA"));
+        this.mqClientAPI.updateNameServerAddressList(addr(this.oldNamesrv));
+        assertFalse(this.mqClientAPI.registerTopicRouteListener(topics, TimeoutMillis));
+        assertEquals(1, this.oldNamesrvRequests.get());
+
+        // 已记录不支持，不再发送请求等待超时
+        long begin = System.currentTimeMillis();
+        assertFalse(this.mqClientAPI.registerTopicRouteListener(topics, TimeoutMillis));
+        assertTrue(System.currentTimeMillis() - begin < TimeoutMillis);
+        assertEquals(1, this.oldNamesrvRequests.get());
+
+        // 明确应答不支持的Name Server同样记录
+        this.mqClientAPI.updateNameServerAddressList(addr(this.unsupportedNamesrv));
+        assertFalse(this.mqClientAPI.registerTopicRouteListener(topics, TimeoutMillis));
+        assertTrue(this.mqClientAPI.isTopicRouteListenerUnsupported(addr(this.unsupportedNamesrv),
+            System.currentTimeMillis()));
+
+        // 跳过不支持的Name Server，订阅到支持的Name Server
+        this.mqClientAPI.updateNameServerAddressList(addr(this.oldNamesrv) + ";"
+                + addr(this.unsupportedNamesrv) + ";" + addr(this.newNamesrv));
+        begin = System.currentTimeMillis();
+        assertTrue(this.mqClientAPI.registerTopicRouteListener(topics, TimeoutMillis));
+        assertTrue(this.mqClientAPI.registerTopicRouteListener(topics, TimeoutMillis));
+        assertTrue(System.currentTimeMillis() - begin < TimeoutMillis);
+        assertEquals(2, this.newNamesrvRequests.get());
+        assertEquals(1, this.oldNamesrvRequests.get());
+
+        // 过期后重新探测，Name Server升级后可恢复订阅
+        long expired = System.currentTimeMillis() + MQClientAPIImpl.TopicRouteListenerUnsupportedExpireMillis;
+        assertFalse(this.mqClientAPI.isTopicRouteListenerUnsupported(addr(this.oldNamesrv), expired));
+    }
+}
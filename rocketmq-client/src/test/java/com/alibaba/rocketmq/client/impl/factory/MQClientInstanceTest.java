@@ -0,0 +1,115 @@
+package com.alibaba.rocketmq.client.impl.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.ClientConfig;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.header.namesrv.GetRouteInfoRequestHeader;
+import com.alibaba.rocketmq.common.protocol.route.BrokerData;
+import com.alibaba.rocketmq.common.protocol.route.QueueData;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 收到Name Server的路由变更通知后，只拉取本Client关注的Topic
+ */
+public class MQClientInstanceTest {
+    private NettyRemotingServer namesrv;
+    private MQClientInstance mqClientInstance;
+    // Name Server收到的路由查询
+    private final List<String> routeRequests = new CopyOnWriteArrayList<String>();
+    private volatile int writeQueueNums = 4;
+
+
+    private TopicRouteData buildTopicRouteData() {
+        BrokerData brokerData = new BrokerData();
+        brokerData.setBrokerName("broker-a");
+        HashMap<Long, String> brokerAddrs = new HashMap<Long, String>();
+        brokerAddrs.put(MixAll.MASTER_ID, "127.0.0.1:10911");
+        brokerData.setBrokerAddrs(brokerAddrs);
+
+        QueueData queueData = new QueueData();
+        queueData.setBrokerName("broker-a");
+        queueData.setReadQueueNums(this.writeQueueNums);
+        queueData.setWriteQueueNums(this.writeQueueNums);
+        queueData.setPerm(PermName.PERM_READ | PermName.PERM_WRITE);
+
+        TopicRouteData topicRouteData = new TopicRouteData();
+        topicRouteData.setBrokerDatas(new ArrayList<BrokerData>(Arrays.asList(brokerData)));
+        topicRouteData.setQueueDatas(new ArrayList<QueueData>(Arrays.asList(queueData)));
+        topicRouteData.setFilterServerTable(new HashMap<String, List<String>>());
+        return topicRouteData;
+    }
+
+
+    @Before
+    public void setUp() {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        this.namesrv = new NettyRemotingServer(serverConfig);
+        this.namesrv.registerProcessor(RequestCode.GET_ROUTEINTO_BY_TOPIC, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                GetRouteInfoRequestHeader requestHeader = (GetRouteInfoRequestHeader) request
+                    .decodeCommandCustomHeader(GetRouteInfoRequestHeader.class);
+                routeRequests.add(requestHeader.getTopic());
+
+                RemotingCommand response = RemotingCommand.createResponseCommand(null);
+                response.setBody(buildTopicRouteData().encode());
+                response.setCode(ResponseCode.SUCCESS);
+                return response;
+            }
+        }, Executors.newSingleThreadExecutor());
+        this.namesrv.start();
+
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setNamesrvAddr("127.0.0.1:" + this.namesrv.localListenPort());
+        this.mqClientInstance = new MQClientInstance(clientConfig, 0, "MQClientInstanceTest");
+        this.mqClientInstance.getMQClientAPIImpl().getRemotingClient().start();
+    }
+
+
+    @After
+    public void tearDown() {
+        this.mqClientInstance.getMQClientAPIImpl().shutdown();
+        this.namesrv.shutdown();
+    }
+
+
+    @Test
+    public void test_onTopicRouteChanged() {
+        this.mqClientInstance.getTopicRouteTable().put("TopicA", this.buildTopicRouteData());
+
+        this.writeQueueNums = 8;
+        this.mqClientInstance.onTopicRouteChanged(new HashSet<String>(Arrays.asList("TopicA", "TopicOther")));
+
+        // 只拉取关注的Topic，并更新本地路由
+        assertEquals(1, this.routeRequests.size());
+        assertEquals("TopicA", this.routeRequests.get(0));
+        TopicRouteData topicRouteData = this.mqClientInstance.getTopicRouteTable().get("TopicA");
+        assertEquals(8, topicRouteData.getQueueDatas().get(0).getWriteQueueNums());
+        assertFalse(this.mqClientInstance.getTopicRouteTable().containsKey("TopicOther"));
+    }
+}
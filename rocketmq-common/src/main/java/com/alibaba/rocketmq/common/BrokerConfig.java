@@ -70,10 +70,45 @@ public class BrokerConfig {
 
     private int flushConsumerOffsetHistoryInterval = 1000 * 60;
 
+    // 向Name Server注册时是否只发送DataVersion之后变更的Topic配置
+    private boolean registerBrokerDeltaEnable = false;
+    // 向支持增量注册的Name Server注册时是否压缩body
+    private boolean compressRegisterBrokerBody = false;
+
+    // Topic、订阅组配置的单条变更是否以追加日志方式持久化
+    private boolean configJournalEnable = false;
+    // 配置日志超过该大小则写全量快照
+    private int configJournalMaxBytes = 1024 * 1024 * 16;
+
+    // 消费进度是否以追加日志方式持久化，定期写全量快照
+    private boolean consumerOffsetJournalEnable = false;
+    // 消费进度全量快照间隔
+    private int consumerOffsetSnapshotInterval = 1000 * 60;
+    // 消费进度日志超过该大小则立即写全量快照
+    private int consumerOffsetJournalMaxBytes = 1024 * 1024 * 64;
+
+    // Slave是否只同步Master上次同步之后变更的配置与消费进度，Master不支持时自动退回全量
+    private boolean slaveSyncDeltaEnable = true;
+
     // 是否拒绝接收事务消息
     @ImportantField
     private boolean rejectTransactionMessage = false;
 
+    // 是否开启事务回查，记录未结束的Prepared消息并定期向Producer回查状态
+    private boolean transactionCheckEnable = false;
+
+    // Prepared消息超过该时间仍未结束才会回查
+    private long transactionTimeoutMillis = 1000 * 6;
+
+    // 事务回查扫描间隔
+    private long transactionCheckIntervalMillis = 1000 * 60;
+
+    // 每秒最多发出的事务回查请求数
+    private int transactionCheckMaxPerSecond = 1000;
+
+    // 单个事务最多回查的次数，超过后不再回查，丢弃该Prepared消息
+    private int transactionCheckMax = 15;
+
     // 是否从地址服务器寻找Name Server地址，正式发布后，默认值为false
     @ImportantField
     private boolean fetchNamesrvAddrByAddressServer = false;
@@ -84,6 +119,30 @@ public class BrokerConfig {
     // 订阅消息对应的线程池阻塞队列size
     private int pullThreadPoolQueueCapacity = 100000;
 
+    // 客户端管理（心跳、位点更新）对应的线程池阻塞队列size
+    private int clientManagerThreadPoolQueueCapacity = 1000000;
+
+    // 处理线程池是否使用按优先级、按连接公平调度的请求队列
+    private boolean requestScheduleFairQueueEnable = false;
+
+    // 是否开启快速失败，请求在线程池队列中排队超时后直接返回SYSTEM_BUSY，默认关闭，保持原有排队行为
+    private boolean brokerFastFailureEnable = false;
+
+    // 发送请求在队列中的最长排队时间，超过则快速失败
+    private long waitTimeMillsInSendQueue = 200;
+
+    // 拉消息请求在队列中的最长排队时间，超过则快速失败
+    private long waitTimeMillsInPullQueue = 5 * 1000;
+
+    // 是否把读磁盘的拉消息请求隔离到单独的线程池，避免阻塞读内存的消费者
+    private boolean pullColdMessageIsolationEnable = false;
+
+    // 读磁盘的拉消息请求对应的线程数
+    private int pullColdMessageThreadPoolNums = 8;
+
+    // 按时间重置消费进度时，并行查找各队列位点的线程数
+    private int resetOffsetThreadPoolNums = 8;
+
     // 过滤服务器数量
     private int filterServerNums = 0;
 
@@ -390,4 +449,214 @@ public class BrokerConfig {
     public void setOffsetCheckInSlave(boolean offsetCheckInSlave) {
         this.offsetCheckInSlave = offsetCheckInSlave;
     }
+
+
+    public int getClientManagerThreadPoolQueueCapacity() {
+        return clientManagerThreadPoolQueueCapacity;
+    }
+
+
+    public void setClientManagerThreadPoolQueueCapacity(int clientManagerThreadPoolQueueCapacity) {
+        this.clientManagerThreadPoolQueueCapacity = clientManagerThreadPoolQueueCapacity;
+    }
+
+
+    public boolean isRequestScheduleFairQueueEnable() {
+        return requestScheduleFairQueueEnable;
+    }
+
+
+    public void setRequestScheduleFairQueueEnable(boolean requestScheduleFairQueueEnable) {
+        this.requestScheduleFairQueueEnable = requestScheduleFairQueueEnable;
+    }
+
+
+    public boolean isBrokerFastFailureEnable() {
+        return brokerFastFailureEnable;
+    }
+
+
+    public void setBrokerFastFailureEnable(boolean brokerFastFailureEnable) {
+        this.brokerFastFailureEnable = brokerFastFailureEnable;
+    }
+
+
+    public long getWaitTimeMillsInSendQueue() {
+        return waitTimeMillsInSendQueue;
+    }
+
+
+    public void setWaitTimeMillsInSendQueue(long waitTimeMillsInSendQueue) {
+        this.waitTimeMillsInSendQueue = waitTimeMillsInSendQueue;
+    }
+
+
+    public long getWaitTimeMillsInPullQueue() {
+        return waitTimeMillsInPullQueue;
+    }
+
+
+    public void setWaitTimeMillsInPullQueue(long waitTimeMillsInPullQueue) {
+        this.waitTimeMillsInPullQueue = waitTimeMillsInPullQueue;
+    }
+
+
+    public boolean isPullColdMessageIsolationEnable() {
+        return pullColdMessageIsolationEnable;
+    }
+
+
+    public void setPullColdMessageIsolationEnable(boolean pullColdMessageIsolationEnable) {
+        this.pullColdMessageIsolationEnable = pullColdMessageIsolationEnable;
+    }
+
+
+    public int getPullColdMessageThreadPoolNums() {
+        return pullColdMessageThreadPoolNums;
+    }
+
+
+    public void setPullColdMessageThreadPoolNums(int pullColdMessageThreadPoolNums) {
+        this.pullColdMessageThreadPoolNums = pullColdMessageThreadPoolNums;
+    }
+
+
+    public int getResetOffsetThreadPoolNums() {
+        return resetOffsetThreadPoolNums;
+    }
+
+
+    public void setResetOffsetThreadPoolNums(int resetOffsetThreadPoolNums) {
+        this.resetOffsetThreadPoolNums = resetOffsetThreadPoolNums;
+    }
+
+
+    public boolean isConsumerOffsetJournalEnable() {
+        return consumerOffsetJournalEnable;
+    }
+
+
+    public void setConsumerOffsetJournalEnable(boolean consumerOffsetJournalEnable) {
+        this.consumerOffsetJournalEnable = consumerOffsetJournalEnable;
+    }
+
+
+    public int getConsumerOffsetSnapshotInterval() {
+        return consumerOffsetSnapshotInterval;
+    }
+
+
+    public void setConsumerOffsetSnapshotInterval(int consumerOffsetSnapshotInterval) {
+        this.consumerOffsetSnapshotInterval = consumerOffsetSnapshotInterval;
+    }
+
+
+    public int getConsumerOffsetJournalMaxBytes() {
+        return consumerOffsetJournalMaxBytes;
+    }
+
+
+    public void setConsumerOffsetJournalMaxBytes(int consumerOffsetJournalMaxBytes) {
+        this.consumerOffsetJournalMaxBytes = consumerOffsetJournalMaxBytes;
+    }
+
+
+    public boolean isConfigJournalEnable() {
+        return configJournalEnable;
+    }
+
+
+    public void setConfigJournalEnable(boolean configJournalEnable) {
+        this.configJournalEnable = configJournalEnable;
+    }
+
+
+    public int getConfigJournalMaxBytes() {
+        return configJournalMaxBytes;
+    }
+
+
+    public void setConfigJournalMaxBytes(int configJournalMaxBytes) {
+        this.configJournalMaxBytes = configJournalMaxBytes;
+    }
+
+
+    public boolean isRegisterBrokerDeltaEnable() {
+        return registerBrokerDeltaEnable;
+    }
+
+
+    public void setRegisterBrokerDeltaEnable(boolean registerBrokerDeltaEnable) {
+        this.registerBrokerDeltaEnable = registerBrokerDeltaEnable;
+    }
+
+
+    public boolean isCompressRegisterBrokerBody() {
+        return compressRegisterBrokerBody;
+    }
+
+
+    public void setCompressRegisterBrokerBody(boolean compressRegisterBrokerBody) {
+        this.compressRegisterBrokerBody = compressRegisterBrokerBody;
+    }
+
+
+    public boolean isTransactionCheckEnable() {
+        return transactionCheckEnable;
+    }
+
+
+    public void setTransactionCheckEnable(boolean transactionCheckEnable) {
+        this.transactionCheckEnable = transactionCheckEnable;
+    }
+
+
+    public long getTransactionTimeoutMillis() {
+        return transactionTimeoutMillis;
+    }
+
+
+    public void setTransactionTimeoutMillis(long transactionTimeoutMillis) {
+        this.transactionTimeoutMillis = transactionTimeoutMillis;
+    }
+
+
+    public long getTransactionCheckIntervalMillis() {
+        return transactionCheckIntervalMillis;
+    }
+
+
+    public void setTransactionCheckIntervalMillis(long transactionCheckIntervalMillis) {
+        this.transactionCheckIntervalMillis = transactionCheckIntervalMillis;
+    }
+
+
+    public int getTransactionCheckMaxPerSecond() {
+        return transactionCheckMaxPerSecond;
+    }
+
+
+    public void setTransactionCheckMaxPerSecond(int transactionCheckMaxPerSecond) {
+        this.transactionCheckMaxPerSecond = transactionCheckMaxPerSecond;
+    }
+
+
+    public int getTransactionCheckMax() {
+        return transactionCheckMax;
+    }
+
+
+    public void setTransactionCheckMax(int transactionCheckMax) {
+        this.transactionCheckMax = transactionCheckMax;
+    }
+
+
+    public boolean isSlaveSyncDeltaEnable() {
+        return slaveSyncDeltaEnable;
+    }
+
+
+    public void setSlaveSyncDeltaEnable(boolean slaveSyncDeltaEnable) {
+        this.slaveSyncDeltaEnable = slaveSyncDeltaEnable;
+    }
 }
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+
+
+/**
+ * 配置的追加写日志，按key记录单条配置的变更<br>
+ * 记录格式：bodySize | crc32 | body，body为 op | keyLen | key | valueLen | value
+ */
+public class ConfigJournal {
+    private static final Logger plog = LoggerFactory.getLogger(LoggerName.CommonLoggerName);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final byte OpPut = 1;
+    private static final byte OpRemove = 2;
+    private final String fileName;
+    private DataOutputStream out;
+    private long fileSize = 0;
+
+    /**
+     * 日志回放回调
+     */
+    public interface ReplayHandler {
+        /**
+         * @param value
+         *            null表示删除
+         */
+        void replay(final String key, final String value);
+    }
+
+
+    public ConfigJournal(final String fileName) {
+        this.fileName = fileName;
+    }
+
+
+    public void appendPut(final String key, final String value) throws IOException {
+        this.append(OpPut, key, value);
+    }
+
+
+    public void appendRemove(final String key) throws IOException {
+        this.append(OpRemove, key, null);
+    }
+
+
+    private void append(final byte op, final String key, final String value) throws IOException {
+        byte[] keyBytes = key.getBytes(CHARSET);
+        byte[] valueBytes = value != null ? value.getBytes(CHARSET) : new byte[0];
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + keyBytes.length + 4 + valueBytes.length);
+        body.put(op);
+        body.putInt(keyBytes.length);
+        body.put(keyBytes);
+        body.putInt(valueBytes.length);
+        body.put(valueBytes);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(body.array());
+
+        if (null == this.out) {
+            this.open();
+        }
+        // 单条记录一次写出，避免宕机时留下半条以外的脏数据
+        ByteBuffer record = ByteBuffer.allocate(4 + 8 + body.capacity());
+        record.putInt(body.capacity());
+        record.putLong(crc32.getValue());
+        record.put(body.array());
+        this.out.write(record.array());
+        this.out.flush();
+        this.fileSize += record.capacity();
+    }
+
+
+    /**
+     * 按顺序回放日志，遇到不完整或校验失败的记录即停止
+     *
+     * @return 回放的记录数
+     */
+    public int replay(final ReplayHandler handler) {
+        File file = new File(this.fileName);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int records = 0;
+        long validSize = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            while (true) {
+                int bodySize = in.readInt();
+                long crc = in.readLong();
+                if (bodySize <= 0 || bodySize > file.length()) {
+                    plog.warn("config journal {} has illegal record size {}, stop replay", this.fileName,
+                        bodySize);
+                    break;
+                }
+                byte[] body = new byte[bodySize];
+                in.readFully(body);
+
+                CRC32 crc32 = new CRC32();
+                crc32.update(body);
+                if (crc32.getValue() != crc) {
+                    plog.warn("config journal {} record crc check failed, stop replay", this.fileName);
+                    break;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                byte op = buffer.get();
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+
+                handler.replay(new String(key, CHARSET), OpPut == op ? new String(value, CHARSET) : null);
+                records++;
+                validSize += 4 + 8 + bodySize;
+            }
+        }
+        catch (EOFException e) {
+            // 正常结束或最后一条记录不完整
+        }
+        catch (Exception e) {
+            plog.error("replay config journal exception, " + this.fileName, e);
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+
+        // 截掉尾部的脏数据，否则后续追加的记录无法回放
+        if (validSize < file.length()) {
+            plog.warn("config journal {} truncate from {} to {}", this.fileName, file.length(), validSize);
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(validSize);
+            }
+            catch (IOException e) {
+                plog.error("truncate config journal exception, " + this.fileName, e);
+            }
+            finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    }
+                    catch (IOException e) {
+                    }
+                }
+            }
+        }
+
+        this.fileSize = file.length();
+        return records;
+    }
+
+
+    private void open() throws IOException {
+        File file = new File(this.fileName);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        this.out = new DataOutputStream(new FileOutputStream(file, true));
+        this.fileSize = file.length();
+    }
+
+
+    public void close() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            }
+            catch (IOException e) {
+                plog.error("close config journal exception, " + this.fileName, e);
+            }
+            this.out = null;
+        }
+    }
+
+
+    /**
+     * 全量快照落盘后删除日志，下次追加时重新创建
+     */
+    public void delete() {
+        this.close();
+        File file = new File(this.fileName);
+        if (file.exists() && !file.delete()) {
+            plog.warn("delete config journal {} failed", this.fileName);
+        }
+        this.fileSize = 0;
+    }
+
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+
+    public String getFileName() {
+        return fileName;
+    }
+}
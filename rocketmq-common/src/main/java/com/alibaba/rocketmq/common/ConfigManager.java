@@ -16,6 +16,10 @@
 package com.alibaba.rocketmq.common;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +35,8 @@ import com.alibaba.rocketmq.common.constant.LoggerName;
  */
 public abstract class ConfigManager {
     private static final Logger plog = LoggerFactory.getLogger(LoggerName.CommonLoggerName);
+    // 增量日志，子类通过journalFilePath开启
+    private transient ConfigJournal journal;
 
 
     // 编码
@@ -48,8 +54,60 @@ public abstract class ConfigManager {
     public abstract String configFilePath();
 
 
-    // 加载配置文件（json格式）
+    // 增量日志文件路径，返回null表示不支持增量持久化（子类实现）
+    protected String journalFilePath() {
+        return null;
+    }
+
+
+    // 是否以增量日志方式持久化单条配置（子类实现）
+    protected boolean isJournalEnable() {
+        return false;
+    }
+
+
+    // 增量日志超过该大小则写全量快照
+    protected long journalMaxBytes() {
+        return 1024 * 1024 * 16;
+    }
+
+
+    // 单条配置当前的编码，null表示已删除，开启增量日志时在锁内读取（子类实现）
+    protected String encodeJournalValue(final String key) {
+        return null;
+    }
+
+
+    // 回放一条增量日志，value为null表示删除（子类实现）
+    protected void replayJournal(final String key, final String value) {
+    }
+
+
+    // 增量日志回放完成
+    protected void afterJournalReplayed(final int records) {
+    }
+
+
+    // 加载配置文件（json格式），再回放增量日志
     public boolean load() {
+        boolean result = this.loadSnapshot();
+        if (result && this.journal() != null) {
+            int records = this.journal().replay(new ConfigJournal.ReplayHandler() {
+                @Override
+                public void replay(String key, String value) {
+                    ConfigManager.this.replayJournal(key, value);
+                }
+            });
+            if (records > 0) {
+                plog.info("replay {} OK, records {}", this.journal().getFileName(), records);
+                this.afterJournalReplayed(records);
+            }
+        }
+        return result;
+    }
+
+
+    private boolean loadSnapshot() {
         String fileName = null;
         try {
             // 配置文件路径（子类实现）
@@ -100,10 +158,111 @@ public abstract class ConfigManager {
             String fileName = this.configFilePath();
             try {
                 MixAll.string2File(jsonString, fileName);
+                // 全量快照已包含增量日志中的所有变更
+                if (this.journal() != null) {
+                    this.journal().delete();
+                }
             }
             catch (IOException e) {
                 plog.error("persist file Exception, " + fileName, e);
             }
         }
     }
+
+
+    /**
+     * 持久化单条配置的变更，开启增量日志时只追加这一条，否则全量持久化<br>
+     * 追加的值在锁内从内存重新读取，并发修改同一配置时，日志的最后一条总是内存中的最新值
+     */
+    public synchronized void persist(final String key) {
+        if (!this.isJournalEnable() || null == this.journal()) {
+            this.persist();
+            return;
+        }
+
+        try {
+            this.appendJournal(key);
+        }
+        catch (IOException e) {
+            plog.error("append config journal exception, " + this.journal().getFileName(), e);
+            this.persist();
+            return;
+        }
+
+        // 日志过大时做一次全量快照，控制启动回放时间
+        if (this.journal().getFileSize() >= this.journalMaxBytes()) {
+            this.persist();
+        }
+    }
+
+
+    /**
+     * 批量持久化多条配置的变更，开启增量日志时逐条追加后只检查一次日志大小，否则只做一次全量持久化
+     */
+    public synchronized void persist(final Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        if (!this.isJournalEnable() || null == this.journal()) {
+            this.persist();
+            return;
+        }
+
+        try {
+            for (String key : keys) {
+                this.appendJournal(key);
+            }
+        }
+        catch (IOException e) {
+            plog.error("append config journal exception, " + this.journal().getFileName(), e);
+            this.persist();
+            return;
+        }
+
+        if (this.journal().getFileSize() >= this.journalMaxBytes()) {
+            this.persist();
+        }
+    }
+
+
+    /**
+     * 请求方已同步到baseCounter，清除不晚于它的删除记录，返回被清除记录中最大的版本号（没有清除时返回0）<br>
+     * 调用方把可构建增量的起始版本号推进到该版本号，更早的基准版本改为全量同步，避免删除记录无限增长
+     */
+    protected static long pruneRemovedKeys(final Map<String, Long> changeVersionTable,
+            final Map<String, ?> table, final long baseCounter) {
+        long prunedCounter = 0;
+        Iterator<Entry<String, Long>> it = changeVersionTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Long> entry = it.next();
+            if (entry.getValue() <= baseCounter && !table.containsKey(entry.getKey())) {
+                prunedCounter = Math.max(prunedCounter, entry.getValue());
+                it.remove();
+            }
+        }
+        return prunedCounter;
+    }
+
+
+    private void appendJournal(final String key) throws IOException {
+        String value = this.encodeJournalValue(key);
+        if (value != null) {
+            this.journal().appendPut(key, value);
+        }
+        else {
+            this.journal().appendRemove(key);
+        }
+    }
+
+
+    private ConfigJournal journal() {
+        if (null == this.journal) {
+            String fileName = this.journalFilePath();
+            if (fileName != null) {
+                this.journal = new ConfigJournal(fileName);
+            }
+        }
+        return this.journal;
+    }
 }
@@ -197,22 +197,23 @@ public class MixAll {
 
     public static final String file2String(final File file) {
         if (file.exists()) {
-            char[] data = new char[(int) file.length()];
+            // 按字节一次读入再解码，大文件比逐字符读取快，且不会因为一次read读不满而误判失败
+            byte[] data = new byte[(int) file.length()];
             boolean result = false;
 
-            FileReader fileReader = null;
+            DataInputStream in = null;
             try {
-                fileReader = new FileReader(file);
-                int len = fileReader.read(data);
-                result = (len == data.length);
+                in = new DataInputStream(new FileInputStream(file));
+                in.readFully(data);
+                result = true;
             }
             catch (IOException e) {
                 // e.printStackTrace();
             }
             finally {
-                if (fileReader != null) {
+                if (in != null) {
                     try {
-                        fileReader.close();
+                        in.close();
                     }
                     catch (IOException e) {
                         e.printStackTrace();
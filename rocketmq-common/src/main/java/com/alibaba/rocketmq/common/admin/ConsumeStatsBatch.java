@@ -0,0 +1,37 @@
+package com.alibaba.rocketmq.common.admin;
+
+import java.util.HashMap;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 一个Broker上所有订阅组的消费统计，监控一次调用拉取整个Broker
+ */
+public class ConsumeStatsBatch extends RemotingSerializable {
+    private HashMap<String/* group */, ConsumeStats> consumeStatsTable =
+            new HashMap<String, ConsumeStats>();
+    // 每个队列最新一条消息的存储时间，与OffsetWrapper.lastTimestamp相减即为消费延迟
+    private HashMap<MessageQueue, Long> lastStoreTimestampTable = new HashMap<MessageQueue, Long>();
+
+
+    public HashMap<String, ConsumeStats> getConsumeStatsTable() {
+        return consumeStatsTable;
+    }
+
+
+    public void setConsumeStatsTable(HashMap<String, ConsumeStats> consumeStatsTable) {
+        this.consumeStatsTable = consumeStatsTable;
+    }
+
+
+    public HashMap<MessageQueue, Long> getLastStoreTimestampTable() {
+        return lastStoreTimestampTable;
+    }
+
+
+    public void setLastStoreTimestampTable(HashMap<MessageQueue, Long> lastStoreTimestampTable) {
+        this.lastStoreTimestampTable = lastStoreTimestampTable;
+    }
+}
@@ -195,6 +195,25 @@ public class Message implements Serializable {
     }
 
 
+    // 获取消息指定的投递时间点，0表示不指定
+    public long getStartDeliverTime() {
+        String t = this.getProperty(MessageConst.PROPERTY_START_DELIVER_TIME);
+        if (t != null) {
+            return Long.parseLong(t);
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * 指定消息的投递时间点（毫秒时间戳），需要服务器开启任意时间定时消息，否则立即投递
+     */
+    public void setStartDeliverTime(long timeMillis) {
+        this.putProperty(MessageConst.PROPERTY_START_DELIVER_TIME, String.valueOf(timeMillis));
+    }
+
+
     public boolean isWaitStoreMsgOK() {
         String result = this.getProperty(MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
         if (null == result)
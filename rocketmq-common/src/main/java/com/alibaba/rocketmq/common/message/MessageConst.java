@@ -38,6 +38,10 @@ public class MessageConst {
      * 消息延时投递时间级别，0表示不延时，大于0表示特定延时级别（具体级别在服务器端定义）
      */
     public static final String PROPERTY_DELAY_TIME_LEVEL = "DELAY";
+    /**
+     * 消息投递时间点（毫秒时间戳），需要服务器开启任意时间定时消息
+     */
+    public static final String PROPERTY_START_DELIVER_TIME = "START_DELIVER_TIME";
 
     /**
      * 内部使用
@@ -66,6 +70,7 @@ public class MessageConst {
         systemKeySet.add(PROPERTY_TAGS);
         systemKeySet.add(PROPERTY_WAIT_STORE_MSG_OK);
         systemKeySet.add(PROPERTY_DELAY_TIME_LEVEL);
+        systemKeySet.add(PROPERTY_START_DELIVER_TIME);
         systemKeySet.add(PROPERTY_RETRY_TOPIC);
         systemKeySet.add(PROPERTY_REAL_TOPIC);
         systemKeySet.add(PROPERTY_REAL_QUEUE_ID);
@@ -11,6 +11,8 @@ public class RegisterBrokerResult {
     private String haServerAddr;
     private String masterAddr;
     private KVTable kvTable;
+    private boolean deltaRegisterSupported = false;
+    private boolean fullSyncRequired = false;
 
 
     public String getHaServerAddr() {
@@ -41,4 +43,24 @@ public class RegisterBrokerResult {
     public void setKvTable(KVTable kvTable) {
         this.kvTable = kvTable;
     }
+
+
+    public boolean isDeltaRegisterSupported() {
+        return deltaRegisterSupported;
+    }
+
+
+    public void setDeltaRegisterSupported(boolean deltaRegisterSupported) {
+        this.deltaRegisterSupported = deltaRegisterSupported;
+    }
+
+
+    public boolean isFullSyncRequired() {
+        return fullSyncRequired;
+    }
+
+
+    public void setFullSyncRequired(boolean fullSyncRequired) {
+        this.fullSyncRequired = fullSyncRequired;
+    }
 }
@@ -169,4 +169,25 @@ public class RequestCode {
 
     // 查看Broker上的各种统计信息
     public static final int VIEW_BROKER_STATS_DATA = 315;
+
+    // Broker 批量更新Consumer Offset
+    public static final int UPDATE_CONSUMER_OFFSET_BATCH = 316;
+
+    // Client 订阅Topic路由变更通知
+    public static final int REGISTER_TOPIC_ROUTE_LISTENER = 317;
+    // Name Server 通知Client Topic路由发生变化
+    public static final int NOTIFY_TOPIC_ROUTE_CHANGED = 318;
+
+    // Slave 从 Master 增量同步Topic配置
+    public static final int GET_TOPIC_CONFIG_DELTA = 319;
+    // Slave 从 Master 增量同步订阅组配置
+    public static final int GET_SUBSCRIPTIONGROUP_CONFIG_DELTA = 320;
+    // Slave 从 Master 增量同步消费进度
+    public static final int GET_CONSUMER_OFFSET_DELTA = 321;
+
+    // 按Topic、订阅组导出Broker的分钟级时间序列统计
+    public static final int GET_BROKER_STATS_TIME_SERIES = 322;
+
+    // 批量查询Broker上所有订阅组的消费进度
+    public static final int GET_ALL_CONSUME_STATS = 323;
 }
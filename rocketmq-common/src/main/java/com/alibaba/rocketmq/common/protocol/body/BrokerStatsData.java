@@ -1,5 +1,6 @@
 package com.alibaba.rocketmq.common.protocol.body;
 
+import com.alibaba.rocketmq.common.stats.LatencySnapshot;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 
 
@@ -10,6 +11,8 @@ public class BrokerStatsData extends RemotingSerializable {
     private BrokerStatsItem statsHour;
     // 最近一天内的的统计
     private BrokerStatsItem statsDay;
+    // 延迟分布统计项才有，最近一分钟内的延迟分布
+    private LatencySnapshot latencyMinute;
 
 
     public BrokerStatsItem getStatsMinute() {
@@ -40,4 +43,14 @@ public class BrokerStatsData extends RemotingSerializable {
     public void setStatsDay(BrokerStatsItem statsDay) {
         this.statsDay = statsDay;
     }
+
+
+    public LatencySnapshot getLatencyMinute() {
+        return latencyMinute;
+    }
+
+
+    public void setLatencyMinute(LatencySnapshot latencyMinute) {
+        this.latencyMinute = latencyMinute;
+    }
 }
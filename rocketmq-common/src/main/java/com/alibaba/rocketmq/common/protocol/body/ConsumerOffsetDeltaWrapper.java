@@ -0,0 +1,58 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * Slave增量同步的消费进度，只包含变更序号之后有更新的topic@group<br>
+ * epoch标识Master进程，Master重启后变更序号重新开始，需要全量同步
+ */
+public class ConsumerOffsetDeltaWrapper extends RemotingSerializable {
+    private ConcurrentHashMap<String/* topic@group */, ConcurrentHashMap<Integer, Long>> offsetTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>();
+    private long epoch;
+    private long sequence;
+    private boolean fullSync = false;
+
+
+    public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> getOffsetTable() {
+        return offsetTable;
+    }
+
+
+    public void setOffsetTable(ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
+        this.offsetTable = offsetTable;
+    }
+
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+
+    public long getSequence() {
+        return sequence;
+    }
+
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+
+    public void setFullSync(boolean fullSync) {
+        this.fullSync = fullSync;
+    }
+}
@@ -0,0 +1,143 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.rocketmq.common.stats.StatsTimeSeries;
+
+
+/**
+ * Broker时间序列统计的应答，采用按列的二进制编码<br>
+ * 时间戳与每个Key的每个指标都按与前一个点的差值做ZigZag变长编码，连续平稳的序列每个点只占1个字节
+ */
+public class StatsTimeSeriesBody {
+    private static final byte Version = 1;
+
+    private List<StatsTimeSeries> seriesList = new ArrayList<StatsTimeSeries>();
+
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(Version);
+            out.writeInt(this.seriesList.size());
+            for (StatsTimeSeries timeSeries : this.seriesList) {
+                out.writeUTF(timeSeries.getStatsName());
+                out.writeShort(timeSeries.getMetricNames().size());
+                for (String metricName : timeSeries.getMetricNames()) {
+                    out.writeUTF(metricName);
+                }
+
+                long[] timestamps = timeSeries.getTimestamps();
+                out.writeInt(timestamps.length);
+                writeDeltaColumn(out, timestamps);
+
+                out.writeInt(timeSeries.getKeys().size());
+                for (int k = 0; k < timeSeries.getKeys().size(); k++) {
+                    out.writeUTF(timeSeries.getKeys().get(k));
+                    for (long[] column : timeSeries.getValues().get(k)) {
+                        writeDeltaColumn(out, column);
+                    }
+                }
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            // 写内存不会出现异常
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+
+    public static StatsTimeSeriesBody decode(final byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != Version) {
+            throw new IOException("unsupported stats time series version " + version);
+        }
+
+        StatsTimeSeriesBody body = new StatsTimeSeriesBody();
+        int seriesNums = in.readInt();
+        for (int s = 0; s < seriesNums; s++) {
+            StatsTimeSeries timeSeries = new StatsTimeSeries();
+            timeSeries.setStatsName(in.readUTF());
+            int metricNums = in.readShort();
+            for (int i = 0; i < metricNums; i++) {
+                timeSeries.getMetricNames().add(in.readUTF());
+            }
+
+            int pointNums = in.readInt();
+            timeSeries.setTimestamps(readDeltaColumn(in, pointNums));
+
+            int keyNums = in.readInt();
+            for (int k = 0; k < keyNums; k++) {
+                timeSeries.getKeys().add(in.readUTF());
+                long[][] values = new long[metricNums][];
+                for (int i = 0; i < metricNums; i++) {
+                    values[i] = readDeltaColumn(in, pointNums);
+                }
+                timeSeries.getValues().add(values);
+            }
+
+            body.getSeriesList().add(timeSeries);
+        }
+
+        return body;
+    }
+
+
+    private static void writeDeltaColumn(final DataOutputStream out, final long[] column)
+            throws IOException {
+        long prev = 0;
+        for (long value : column) {
+            long delta = value - prev;
+            // ZigZag，负数也编码成较小的无符号数
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            out.writeByte((int) zigzag);
+            prev = value;
+        }
+    }
+
+
+    private static long[] readDeltaColumn(final DataInputStream in, final int size) throws IOException {
+        long[] column = new long[size];
+        long prev = 0;
+        for (int i = 0; i < size; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            prev += (zigzag >>> 1) ^ -(zigzag & 1);
+            column[i] = prev;
+        }
+
+        return column;
+    }
+
+
+    public List<StatsTimeSeries> getSeriesList() {
+        return seriesList;
+    }
+
+
+    public void setSeriesList(List<StatsTimeSeries> seriesList) {
+        this.seriesList = seriesList;
+    }
+}
@@ -0,0 +1,63 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * Slave增量同步的订阅组配置，fullSync为true时subscriptionGroupTable是全量
+ */
+public class SubscriptionGroupDeltaWrapper extends RemotingSerializable {
+    private ConcurrentHashMap<String, SubscriptionGroupConfig> subscriptionGroupTable =
+            new ConcurrentHashMap<String, SubscriptionGroupConfig>();
+    // 基准版本之后删除的订阅组
+    private Set<String> removedGroups = new HashSet<String>();
+    private DataVersion dataVersion = new DataVersion();
+    private boolean fullSync = false;
+
+
+    public ConcurrentHashMap<String, SubscriptionGroupConfig> getSubscriptionGroupTable() {
+        return subscriptionGroupTable;
+    }
+
+
+    public void setSubscriptionGroupTable(
+            ConcurrentHashMap<String, SubscriptionGroupConfig> subscriptionGroupTable) {
+        this.subscriptionGroupTable = subscriptionGroupTable;
+    }
+
+
+    public Set<String> getRemovedGroups() {
+        return removedGroups;
+    }
+
+
+    public void setRemovedGroups(Set<String> removedGroups) {
+        this.removedGroups = removedGroups;
+    }
+
+
+    public DataVersion getDataVersion() {
+        return dataVersion;
+    }
+
+
+    public void setDataVersion(DataVersion dataVersion) {
+        this.dataVersion = dataVersion;
+    }
+
+
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+
+    public void setFullSync(boolean fullSync) {
+        this.fullSync = fullSync;
+    }
+}
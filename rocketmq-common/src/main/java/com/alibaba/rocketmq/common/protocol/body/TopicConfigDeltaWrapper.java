@@ -0,0 +1,62 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * Slave增量同步的Topic配置，fullSync为true时topicConfigTable是全量
+ */
+public class TopicConfigDeltaWrapper extends RemotingSerializable {
+    private ConcurrentHashMap<String, TopicConfig> topicConfigTable =
+            new ConcurrentHashMap<String, TopicConfig>();
+    // 基准版本之后删除的Topic
+    private Set<String> removedTopics = new HashSet<String>();
+    private DataVersion dataVersion = new DataVersion();
+    private boolean fullSync = false;
+
+
+    public ConcurrentHashMap<String, TopicConfig> getTopicConfigTable() {
+        return topicConfigTable;
+    }
+
+
+    public void setTopicConfigTable(ConcurrentHashMap<String, TopicConfig> topicConfigTable) {
+        this.topicConfigTable = topicConfigTable;
+    }
+
+
+    public Set<String> getRemovedTopics() {
+        return removedTopics;
+    }
+
+
+    public void setRemovedTopics(Set<String> removedTopics) {
+        this.removedTopics = removedTopics;
+    }
+
+
+    public DataVersion getDataVersion() {
+        return dataVersion;
+    }
+
+
+    public void setDataVersion(DataVersion dataVersion) {
+        this.dataVersion = dataVersion;
+    }
+
+
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+
+    public void setFullSync(boolean fullSync) {
+        this.fullSync = fullSync;
+    }
+}
@@ -0,0 +1,35 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 批量更新消费进度，同一个Broker上一个group的所有队列一次提交
+ */
+public class UpdateConsumerOffsetBatchBody extends RemotingSerializable {
+    private Map<String/* topic */, Map<Integer/* queueId */, Long>> offsetTable =
+            new HashMap<String, Map<Integer, Long>>();
+
+
+    public void addOffset(final String topic, final int queueId, final long offset) {
+        Map<Integer, Long> queueTable = this.offsetTable.get(topic);
+        if (null == queueTable) {
+            queueTable = new HashMap<Integer, Long>();
+            this.offsetTable.put(topic, queueTable);
+        }
+        queueTable.put(queueId, offset);
+    }
+
+
+    public Map<String, Map<Integer, Long>> getOffsetTable() {
+        return offsetTable;
+    }
+
+
+    public void setOffsetTable(Map<String, Map<Integer, Long>> offsetTable) {
+        this.offsetTable = offsetTable;
+    }
+}
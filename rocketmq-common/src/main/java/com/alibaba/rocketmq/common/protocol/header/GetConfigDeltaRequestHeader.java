@@ -0,0 +1,42 @@
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+
+
+/**
+ * Slave增量同步请求，携带上次同步到的版本<br>
+ * Topic、订阅组配置为DataVersion的timestamp与counter，消费进度为Master的epoch与变更序号
+ */
+public class GetConfigDeltaRequestHeader implements CommandCustomHeader {
+    @CFNotNull
+    private Long baseTimestamp;
+    @CFNotNull
+    private Long baseCounter;
+
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+    }
+
+
+    public Long getBaseTimestamp() {
+        return baseTimestamp;
+    }
+
+
+    public void setBaseTimestamp(Long baseTimestamp) {
+        this.baseTimestamp = baseTimestamp;
+    }
+
+
+    public Long getBaseCounter() {
+        return baseCounter;
+    }
+
+
+    public void setBaseCounter(Long baseCounter) {
+        this.baseCounter = baseCounter;
+    }
+}
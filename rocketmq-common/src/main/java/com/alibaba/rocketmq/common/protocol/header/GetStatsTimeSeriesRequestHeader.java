@@ -0,0 +1,30 @@
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+
+
+/**
+ * 拉取Broker时间序列统计，只返回时间戳大于beginTimestamp的点，增量拉取时传上次拉到的最后一个时间戳
+ */
+public class GetStatsTimeSeriesRequestHeader implements CommandCustomHeader {
+    @CFNotNull
+    private Long beginTimestamp;
+
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+
+    }
+
+
+    public Long getBeginTimestamp() {
+        return beginTimestamp;
+    }
+
+
+    public void setBeginTimestamp(Long beginTimestamp) {
+        this.beginTimestamp = beginTimestamp;
+    }
+}
@@ -0,0 +1,40 @@
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+
+
+/**
+ * 心跳应答，老版本Broker不返回这些字段
+ */
+public class HeartbeatResponseHeader implements CommandCustomHeader {
+    // Broker支持不携带订阅关系的心跳
+    private Boolean withoutSubSupported;
+    // 有Consumer Group的订阅关系指纹与Broker不一致，需要重新发送完整心跳
+    private Boolean subFingerprintMismatch;
+
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+    }
+
+
+    public Boolean getWithoutSubSupported() {
+        return withoutSubSupported;
+    }
+
+
+    public void setWithoutSubSupported(Boolean withoutSubSupported) {
+        this.withoutSubSupported = withoutSubSupported;
+    }
+
+
+    public Boolean getSubFingerprintMismatch() {
+        return subFingerprintMismatch;
+    }
+
+
+    public void setSubFingerprintMismatch(Boolean subFingerprintMismatch) {
+        this.subFingerprintMismatch = subFingerprintMismatch;
+    }
+}
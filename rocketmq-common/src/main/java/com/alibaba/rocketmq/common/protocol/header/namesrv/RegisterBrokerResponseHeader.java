@@ -14,6 +14,12 @@ public class RegisterBrokerResponseHeader implements CommandCustomHeader {
     private String haServerAddr;
     @CFNullable
     private String masterAddr;
+    // Name Server是否支持增量注册
+    @CFNullable
+    private Boolean deltaRegisterSupported;
+    // 增量注册的基准版本不一致，需要全量注册
+    @CFNullable
+    private Boolean fullSyncRequired;
 
 
     @Override
@@ -39,4 +45,24 @@ public class RegisterBrokerResponseHeader implements CommandCustomHeader {
     public void setMasterAddr(String masterAddr) {
         this.masterAddr = masterAddr;
     }
+
+
+    public Boolean getDeltaRegisterSupported() {
+        return deltaRegisterSupported;
+    }
+
+
+    public void setDeltaRegisterSupported(Boolean deltaRegisterSupported) {
+        this.deltaRegisterSupported = deltaRegisterSupported;
+    }
+
+
+    public Boolean getFullSyncRequired() {
+        return fullSyncRequired;
+    }
+
+
+    public void setFullSyncRequired(Boolean fullSyncRequired) {
+        this.fullSyncRequired = fullSyncRequired;
+    }
 }
@@ -3,9 +3,15 @@
  */
 package com.alibaba.rocketmq.common.protocol.heartbeat;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
 
 
@@ -19,6 +25,23 @@ public class ConsumerData {
     private ConsumeFromWhere consumeFromWhere;
     private Set<SubscriptionData> subscriptionDataSet = new HashSet<SubscriptionData>();
     private boolean unitMode;
+    // 订阅关系指纹，不发送订阅关系的心跳由Broker据此判断订阅关系是否变化
+    private int subscriptionFingerprint;
+
+
+    /**
+     * 根据订阅关系计算指纹，订阅关系任何变化都会更新subVersion，所以指纹包含subVersion
+     */
+    public int buildSubscriptionFingerprint() {
+        List<SubscriptionData> subList = new ArrayList<SubscriptionData>(this.subscriptionDataSet);
+        Collections.sort(subList);
+        StringBuilder sb = new StringBuilder(64 * subList.size());
+        for (SubscriptionData sub : subList) {
+            sb.append(sub.getTopic()).append('@').append(sub.getSubString()).append('@')
+                .append(sub.isClassFilterMode()).append('@').append(sub.getSubVersion()).append(';');
+        }
+        return UtilAll.crc32(sb.toString().getBytes(Charset.forName(MixAll.DEFAULT_CHARSET)));
+    }
 
 
     public String getGroupName() {
@@ -81,10 +104,21 @@ public class ConsumerData {
     }
 
 
+    public int getSubscriptionFingerprint() {
+        return subscriptionFingerprint;
+    }
+
+
+    public void setSubscriptionFingerprint(int subscriptionFingerprint) {
+        this.subscriptionFingerprint = subscriptionFingerprint;
+    }
+
+
     @Override
     public String toString() {
         return "ConsumerData [groupName=" + groupName + ", consumeType=" + consumeType + ", messageModel="
                 + messageModel + ", consumeFromWhere=" + consumeFromWhere + ", unitMode=" + unitMode
-                + ", subscriptionDataSet=" + subscriptionDataSet + "]";
+                + ", subscriptionFingerprint=" + subscriptionFingerprint + ", subscriptionDataSet="
+                + subscriptionDataSet + "]";
     }
 }
@@ -16,6 +16,8 @@ public class HeartbeatData extends RemotingSerializable {
     private String clientID;
     private Set<ProducerData> producerDataSet = new HashSet<ProducerData>();
     private Set<ConsumerData> consumerDataSet = new HashSet<ConsumerData>();
+    // 为true时ConsumerData不携带订阅关系，只有订阅关系指纹
+    private boolean withoutSub = false;
 
 
     public String getClientID() {
@@ -48,9 +50,19 @@ public class HeartbeatData extends RemotingSerializable {
     }
 
 
+    public boolean isWithoutSub() {
+        return withoutSub;
+    }
+
+
+    public void setWithoutSub(boolean withoutSub) {
+        this.withoutSub = withoutSub;
+    }
+
+
     @Override
     public String toString() {
         return "HeartbeatData [clientID=" + clientID + ", producerDataSet=" + producerDataSet
-                + ", consumerDataSet=" + consumerDataSet + "]";
+                + ", consumerDataSet=" + consumerDataSet + ", withoutSub=" + withoutSub + "]";
     }
 }
@@ -21,4 +21,5 @@ public enum RunningStats {
     commitLogDiskRatio,
     consumeQueueDiskRatio,
     scheduleMessageOffset,
+    scheduleMessageLag,
 }
@@ -0,0 +1,106 @@
+package com.alibaba.rocketmq.common.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 对数线性分桶的延迟直方图，类似HdrHistogram<br>
+ * 每个2的幂区间再等分为SubBucketCount个桶，桶宽不超过所在值的1/SubBucketCount，
+ * 记录只有两次原子加，不加锁，也不分配对象
+ */
+public class LatencyHistogram {
+    private static final int SubBucketBits = 3;
+    private static final int SubBucketCount = 1 << SubBucketBits;
+    // 可区分的最大值为2^MaxValueBits - 1，单位微秒时约71分钟，更大的值计入最后一个桶
+    private static final int MaxValueBits = 32;
+    static final int BucketNums = (MaxValueBits - SubBucketBits + 1) * SubBucketCount;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BucketNums);
+    private final AtomicLong totalValue = new AtomicLong(0);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+
+    static int bucketIndex(final long value) {
+        if (value < SubBucketCount) {
+            return (int) Math.max(value, 0);
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude >= MaxValueBits) {
+            return BucketNums - 1;
+        }
+
+        int shift = magnitude - SubBucketBits;
+        int subIndex = (int) (value >>> shift) - SubBucketCount;
+        return (shift + 1) * SubBucketCount + subIndex;
+    }
+
+
+    /**
+     * 桶内的最大值，百分位按桶上界返回
+     */
+    static long bucketUpperValue(final int index) {
+        if (index < SubBucketCount) {
+            return index;
+        }
+
+        int shift = index / SubBucketCount - 1;
+        int subIndex = index % SubBucketCount;
+        return ((long) (SubBucketCount + subIndex + 1) << shift) - 1;
+    }
+
+
+    public void record(final long value) {
+        this.counts.incrementAndGet(bucketIndex(value));
+        this.totalValue.addAndGet(value);
+
+        long max = this.maxValue.get();
+        while (value > max && !this.maxValue.compareAndSet(max, value)) {
+            max = this.maxValue.get();
+        }
+    }
+
+
+    /**
+     * 取出当前周期的数据并清零，清零过程中并发记录的值计入本周期或者下个周期
+     */
+    public LatencySnapshot snapshotAndReset() {
+        long[] drained = new long[BucketNums];
+        long count = 0;
+        for (int i = 0; i < BucketNums; i++) {
+            drained[i] = this.counts.getAndSet(i, 0);
+            count += drained[i];
+        }
+        long total = this.totalValue.getAndSet(0);
+        long max = this.maxValue.getAndSet(0);
+
+        LatencySnapshot snapshot = new LatencySnapshot();
+        snapshot.setCount(count);
+        if (count > 0) {
+            snapshot.setAvg(total / (double) count);
+            snapshot.setMax(max);
+            snapshot.setP50(valueAtPercentile(drained, count, 0.50));
+            snapshot.setP90(valueAtPercentile(drained, count, 0.90));
+            snapshot.setP99(valueAtPercentile(drained, count, 0.99));
+            snapshot.setP999(valueAtPercentile(drained, count, 0.999));
+        }
+
+        return snapshot;
+    }
+
+
+    private static long valueAtPercentile(final long[] counts, final long totalCount,
+            final double percentile) {
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile * totalCount));
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= countAtPercentile) {
+                return bucketUpperValue(i);
+            }
+        }
+
+        return bucketUpperValue(counts.length - 1);
+    }
+}
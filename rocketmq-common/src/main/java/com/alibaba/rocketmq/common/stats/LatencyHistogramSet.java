@@ -0,0 +1,99 @@
+package com.alibaba.rocketmq.common.stats;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.alibaba.rocketmq.common.UtilAll;
+
+
+/**
+ * 按Key统计延迟分布，每分钟整点切换统计周期，保留上一分钟的分布<br>
+ * 一分钟内没有数据的Key被删除
+ */
+public class LatencyHistogramSet {
+    private final ConcurrentHashMap<String/* key */, LatencyHistogram> histogramTable =
+            new ConcurrentHashMap<String, LatencyHistogram>(128);
+    private final ConcurrentHashMap<String/* key */, LatencySnapshot> snapshotInMinuteTable =
+            new ConcurrentHashMap<String, LatencySnapshot>(128);
+
+    private final String statsName;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final Logger log;
+
+
+    public LatencyHistogramSet(String statsName, ScheduledExecutorService scheduledExecutorService,
+            Logger log) {
+        this.statsName = statsName;
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.log = log;
+        this.init();
+    }
+
+
+    public void record(final String statsKey, final long value) {
+        LatencyHistogram histogram = this.histogramTable.get(statsKey);
+        if (null == histogram) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram prev = this.histogramTable.putIfAbsent(statsKey, histogram);
+            if (prev != null) {
+                histogram = prev;
+            }
+        }
+
+        histogram.record(value);
+    }
+
+
+    /**
+     * 上一分钟的延迟分布，没有数据时返回null
+     */
+    public LatencySnapshot getSnapshotInMinute(final String statsKey) {
+        return this.snapshotInMinuteTable.get(statsKey);
+    }
+
+
+    public String getStatsName() {
+        return statsName;
+    }
+
+
+    public void init() {
+        // 分钟整点执行
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rotateAtMinutes();
+                }
+                catch (Throwable e) {
+                }
+            }
+        }, Math.abs(UtilAll.computNextMinutesTimeMillis() - System.currentTimeMillis()), //
+            1000 * 60, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void rotateAtMinutes() {
+        Iterator<Entry<String, LatencyHistogram>> it = this.histogramTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, LatencyHistogram> next = it.next();
+            LatencySnapshot snapshot = next.getValue().snapshotAndReset();
+            if (snapshot.getCount() == 0) {
+                it.remove();
+                this.snapshotInMinuteTable.remove(next.getKey());
+                continue;
+            }
+
+            this.snapshotInMinuteTable.put(next.getKey(), snapshot);
+            log.info(String.format("[%s] [%s] Latency In One Minute, %s", //
+                this.statsName, //
+                next.getKey(), //
+                snapshot));
+        }
+    }
+}
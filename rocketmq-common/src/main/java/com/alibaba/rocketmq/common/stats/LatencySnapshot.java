@@ -0,0 +1,91 @@
+package com.alibaba.rocketmq.common.stats;
+
+/**
+ * 一个统计周期内的延迟分布，百分位为所在桶的上界
+ */
+public class LatencySnapshot {
+    private long count;
+    private double avg;
+    private long max;
+    private long p50;
+    private long p90;
+    private long p99;
+    private long p999;
+
+
+    public long getCount() {
+        return count;
+    }
+
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+
+    public double getAvg() {
+        return avg;
+    }
+
+
+    public void setAvg(double avg) {
+        this.avg = avg;
+    }
+
+
+    public long getMax() {
+        return max;
+    }
+
+
+    public void setMax(long max) {
+        this.max = max;
+    }
+
+
+    public long getP50() {
+        return p50;
+    }
+
+
+    public void setP50(long p50) {
+        this.p50 = p50;
+    }
+
+
+    public long getP90() {
+        return p90;
+    }
+
+
+    public void setP90(long p90) {
+        this.p90 = p90;
+    }
+
+
+    public long getP99() {
+        return p99;
+    }
+
+
+    public void setP99(long p99) {
+        this.p99 = p99;
+    }
+
+
+    public long getP999() {
+        return p999;
+    }
+
+
+    public void setP999(long p999) {
+        this.p999 = p999;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("COUNT: %d AVG: %.2f P50: %d P90: %d P99: %d P999: %d MAX: %d", //
+            this.count, this.avg, this.p50, this.p90, this.p99, this.p999, this.max);
+    }
+}
@@ -75,4 +75,9 @@ public class MomentStatsItemSet {
             next.getValue().printAtMinutes();
         }
     }
+
+
+    public ConcurrentHashMap<String, MomentStatsItem> getStatsItemTable() {
+        return statsItemTable;
+    }
 }
@@ -1,166 +1,60 @@
 package com.alibaba.rocketmq.common.stats;
 
-import java.util.LinkedList;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 
-import com.alibaba.rocketmq.common.UtilAll;
-
 
+/**
+ * 单个Key的统计项，由所属的StatsItemSet统一采样，不单独定时
+ */
 public class StatsItem {
     // 具体的统计值
     private final AtomicLong value = new AtomicLong(0);
     // 统计次数
     private final AtomicLong times = new AtomicLong(0);
     // 最近一分钟内的镜像，数量6，10秒钟采样一次
-    private final LinkedList<CallSnapshot> csListMinute = new LinkedList<CallSnapshot>();
+    private final CallSnapshotRing csListMinute = new CallSnapshotRing(7);
 
     // 最近一小时内的镜像，数量6，10分钟采样一次
-    private final LinkedList<CallSnapshot> csListHour = new LinkedList<CallSnapshot>();
+    private final CallSnapshotRing csListHour = new CallSnapshotRing(7);
 
     // 最近一天内的镜像，数量24，1小时采样一次
-    private final LinkedList<CallSnapshot> csListDay = new LinkedList<CallSnapshot>();
+    private final CallSnapshotRing csListDay = new CallSnapshotRing(25);
 
     private final String statsName;
     private final String statsKey;
-    private final ScheduledExecutorService scheduledExecutorService;
     private final Logger log;
-
-
-    private static StatsSnapshot computeStatsData(final LinkedList<CallSnapshot> csList) {
-        StatsSnapshot statsSnapshot = new StatsSnapshot();
-        synchronized (csList) {
-            double tps = 0;
-            double avgpt = 0;
-            long sum = 0;
-            if (!csList.isEmpty()) {
-                CallSnapshot first = csList.getFirst();
-                CallSnapshot last = csList.getLast();
-                sum = last.getValue() - first.getValue();
-                tps = (sum * 1000.0d) / (last.getTimestamp() - first.getTimestamp());
-
-                long timesDiff = last.getTimes() - first.getTimes();
-                if (timesDiff > 0) {
-                    avgpt = (sum * 1.0d) / (timesDiff);
-                }
-            }
-
-            statsSnapshot.setSum(sum);
-            statsSnapshot.setTps(tps);
-            statsSnapshot.setAvgpt(avgpt);
-        }
-
-        return statsSnapshot;
-    }
+    // 最近一次采样到变化的时间，用于淘汰空闲的统计项
+    private volatile long lastActiveTimestamp = System.currentTimeMillis();
+    // 只有采样线程访问
+    private long lastSampledTimes = 0;
 
 
     public StatsSnapshot getStatsDataInMinute() {
-        return computeStatsData(this.csListMinute);
+        return this.csListMinute.computeStatsData();
     }
 
 
     public StatsSnapshot getStatsDataInHour() {
-        return computeStatsData(this.csListHour);
+        return this.csListHour.computeStatsData();
     }
 
 
     public StatsSnapshot getStatsDataInDay() {
-        return computeStatsData(this.csListDay);
+        return this.csListDay.computeStatsData();
     }
 
 
-    public StatsItem(String statsName, String statsKey, ScheduledExecutorService scheduledExecutorService,
-            Logger log) {
+    public StatsItem(String statsName, String statsKey, Logger log) {
         this.statsName = statsName;
         this.statsKey = statsKey;
-        this.scheduledExecutorService = scheduledExecutorService;
         this.log = log;
     }
 
 
-    public void init() {
-        // 每隔10s执行一次
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    samplingInSeconds();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, 0, 10, TimeUnit.SECONDS);
-
-        // 每隔10分钟执行一次
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    samplingInMinutes();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, 0, 10, TimeUnit.MINUTES);
-
-        // 每隔1小时执行一次
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    samplingInHour();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, 0, 1, TimeUnit.HOURS);
-
-        // 分钟整点执行
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    printAtMinutes();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, Math.abs(UtilAll.computNextMinutesTimeMillis() - System.currentTimeMillis()), //
-            1000 * 60, TimeUnit.MILLISECONDS);
-
-        // 小时整点执行
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    printAtHour();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, Math.abs(UtilAll.computNextHourTimeMillis() - System.currentTimeMillis()), //
-            1000 * 60 * 60, TimeUnit.MILLISECONDS);
-
-        // 每天0点执行
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    printAtDay();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, Math.abs(UtilAll.computNextMorningTimeMillis() - System.currentTimeMillis()) - 2000, //
-            1000 * 60 * 60 * 24, TimeUnit.MILLISECONDS);
-    }
-
-
     public void printAtMinutes() {
-        StatsSnapshot ss = computeStatsData(this.csListMinute);
+        StatsSnapshot ss = this.csListMinute.computeStatsData();
         log.info(String.format("[%s] [%s] Stats In One Minute, SUM: %d TPS: %.2f AVGPT: %.2f", //
             this.statsName, //
             this.statsKey, //
@@ -171,7 +65,7 @@ public class StatsItem {
 
 
     public void printAtHour() {
-        StatsSnapshot ss = computeStatsData(this.csListHour);
+        StatsSnapshot ss = this.csListHour.computeStatsData();
         log.info(String.format("[%s] [%s] Stats In One Hour, SUM: %d TPS: %.2f AVGPT: %.2f", //
             this.statsName, //
             this.statsKey, //
@@ -182,7 +76,7 @@ public class StatsItem {
 
 
     public void printAtDay() {
-        StatsSnapshot ss = computeStatsData(this.csListDay);
+        StatsSnapshot ss = this.csListDay.computeStatsData();
         log.info(String.format("[%s] [%s] Stats In One Day, SUM: %d TPS: %.2f AVGPT: %.2f", //
             this.statsName, //
             this.statsKey, //
@@ -193,35 +87,28 @@ public class StatsItem {
 
 
     public void samplingInSeconds() {
-        synchronized (this.csListMinute) {
-            this.csListMinute
-                .add(new CallSnapshot(System.currentTimeMillis(), this.times.get(), this.value.get()));
-            if (this.csListMinute.size() > 7) {
-                this.csListMinute.removeFirst();
-            }
+        long now = System.currentTimeMillis();
+        long currentTimes = this.times.get();
+        this.csListMinute.add(now, currentTimes, this.value.get());
+        if (currentTimes != this.lastSampledTimes) {
+            this.lastSampledTimes = currentTimes;
+            this.lastActiveTimestamp = now;
         }
     }
 
 
     public void samplingInMinutes() {
-        synchronized (this.csListHour) {
-            this.csListHour
-                .add(new CallSnapshot(System.currentTimeMillis(), this.times.get(), this.value.get()));
-            if (this.csListHour.size() > 7) {
-                this.csListHour.removeFirst();
-            }
-        }
+        this.csListHour.add(System.currentTimeMillis(), this.times.get(), this.value.get());
     }
 
 
     public void samplingInHour() {
-        synchronized (this.csListDay) {
-            this.csListDay
-                .add(new CallSnapshot(System.currentTimeMillis(), this.times.get(), this.value.get()));
-            if (this.csListDay.size() > 25) {
-                this.csListDay.removeFirst();
-            }
-        }
+        this.csListDay.add(System.currentTimeMillis(), this.times.get(), this.value.get());
+    }
+
+
+    public long getLastActiveTimestamp() {
+        return lastActiveTimestamp;
     }
 
 
@@ -246,32 +133,55 @@ public class StatsItem {
 }
 
 
-class CallSnapshot {
-    private final long timestamp;
-    private final long times;
+/**
+ * 定长的采样环，采样时不分配对象，满了以后覆盖最早的采样
+ */
+class CallSnapshotRing {
+    private final long[] timestamps;
+    private final long[] times;
+    private final long[] values;
+    // 下一个写入位置
+    private int next = 0;
+    private int size = 0;
 
-    private final long value;
 
-
-    public CallSnapshot(long timestamp, long times, long value) {
-        super();
-        this.timestamp = timestamp;
-        this.times = times;
-        this.value = value;
+    public CallSnapshotRing(int capacity) {
+        this.timestamps = new long[capacity];
+        this.times = new long[capacity];
+        this.values = new long[capacity];
     }
 
 
-    public long getTimestamp() {
-        return timestamp;
+    public synchronized void add(long timestamp, long times, long value) {
+        this.timestamps[this.next] = timestamp;
+        this.times[this.next] = times;
+        this.values[this.next] = value;
+        this.next = (this.next + 1) % this.timestamps.length;
+        if (this.size < this.timestamps.length) {
+            this.size++;
+        }
     }
 
 
-    public long getTimes() {
-        return times;
-    }
+    public synchronized StatsSnapshot computeStatsData() {
+        StatsSnapshot statsSnapshot = new StatsSnapshot();
+        if (this.size > 0) {
+            int capacity = this.timestamps.length;
+            int first = (this.next - this.size + capacity) % capacity;
+            int last = (this.next - 1 + capacity) % capacity;
+            long sum = this.values[last] - this.values[first];
+            long timeDiff = this.timestamps[last] - this.timestamps[first];
+            long timesDiff = this.times[last] - this.times[first];
 
+            statsSnapshot.setSum(sum);
+            if (timeDiff > 0) {
+                statsSnapshot.setTps((sum * 1000.0d) / timeDiff);
+            }
+            if (timesDiff > 0) {
+                statsSnapshot.setAvgpt((sum * 1.0d) / timesDiff);
+            }
+        }
 
-    public long getValue() {
-        return value;
+        return statsSnapshot;
     }
 }
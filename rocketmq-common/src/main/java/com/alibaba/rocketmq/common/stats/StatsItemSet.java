@@ -11,19 +11,44 @@ import org.slf4j.Logger;
 import com.alibaba.rocketmq.common.UtilAll;
 
 
+/**
+ * 一组统计项，只有一个定时任务，每10秒遍历一次所有统计项完成采样、打印与淘汰
+ */
 public class StatsItemSet {
+    // 采样间隔
+    private static final long SamplingIntervalMillis = 1000 * 10;
+    // 每60次采样（10分钟）做一次小时级采样，每360次采样（1小时）做一次天级采样
+    private static final long MinutesSamplingTicks = 60;
+    private static final long HourSamplingTicks = 360;
+    // 空闲超过一天加一个采样周期再淘汰，不影响天级别的统计
+    public static final long DefaultIdleEvictMillis = 1000 * 60 * 60 * 25;
+
     private final ConcurrentHashMap<String/* key */, StatsItem> statsItemTable =
             new ConcurrentHashMap<String, StatsItem>(128);
 
     private final String statsName;
     private final ScheduledExecutorService scheduledExecutorService;
     private final Logger log;
+    private final long idleEvictMillis;
+
+    // 以下只有采样线程访问
+    private long samplingTicks = 0;
+    private long nextPrintMinutesTimestamp = UtilAll.computNextMinutesTimeMillis();
+    private long nextPrintHourTimestamp = UtilAll.computNextHourTimeMillis();
+    private long nextPrintDayTimestamp = UtilAll.computNextMorningTimeMillis();
 
 
     public StatsItemSet(String statsName, ScheduledExecutorService scheduledExecutorService, Logger log) {
+        this(statsName, scheduledExecutorService, log, DefaultIdleEvictMillis);
+    }
+
+
+    public StatsItemSet(String statsName, ScheduledExecutorService scheduledExecutorService, Logger log,
+            long idleEvictMillis) {
         this.statsName = statsName;
         this.scheduledExecutorService = scheduledExecutorService;
         this.log = log;
+        this.idleEvictMillis = idleEvictMillis;
         this.init();
     }
 
@@ -31,12 +56,10 @@ public class StatsItemSet {
     public StatsItem getAndCreateStatsItem(final String statsKey) {
         StatsItem statsItem = this.statsItemTable.get(statsKey);
         if (null == statsItem) {
-            statsItem = new StatsItem(this.statsName, statsKey, this.scheduledExecutorService, this.log);
-            StatsItem prev = this.statsItemTable.put(statsKey, statsItem);
-            // 说明是第一次插入
-            if (null == prev) {
-                // 内部不需要定时，外部统一定时
-                // statsItem.init();
+            statsItem = new StatsItem(this.statsName, statsKey, this.log);
+            StatsItem prev = this.statsItemTable.putIfAbsent(statsKey, statsItem);
+            if (prev != null) {
+                statsItem = prev;
             }
         }
 
@@ -83,134 +106,82 @@ public class StatsItemSet {
     }
 
 
-    public void init() {
-        // 每隔10s执行一次
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    samplingInSeconds();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, 0, 10, TimeUnit.SECONDS);
+    public int getStatsItemCount() {
+        return this.statsItemTable.size();
+    }
 
-        // 每隔10分钟执行一次
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    samplingInMinutes();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, 0, 10, TimeUnit.MINUTES);
 
-        // 每隔1小时执行一次
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    samplingInHour();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, 0, 1, TimeUnit.HOURS);
+    public ConcurrentHashMap<String, StatsItem> getStatsItemTable() {
+        return statsItemTable;
+    }
 
-        // 分钟整点执行
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    printAtMinutes();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, Math.abs(UtilAll.computNextMinutesTimeMillis() - System.currentTimeMillis()), //
-            1000 * 60, TimeUnit.MILLISECONDS);
 
-        // 小时整点执行
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    printAtHour();
-                }
-                catch (Throwable e) {
-                }
-            }
-        }, Math.abs(UtilAll.computNextHourTimeMillis() - System.currentTimeMillis()), //
-            1000 * 60 * 60, TimeUnit.MILLISECONDS);
-
-        // 每天0点执行
+    public void init() {
+        // 每隔10s执行一次
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 try {
-                    printAtDay();
+                    sampling();
                 }
                 catch (Throwable e) {
                 }
             }
-        }, Math.abs(UtilAll.computNextMorningTimeMillis() - System.currentTimeMillis()), //
-            1000 * 60 * 60 * 24, TimeUnit.MILLISECONDS);
+        }, 0, SamplingIntervalMillis, TimeUnit.MILLISECONDS);
     }
 
 
-    private void printAtMinutes() {
-        Iterator<Entry<String, StatsItem>> it = this.statsItemTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, StatsItem> next = it.next();
-            next.getValue().printAtMinutes();
-        }
-    }
-
+    /**
+     * 一次遍历完成所有统计项的采样，分钟、小时、天的整点打印在整点后的第一次采样时完成
+     */
+    void sampling() {
+        final long now = System.currentTimeMillis();
+        final boolean samplingInMinutes = this.samplingTicks % MinutesSamplingTicks == 0;
+        final boolean samplingInHour = this.samplingTicks % HourSamplingTicks == 0;
+        this.samplingTicks++;
 
-    private void printAtHour() {
-        Iterator<Entry<String, StatsItem>> it = this.statsItemTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, StatsItem> next = it.next();
-            next.getValue().printAtHour();
+        final boolean printAtMinutes = now >= this.nextPrintMinutesTimestamp;
+        if (printAtMinutes) {
+            this.nextPrintMinutesTimestamp = UtilAll.computNextMinutesTimeMillis();
         }
-    }
-
-
-    private void printAtDay() {
-        Iterator<Entry<String, StatsItem>> it = this.statsItemTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, StatsItem> next = it.next();
-            next.getValue().printAtDay();
+        final boolean printAtHour = now >= this.nextPrintHourTimestamp;
+        if (printAtHour) {
+            this.nextPrintHourTimestamp = UtilAll.computNextHourTimeMillis();
         }
-    }
-
-
-    private void samplingInSeconds() {
-        Iterator<Entry<String, StatsItem>> it = this.statsItemTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, StatsItem> next = it.next();
-            next.getValue().samplingInSeconds();
+        final boolean printAtDay = now >= this.nextPrintDayTimestamp;
+        if (printAtDay) {
+            this.nextPrintDayTimestamp = UtilAll.computNextMorningTimeMillis();
         }
-    }
-
 
-    private void samplingInMinutes() {
         Iterator<Entry<String, StatsItem>> it = this.statsItemTable.entrySet().iterator();
         while (it.hasNext()) {
             Entry<String, StatsItem> next = it.next();
-            next.getValue().samplingInMinutes();
-        }
-    }
+            StatsItem statsItem = next.getValue();
+            statsItem.samplingInSeconds();
+            if (samplingInMinutes) {
+                statsItem.samplingInMinutes();
+            }
+            if (samplingInHour) {
+                statsItem.samplingInHour();
+            }
 
+            // 长时间没有变化的统计项直接淘汰
+            if ((now - statsItem.getLastActiveTimestamp()) > this.idleEvictMillis) {
+                if (this.statsItemTable.remove(next.getKey(), statsItem)) {
+                    log.info("[{}] [{}] Stats item idle, evict it", this.statsName, next.getKey());
+                }
+                continue;
+            }
 
-    private void samplingInHour() {
-        Iterator<Entry<String, StatsItem>> it = this.statsItemTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, StatsItem> next = it.next();
-            next.getValue().samplingInHour();
+            if (printAtMinutes) {
+                statsItem.printAtMinutes();
+            }
+            if (printAtHour) {
+                statsItem.printAtHour();
+            }
+            if (printAtDay) {
+                statsItem.printAtDay();
+            }
         }
     }
 }
@@ -0,0 +1,81 @@
+package com.alibaba.rocketmq.common.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * 一组时间序列的导出结果，按列存放<br>
+ * 所有Key共用timestamps，values中每个Key对应一个[指标][时间点]的二维数组
+ */
+public class StatsTimeSeries {
+    private String statsName;
+    private List<String> metricNames = new ArrayList<String>();
+    private long[] timestamps = new long[0];
+    private List<String> keys = new ArrayList<String>();
+    private List<long[][]> values = new ArrayList<long[][]>();
+
+
+    /**
+     * 返回指定Key的某个指标，不存在返回null
+     */
+    public long[] getMetric(final String key, final String metricName) {
+        int keyIndex = this.keys.indexOf(key);
+        int metricIndex = this.metricNames.indexOf(metricName);
+        if (keyIndex < 0 || metricIndex < 0) {
+            return null;
+        }
+
+        return this.values.get(keyIndex)[metricIndex];
+    }
+
+
+    public String getStatsName() {
+        return statsName;
+    }
+
+
+    public void setStatsName(String statsName) {
+        this.statsName = statsName;
+    }
+
+
+    public List<String> getMetricNames() {
+        return metricNames;
+    }
+
+
+    public void setMetricNames(List<String> metricNames) {
+        this.metricNames = metricNames;
+    }
+
+
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+
+    public void setTimestamps(long[] timestamps) {
+        this.timestamps = timestamps;
+    }
+
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+
+    public void setKeys(List<String> keys) {
+        this.keys = keys;
+    }
+
+
+    public List<long[][]> getValues() {
+        return values;
+    }
+
+
+    public void setValues(List<long[][]> values) {
+        this.values = values;
+    }
+}
@@ -0,0 +1,136 @@
+package com.alibaba.rocketmq.common.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+
+/**
+ * 按Key保存最近capacity个时间点的多指标时间序列<br>
+ * 所有Key共用一个时间戳环，每次追加一个时间点，本次没有数据的Key补0，整个窗口都没有数据的Key被删除
+ */
+public class StatsTimeSeriesSet {
+    private final String statsName;
+    private final String[] metricNames;
+    private final int capacity;
+    private final long[] timestamps;
+    private final HashMap<String/* key */, Series> seriesTable = new HashMap<String, Series>(128);
+    // 累计追加的时间点个数，下一个时间点写在 appendTimes % capacity
+    private long appendTimes = 0;
+
+    static class Series {
+        // [指标][时间点]
+        private final long[][] columns;
+        private long lastAppendTimes;
+
+
+        Series(final int metricNums, final int capacity) {
+            this.columns = new long[metricNums][capacity];
+        }
+    }
+
+
+    public StatsTimeSeriesSet(String statsName, String[] metricNames, int capacity) {
+        this.statsName = statsName;
+        this.metricNames = metricNames;
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+    }
+
+
+    /**
+     * 追加一个时间点
+     * 
+     * @param valueTable
+     *            key -> 各指标的值，顺序与metricNames一致
+     */
+    public synchronized void append(final long timestamp, final Map<String, long[]> valueTable) {
+        final int slot = (int) (this.appendTimes % this.capacity);
+        this.timestamps[slot] = timestamp;
+
+        for (Entry<String, long[]> entry : valueTable.entrySet()) {
+            Series series = this.seriesTable.get(entry.getKey());
+            if (null == series) {
+                series = new Series(this.metricNames.length, this.capacity);
+                this.seriesTable.put(entry.getKey(), series);
+            }
+
+            long[] values = entry.getValue();
+            for (int i = 0; i < this.metricNames.length; i++) {
+                series.columns[i][slot] = i < values.length ? values[i] : 0;
+            }
+            series.lastAppendTimes = this.appendTimes;
+        }
+
+        Iterator<Entry<String, Series>> it = this.seriesTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Series series = it.next().getValue();
+            if (series.lastAppendTimes == this.appendTimes) {
+                continue;
+            }
+
+            if (this.appendTimes - series.lastAppendTimes >= this.capacity) {
+                it.remove();
+                continue;
+            }
+
+            for (int i = 0; i < this.metricNames.length; i++) {
+                series.columns[i][slot] = 0;
+            }
+        }
+
+        this.appendTimes++;
+    }
+
+
+    /**
+     * 导出时间戳大于beginTimestamp的所有时间点
+     */
+    public synchronized StatsTimeSeries export(final long beginTimestamp) {
+        final long first = Math.max(0, this.appendTimes - this.capacity);
+        int[] slots = new int[(int) (this.appendTimes - first)];
+        int pointNums = 0;
+        for (long i = first; i < this.appendTimes; i++) {
+            int slot = (int) (i % this.capacity);
+            if (this.timestamps[slot] > beginTimestamp) {
+                slots[pointNums++] = slot;
+            }
+        }
+
+        StatsTimeSeries timeSeries = new StatsTimeSeries();
+        timeSeries.setStatsName(this.statsName);
+        timeSeries.getMetricNames().addAll(Arrays.asList(this.metricNames));
+        long[] exportTimestamps = new long[pointNums];
+        for (int j = 0; j < pointNums; j++) {
+            exportTimestamps[j] = this.timestamps[slots[j]];
+        }
+        timeSeries.setTimestamps(exportTimestamps);
+
+        for (Entry<String, Series> entry : this.seriesTable.entrySet()) {
+            long[][] columns = entry.getValue().columns;
+            long[][] values = new long[this.metricNames.length][pointNums];
+            for (int i = 0; i < this.metricNames.length; i++) {
+                for (int j = 0; j < pointNums; j++) {
+                    values[i][j] = columns[i][slots[j]];
+                }
+            }
+
+            timeSeries.getKeys().add(entry.getKey());
+            timeSeries.getValues().add(values);
+        }
+
+        return timeSeries;
+    }
+
+
+    public String getStatsName() {
+        return statsName;
+    }
+
+
+    public String[] getMetricNames() {
+        return metricNames;
+    }
+}
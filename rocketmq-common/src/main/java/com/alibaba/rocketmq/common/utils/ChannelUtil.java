@@ -3,6 +3,8 @@ package com.alibaba.rocketmq.common.utils;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+
 import io.netty.channel.Channel;
 
 
@@ -11,7 +13,7 @@ import io.netty.channel.Channel;
  */
 public class ChannelUtil {
     public static String getRemoteIp(Channel channel) {
-        InetSocketAddress inetSocketAddress = (InetSocketAddress) channel.remoteAddress();
+        InetSocketAddress inetSocketAddress = RemotingHelper.parseChannelRemoteInetAddr(channel);
         if (inetSocketAddress == null) {
             return "";
         }
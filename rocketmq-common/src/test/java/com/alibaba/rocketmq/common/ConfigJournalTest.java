@@ -0,0 +1,65 @@
+package com.alibaba.rocketmq.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class ConfigJournalTest {
+    private static Map<String, String> replay(final ConfigJournal journal) {
+        final Map<String, String> table = new HashMap<String, String>();
+        journal.replay(new ConfigJournal.ReplayHandler() {
+            @Override
+            public void replay(String key, String value) {
+                if (value != null) {
+                    table.put(key, value);
+                }
+                else {
+                    table.remove(key);
+                }
+            }
+        });
+        return table;
+    }
+
+
+    @Test
+    public void test_replay() throws Exception {
+        File file = File.createTempFile("topics", ".journal");
+        file.deleteOnExit();
+        file.delete();
+
+        ConfigJournal journal = new ConfigJournal(file.getPath());
+        journal.appendPut("TopicA", "{\"perm\":6}");
+        journal.appendPut("TopicB", "{\"perm\":4}");
+        journal.appendPut("TopicA", "{\"perm\":2}");
+        journal.appendRemove("TopicB");
+        journal.close();
+
+        // 模拟写入一半宕机
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] { 0, 0, 0, 20, 0, 0, 0 });
+        out.close();
+
+        journal = new ConfigJournal(file.getPath());
+        Map<String, String> table = replay(journal);
+        assertEquals(1, table.size());
+        assertEquals("{\"perm\":2}", table.get("TopicA"));
+        assertNull(table.get("TopicB"));
+
+        // 脏数据被截掉后，新追加的记录可以回放
+        journal.appendPut("TopicC", "{\"perm\":6}");
+        journal.close();
+        table = replay(new ConfigJournal(file.getPath()));
+        assertEquals(2, table.size());
+
+        journal.delete();
+        assertEquals(0, replay(new ConfigJournal(file.getPath())).size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.alibaba.rocketmq.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
+import com.alibaba.rocketmq.common.protocol.heartbeat.HeartbeatData;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+
+
+public class HeartbeatDataTest {
+    private static SubscriptionData newSub(String topic, String subString, long subVersion) {
+        SubscriptionData sub = new SubscriptionData(topic, subString);
+        sub.setSubVersion(subVersion);
+        return sub;
+    }
+
+
+    @Test
+    public void test_subscription_fingerprint() {
+        ConsumerData c1 = new ConsumerData();
+        c1.getSubscriptionDataSet().add(newSub("TopicA", "*", 1));
+        c1.getSubscriptionDataSet().add(newSub("TopicB", "TagA", 2));
+
+        ConsumerData c2 = new ConsumerData();
+        c2.getSubscriptionDataSet().add(newSub("TopicB", "TagA", 2));
+        c2.getSubscriptionDataSet().add(newSub("TopicA", "*", 1));
+        assertEquals(c1.buildSubscriptionFingerprint(), c2.buildSubscriptionFingerprint());
+
+        // 重新订阅会更新subVersion
+        ConsumerData c3 = new ConsumerData();
+        c3.getSubscriptionDataSet().add(newSub("TopicA", "*", 1));
+        c3.getSubscriptionDataSet().add(newSub("TopicB", "TagA", 3));
+        assertNotEquals(c1.buildSubscriptionFingerprint(), c3.buildSubscriptionFingerprint());
+    }
+
+
+    @Test
+    public void test_encode_without_sub() {
+        ConsumerData consumerData = new ConsumerData();
+        consumerData.setGroupName("G");
+        consumerData.setSubscriptionFingerprint(12345);
+        HeartbeatData heartbeatData = new HeartbeatData();
+        heartbeatData.setWithoutSub(true);
+        heartbeatData.getConsumerDataSet().add(consumerData);
+
+        HeartbeatData decoded = HeartbeatData.decode(heartbeatData.encode(), HeartbeatData.class);
+        assertTrue(decoded.isWithoutSub());
+        ConsumerData data = decoded.getConsumerDataSet().iterator().next();
+        assertEquals(12345, data.getSubscriptionFingerprint());
+        assertTrue(data.getSubscriptionDataSet().isEmpty());
+    }
+}
@@ -0,0 +1,41 @@
+package com.alibaba.rocketmq.common.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+    @Test
+    public void test_bucket_index() {
+        long last = -1;
+        for (int i = 0; i < LatencyHistogram.BucketNums; i++) {
+            long upper = LatencyHistogram.bucketUpperValue(i);
+            assertTrue(upper > last);
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            assertEquals(i, LatencyHistogram.bucketIndex(last + 1));
+            last = upper;
+        }
+        assertEquals(LatencyHistogram.BucketNums - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+
+    @Test
+    public void test_percentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        LatencySnapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getAvg(), 0.01);
+        // 桶宽不超过1/8
+        assertTrue(snapshot.getP50() >= 500 && snapshot.getP50() <= 500 * 9 / 8);
+        assertTrue(snapshot.getP99() >= 990 && snapshot.getP99() <= 990 * 9 / 8);
+
+        assertEquals(0, histogram.snapshotAndReset().getCount());
+    }
+}
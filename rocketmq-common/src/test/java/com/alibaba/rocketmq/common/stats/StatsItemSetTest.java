@@ -0,0 +1,68 @@
+package com.alibaba.rocketmq.common.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+public class StatsItemSetTest {
+    private static final Logger log = LoggerFactory.getLogger(StatsItemSetTest.class);
+
+    /**
+     * 不执行定时任务，由测试直接调用采样
+     */
+    static class ManualScheduledExecutor extends ScheduledThreadPoolExecutor {
+        public ManualScheduledExecutor() {
+            super(1);
+        }
+
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+                TimeUnit unit) {
+            return null;
+        }
+    }
+
+
+    @Test
+    public void test_ring_keeps_latest_samples() throws Exception {
+        StatsItem statsItem = new StatsItem("TEST", "key", log);
+        for (int i = 0; i < 10; i++) {
+            statsItem.getValue().addAndGet(100);
+            statsItem.getTimes().incrementAndGet();
+            statsItem.samplingInSeconds();
+            Thread.sleep(2);
+        }
+
+        // 只保留最近7次采样
+        StatsSnapshot ss = statsItem.getStatsDataInMinute();
+        assertEquals(600, ss.getSum());
+        assertEquals(100.0, ss.getAvgpt(), 0.001);
+    }
+
+
+    @Test
+    public void test_evict_idle_item() throws Exception {
+        ManualScheduledExecutor executor = new ManualScheduledExecutor();
+        StatsItemSet statsItemSet = new StatsItemSet("TEST", executor, log, 50);
+        statsItemSet.addValue("idle", 1, 1);
+        statsItemSet.addValue("active", 1, 1);
+        statsItemSet.sampling();
+
+        Thread.sleep(100);
+        statsItemSet.addValue("active", 1, 1);
+        statsItemSet.sampling();
+
+        assertNull(statsItemSet.getStatsItem("idle"));
+        assertEquals(1, statsItemSet.getStatsItemCount());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,62 @@
+package com.alibaba.rocketmq.common.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.protocol.body.StatsTimeSeriesBody;
+
+
+public class StatsTimeSeriesSetTest {
+    private static Map<String, long[]> values(String key, long... metrics) {
+        Map<String, long[]> valueTable = new HashMap<String, long[]>();
+        valueTable.put(key, metrics);
+        return valueTable;
+    }
+
+
+    @Test
+    public void test_append_and_export() {
+        StatsTimeSeriesSet set = new StatsTimeSeriesSet("TEST", new String[] { "NUMS", "SIZE" }, 3);
+        set.append(60000, values("A", 1, 100));
+        set.append(120000, values("B", 2, 200));
+        set.append(180000, values("A", 3, 300));
+        set.append(240000, values("A", 4, 400));
+
+        // 只保留最近3个点，没有数据的点补0
+        StatsTimeSeries timeSeries = set.export(0);
+        assertArrayEquals(new long[] { 120000, 180000, 240000 }, timeSeries.getTimestamps());
+        assertArrayEquals(new long[] { 0, 3, 4 }, timeSeries.getMetric("A", "NUMS"));
+        assertArrayEquals(new long[] { 200, 0, 0 }, timeSeries.getMetric("B", "SIZE"));
+
+        assertArrayEquals(new long[] { 240000 }, set.export(180000).getTimestamps());
+
+        // 整个窗口都没有数据的Key被删除
+        set.append(300000, values("A", 5, 500));
+        assertNull(set.export(0).getMetric("B", "NUMS"));
+    }
+
+
+    @Test
+    public void test_encode_decode() throws Exception {
+        StatsTimeSeriesSet set = new StatsTimeSeriesSet("TEST", new String[] { "NUMS", "LAG" }, 60);
+        set.append(1400000000000L, values("TopicA@G", 10, 5000));
+        set.append(1400000060000L, values("TopicA@G", 8, 0));
+
+        StatsTimeSeriesBody body = new StatsTimeSeriesBody();
+        body.getSeriesList().add(set.export(0));
+        StatsTimeSeriesBody decoded = StatsTimeSeriesBody.decode(body.encode());
+
+        assertEquals(1, decoded.getSeriesList().size());
+        StatsTimeSeries timeSeries = decoded.getSeriesList().get(0);
+        assertEquals("TEST", timeSeries.getStatsName());
+        assertArrayEquals(new long[] { 1400000000000L, 1400000060000L }, timeSeries.getTimestamps());
+        assertArrayEquals(new long[] { 10, 8 }, timeSeries.getMetric("TopicA@G", "NUMS"));
+        assertArrayEquals(new long[] { 5000, 0 }, timeSeries.getMetric("TopicA@G", "LAG"));
+    }
+}
@@ -30,6 +30,7 @@ import com.alibaba.rocketmq.namesrv.kvconfig.KVConfigManager;
 import com.alibaba.rocketmq.namesrv.processor.DefaultRequestProcessor;
 import com.alibaba.rocketmq.namesrv.routeinfo.BrokerHousekeepingService;
 import com.alibaba.rocketmq.namesrv.routeinfo.RouteInfoManager;
+import com.alibaba.rocketmq.namesrv.routeinfo.TopicRouteNotifyService;
 import com.alibaba.rocketmq.remoting.RemotingServer;
 import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
 import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
@@ -63,6 +64,8 @@ public class NamesrvController {
      */
     private final KVConfigManager kvConfigManager;
     private final RouteInfoManager routeInfoManager;
+    // 通知Client路由变更
+    private final TopicRouteNotifyService topicRouteNotifyService;
 
 
     public NamesrvController(NamesrvConfig namesrvConfig, NettyServerConfig nettyServerConfig) {
@@ -70,6 +73,8 @@ public class NamesrvController {
         this.nettyServerConfig = nettyServerConfig;
         this.kvConfigManager = new KVConfigManager(this);
         this.routeInfoManager = new RouteInfoManager();
+        this.topicRouteNotifyService = new TopicRouteNotifyService(this);
+        this.routeInfoManager.setTopicRouteChangeListener(this.topicRouteNotifyService);
         this.brokerHousekeepingService = new BrokerHousekeepingService(this);
     }
 
@@ -93,6 +98,7 @@ public class NamesrvController {
             @Override
             public void run() {
                 NamesrvController.this.routeInfoManager.scanNotActiveBroker();
+                NamesrvController.this.topicRouteNotifyService.scanExpiredListener();
             }
         }, 5, 10, TimeUnit.SECONDS);
 
@@ -124,10 +130,12 @@ public class NamesrvController {
 
     public void start() throws Exception {
         this.remotingServer.start();
+        this.topicRouteNotifyService.start();
     }
 
 
     public void shutdown() {
+        this.topicRouteNotifyService.shutdown();
         this.remotingServer.shutdown();
         this.remotingExecutor.shutdown();
         this.scheduledExecutorService.shutdown();
@@ -154,6 +162,11 @@ public class NamesrvController {
     }
 
 
+    public TopicRouteNotifyService getTopicRouteNotifyService() {
+        return topicRouteNotifyService;
+    }
+
+
     public RemotingServer getRemotingServer() {
         return remotingServer;
     }
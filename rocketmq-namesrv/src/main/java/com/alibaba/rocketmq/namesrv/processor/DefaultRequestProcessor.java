@@ -15,6 +15,7 @@
  */
 package com.alibaba.rocketmq.namesrv.processor;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -22,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.MQVersion;
 import com.alibaba.rocketmq.common.MQVersion.Version;
+import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.help.FAQUrl;
 import com.alibaba.rocketmq.common.namesrv.NamesrvUtil;
@@ -30,9 +32,9 @@ import com.alibaba.rocketmq.common.protocol.RequestCode;
 import com.alibaba.rocketmq.common.protocol.ResponseCode;
 import com.alibaba.rocketmq.common.protocol.body.RegisterBrokerBody;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicList;
 import com.alibaba.rocketmq.common.protocol.header.GetTopicsByClusterRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.*;
-import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
 import com.alibaba.rocketmq.namesrv.NamesrvController;
 import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
@@ -113,6 +115,8 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             return this.getHasUnitSubTopicList(ctx, request);
         case RequestCode.GET_HAS_UNIT_SUB_UNUNIT_TOPIC_LIST:
             return this.getHasUnitSubUnUnitTopicList(ctx, request);
+        case RequestCode.REGISTER_TOPIC_ROUTE_LISTENER:
+            return this.registerTopicRouteListener(ctx, request);
         default:
             break;
         }
@@ -132,7 +136,18 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
         RegisterBrokerBody registerBrokerBody = new RegisterBrokerBody();
 
         if (request.getBody() != null) {
-            registerBrokerBody = RegisterBrokerBody.decode(request.getBody(), RegisterBrokerBody.class);
+            byte[] body = request.getBody();
+            if (Boolean.TRUE.equals(requestHeader.getCompressed())) {
+                try {
+                    body = UtilAll.uncompress(body);
+                }
+                catch (IOException e) {
+                    log.error("uncompress register broker body exception, " + requestHeader.getBrokerAddr(),
+                        e);
+                    throw new RemotingCommandException("uncompress register broker body exception", e);
+                }
+            }
+            registerBrokerBody = RegisterBrokerBody.decode(body, RegisterBrokerBody.class);
         }
         else {
             registerBrokerBody.getTopicConfigSerializeWrapper().getDataVersion()
@@ -148,11 +163,16 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             requestHeader.getHaServerAddr(), // 5
             registerBrokerBody.getTopicConfigSerializeWrapper(), // 6
             registerBrokerBody.getFilterServerList(), //
+            registerBrokerBody.getBaseDataVersion(), //
             ctx.channel()// 7
         );
 
         responseHeader.setHaServerAddr(result.getHaServerAddr());
         responseHeader.setMasterAddr(result.getMasterAddr());
+        responseHeader.setDeltaRegisterSupported(true);
+        if (result.isFullSyncRequired()) {
+            responseHeader.setFullSyncRequired(true);
+        }
 
         // 获取顺序消息 topic 列表
         byte[] jsonValue = this.namesrvController.getKvConfigManager()
@@ -277,15 +297,12 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
         final GetRouteInfoRequestHeader requestHeader = (GetRouteInfoRequestHeader) request
             .decodeCommandCustomHeader(GetRouteInfoRequestHeader.class);
 
-        TopicRouteData topicRouteData =
-                this.namesrvController.getRouteInfoManager().pickupTopicRouteData(requestHeader.getTopic());
-
-        if (topicRouteData != null) {
-            String orderTopicConf = this.namesrvController.getKvConfigManager()
-                .getKVConfig(NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, requestHeader.getTopic());
-            topicRouteData.setOrderTopicConf(orderTopicConf);
+        String orderTopicConf = this.namesrvController.getKvConfigManager()
+            .getKVConfig(NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, requestHeader.getTopic());
+        byte[] content = this.namesrvController.getRouteInfoManager()
+            .pickupTopicRouteDataBytes(requestHeader.getTopic(), orderTopicConf);
 
-            byte[] content = topicRouteData.encode();
+        if (content != null) {
             response.setBody(content);
             response.setCode(ResponseCode.SUCCESS);
             response.setRemark(null);
@@ -574,4 +591,23 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
         response.setRemark(null);
         return response;
     }
+
+
+    /**
+     * Client订阅Topic路由变更，路由变化时Name Server主动通知，Client需要定期重新订阅
+     */
+    private RemotingCommand registerTopicRouteListener(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+
+        if (request.getBody() != null) {
+            TopicList topicList = TopicList.decode(request.getBody(), TopicList.class);
+            this.namesrvController.getTopicRouteNotifyService().registerListener(ctx.channel(),
+                topicList.getTopicList());
+        }
+
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
 }
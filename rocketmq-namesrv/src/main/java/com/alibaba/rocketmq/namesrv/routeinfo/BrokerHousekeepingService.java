@@ -46,17 +46,20 @@ public class BrokerHousekeepingService implements ChannelEventListener {
     @Override
     public void onChannelClose(String remoteAddr, Channel channel) {
         this.namesrvController.getRouteInfoManager().onChannelDestroy(remoteAddr, channel);
+        this.namesrvController.getTopicRouteNotifyService().unregisterListener(channel);
     }
 
 
     @Override
     public void onChannelException(String remoteAddr, Channel channel) {
         this.namesrvController.getRouteInfoManager().onChannelDestroy(remoteAddr, channel);
+        this.namesrvController.getTopicRouteNotifyService().unregisterListener(channel);
     }
 
 
     @Override
     public void onChannelIdle(String remoteAddr, Channel channel) {
         this.namesrvController.getRouteInfoManager().onChannelDestroy(remoteAddr, channel);
+        this.namesrvController.getTopicRouteNotifyService().unregisterListener(channel);
     }
 }
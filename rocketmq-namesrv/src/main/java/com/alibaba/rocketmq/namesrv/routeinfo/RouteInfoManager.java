@@ -56,6 +56,10 @@ public class RouteInfoManager {
     private final HashMap<String, Set<String>> clusterAddrTable;
     private final HashMap<String, BrokerLiveInfo> brokerLiveTable;
     private final HashMap<String, List<String>> filterServerTable;
+    // Topic路由的序列化结果缓存，查询路由时直接返回，路由变更时在写锁内失效
+    private final ConcurrentHashMap<String/* topic */, TopicRouteCache> topicRouteCacheTable =
+            new ConcurrentHashMap<String, TopicRouteCache>(1024);
+    private volatile TopicRouteChangeListener topicRouteChangeListener;
 
 
     public RouteInfoManager() {
@@ -67,6 +71,32 @@ public class RouteInfoManager {
     }
 
 
+    /**
+     * 以下两个方法需在写锁内调用，失效路由缓存并通知监听者
+     */
+    private void onTopicRouteChanged(final String topic) {
+        this.topicRouteCacheTable.remove(topic);
+        TopicRouteChangeListener listener = this.topicRouteChangeListener;
+        if (listener != null) {
+            listener.onTopicRouteChanged(topic);
+        }
+    }
+
+
+    private void onAllTopicRouteChanged() {
+        this.topicRouteCacheTable.clear();
+        TopicRouteChangeListener listener = this.topicRouteChangeListener;
+        if (listener != null) {
+            listener.onAllTopicRouteChanged();
+        }
+    }
+
+
+    public void setTopicRouteChangeListener(TopicRouteChangeListener topicRouteChangeListener) {
+        this.topicRouteChangeListener = topicRouteChangeListener;
+    }
+
+
     public byte[] getAllClusterInfo() {
         ClusterInfo clusterInfoSerializeWrapper = new ClusterInfo();
         clusterInfoSerializeWrapper.setBrokerAddrTable(this.brokerAddrTable);
@@ -80,6 +110,7 @@ public class RouteInfoManager {
             try {
                 this.lock.writeLock().lockInterruptibly();
                 this.topicQueueTable.remove(topic);
+                this.onTopicRouteChanged(topic);
             }
             finally {
                 this.lock.writeLock().unlock();
@@ -122,6 +153,28 @@ public class RouteInfoManager {
             final TopicConfigSerializeWrapper topicConfigWrapper, // 6
             final List<String> filterServerList, // 7
             final Channel channel// 8
+    ) {
+        return this.registerBroker(clusterName, brokerAddr, brokerName, brokerId, haServerAddr,
+            topicConfigWrapper, filterServerList, null, channel);
+    }
+
+
+    /**
+     * @param baseDataVersion
+     *            不为null表示增量注册，topicConfigWrapper只包含该版本之后变更的Topic，
+     *            与上次注册的版本不一致时不更新Topic信息，并要求Broker全量注册
+     * @return 如果是slave，则返回master的ha地址
+     */
+    public RegisterBrokerResult registerBroker(//
+            final String clusterName, // 1
+            final String brokerAddr, // 2
+            final String brokerName, // 3
+            final long brokerId, // 4
+            final String haServerAddr, // 5
+            final TopicConfigSerializeWrapper topicConfigWrapper, // 6
+            final List<String> filterServerList, // 7
+            final DataVersion baseDataVersion, // 8
+            final Channel channel// 9
     ) {
         RegisterBrokerResult result = new RegisterBrokerResult();
         try {
@@ -151,9 +204,32 @@ public class RouteInfoManager {
                 }
                 String oldAddr = brokerData.getBrokerAddrs().put(brokerId, brokerAddr);
                 registerFirst = registerFirst || (null == oldAddr);
+                if (!brokerAddr.equals(oldAddr)) {
+                    this.onAllTopicRouteChanged();
+                }
+
+                // 增量注册，基准版本必须与上次注册的版本一致
+                DataVersion dataVersion = topicConfigWrapper.getDataVersion();
+                if (baseDataVersion != null) {
+                    BrokerLiveInfo prev = this.brokerLiveTable.get(brokerAddr);
+                    if (registerFirst || null == prev || !baseDataVersion.equals(prev.getDataVersion())) {
+                        result.setFullSyncRequired(true);
+                        // 保留原版本，保证之后的增量注册仍然被拒绝，直到全量注册
+                        if (prev != null) {
+                            dataVersion = prev.getDataVersion();
+                        }
+                        else {
+                            dataVersion = new DataVersion();
+                            dataVersion.setTimestatmp(0);
+                        }
+                        log.info("broker {} delta register base version mismatch, require full register",
+                            brokerAddr);
+                    }
+                }
 
                 // 更新Topic信息
                 if (null != topicConfigWrapper //
+                        && !result.isFullSyncRequired() //
                         && MixAll.MASTER_ID == brokerId) {
                     if (this.isBrokerTopicConfigChanged(brokerAddr, topicConfigWrapper.getDataVersion())//
                             || registerFirst) {
@@ -172,7 +248,7 @@ public class RouteInfoManager {
                 BrokerLiveInfo prevBrokerLiveInfo = this.brokerLiveTable.put(brokerAddr, //
                     new BrokerLiveInfo(//
                         System.currentTimeMillis(), //
-                        topicConfigWrapper.getDataVersion(), //
+                        dataVersion, //
                         channel, //
                         haServerAddr));
                 if (null == prevBrokerLiveInfo) {
@@ -181,11 +257,17 @@ public class RouteInfoManager {
 
                 // 更新Filter Server列表
                 if (filterServerList != null) {
+                    List<String> prevFilterServerList = null;
                     if (filterServerList.isEmpty()) {
-                        this.filterServerTable.remove(brokerAddr);
+                        prevFilterServerList = this.filterServerTable.remove(brokerAddr);
                     }
                     else {
-                        this.filterServerTable.put(brokerAddr, filterServerList);
+                        prevFilterServerList = this.filterServerTable.put(brokerAddr, filterServerList);
+                    }
+
+                    if (filterServerList.isEmpty() ? prevFilterServerList != null
+                            : !filterServerList.equals(prevFilterServerList)) {
+                        this.onAllTopicRouteChanged();
                     }
                 }
 
@@ -259,6 +341,7 @@ public class RouteInfoManager {
                     perm &= ~PermName.PERM_WRITE;
                     qd.setPerm(perm);
                     wipeTopicCnt++;
+                    this.onTopicRouteChanged(entry.getKey());
                 }
             }
         }
@@ -280,6 +363,7 @@ public class RouteInfoManager {
             queueDataList = new LinkedList<QueueData>();
             queueDataList.add(queueData);
             this.topicQueueTable.put(topicConfig.getTopicName(), queueDataList);
+            this.onTopicRouteChanged(topicConfig.getTopicName());
             log.info("new topic registerd, {} {}", topicConfig.getTopicName(), queueData);
         }
         else {
@@ -302,6 +386,7 @@ public class RouteInfoManager {
 
             if (addNewOne) {
                 queueDataList.add(queueData);
+                this.onTopicRouteChanged(topicConfig.getTopicName());
             }
         }
     }
@@ -324,12 +409,13 @@ public class RouteInfoManager {
                     );
                 }
 
-                this.filterServerTable.remove(brokerAddr);
+                boolean routeChanged = this.filterServerTable.remove(brokerAddr) != null;
 
                 boolean removeBrokerName = false;
                 BrokerData brokerData = this.brokerAddrTable.get(brokerName);
                 if (null != brokerData) {
                     String addr = brokerData.getBrokerAddrs().remove(brokerId);
+                    routeChanged = routeChanged || addr != null;
                     log.info("unregisterBroker, remove addr from brokerAddrTable {}, {}", //
                         (addr != null ? "OK" : "Failed"), //
                         brokerAddr//
@@ -365,6 +451,10 @@ public class RouteInfoManager {
                     // 删除相应的topic
                     this.removeTopicByBrokerName(brokerName);
                 }
+
+                if (routeChanged) {
+                    this.onAllTopicRouteChanged();
+                }
             }
             finally {
                 this.lock.writeLock().unlock();
@@ -405,49 +495,11 @@ public class RouteInfoManager {
      * @return
      */
     public TopicRouteData pickupTopicRouteData(final String topic) {
-        TopicRouteData topicRouteData = new TopicRouteData();
-        boolean foundQueueData = false;
-        boolean foundBrokerData = false;
-        Set<String> brokerNameSet = new HashSet<String>();
-        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
-        topicRouteData.setBrokerDatas(brokerDataList);
-
-        HashMap<String, List<String>> filterServerMap = new HashMap<String, List<String>>();
-        topicRouteData.setFilterServerTable(filterServerMap);
-
+        TopicRouteData topicRouteData = null;
         try {
             try {
                 this.lock.readLock().lockInterruptibly();
-                List<QueueData> queueDataList = this.topicQueueTable.get(topic);
-                if (queueDataList != null) {
-                    topicRouteData.setQueueDatas(queueDataList);
-                    foundQueueData = true;
-
-                    // BrokerName去重
-                    Iterator<QueueData> it = queueDataList.iterator();
-                    while (it.hasNext()) {
-                        QueueData qd = it.next();
-                        brokerNameSet.add(qd.getBrokerName());
-                    }
-
-                    for (String brokerName : brokerNameSet) {
-                        BrokerData brokerData = this.brokerAddrTable.get(brokerName);
-                        if (null != brokerData) {
-                            BrokerData brokerDataClone = new BrokerData();
-                            brokerDataClone.setBrokerName(brokerData.getBrokerName());
-                            brokerDataClone
-                                .setBrokerAddrs((HashMap<Long, String>) brokerData.getBrokerAddrs().clone());
-                            brokerDataList.add(brokerDataClone);
-                            foundBrokerData = true;
-
-                            // 增加Filter Server
-                            for (final String brokerAddr : brokerDataClone.getBrokerAddrs().values()) {
-                                List<String> filterServerList = this.filterServerTable.get(brokerAddr);
-                                filterServerMap.put(brokerAddr, filterServerList);
-                            }
-                        }
-                    }
-                }
+                topicRouteData = this.buildTopicRouteData(topic);
             }
             finally {
                 this.lock.readLock().unlock();
@@ -461,13 +513,102 @@ public class RouteInfoManager {
             log.debug("pickupTopicRouteData {} {}", topic, topicRouteData);
         }
 
-        if (foundBrokerData && foundQueueData) {
-            return topicRouteData;
+        return topicRouteData;
+    }
+
+
+    /**
+     * 通过topic找到序列化后的路由信息，优先返回缓存，避免每次查询都重新构造与序列化
+     *
+     * @param orderTopicConf
+     *            顺序消息配置，与缓存中的不一致时重新序列化
+     * @return 路由不存在返回null
+     */
+    public byte[] pickupTopicRouteDataBytes(final String topic, final String orderTopicConf) {
+        TopicRouteCache cache = this.topicRouteCacheTable.get(topic);
+        if (cache != null && isSameOrderTopicConf(cache.getOrderTopicConf(), orderTopicConf)) {
+            return cache.getBody();
+        }
+
+        try {
+            try {
+                // 在读锁内序列化并放入缓存，保证写锁内的失效不会被旧数据覆盖
+                this.lock.readLock().lockInterruptibly();
+                TopicRouteData topicRouteData = this.buildTopicRouteData(topic);
+                if (null == topicRouteData) {
+                    return null;
+                }
+
+                topicRouteData.setOrderTopicConf(orderTopicConf);
+                byte[] body = topicRouteData.encode();
+                this.topicRouteCacheTable.put(topic, new TopicRouteCache(orderTopicConf, body));
+                return body;
+            }
+            finally {
+                this.lock.readLock().unlock();
+            }
+        }
+        catch (Exception e) {
+            log.error("pickupTopicRouteDataBytes Exception", e);
         }
 
         return null;
     }
 
+
+    private static boolean isSameOrderTopicConf(final String a, final String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+
+    /**
+     * 调用方需持有读锁或写锁，返回的列表与Broker地址表均为拷贝
+     */
+    private TopicRouteData buildTopicRouteData(final String topic) {
+        List<QueueData> queueDataList = this.topicQueueTable.get(topic);
+        if (null == queueDataList) {
+            return null;
+        }
+
+        TopicRouteData topicRouteData = new TopicRouteData();
+        topicRouteData.setQueueDatas(new ArrayList<QueueData>(queueDataList));
+
+        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
+        topicRouteData.setBrokerDatas(brokerDataList);
+
+        HashMap<String, List<String>> filterServerMap = new HashMap<String, List<String>>();
+        topicRouteData.setFilterServerTable(filterServerMap);
+
+        // BrokerName去重
+        Set<String> brokerNameSet = new HashSet<String>();
+        for (QueueData qd : queueDataList) {
+            brokerNameSet.add(qd.getBrokerName());
+        }
+
+        for (String brokerName : brokerNameSet) {
+            BrokerData brokerData = this.brokerAddrTable.get(brokerName);
+            if (null != brokerData) {
+                BrokerData brokerDataClone = new BrokerData();
+                brokerDataClone.setBrokerName(brokerData.getBrokerName());
+                brokerDataClone
+                    .setBrokerAddrs((HashMap<Long, String>) brokerData.getBrokerAddrs().clone());
+                brokerDataList.add(brokerDataClone);
+
+                // 增加Filter Server
+                for (final String brokerAddr : brokerDataClone.getBrokerAddrs().values()) {
+                    List<String> filterServerList = this.filterServerTable.get(brokerAddr);
+                    filterServerMap.put(brokerAddr, filterServerList);
+                }
+            }
+        }
+
+        if (brokerDataList.isEmpty()) {
+            return null;
+        }
+
+        return topicRouteData;
+    }
+
     // Broker Channel两分钟过期
     private final static long BrokerChannelExpiredTime = 1000 * 60 * 2;
 
@@ -535,7 +676,7 @@ public class RouteInfoManager {
                     this.brokerLiveTable.remove(brokerAddrFound);
 
                     // 清理Filter Server
-                    this.filterServerTable.remove(brokerAddrFound);
+                    boolean routeChanged = this.filterServerTable.remove(brokerAddrFound) != null;
 
                     // 清理brokerAddrTable
                     String brokerNameFound = null;
@@ -626,6 +767,11 @@ public class RouteInfoManager {
                             }
                         }
                     }
+
+                    // Client连接断开不影响路由
+                    if (routeChanged || brokerNameFound != null) {
+                        this.onAllTopicRouteChanged();
+                    }
                 }
                 finally {
                     this.lock.writeLock().unlock();
@@ -939,3 +1085,28 @@ class BrokerLiveInfo {
                 + ", channel=" + channel + ", haServerAddr=" + haServerAddr + "]";
     }
 }
+
+
+/**
+ * 单个Topic序列化后的路由信息，创建后不再修改
+ */
+class TopicRouteCache {
+    private final String orderTopicConf;
+    private final byte[] body;
+
+
+    public TopicRouteCache(String orderTopicConf, byte[] body) {
+        this.orderTopicConf = orderTopicConf;
+        this.body = body;
+    }
+
+
+    public String getOrderTopicConf() {
+        return orderTopicConf;
+    }
+
+
+    public byte[] getBody() {
+        return body;
+    }
+}
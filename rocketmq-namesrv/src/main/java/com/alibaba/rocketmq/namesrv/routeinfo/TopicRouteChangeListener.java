@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.namesrv.routeinfo;
+
+/**
+ * Topic路由变更回调，在RouteInfoManager写锁内调用，实现方不能阻塞
+ */
+public interface TopicRouteChangeListener {
+    void onTopicRouteChanged(final String topic);
+
+
+    /**
+     * Broker地址、Filter Server等变化，可能影响所有Topic
+     */
+    void onAllTopicRouteChanged();
+}
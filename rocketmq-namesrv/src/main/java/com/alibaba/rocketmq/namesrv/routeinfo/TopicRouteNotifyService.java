@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.namesrv.routeinfo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.body.TopicList;
+import com.alibaba.rocketmq.namesrv.NamesrvController;
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.Channel;
+
+
+/**
+ * 管理Client对Topic路由变更的订阅，路由变化时合并后单向通知订阅的Client，Client收到后主动拉取最新路由
+ */
+public class TopicRouteNotifyService extends ServiceThread implements TopicRouteChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.NamesrvLoggerName);
+    // 订阅超过该时间未刷新则认为Client已不再关注
+    private final static long ListenerExpiredTime = 1000 * 60 * 2;
+    // 合并短时间内的多次变更，例如Broker注册时多个Topic同时变化
+    private final static long NotifyMergeTime = 100;
+    private final static long NotifyTimeoutMillis = 3000;
+
+    private final NamesrvController namesrvController;
+    // topic ----> 订阅的Client连接及最后一次订阅时间
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Channel, Long>> listenerTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Channel, Long>>(1024);
+    private final ConcurrentHashMap<String/* topic */, Boolean> changedTopicTable =
+            new ConcurrentHashMap<String, Boolean>();
+    private final AtomicBoolean allTopicChanged = new AtomicBoolean(false);
+
+
+    public TopicRouteNotifyService(final NamesrvController namesrvController) {
+        this.namesrvController = namesrvController;
+    }
+
+
+    public void registerListener(final Channel channel, final Set<String> topics) {
+        final Long now = System.currentTimeMillis();
+        for (String topic : topics) {
+            ConcurrentHashMap<Channel, Long> channelTable = this.listenerTable.get(topic);
+            if (null == channelTable) {
+                channelTable = new ConcurrentHashMap<Channel, Long>();
+                ConcurrentHashMap<Channel, Long> prev = this.listenerTable.putIfAbsent(topic, channelTable);
+                if (prev != null) {
+                    channelTable = prev;
+                }
+            }
+            channelTable.put(channel, now);
+        }
+    }
+
+
+    public void unregisterListener(final Channel channel) {
+        Iterator<Entry<String, ConcurrentHashMap<Channel, Long>>> it =
+                this.listenerTable.entrySet().iterator();
+        while (it.hasNext()) {
+            ConcurrentHashMap<Channel, Long> channelTable = it.next().getValue();
+            channelTable.remove(channel);
+            if (channelTable.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+
+    public void scanExpiredListener() {
+        final long now = System.currentTimeMillis();
+        Iterator<Entry<String, ConcurrentHashMap<Channel, Long>>> it =
+                this.listenerTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, ConcurrentHashMap<Channel, Long>> entry = it.next();
+            Iterator<Entry<Channel, Long>> itChannel = entry.getValue().entrySet().iterator();
+            while (itChannel.hasNext()) {
+                Entry<Channel, Long> next = itChannel.next();
+                if ((next.getValue() + ListenerExpiredTime) < now || !next.getKey().isActive()) {
+                    itChannel.remove();
+                    log.info("topic route listener expired, {} {}", entry.getKey(),
+                        RemotingHelper.parseChannelRemoteAddr(next.getKey()));
+                }
+            }
+
+            if (entry.getValue().isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+
+    @Override
+    public void onTopicRouteChanged(final String topic) {
+        if (this.listenerTable.containsKey(topic)) {
+            this.changedTopicTable.put(topic, Boolean.TRUE);
+            this.wakeup();
+        }
+    }
+
+
+    @Override
+    public void onAllTopicRouteChanged() {
+        if (!this.listenerTable.isEmpty()) {
+            this.allTopicChanged.set(true);
+            this.wakeup();
+        }
+    }
+
+
+    private void notifyTopicRouteChanged() {
+        Set<String> changedTopics = new HashSet<String>();
+        if (this.allTopicChanged.getAndSet(false)) {
+            changedTopics.addAll(this.listenerTable.keySet());
+            this.changedTopicTable.clear();
+        }
+        else {
+            Iterator<String> it = this.changedTopicTable.keySet().iterator();
+            while (it.hasNext()) {
+                changedTopics.add(it.next());
+                it.remove();
+            }
+        }
+
+        if (changedTopics.isEmpty()) {
+            return;
+        }
+
+        // 按连接合并，每个Client只发送一次
+        Map<Channel, TopicList> notifyTable = new HashMap<Channel, TopicList>();
+        for (String topic : changedTopics) {
+            ConcurrentHashMap<Channel, Long> channelTable = this.listenerTable.get(topic);
+            if (null == channelTable) {
+                continue;
+            }
+
+            for (Channel channel : channelTable.keySet()) {
+                TopicList topicList = notifyTable.get(channel);
+                if (null == topicList) {
+                    topicList = new TopicList();
+                    notifyTable.put(channel, topicList);
+                }
+                topicList.getTopicList().add(topic);
+            }
+        }
+
+        for (Entry<Channel, TopicList> entry : notifyTable.entrySet()) {
+            RemotingCommand request =
+                    RemotingCommand.createRequestCommand(RequestCode.NOTIFY_TOPIC_ROUTE_CHANGED, null);
+            request.setBody(entry.getValue().encode());
+            try {
+                this.namesrvController.getRemotingServer().invokeOneway(entry.getKey(), request,
+                    NotifyTimeoutMillis);
+            }
+            catch (Exception e) {
+                log.warn("notify topic route changed to "
+                        + RemotingHelper.parseChannelRemoteAddr(entry.getKey()) + " exception", e);
+            }
+        }
+
+        log.info("notify topic route changed, {} topics, {} clients", changedTopics.size(),
+            notifyTable.size());
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(1000);
+                if (this.changedTopicTable.isEmpty() && !this.allTopicChanged.get()) {
+                    continue;
+                }
+
+                Thread.sleep(NotifyMergeTime);
+                this.notifyTopicRouteChanged();
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return TopicRouteNotifyService.class.getSimpleName();
+    }
+
+
+    public int getListenerTopicCount() {
+        return this.listenerTable.size();
+    }
+}
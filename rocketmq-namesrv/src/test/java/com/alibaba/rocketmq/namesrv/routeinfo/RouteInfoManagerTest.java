@@ -0,0 +1,186 @@
+package com.alibaba.rocketmq.namesrv.routeinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+
+
+/**
+ * Broker增量注册，基准版本不一致时要求全量注册；路由缓存在路由变更时失效
+ */
+public class RouteInfoManagerTest {
+    private static final String ClusterName = "DefaultCluster";
+    private static final String BrokerName = "broker-a";
+    private static final String BrokerAddr = "127.0.0.1:10911";
+
+
+    private static TopicConfigSerializeWrapper buildWrapper(final DataVersion dataVersion,
+            final String... topics) {
+        ConcurrentHashMap<String, TopicConfig> topicConfigTable =
+                new ConcurrentHashMap<String, TopicConfig>();
+        for (String topic : topics) {
+            topicConfigTable.put(topic, new TopicConfig(topic));
+        }
+
+        TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+        DataVersion copy = new DataVersion();
+        copy.assignNewOne(dataVersion);
+        wrapper.setDataVersion(copy);
+        wrapper.setTopicConfigTable(topicConfigTable);
+        return wrapper;
+    }
+
+
+    private static RegisterBrokerResult register(final RouteInfoManager routeInfoManager,
+            final TopicConfigSerializeWrapper wrapper, final DataVersion baseDataVersion) {
+        return routeInfoManager.registerBroker(ClusterName, BrokerAddr, BrokerName, MixAll.MASTER_ID,
+            BrokerAddr, wrapper, null, baseDataVersion, null);
+    }
+
+
+    @Test
+    public void test_delta_register() {
+        RouteInfoManager routeInfoManager = new RouteInfoManager();
+        DataVersion dataVersion = new DataVersion();
+        RegisterBrokerResult result =
+                register(routeInfoManager, buildWrapper(dataVersion, "TopicA", "TopicB"), null);
+        assertFalse(result.isFullSyncRequired());
+
+        DataVersion base = new DataVersion();
+        base.assignNewOne(dataVersion);
+        dataVersion.nextVersion();
+        result = register(routeInfoManager, buildWrapper(dataVersion, "TopicC"), base);
+        assertFalse(result.isFullSyncRequired());
+
+        // 增量只追加变更的Topic，之前注册的路由保留
+        assertNotNull(routeInfoManager.pickupTopicRouteData("TopicA"));
+        assertNotNull(routeInfoManager.pickupTopicRouteData("TopicB"));
+        assertNotNull(routeInfoManager.pickupTopicRouteData("TopicC"));
+    }
+
+
+    @Test
+    public void test_delta_register_version_mismatch() {
+        RouteInfoManager routeInfoManager = new RouteInfoManager();
+        DataVersion dataVersion = new DataVersion();
+        register(routeInfoManager, buildWrapper(dataVersion, "TopicA"), null);
+
+        // 基准版本不是上次注册的版本，中间的变更可能已丢失
+        DataVersion staleBase = new DataVersion();
+        staleBase.assignNewOne(dataVersion);
+        staleBase.nextVersion();
+        dataVersion.nextVersion();
+        dataVersion.nextVersion();
+        RegisterBrokerResult result =
+                register(routeInfoManager, buildWrapper(dataVersion, "TopicB"), staleBase);
+        assertTrue(result.isFullSyncRequired());
+        assertNull(routeInfoManager.pickupTopicRouteData("TopicB"));
+
+        // 之后基于新版本的增量仍被拒绝，直到全量注册
+        DataVersion base = new DataVersion();
+        base.assignNewOne(dataVersion);
+        dataVersion.nextVersion();
+        result = register(routeInfoManager, buildWrapper(dataVersion, "TopicC"), base);
+        assertTrue(result.isFullSyncRequired());
+        assertNull(routeInfoManager.pickupTopicRouteData("TopicC"));
+
+        result = register(routeInfoManager, buildWrapper(dataVersion, "TopicA", "TopicB", "TopicC"), null);
+        assertFalse(result.isFullSyncRequired());
+        assertNotNull(routeInfoManager.pickupTopicRouteData("TopicB"));
+        assertNotNull(routeInfoManager.pickupTopicRouteData("TopicC"));
+
+        base.assignNewOne(dataVersion);
+        dataVersion.nextVersion();
+        result = register(routeInfoManager, buildWrapper(dataVersion, "TopicD"), base);
+        assertFalse(result.isFullSyncRequired());
+        assertEquals(1, routeInfoManager.pickupTopicRouteData("TopicD").getQueueDatas().size());
+    }
+
+
+    @Test
+    public void test_delta_register_first() {
+        // Name Server重启后没有该Broker的版本，增量注册需要转为全量
+        RouteInfoManager routeInfoManager = new RouteInfoManager();
+        DataVersion base = new DataVersion();
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.assignNewOne(base);
+        dataVersion.nextVersion();
+        RegisterBrokerResult result = register(routeInfoManager, buildWrapper(dataVersion, "TopicA"), base);
+        assertTrue(result.isFullSyncRequired());
+        assertNull(routeInfoManager.pickupTopicRouteData("TopicA"));
+    }
+
+
+    @Test
+    public void test_route_cache_invalidate() {
+        RouteInfoManager routeInfoManager = new RouteInfoManager();
+        DataVersion dataVersion = new DataVersion();
+        register(routeInfoManager, buildWrapper(dataVersion, "TopicA", "TopicB"), null);
+
+        byte[] body = routeInfoManager.pickupTopicRouteDataBytes("TopicA", null);
+        assertNotNull(body);
+        assertSame(body, routeInfoManager.pickupTopicRouteDataBytes("TopicA", null));
+        byte[] bodyB = routeInfoManager.pickupTopicRouteDataBytes("TopicB", null);
+
+        // 注册时队列数变化，只失效该Topic的缓存
+        dataVersion.nextVersion();
+        TopicConfigSerializeWrapper wrapper = buildWrapper(dataVersion, "TopicA", "TopicB");
+        wrapper.getTopicConfigTable().get("TopicA").setWriteQueueNums(8);
+        register(routeInfoManager, wrapper, null);
+        byte[] changed = routeInfoManager.pickupTopicRouteDataBytes("TopicA", null);
+        assertNotSame(body, changed);
+        TopicRouteData topicRouteData = TopicRouteData.decode(changed, TopicRouteData.class);
+        assertEquals(8, topicRouteData.getQueueDatas().get(0).getWriteQueueNums());
+        assertSame(bodyB, routeInfoManager.pickupTopicRouteDataBytes("TopicB", null));
+
+        // 新Broker加入，所有Topic的路由都包含新的Broker地址
+        routeInfoManager.registerBroker(ClusterName, "127.0.0.1:20911", "broker-b", MixAll.MASTER_ID,
+            "127.0.0.1:20912", buildWrapper(new DataVersion(), "TopicB"), null, null, null);
+        topicRouteData = TopicRouteData.decode(routeInfoManager.pickupTopicRouteDataBytes("TopicB", null),
+            TopicRouteData.class);
+        assertEquals(2, topicRouteData.getBrokerDatas().size());
+
+        // 删除Topic
+        assertNotNull(routeInfoManager.pickupTopicRouteDataBytes("TopicA", null));
+        routeInfoManager.deleteTopic("TopicA");
+        assertNull(routeInfoManager.pickupTopicRouteDataBytes("TopicA", null));
+
+        // 注销Broker
+        routeInfoManager.unregisterBroker(ClusterName, "127.0.0.1:20911", "broker-b", MixAll.MASTER_ID);
+        topicRouteData = TopicRouteData.decode(routeInfoManager.pickupTopicRouteDataBytes("TopicB", null),
+            TopicRouteData.class);
+        assertEquals(1, topicRouteData.getBrokerDatas().size());
+        assertEquals(BrokerName, topicRouteData.getBrokerDatas().get(0).getBrokerName());
+
+        routeInfoManager.unregisterBroker(ClusterName, BrokerAddr, BrokerName, MixAll.MASTER_ID);
+        assertNull(routeInfoManager.pickupTopicRouteDataBytes("TopicB", null));
+    }
+
+
+    @Test
+    public void test_route_cache_order_topic_conf() {
+        RouteInfoManager routeInfoManager = new RouteInfoManager();
+        register(routeInfoManager, buildWrapper(new DataVersion(), "TopicA"), null);
+
+        byte[] body = routeInfoManager.pickupTopicRouteDataBytes("TopicA", null);
+        byte[] ordered = routeInfoManager.pickupTopicRouteDataBytes("TopicA", "broker-a:4");
+        assertNotSame(body, ordered);
+        assertEquals("broker-a:4", TopicRouteData.decode(ordered, TopicRouteData.class).getOrderTopicConf());
+        assertSame(ordered, routeInfoManager.pickupTopicRouteDataBytes("TopicA", "broker-a:4"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.alibaba.rocketmq.namesrv.routeinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.namesrv.NamesrvConfig;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicList;
+import com.alibaba.rocketmq.namesrv.NamesrvController;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingClient;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * Client订阅路由变更后，Name Server合并变更并只通知订阅了该Topic的Client
+ */
+public class TopicRouteNotifyServiceTest {
+    private NamesrvController namesrvController;
+    private NettyRemotingClient client;
+    private String namesrvAddr;
+    // Client收到的通知
+    private final LinkedBlockingQueue<List<String>> notifyQueue = new LinkedBlockingQueue<List<String>>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        NamesrvConfig namesrvConfig = new NamesrvConfig();
+        namesrvConfig.setKvConfigPath(System.getProperty("java.io.tmpdir") + File.separator
+                + "topic_route_notify_" + System.currentTimeMillis() + File.separator + "kvConfig.json");
+        NettyServerConfig nettyServerConfig = new NettyServerConfig();
+        nettyServerConfig.setListenPort(0);
+        this.namesrvController = new NamesrvController(namesrvConfig, nettyServerConfig);
+        assertTrue(this.namesrvController.initialize());
+        this.namesrvController.start();
+        this.namesrvAddr = "127.0.0.1:" + this.namesrvController.getRemotingServer().localListenPort();
+
+        this.client = new NettyRemotingClient(new NettyClientConfig());
+        this.client.registerProcessor(RequestCode.NOTIFY_TOPIC_ROUTE_CHANGED, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                TopicList topicList = TopicList.decode(request.getBody(), TopicList.class);
+                notifyQueue.add(new ArrayList<String>(topicList.getTopicList()));
+                return null;
+            }
+        }, Executors.newSingleThreadExecutor());
+        this.client.start();
+    }
+
+
+    @After
+    public void tearDown() {
+        if (this.client != null) {
+            this.client.shutdown();
+        }
+        this.namesrvController.shutdown();
+    }
+
+
+    private void registerListener(final String... topics) throws Exception {
+        TopicList topicList = new TopicList();
+        for (String topic : topics) {
+            topicList.getTopicList().add(topic);
+        }
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.REGISTER_TOPIC_ROUTE_LISTENER, null);
+        request.setBody(topicList.encode());
+        RemotingCommand response = this.client.invokeSync(this.namesrvAddr, request, 3000);
+        assertEquals(ResponseCode.SUCCESS, response.getCode());
+    }
+
+
+    private void registerBroker(final String brokerName, final String brokerAddr, final String... topics) {
+        ConcurrentHashMap<String, TopicConfig> topicConfigTable =
+                new ConcurrentHashMap<String, TopicConfig>();
+        for (String topic : topics) {
+            topicConfigTable.put(topic, new TopicConfig(topic));
+        }
+        TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+        wrapper.setDataVersion(new DataVersion());
+        wrapper.setTopicConfigTable(topicConfigTable);
+        this.namesrvController.getRouteInfoManager().registerBroker("DefaultCluster", brokerAddr, brokerName,
+            MixAll.MASTER_ID, brokerAddr, wrapper, null, null);
+    }
+
+
+    @Test
+    public void test_notify_subscribed_topic() throws Exception {
+        RouteInfoManager routeInfoManager = this.namesrvController.getRouteInfoManager();
+        this.registerBroker("broker-a", "127.0.0.1:10911", "TopicA", "TopicB");
+        this.registerListener("TopicA");
+
+        // 未订阅的Topic变化不通知
+        routeInfoManager.deleteTopic("TopicB");
+        assertNull(this.notifyQueue.poll(500, TimeUnit.MILLISECONDS));
+
+        routeInfoManager.deleteTopic("TopicA");
+        List<String> topics = this.notifyQueue.poll(3, TimeUnit.SECONDS);
+        assertNotNull(topics);
+        assertEquals(1, topics.size());
+        assertEquals("TopicA", topics.get(0));
+    }
+
+
+    @Test
+    public void test_notify_merged() throws Exception {
+        this.registerListener("TopicA", "TopicB", "TopicC");
+
+        // 新Broker加入影响所有Topic，多次变更合并为一次通知
+        this.registerBroker("broker-a", "127.0.0.1:10911", "TopicA", "TopicB");
+        List<String> topics = this.notifyQueue.poll(3, TimeUnit.SECONDS);
+        assertNotNull(topics);
+        assertEquals(new HashSet<String>(Arrays.asList("TopicA", "TopicB", "TopicC")),
+            new HashSet<String>(topics));
+        assertNull(this.notifyQueue.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+
+    @Test
+    public void test_unregister_on_channel_close() throws Exception {
+        this.registerListener("TopicA");
+        this.client.shutdown();
+        this.client = null;
+
+        // 连接关闭后订阅被清除，路由变化不再发送通知
+        long begin = System.currentTimeMillis();
+        while (this.namesrvController.getTopicRouteNotifyService().getListenerTopicCount() > 0
+                && System.currentTimeMillis() - begin < 3000) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, this.namesrvController.getTopicRouteNotifyService().getListenerTopicCount());
+    }
+}
@@ -22,6 +22,7 @@ import com.alibaba.rocketmq.remoting.exception.RemotingSendRequestException;
 import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
 import com.alibaba.rocketmq.remoting.exception.RemotingTooMuchRequestException;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.RequestWaitTimeStats;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import io.netty.channel.Channel;
 
@@ -60,6 +61,14 @@ public interface RemotingServer extends RemotingService {
     public Pair<NettyRequestProcessor, ExecutorService> getProcessorPair(final int requestCode);
 
 
+    /**
+     * 各请求码在处理线程池队列中的排队时间统计
+     * 
+     * @return
+     */
+    public RequestWaitTimeStats getRequestWaitTimeStats();
+
+
     public RemotingCommand invokeSync(final Channel channel, final RemotingCommand request,
             final long timeoutMillis)
                     throws InterruptedException, RemotingSendRequestException, RemotingTimeoutException;
@@ -20,12 +20,15 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.alibaba.rocketmq.remoting.exception.RemotingConnectException;
 import com.alibaba.rocketmq.remoting.exception.RemotingSendRequestException;
 import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 
 
 /**
@@ -36,6 +39,10 @@ import io.netty.channel.Channel;
  */
 public class RemotingHelper {
     public static final String RemotingLogName = "RocketmqRemoting";
+    // 本地域套接字连接的对端地址，按连接分配，区分同一台机器上的不同对端
+    private static final AttributeKey<InetSocketAddress> LocalPeerAddressKey =
+            AttributeKey.valueOf("RemotingHelper.LocalPeerAddress");
+    private static final AtomicInteger LocalPeerIndex = new AtomicInteger(0);
 
 
     public static String exceptionSimpleDesc(final Throwable e) {
@@ -179,6 +186,33 @@ public class RemotingHelper {
     }
 
 
+    /**
+     * 获取channel连接的远程地址<br>
+     * 本地域套接字连接没有IP地址，对端一定在本机，视为127.0.0.1，端口按连接依次分配(1~65535循环)
+     */
+    public static InetSocketAddress parseChannelRemoteInetAddr(final Channel channel) {
+        final SocketAddress remote = channel.remoteAddress();
+        if (remote instanceof InetSocketAddress) {
+            return (InetSocketAddress) remote;
+        }
+        if (null == remote) {
+            return null;
+        }
+
+        final Attribute<InetSocketAddress> attr = channel.attr(LocalPeerAddressKey);
+        InetSocketAddress peer = attr.get();
+        if (null == peer) {
+            final int port = (LocalPeerIndex.getAndIncrement() & Integer.MAX_VALUE) % 65535 + 1;
+            peer = new InetSocketAddress("127.0.0.1", port);
+            final InetSocketAddress prev = attr.setIfAbsent(peer);
+            if (prev != null) {
+                peer = prev;
+            }
+        }
+        return peer;
+    }
+
+
     /**
      * 获取channel连接的远程ip
      * 
@@ -189,7 +223,7 @@ public class RemotingHelper {
         if (null == channel) {
             return "";
         }
-        final SocketAddress remote = channel.remoteAddress();
+        final SocketAddress remote = parseChannelRemoteInetAddr(channel);
         final String addr = remote != null ? remote.toString() : "";
 
         if (addr.length() > 0) {
@@ -209,7 +243,7 @@ public class RemotingHelper {
         if (null == channel) {
             return "";
         }
-        final InetSocketAddress remote = (InetSocketAddress) channel.remoteAddress();
+        final InetSocketAddress remote = parseChannelRemoteInetAddr(channel);
         if (remote != null) {
             return remote.getAddress().getHostName();
         }
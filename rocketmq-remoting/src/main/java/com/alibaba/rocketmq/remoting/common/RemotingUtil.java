@@ -15,6 +15,7 @@
  */
 package com.alibaba.rocketmq.remoting.common;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.*;
@@ -23,6 +24,8 @@ import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +33,9 @@ import org.slf4j.LoggerFactory;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.epoll.Epoll;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.internal.PlatformDependent;
 
 
 /**
@@ -62,6 +68,42 @@ public class RemotingUtil {
     }
 
 
+    /**
+     * 当前平台能否使用Netty epoll native传输<br>
+     * epoll传输依赖带内存地址的direct buffer，拿不到Unsafe时不启用
+     */
+    public static boolean isEpollAvailable() {
+        return isLinuxPlatform && PlatformDependent.hasUnsafe() && Epoll.isAvailable();
+    }
+
+
+    /**
+     * 监听端口对应的本地域套接字文件，同机的客户端按服务端地址中的端口找到它
+     */
+    public static String unixDomainSocketPath(final String dir, final int port) {
+        return new File(dir, "rocketmq-" + port + ".sock").getPath();
+    }
+
+
+    /**
+     * 地址是否指向本机
+     */
+    public static boolean isLocalAddress(final InetAddress address) {
+        if (null == address) {
+            return false;
+        }
+        if (address.isLoopbackAddress() || address.isAnyLocalAddress()) {
+            return true;
+        }
+        try {
+            return NetworkInterface.getByInetAddress(address) != null;
+        }
+        catch (SocketException e) {
+            return false;
+        }
+    }
+
+
     public static boolean isWindowsPlatform() {
         return isWindowsPlatform;
     }
@@ -233,4 +275,29 @@ public class RemotingUtil {
         });
     }
 
+
+    /**
+     * 创建时间轮定时器，用于大量短时定时任务（请求超时、长轮询超时、连接空闲检测等）<br>
+     * 添加、取消定时任务都是O(1)，到期精度为一个tick
+     * 
+     * @param name
+     *            工作线程名
+     * @param tickMillis
+     *            每格时间跨度
+     * @param ticksPerWheel
+     *            时间轮格数
+     * @return
+     */
+    public static HashedWheelTimer createTimerWheel(final String name, final long tickMillis,
+            final int ticksPerWheel) {
+        return new HashedWheelTimer(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel);
+    }
+
 }
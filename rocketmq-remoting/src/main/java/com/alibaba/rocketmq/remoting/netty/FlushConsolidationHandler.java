@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.netty;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.Future;
+
+
+/**
+ * 合并flush，减少write系统调用<br>
+ * 1、读事件处理过程中产生的flush，推迟到channelReadComplete统一执行<br>
+ * 2、其他线程提交的flush，在事件循环当前这批任务执行完（或者等待windowMicros）后统一执行<br>
+ * 3、累计的flush达到maxFlushes时立即执行<br>
+ * 必须加在IO线程上，不能指定EventExecutorGroup
+ */
+public class FlushConsolidationHandler extends ChannelDuplexHandler {
+    private final int maxFlushes;
+    private final long windowMicros;
+    // 尚未真正执行的flush次数
+    private int pendingFlushes;
+    private boolean readInProgress;
+    private Future<?> pendingFlushTask;
+    private ChannelHandlerContext ctx;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            pendingFlushTask = null;
+            if (pendingFlushes > 0 && !readInProgress) {
+                flushNow(ctx);
+            }
+        }
+    };
+
+    // 以下统计只在IO线程中修改
+    private volatile long flushRequested;
+    private volatile long flushExecuted;
+    // 所属Server或Client的汇总统计
+    private final FlushConsolidationStats stats;
+
+
+    public FlushConsolidationHandler(final int maxFlushes, final long windowMicros) {
+        this(maxFlushes, windowMicros, new FlushConsolidationStats());
+    }
+
+
+    public FlushConsolidationHandler(final int maxFlushes, final long windowMicros,
+            final FlushConsolidationStats stats) {
+        if (maxFlushes <= 0) {
+            throw new IllegalArgumentException("maxFlushes must be positive: " + maxFlushes);
+        }
+        this.maxFlushes = maxFlushes;
+        this.windowMicros = windowMicros;
+        this.stats = stats;
+    }
+
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        this.flushRequested++;
+        this.stats.incFlushRequested();
+        if (++this.pendingFlushes >= this.maxFlushes) {
+            this.flushNow(ctx);
+        }
+        else if (!this.readInProgress && null == this.pendingFlushTask) {
+            if (this.windowMicros > 0) {
+                this.pendingFlushTask =
+                        ctx.executor().schedule(this.flushTask, this.windowMicros, TimeUnit.MICROSECONDS);
+            }
+            else {
+                this.pendingFlushTask = ctx.executor().submit(this.flushTask);
+            }
+        }
+    }
+
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        this.readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        this.readInProgress = false;
+        this.flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 不可写时尽快把已有数据刷出去
+        if (!ctx.channel().isWritable()) {
+            this.flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        this.flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        this.flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        this.flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        this.flushIfNeeded(ctx);
+    }
+
+
+    private void flushIfNeeded(final ChannelHandlerContext ctx) {
+        if (this.pendingFlushes > 0) {
+            this.flushNow(ctx);
+        }
+    }
+
+
+    private void flushNow(final ChannelHandlerContext ctx) {
+        if (this.pendingFlushTask != null) {
+            this.pendingFlushTask.cancel(false);
+            this.pendingFlushTask = null;
+        }
+        this.pendingFlushes = 0;
+        this.flushExecuted++;
+        this.stats.incFlushExecuted();
+        ctx.flush();
+    }
+
+
+    /**
+     * 上层请求的flush次数
+     */
+    public long getFlushRequested() {
+        return flushRequested;
+    }
+
+
+    /**
+     * 真正执行的flush次数，与getFlushRequested之差即为节省的系统调用
+     */
+    public long getFlushExecuted() {
+        return flushExecuted;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 一个Server或Client上所有连接的flush合并统计，两者之差即为节省的write系统调用
+ */
+public class FlushConsolidationStats {
+    // 上层请求的flush次数
+    private final AtomicLong flushRequested = new AtomicLong(0);
+    // 真正执行的flush次数
+    private final AtomicLong flushExecuted = new AtomicLong(0);
+
+
+    void incFlushRequested() {
+        this.flushRequested.incrementAndGet();
+    }
+
+
+    void incFlushExecuted() {
+        this.flushExecuted.incrementAndGet();
+    }
+
+
+    public long getFlushRequested() {
+        return flushRequested.get();
+    }
+
+
+    public long getFlushExecuted() {
+        return flushExecuted.get();
+    }
+}
@@ -20,6 +20,9 @@ package com.alibaba.rocketmq.remoting.netty;
  * @since 2013-7-13
  */
 public class NettyClientConfig {
+    public static final String ChannelSelectPolicyRoundRobin = "RoundRobin";
+    public static final String ChannelSelectPolicyLeastInFlight = "LeastInFlight";
+
     //客户端工作线程数
     private int clientWorkerThreads = 4;
     //客户端回调线程数
@@ -41,6 +44,20 @@ public class NettyClientConfig {
     private int clientSocketRcvBufSize = NettySystemConfig.SocketRcvbufSize;
     //是否可以申请磁盘空间
     private boolean clientPooledByteBufAllocatorEnable = false;
+    //每个地址建立的连接数，大于1时按clientChannelSelectPolicy在多条连接之间分发请求
+    private int clientChannelsPerAddr = 1;
+    //多连接时的选择策略，RoundRobin或LeastInFlight
+    private String clientChannelSelectPolicy = ChannelSelectPolicyRoundRobin;
+    //是否合并flush，小包多时可明显减少write系统调用
+    private boolean clientFlushConsolidationEnable = false;
+    //累计多少次flush后立即执行
+    private int clientFlushConsolidationMaxFlushes = 64;
+    //合并等待的时间窗口，0表示只合并事件循环同一批任务中的flush
+    private long clientFlushConsolidationWindowMicros = 0;
+    //Linux下是否使用epoll native传输，不可用时自动退回NIO
+    private boolean useEpollNativeSelector = NettySystemConfig.ClientEpollNativeSelector;
+    //与服务端约定的本地域套接字目录，连接本机地址且对应的套接字文件存在时改走域套接字
+    private String unixDomainSocketDir = NettySystemConfig.UnixDomainSocketDir;
 
 
     public int getClientWorkerThreads() {
@@ -141,4 +158,74 @@ public class NettyClientConfig {
     public void setClientPooledByteBufAllocatorEnable(boolean clientPooledByteBufAllocatorEnable) {
         this.clientPooledByteBufAllocatorEnable = clientPooledByteBufAllocatorEnable;
     }
+
+
+    public int getClientChannelsPerAddr() {
+        return clientChannelsPerAddr;
+    }
+
+
+    public void setClientChannelsPerAddr(int clientChannelsPerAddr) {
+        this.clientChannelsPerAddr = clientChannelsPerAddr;
+    }
+
+
+    public String getClientChannelSelectPolicy() {
+        return clientChannelSelectPolicy;
+    }
+
+
+    public void setClientChannelSelectPolicy(String clientChannelSelectPolicy) {
+        this.clientChannelSelectPolicy = clientChannelSelectPolicy;
+    }
+
+
+    public boolean isClientFlushConsolidationEnable() {
+        return clientFlushConsolidationEnable;
+    }
+
+
+    public void setClientFlushConsolidationEnable(boolean clientFlushConsolidationEnable) {
+        this.clientFlushConsolidationEnable = clientFlushConsolidationEnable;
+    }
+
+
+    public int getClientFlushConsolidationMaxFlushes() {
+        return clientFlushConsolidationMaxFlushes;
+    }
+
+
+    public void setClientFlushConsolidationMaxFlushes(int clientFlushConsolidationMaxFlushes) {
+        this.clientFlushConsolidationMaxFlushes = clientFlushConsolidationMaxFlushes;
+    }
+
+
+    public long getClientFlushConsolidationWindowMicros() {
+        return clientFlushConsolidationWindowMicros;
+    }
+
+
+    public void setClientFlushConsolidationWindowMicros(long clientFlushConsolidationWindowMicros) {
+        this.clientFlushConsolidationWindowMicros = clientFlushConsolidationWindowMicros;
+    }
+
+
+    public boolean isUseEpollNativeSelector() {
+        return useEpollNativeSelector;
+    }
+
+
+    public void setUseEpollNativeSelector(boolean useEpollNativeSelector) {
+        this.useEpollNativeSelector = useEpollNativeSelector;
+    }
+
+
+    public String getUnixDomainSocketDir() {
+        return unixDomainSocketDir;
+    }
+
+
+    public void setUnixDomainSocketDir(String unixDomainSocketDir) {
+        this.unixDomainSocketDir = unixDomainSocketDir;
+    }
 }
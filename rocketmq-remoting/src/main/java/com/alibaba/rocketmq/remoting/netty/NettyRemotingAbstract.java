@@ -28,6 +28,7 @@ import com.alibaba.rocketmq.remoting.InvokeCallback;
 import com.alibaba.rocketmq.remoting.RPCHook;
 import com.alibaba.rocketmq.remoting.common.Pair;
 import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.common.RemotingUtil;
 import com.alibaba.rocketmq.remoting.common.SemaphoreReleaseOnlyOnce;
 import com.alibaba.rocketmq.remoting.common.ServiceThread;
 import com.alibaba.rocketmq.remoting.exception.RemotingSendRequestException;
@@ -40,6 +41,9 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 
 
 /**
@@ -62,6 +66,9 @@ public abstract class NettyRemotingAbstract {
     protected final ConcurrentHashMap<Integer /* opaque */, ResponseFuture> responseTable =
             new ConcurrentHashMap<Integer, ResponseFuture>(256);
 
+    // 异步请求超时时间轮，替代定时全表扫描responseTable
+    protected final HashedWheelTimer responseTimeoutTimer;
+
     // 默认请求代码处理器
     protected Pair<NettyRequestProcessor, ExecutorService> defaultRequestProcessor;
 
@@ -71,6 +78,9 @@ public abstract class NettyRemotingAbstract {
 
     protected final NettyEventExecuter nettyEventExecuter = new NettyEventExecuter();
 
+    // 按请求码统计排队时间
+    protected final RequestWaitTimeStats requestWaitTimeStats = new RequestWaitTimeStats();
+
 
     public abstract ChannelEventListener getChannelEventListener();
 
@@ -149,6 +159,8 @@ public abstract class NettyRemotingAbstract {
     public NettyRemotingAbstract(final int permitsOneway, final int permitsAsync) {
         this.semaphoreOneway = new Semaphore(permitsOneway, true);
         this.semaphoreAsync = new Semaphore(permitsAsync, true);
+        this.responseTimeoutTimer = RemotingUtil.createTimerWheel(this.getClass().getSimpleName()
+                + "ResponseTimeoutTimer", NettySystemConfig.TimerWheelTickMillis, 512);
     }
 
 
@@ -218,7 +230,10 @@ public abstract class NettyRemotingAbstract {
 
             try {
                 // 这里需要做流控，要求线程池对应的队列必须是有大小限制的
-                pair.getObject2().submit(run);
+                // 包装成RequestTask入队，以便队列按优先级、连接调度，并按排队时间快速失败
+                final RequestTask requestTask =
+                        new RequestTask(run, ctx.channel(), cmd, this.requestWaitTimeStats);
+                pair.getObject2().execute(requestTask);
             }
             catch (RejectedExecutionException e) {
                 // 每个线程10s打印一次
@@ -263,42 +278,10 @@ public abstract class NettyRemotingAbstract {
             responseFuture.setResponseCommand(cmd);
             responseFuture.release();// 释放信号量
             responseTable.remove(cmd.getOpaque());// 从response列表中删除对应的ResponseFuture对象
+            responseFuture.cancelTimeout();
             // 判断responseFuture是否有需要执行的回调，如果有就执行
             if (responseFuture.getInvokeCallback() != null) {
-                boolean runInThisThread = false;
-                ExecutorService executor = this.getCallbackExecutor();
-                // 判断是否有空余的线程处理回调，有就在改线程执行，没有就在当前线程执行
-                if (executor != null) {
-                    try {
-                        executor.submit(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    responseFuture.executeInvokeCallback();
-                                }
-                                catch (Throwable e) {
-                                    plog.warn("excute callback in executor exception, and callback throw", e);
-                                }
-                            }
-                        });
-                    }
-                    catch (Exception e) {
-                        runInThisThread = true;
-                        plog.warn("excute callback in executor exception, maybe executor busy", e);
-                    }
-                }
-                else {
-                    runInThisThread = true;
-                }
-
-                if (runInThisThread) {
-                    try {
-                        responseFuture.executeInvokeCallback();
-                    }
-                    catch (Throwable e) {
-                        plog.warn("executeInvokeCallback Exception", e);
-                    }
-                }
+                this.executeInvokeCallback(responseFuture);
             }
             else {
                 // 设置response 并将responseFuture对象中的CountDownLatch数值减一，
@@ -341,32 +324,119 @@ public abstract class NettyRemotingAbstract {
     }
 
 
+    /**
+     * 执行异步调用的回调，优先在回调线程池中执行，线程池繁忙则在当前线程执行
+     *
+     * @param responseFuture
+     */
+    private void executeInvokeCallback(final ResponseFuture responseFuture) {
+        boolean runInThisThread = false;
+        ExecutorService executor = this.getCallbackExecutor();
+        // 判断是否有空余的线程处理回调，有就在改线程执行，没有就在当前线程执行
+        if (executor != null) {
+            try {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            responseFuture.executeInvokeCallback();
+                        }
+                        catch (Throwable e) {
+                            plog.warn("excute callback in executor exception, and callback throw", e);
+                        }
+                    }
+                });
+            }
+            catch (Exception e) {
+                runInThisThread = true;
+                plog.warn("excute callback in executor exception, maybe executor busy", e);
+            }
+        }
+        else {
+            runInThisThread = true;
+        }
+
+        if (runInThisThread) {
+            try {
+                responseFuture.executeInvokeCallback();
+            }
+            catch (Throwable e) {
+                plog.warn("executeInvokeCallback Exception", e);
+            }
+        }
+    }
+
+
     abstract public ExecutorService getCallbackExecutor();
 
 
+    public RequestWaitTimeStats getRequestWaitTimeStats() {
+        return requestWaitTimeStats;
+    }
+
+
     /**
-     * 扫描ResponseTable 删除超时的request
+     * 在时间轮中登记异步请求的超时任务，到期时从responseTable移除并执行回调
+     *
+     * @param responseFuture
      */
-    public void scanResponseTable() {
-        Iterator<Entry<Integer, ResponseFuture>> it = this.responseTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<Integer, ResponseFuture> next = it.next();
-            ResponseFuture rep = next.getValue();
-
-            if ((rep.getBeginTimestamp() + rep.getTimeoutMillis() + 1000) <= System.currentTimeMillis()) {
-                it.remove();
-                try {
-                    rep.executeInvokeCallback();
+    private void scheduleResponseTimeout(final ResponseFuture responseFuture) {
+        try {
+            Timeout timeout = this.responseTimeoutTimer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    // remove成功说明应答还没有到达，由超时逻辑负责回调与释放信号量
+                    if (responseTable.remove(responseFuture.getOpaque(), responseFuture)) {
+                        plog.warn("remove timeout request, " + responseFuture);
+                        try {
+                            executeInvokeCallback(responseFuture);
+                        }
+                        finally {
+                            responseFuture.release();
+                        }
+                    }
                 }
-                catch (Throwable e) {
-                    plog.warn("scanResponseTable, operationComplete Exception", e);
+            }, responseFuture.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            responseFuture.setTimeout(timeout);
+        }
+        catch (IllegalStateException e) {
+            // 时间轮已经停止（通信层正在关闭），不会再有超时回调，立即结束该请求
+            plog.warn("schedule response timeout failed, timer stopped, " + responseFuture);
+            if (this.responseTable.remove(responseFuture.getOpaque(), responseFuture)) {
+                try {
+                    executeInvokeCallback(responseFuture);
                 }
                 finally {
-                    rep.release();
+                    responseFuture.release();
                 }
+            }
+        }
+    }
 
-                plog.warn("remove timeout request, " + rep);
+
+    /**
+     * 时间轮停止后，结束ResponseTable中所有未完成的请求<br>
+     * 同步请求立即被唤醒，异步请求执行回调并释放信号量
+     */
+    protected void failPendingResponseFutures() {
+        Iterator<Entry<Integer, ResponseFuture>> it = this.responseTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Integer, ResponseFuture> next = it.next();
+            ResponseFuture rep = next.getValue();
+            it.remove();
+            rep.cancelTimeout();
+            rep.putResponse(null);
+            try {
+                rep.executeInvokeCallback();
+            }
+            catch (Throwable e) {
+                plog.warn("failPendingResponseFutures, operationComplete Exception", e);
             }
+            finally {
+                rep.release();
+            }
+
+            plog.warn("remove pending request when shutdown, " + rep);
         }
     }
 
@@ -462,6 +532,7 @@ public abstract class NettyRemotingAbstract {
             final ResponseFuture responseFuture =
                     new ResponseFuture(request.getOpaque(), timeoutMillis, invokeCallback, once);
             this.responseTable.put(request.getOpaque(), responseFuture);
+            this.scheduleResponseTimeout(responseFuture);
             try {
                 channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
                     @Override
@@ -476,6 +547,7 @@ public abstract class NettyRemotingAbstract {
 
                         responseFuture.putResponse(null);
                         responseTable.remove(request.getOpaque());
+                        responseFuture.cancelTimeout();
                         try {
                             // 执行请求失败的回调
                             responseFuture.executeInvokeCallback();
@@ -495,6 +567,8 @@ public abstract class NettyRemotingAbstract {
                 });
             }
             catch (Exception e) {
+                responseTable.remove(request.getOpaque());
+                responseFuture.cancelTimeout();
                 // 释放发送请求线程
                 responseFuture.release();
                 plog.warn("send a request command to channel <"
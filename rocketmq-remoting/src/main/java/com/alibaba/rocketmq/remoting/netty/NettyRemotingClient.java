@@ -15,9 +15,12 @@
  */
 package com.alibaba.rocketmq.remoting.netty;
 
+import java.io.File;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
@@ -41,12 +44,16 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 
 
@@ -60,24 +67,37 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     private static final Logger log = LoggerFactory.getLogger(RemotingHelper.RemotingLogName);
 
     private static final long LockTimeoutMillis = 3000;
+    // 域套接字连接失败后改走TCP的时长，过后再尝试域套接字
+    private static final long DomainSocketRetryIntervalMillis = 1000 * 60;
+
+    // 多连接时，记录每条连接上未完成的请求数
+    private static final AttributeKey<AtomicInteger> InFlightKey =
+            AttributeKey.valueOf("NettyRemotingClient.InFlight");
 
     private final NettyClientConfig nettyClientConfig;
     // netty 客户端启动类
     private final Bootstrap bootstrap = new Bootstrap();
     private final EventLoopGroup eventLoopGroupWorker;
     private DefaultEventExecutorGroup defaultEventExecutorGroup;
+    // 是否使用epoll native传输
+    private final boolean useEpoll;
+    // 连接本机服务端时是否尝试本地域套接字
+    private final boolean useDomainSocket;
+    private final Bootstrap domainBootstrap = new Bootstrap();
+    // 域套接字连接失败的地址及失败时间，一段时间内改走TCP
+    private final ConcurrentHashMap<String /* addr */, Long /* failTimestamp */> domainSocketFailedAddrs =
+            new ConcurrentHashMap<String, Long>();
 
     private final Lock lockChannelTables = new ReentrantLock();
     private final ConcurrentHashMap<String /* addr */, ChannelWrapper> channelTables =
             new ConcurrentHashMap<String, ChannelWrapper>();
 
-    // 定时器
-    private final Timer timer = new Timer("ClientHouseKeepingService", true);
-
     // Name server相关
     private final AtomicReference<List<String>> namesrvAddrList = new AtomicReference<List<String>>();
     private final AtomicReference<String> namesrvAddrChoosed = new AtomicReference<String>();
     private final AtomicInteger namesrvIndex = new AtomicInteger(initValueIndex());
+    // 多连接轮询下标
+    private final AtomicInteger channelIndex = new AtomicInteger(initValueIndex());
     private final Lock lockNamesrvChannel = new ReentrantLock();
 
     // 处理Callback应答器
@@ -86,6 +106,8 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     private final ChannelEventListener channelEventListener;
 
     private RPCHook rpcHook;
+    // 所有连接的flush合并统计
+    private final FlushConsolidationStats flushConsolidationStats = new FlushConsolidationStats();
 
     // ChannelFuture 包装类
     class ChannelWrapper {
@@ -237,7 +259,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
             }
         });
 
-        this.eventLoopGroupWorker = new NioEventLoopGroup(1, new ThreadFactory() {
+        ThreadFactory selectorThreadFactory = new ThreadFactory() {
             private AtomicInteger threadIndex = new AtomicInteger(0);
 
 
@@ -246,7 +268,19 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                 return new Thread(r,
                     String.format("NettyClientSelector_%d", this.threadIndex.incrementAndGet()));
             }
-        });
+        };
+
+        // 本地域套接字依赖epoll，配置了域套接字目录时同时启用epoll
+        final String domainSocketDir = nettyClientConfig.getUnixDomainSocketDir();
+        final boolean domainSocketWanted = domainSocketDir != null && domainSocketDir.trim().length() > 0;
+        final boolean epollWanted = nettyClientConfig.isUseEpollNativeSelector() || domainSocketWanted;
+        this.useEpoll = epollWanted && RemotingUtil.isEpollAvailable();
+        this.useDomainSocket = domainSocketWanted && this.useEpoll;
+        if (epollWanted && !this.useEpoll) {
+            log.warn("epoll native transport is not available, fall back to NIO");
+        }
+        this.eventLoopGroupWorker = this.useEpoll ? new EpollEventLoopGroup(1, selectorThreadFactory)
+                : new NioEventLoopGroup(1, selectorThreadFactory);
     }
 
 
@@ -268,7 +302,29 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                 }
             });
 
-        Bootstrap handler = this.bootstrap.group(this.eventLoopGroupWorker).channel(NioSocketChannel.class)//
+        // TCP与本地域套接字两种连接使用相同的处理链
+        final ChannelInitializer<Channel> channelInitializer = new ChannelInitializer<Channel>() {
+            @Override
+            public void initChannel(Channel ch) throws Exception {
+                if (nettyClientConfig.isClientFlushConsolidationEnable()) {
+                    // 合并flush必须在IO线程上执行
+                    ch.pipeline().addLast(new FlushConsolidationHandler(
+                        nettyClientConfig.getClientFlushConsolidationMaxFlushes(),
+                        nettyClientConfig.getClientFlushConsolidationWindowMicros(),
+                        flushConsolidationStats));
+                }
+                ch.pipeline().addLast(//
+                    defaultEventExecutorGroup, //
+                    new NettyEncoder(), //
+                    new NettyDecoder(), //
+                    new IdleStateHandler(0, 0, nettyClientConfig.getClientChannelMaxIdleTimeSeconds()), //
+                    new NettyConnetManageHandler(), //
+                    new NettyClientHandler());
+            }
+        };
+
+        Bootstrap handler = this.bootstrap.group(this.eventLoopGroupWorker)//
+            .channel(this.useEpoll ? EpollSocketChannel.class : NioSocketChannel.class)//
             //
             .option(ChannelOption.TCP_NODELAY, true)
             //
@@ -278,31 +334,13 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
             //
             .option(ChannelOption.SO_RCVBUF, nettyClientConfig.getClientSocketRcvBufSize())
             //
-            .handler(new ChannelInitializer<SocketChannel>() {
-                @Override
-                public void initChannel(SocketChannel ch) throws Exception {
-                    ch.pipeline().addLast(//
-                        defaultEventExecutorGroup, //
-                        new NettyEncoder(), //
-                        new NettyDecoder(), //
-                        new IdleStateHandler(0, 0, nettyClientConfig.getClientChannelMaxIdleTimeSeconds()), //
-                        new NettyConnetManageHandler(), //
-                        new NettyClientHandler());
-                }
-            });
+            .handler(channelInitializer);
 
-        this.timer.scheduleAtFixedRate(new TimerTask() {
-
-            @Override
-            public void run() {
-                try {
-                    NettyRemotingClient.this.scanResponseTable();
-                }
-                catch (Exception e) {
-                    log.error("scanResponseTable exception", e);
-                }
-            }
-        }, 1000 * 3, 1000);
+        if (this.useDomainSocket) {
+            this.domainBootstrap.group(this.eventLoopGroupWorker)//
+                .channel(EpollDomainSocketChannel.class)//
+                .handler(channelInitializer);
+        }
 
         if (this.channelEventListener != null) {
             this.nettyEventExecuter.start();
@@ -313,7 +351,8 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     @Override
     public void shutdown() {
         try {
-            this.timer.cancel();
+            this.responseTimeoutTimer.stop();
+            this.failPendingResponseFutures();
 
             for (ChannelWrapper cw : this.channelTables.values()) {
                 this.closeChannel(null, cw.getChannel());
@@ -346,16 +385,98 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     }
 
 
-    private Channel getAndCreateChannel(final String addr) throws InterruptedException {
+    private Channel getAndCreateChannel(final String addr, final RemotingCommand request)
+            throws InterruptedException {
         if (null == addr)
             return getAndCreateNameserverChannel();
 
-        ChannelWrapper cw = this.channelTables.get(addr);
+        final String key = this.isMultiChannel() ? this.selectChannelKey(addr, request) : addr;
+        ChannelWrapper cw = this.channelTables.get(key);
         if (cw != null && cw.isOK()) {
             return cw.getChannel();
         }
 
-        return this.createChannel(addr);
+        return this.createChannel(key);
+    }
+
+
+    private boolean isMultiChannel() {
+        return this.nettyClientConfig.getClientChannelsPerAddr() > 1;
+    }
+
+
+    /**
+     * 多连接时，第0条连接的key为地址本身，其余为addr#index
+     */
+    private static String channelKey(final String addr, final int index) {
+        return 0 == index ? addr : addr + "#" + index;
+    }
+
+
+    private static String addrOfChannelKey(final String key) {
+        final int pos = key.indexOf('#');
+        return pos < 0 ? key : key.substring(0, pos);
+    }
+
+
+    /**
+     * 选择本次请求使用的连接<br>
+     * 指定了路由键的请求（如顺序消息）总是走同一条连接，其他请求按策略轮询或选择未完成请求最少的连接<br>
+     * 路由键ControlChannelShardingKey固定映射到第0条连接，心跳、注销等注册类请求都走这条连接
+     */
+    private String selectChannelKey(final String addr, final RemotingCommand request) {
+        final int channels = this.nettyClientConfig.getClientChannelsPerAddr();
+        if (request.getShardingKey() >= 0) {
+            return channelKey(addr, request.getShardingKey() % channels);
+        }
+
+        if (NettyClientConfig.ChannelSelectPolicyLeastInFlight
+            .equals(this.nettyClientConfig.getClientChannelSelectPolicy())) {
+            int minIndex = 0;
+            int minInFlight = Integer.MAX_VALUE;
+            for (int i = 0; i < channels; i++) {
+                ChannelWrapper cw = this.channelTables.get(channelKey(addr, i));
+                // 还没有建立的连接视为空闲，顺便完成建连
+                int inFlight = (cw != null && cw.isOK()) ? inFlightOf(cw.getChannel()).get() : 0;
+                if (inFlight < minInFlight) {
+                    minInFlight = inFlight;
+                    minIndex = i;
+                }
+            }
+            return channelKey(addr, minIndex);
+        }
+
+        return channelKey(addr, Math.abs(this.channelIndex.getAndIncrement() % channels));
+    }
+
+
+    private static AtomicInteger inFlightOf(final Channel channel) {
+        AtomicInteger inFlight = channel.attr(InFlightKey).get();
+        if (null == inFlight) {
+            inFlight = new AtomicInteger(0);
+            AtomicInteger prev = channel.attr(InFlightKey).setIfAbsent(inFlight);
+            if (prev != null) {
+                inFlight = prev;
+            }
+        }
+        return inFlight;
+    }
+
+
+    /**
+     * 根据地址和连接找到连接表中的key
+     */
+    private String findChannelKey(final String addr, final Channel channel) {
+        if (this.isMultiChannel()) {
+            for (int i = 0; i < this.nettyClientConfig.getClientChannelsPerAddr(); i++) {
+                final String key = channelKey(addr, i);
+                ChannelWrapper cw = this.channelTables.get(key);
+                if (cw != null && cw.getChannel() == channel) {
+                    return key;
+                }
+            }
+        }
+        return addr;
     }
 
 
@@ -409,6 +530,67 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     }
 
 
+    /**
+     * 发起连接，服务端在本机且监听了对应的本地域套接字时走域套接字，否则走TCP
+     */
+    private ChannelFuture connect(final String addr) {
+        if (this.useDomainSocket && !this.isDomainSocketFailed(addr)) {
+            final String path = this.findDomainSocketPath(addr);
+            if (path != null) {
+                log.info("createChannel: connect remote host[{}] by unix domain socket {}", addr, path);
+                ChannelFuture channelFuture = this.domainBootstrap.connect(new DomainSocketAddress(path));
+                channelFuture.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            domainSocketFailedAddrs.remove(addr);
+                        }
+                        // 套接字文件可能是服务端异常退出遗留的，一段时间内改走TCP
+                        else {
+                            domainSocketFailedAddrs.put(addr, System.currentTimeMillis());
+                            log.warn("connect unix domain socket " + path + " failed, use TCP later",
+                                future.cause());
+                        }
+                    }
+                });
+                return channelFuture;
+            }
+        }
+
+        return this.bootstrap.connect(RemotingHelper.string2SocketAddress(addr));
+    }
+
+
+    /**
+     * 域套接字最近是否连接失败过，超过重试间隔后服务端可能已重新监听，再次尝试
+     */
+    private boolean isDomainSocketFailed(final String addr) {
+        final Long failTimestamp = this.domainSocketFailedAddrs.get(addr);
+        if (null == failTimestamp) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - failTimestamp < DomainSocketRetryIntervalMillis) {
+            return true;
+        }
+
+        this.domainSocketFailedAddrs.remove(addr, failTimestamp);
+        return false;
+    }
+
+
+    private String findDomainSocketPath(final String addr) {
+        final InetSocketAddress socketAddress = (InetSocketAddress) RemotingHelper.string2SocketAddress(addr);
+        if (!RemotingUtil.isLocalAddress(socketAddress.getAddress())) {
+            return null;
+        }
+
+        final String path = RemotingUtil.unixDomainSocketPath(this.nettyClientConfig.getUnixDomainSocketDir(),
+            socketAddress.getPort());
+        return new File(path).exists() ? path : null;
+    }
+
+
     /**
      * 获取netty通信通道，通过channel向服务器发送请求
      * 
@@ -417,6 +599,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
      * @throws InterruptedException
      */
     private Channel createChannel(final String addr) throws InterruptedException {
+        // 多连接时addr为连接表中的key
         // 从通道列表中查询，存在就返回
         ChannelWrapper cw = this.channelTables.get(addr);
         if (cw != null && cw.isOK()) {
@@ -450,8 +633,7 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
 
                 if (createNewConnection) {
                     // 首次发送请求，client和server还没有建立连接，在此处建立连接，并将channel放入channel列表
-                    ChannelFuture channelFuture =
-                            this.bootstrap.connect(RemotingHelper.string2SocketAddress(addr));
+                    ChannelFuture channelFuture = this.connect(addrOfChannelKey(addr));
                     log.info("createChannel: begin to connect remote host[{}] asynchronously", addr);
                     cw = new ChannelWrapper(channelFuture);
                     this.channelTables.put(addr, cw);
@@ -502,7 +684,8 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
         if (null == channel)
             return;
 
-        final String addrRemote = null == addr ? RemotingHelper.parseChannelRemoteAddr(channel) : addr;
+        final String addrRemote = this.findChannelKey(
+            null == addr ? RemotingHelper.parseChannelRemoteAddr(channel) : addr, channel);
 
         try {
             if (this.lockChannelTables.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
@@ -620,12 +803,16 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     public RemotingCommand invokeSync(String addr, final RemotingCommand request, long timeoutMillis)
             throws InterruptedException, RemotingConnectException, RemotingSendRequestException,
             RemotingTimeoutException {
-        final Channel channel = this.getAndCreateChannel(addr);
+        final Channel channel = this.getAndCreateChannel(addr, request);
         if (channel != null && channel.isActive()) {
+            final AtomicInteger inFlight = this.isMultiChannel() ? inFlightOf(channel) : null;
             try {
                 if (this.rpcHook != null) {
                     this.rpcHook.doBeforeRequest(addr, request);
                 }
+                if (inFlight != null) {
+                    inFlight.incrementAndGet();
+                }
                 RemotingCommand response = this.invokeSyncImpl(channel, request, timeoutMillis);
                 if (this.rpcHook != null) {
                     this.rpcHook.doAfterResponse(RemotingHelper.parseChannelRemoteAddr(channel), request,
@@ -642,6 +829,11 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                 log.warn("invokeSync: wait response timeout exception, the channel[{}]", addr);
                 throw e;
             }
+            finally {
+                if (inFlight != null) {
+                    inFlight.decrementAndGet();
+                }
+            }
         }
         else {
             this.closeChannel(addr, channel);
@@ -654,13 +846,18 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     public void invokeAsync(String addr, RemotingCommand request, long timeoutMillis,
             InvokeCallback invokeCallback) throws InterruptedException, RemotingConnectException,
                     RemotingTooMuchRequestException, RemotingTimeoutException, RemotingSendRequestException {
-        final Channel channel = this.getAndCreateChannel(addr);
+        final Channel channel = this.getAndCreateChannel(addr, request);
         if (channel != null && channel.isActive()) {
             try {
                 if (this.rpcHook != null) {
                     this.rpcHook.doBeforeRequest(addr, request);
                 }
-                this.invokeAsyncImpl(channel, request, timeoutMillis, invokeCallback);
+                if (this.isMultiChannel()) {
+                    this.invokeAsyncInFlight(channel, request, timeoutMillis, invokeCallback);
+                }
+                else {
+                    this.invokeAsyncImpl(channel, request, timeoutMillis, invokeCallback);
+                }
             }
             catch (RemotingSendRequestException e) {
                 log.warn("invokeAsync: send request exception, so close the channel[{}]", addr);
@@ -675,11 +872,43 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     }
 
 
+    /**
+     * 多连接时的异步调用，请求完成（应答、超时或发送失败）后减少连接上的未完成请求数
+     */
+    private void invokeAsyncInFlight(final Channel channel, final RemotingCommand request,
+            final long timeoutMillis, final InvokeCallback invokeCallback) throws InterruptedException,
+                    RemotingTooMuchRequestException, RemotingTimeoutException, RemotingSendRequestException {
+        final AtomicInteger inFlight = inFlightOf(channel);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        inFlight.incrementAndGet();
+        boolean ok = false;
+        try {
+            this.invokeAsyncImpl(channel, request, timeoutMillis, new InvokeCallback() {
+                @Override
+                public void operationComplete(ResponseFuture responseFuture) {
+                    if (done.compareAndSet(false, true)) {
+                        inFlight.decrementAndGet();
+                    }
+                    if (invokeCallback != null) {
+                        invokeCallback.operationComplete(responseFuture);
+                    }
+                }
+            });
+            ok = true;
+        }
+        finally {
+            if (!ok && done.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+
     @Override
     public void invokeOneway(String addr, RemotingCommand request, long timeoutMillis)
             throws InterruptedException, RemotingConnectException, RemotingTooMuchRequestException,
             RemotingTimeoutException, RemotingSendRequestException {
-        final Channel channel = this.getAndCreateChannel(addr);
+        final Channel channel = this.getAndCreateChannel(addr, request);
         if (channel != null && channel.isActive()) {
             try {
                 if (this.rpcHook != null) {
@@ -762,6 +991,11 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
     }
 
 
+    public FlushConsolidationStats getFlushConsolidationStats() {
+        return flushConsolidationStats;
+    }
+
+
     @Override
     public void registerRPCHook(RPCHook rpcHook) {
         this.rpcHook = rpcHook;
@@ -776,6 +1010,21 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
 
     @Override
     public boolean isChannelWriteable(String addr) {
+        if (this.isMultiChannel()) {
+            // 多连接时，只要有一条已建立的连接可写即可
+            boolean found = false;
+            for (int i = 0; i < this.nettyClientConfig.getClientChannelsPerAddr(); i++) {
+                ChannelWrapper cw = this.channelTables.get(channelKey(addr, i));
+                if (cw != null && cw.isOK()) {
+                    if (cw.isWriteable()) {
+                        return true;
+                    }
+                    found = true;
+                }
+            }
+            return !found;
+        }
+
         ChannelWrapper cw = this.channelTables.get(addr);
         if (cw != null && cw.isOK()) {
             return cw.isWriteable();
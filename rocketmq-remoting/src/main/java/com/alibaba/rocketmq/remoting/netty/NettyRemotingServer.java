@@ -15,9 +15,8 @@
  */
 package com.alibaba.rocketmq.remoting.netty;
 
+import java.io.File;
 import java.net.InetSocketAddress;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -41,9 +40,12 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -65,14 +67,20 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
     // 处理Callback应答器
     private final ExecutorService publicExecutor;
     private final ChannelEventListener channelEventListener;
-    // 定时器
-    private final Timer timer = new Timer("ServerHouseKeepingService", true);
     private DefaultEventExecutorGroup defaultEventExecutorGroup;
 
     private RPCHook rpcHook;
+    // 是否使用epoll native传输
+    private final boolean useEpoll;
+    // 是否额外监听本地域套接字
+    private final boolean useDomainSocket;
 
     // 本地server绑定的端口
     private int port = 0;
+    // 监听的本地域套接字文件，没有监听时为null
+    private String domainSocketPath;
+    // 所有连接的flush合并统计
+    private final FlushConsolidationStats flushConsolidationStats = new FlushConsolidationStats();
 
 
     public NettyRemotingServer(final NettyServerConfig nettyServerConfig) {
@@ -103,7 +111,17 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             }
         });
 
-        this.eventLoopGroupBoss = new NioEventLoopGroup(1, new ThreadFactory() {
+        // 本地域套接字依赖epoll，配置了域套接字目录时同时启用epoll
+        final String domainSocketDir = nettyServerConfig.getUnixDomainSocketDir();
+        final boolean domainSocketWanted = domainSocketDir != null && domainSocketDir.trim().length() > 0;
+        final boolean epollWanted = nettyServerConfig.isUseEpollNativeSelector() || domainSocketWanted;
+        this.useEpoll = epollWanted && RemotingUtil.isEpollAvailable();
+        this.useDomainSocket = domainSocketWanted && this.useEpoll;
+        if (epollWanted && !this.useEpoll) {
+            log.warn("epoll native transport is not available, fall back to NIO");
+        }
+
+        ThreadFactory bossThreadFactory = new ThreadFactory() {
             private AtomicInteger threadIndex = new AtomicInteger(0);
 
 
@@ -112,20 +130,30 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                 return new Thread(r,
                     String.format("NettyBossSelector_%d", this.threadIndex.incrementAndGet()));
             }
-        });
+        };
 
-        this.eventLoopGroupWorker =
-                new NioEventLoopGroup(nettyServerConfig.getServerSelectorThreads(), new ThreadFactory() {
-                    private AtomicInteger threadIndex = new AtomicInteger(0);
-                    private int threadTotal = nettyServerConfig.getServerSelectorThreads();
+        ThreadFactory workerThreadFactory = new ThreadFactory() {
+            private AtomicInteger threadIndex = new AtomicInteger(0);
+            private int threadTotal = nettyServerConfig.getServerSelectorThreads();
 
 
-                    @Override
-                    public Thread newThread(Runnable r) {
-                        return new Thread(r, String.format("NettyServerSelector_%d_%d", threadTotal,
-                            this.threadIndex.incrementAndGet()));
-                    }
-                });
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, String.format("NettyServerSelector_%d_%d", threadTotal,
+                    this.threadIndex.incrementAndGet()));
+            }
+        };
+
+        if (this.useEpoll) {
+            this.eventLoopGroupBoss = new EpollEventLoopGroup(1, bossThreadFactory);
+            this.eventLoopGroupWorker =
+                    new EpollEventLoopGroup(nettyServerConfig.getServerSelectorThreads(), workerThreadFactory);
+        }
+        else {
+            this.eventLoopGroupBoss = new NioEventLoopGroup(1, bossThreadFactory);
+            this.eventLoopGroupWorker =
+                    new NioEventLoopGroup(nettyServerConfig.getServerSelectorThreads(), workerThreadFactory);
+        }
     }
 
 
@@ -144,9 +172,31 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                 }
             });
 
+        // TCP与本地域套接字两种连接使用相同的处理链
+        final ChannelInitializer<Channel> channelInitializer = new ChannelInitializer<Channel>() {
+            @Override
+            public void initChannel(Channel ch) throws Exception {
+                if (nettyServerConfig.isServerFlushConsolidationEnable()) {
+                    // 合并flush必须在IO线程上执行
+                    ch.pipeline().addLast(new FlushConsolidationHandler(
+                        nettyServerConfig.getServerFlushConsolidationMaxFlushes(),
+                        nettyServerConfig.getServerFlushConsolidationWindowMicros(),
+                        flushConsolidationStats));
+                }
+                ch.pipeline().addLast(
+                    //
+                    defaultEventExecutorGroup, //
+                    new NettyEncoder(), //
+                    new NettyDecoder(), //
+                    new IdleStateHandler(0, 0, nettyServerConfig.getServerChannelMaxIdleTimeSeconds()), //
+                    new NettyConnetManageHandler(), //
+                    new NettyServerHandler());
+            }
+        };
+
         ServerBootstrap childHandler = //
                 this.serverBootstrap.group(this.eventLoopGroupBoss, this.eventLoopGroupWorker)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(this.useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
                     //
                     .option(ChannelOption.SO_BACKLOG, 1024)
                     //
@@ -161,20 +211,7 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                     .option(ChannelOption.SO_RCVBUF, nettyServerConfig.getServerSocketRcvBufSize())
                     //
                     .localAddress(new InetSocketAddress(this.nettyServerConfig.getListenPort()))
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) throws Exception {
-                            ch.pipeline().addLast(
-                                //
-                                defaultEventExecutorGroup, //
-                                new NettyEncoder(), //
-                                new NettyDecoder(), //
-                                new IdleStateHandler(0, 0,
-                                    nettyServerConfig.getServerChannelMaxIdleTimeSeconds()), //
-                                new NettyConnetManageHandler(), //
-                                new NettyServerHandler());
-                        }
-                    });
+                    .childHandler(channelInitializer);
 
         if (nettyServerConfig.isServerPooledByteBufAllocatorEnable()) {
             // 这个选项有可能会占用大量堆外内存，暂时不使用。
@@ -190,23 +227,42 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             throw new RuntimeException("this.serverBootstrap.bind().sync() InterruptedException", e1);
         }
 
+        if (this.useDomainSocket) {
+            this.bindDomainSocket(channelInitializer);
+        }
+
         if (this.channelEventListener != null) {
             this.nettyEventExecuter.start();
         }
+    }
 
-        // 每隔1秒扫描下异步调用超时情况
-        this.timer.scheduleAtFixedRate(new TimerTask() {
 
-            @Override
-            public void run() {
-                try {
-                    NettyRemotingServer.this.scanResponseTable();
-                }
-                catch (Exception e) {
-                    log.error("scanResponseTable exception", e);
-                }
-            }
-        }, 1000 * 3, 1000);
+    /**
+     * 按监听端口额外监听一个本地域套接字，同机的客户端连接本机地址时自动改走域套接字<br>
+     * 监听失败不影响TCP服务
+     */
+    private void bindDomainSocket(final ChannelInitializer<Channel> channelInitializer) {
+        final String path =
+                RemotingUtil.unixDomainSocketPath(this.nettyServerConfig.getUnixDomainSocketDir(), this.port);
+        // 进程异常退出时遗留的套接字文件会导致监听失败
+        new File(path).delete();
+
+        ServerBootstrap domainBootstrap = new ServerBootstrap()//
+            .group(this.eventLoopGroupBoss, this.eventLoopGroupWorker)//
+            .channel(EpollServerDomainSocketChannel.class)//
+            .childHandler(channelInitializer);
+        if (nettyServerConfig.isServerPooledByteBufAllocatorEnable()) {
+            domainBootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        }
+
+        try {
+            domainBootstrap.bind(new DomainSocketAddress(path)).sync();
+            this.domainSocketPath = path;
+            log.info("listen on unix domain socket {}", path);
+        }
+        catch (Exception e) {
+            log.warn("listen on unix domain socket " + path + " failed, only TCP is available", e);
+        }
     }
 
 
@@ -257,9 +313,8 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
     @Override
     public void shutdown() {
         try {
-            if (this.timer != null) {
-                this.timer.cancel();
-            }
+            this.responseTimeoutTimer.stop();
+            this.failPendingResponseFutures();
 
             this.eventLoopGroupBoss.shutdownGracefully();
 
@@ -272,6 +327,10 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
             if (this.defaultEventExecutorGroup != null) {
                 this.defaultEventExecutorGroup.shutdownGracefully();
             }
+
+            if (this.domainSocketPath != null) {
+                new File(this.domainSocketPath).delete();
+            }
         }
         catch (Exception e) {
             log.error("NettyRemotingServer shutdown exception, ", e);
@@ -403,6 +462,11 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
     }
 
 
+    public FlushConsolidationStats getFlushConsolidationStats() {
+        return flushConsolidationStats;
+    }
+
+
     @Override
     public Pair<NettyRequestProcessor, ExecutorService> getProcessorPair(int requestCode) {
         return processorTable.get(requestCode);
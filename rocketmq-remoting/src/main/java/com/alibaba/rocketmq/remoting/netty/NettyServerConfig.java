@@ -33,6 +33,16 @@ public class NettyServerConfig {
     private int serverSocketSndBufSize = NettySystemConfig.SocketSndbufSize;
     private int serverSocketRcvBufSize = NettySystemConfig.SocketRcvbufSize;
     private boolean serverPooledByteBufAllocatorEnable = false;
+    // 是否合并flush，小包多时可明显减少write系统调用
+    private boolean serverFlushConsolidationEnable = false;
+    // 累计多少次flush后立即执行
+    private int serverFlushConsolidationMaxFlushes = 64;
+    // 合并等待的时间窗口，0表示只合并事件循环同一批任务中的flush
+    private long serverFlushConsolidationWindowMicros = 0;
+    // Linux下是否使用epoll native传输，不可用时自动退回NIO
+    private boolean useEpollNativeSelector = false;
+    // 非空时在该目录下按监听端口额外监听一个本地域套接字，依赖epoll，为空表示不监听
+    private String unixDomainSocketDir = NettySystemConfig.UnixDomainSocketDir;
 
 
     public int getListenPort() {
@@ -133,4 +143,54 @@ public class NettyServerConfig {
     public void setServerPooledByteBufAllocatorEnable(boolean serverPooledByteBufAllocatorEnable) {
         this.serverPooledByteBufAllocatorEnable = serverPooledByteBufAllocatorEnable;
     }
+
+
+    public boolean isServerFlushConsolidationEnable() {
+        return serverFlushConsolidationEnable;
+    }
+
+
+    public void setServerFlushConsolidationEnable(boolean serverFlushConsolidationEnable) {
+        this.serverFlushConsolidationEnable = serverFlushConsolidationEnable;
+    }
+
+
+    public int getServerFlushConsolidationMaxFlushes() {
+        return serverFlushConsolidationMaxFlushes;
+    }
+
+
+    public void setServerFlushConsolidationMaxFlushes(int serverFlushConsolidationMaxFlushes) {
+        this.serverFlushConsolidationMaxFlushes = serverFlushConsolidationMaxFlushes;
+    }
+
+
+    public long getServerFlushConsolidationWindowMicros() {
+        return serverFlushConsolidationWindowMicros;
+    }
+
+
+    public void setServerFlushConsolidationWindowMicros(long serverFlushConsolidationWindowMicros) {
+        this.serverFlushConsolidationWindowMicros = serverFlushConsolidationWindowMicros;
+    }
+
+
+    public boolean isUseEpollNativeSelector() {
+        return useEpollNativeSelector;
+    }
+
+
+    public void setUseEpollNativeSelector(boolean useEpollNativeSelector) {
+        this.useEpollNativeSelector = useEpollNativeSelector;
+    }
+
+
+    public String getUnixDomainSocketDir() {
+        return unixDomainSocketDir;
+    }
+
+
+    public void setUnixDomainSocketDir(String unixDomainSocketDir) {
+        this.unixDomainSocketDir = unixDomainSocketDir;
+    }
 }
@@ -27,4 +27,19 @@ public class NettySystemConfig {
             "com.rocketmq.remoting.clientOnewaySemaphoreValue";
     public static int ClientOnewaySemaphoreValue = //
             Integer.parseInt(System.getProperty(SystemPropertyClientOnewaySemaphoreValue, "2048"));
+    // 请求超时时间轮的精度
+    public static final String SystemPropertyTimerWheelTickMillis = //
+            "com.rocketmq.remoting.timerWheelTickMillis";
+    public static long TimerWheelTickMillis = //
+            Long.parseLong(System.getProperty(SystemPropertyTimerWheelTickMillis, "10"));
+    // 客户端是否使用epoll native传输，与Broker同机部署的客户端可以减少loopback开销
+    public static final String SystemPropertyClientEpollNativeSelector = //
+            "com.rocketmq.remoting.client.useEpollNativeSelector";
+    public static boolean ClientEpollNativeSelector = //
+            Boolean.parseBoolean(System.getProperty(SystemPropertyClientEpollNativeSelector, "false"));
+    // 本地域套接字文件所在目录，为空表示不使用域套接字
+    public static final String SystemPropertyUnixDomainSocketDir = //
+            "com.rocketmq.remoting.unixDomainSocketDir";
+    public static String UnixDomainSocketDir = //
+            System.getProperty(SystemPropertyUnixDomainSocketDir, "");
 }
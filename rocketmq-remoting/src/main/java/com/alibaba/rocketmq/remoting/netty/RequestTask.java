@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.netty;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+
+import io.netty.channel.Channel;
+
+
+/**
+ * 服务端排队中的请求，记录入队时间，用于按排队时间做快速失败与统计
+ */
+public class RequestTask implements Runnable {
+    private final Runnable runnable;
+    // 入队时间
+    private final long createTimestamp = System.currentTimeMillis();
+    private final Channel channel;
+    private final RemotingCommand request;
+    private final RequestWaitTimeStats waitTimeStats;
+    // 是否统计排队时间，已经排过一次队、再次转发的请求不重复统计
+    private final boolean recordWaitTime;
+    // 是否已经被快速失败，被拒绝的请求不再执行
+    private volatile boolean stopRun = false;
+
+
+    public RequestTask(final Runnable runnable, final Channel channel, final RemotingCommand request,
+            final RequestWaitTimeStats waitTimeStats) {
+        this(runnable, channel, request, waitTimeStats, true);
+    }
+
+
+    public RequestTask(final Runnable runnable, final Channel channel, final RemotingCommand request,
+            final RequestWaitTimeStats waitTimeStats, final boolean recordWaitTime) {
+        this.runnable = runnable;
+        this.channel = channel;
+        this.request = request;
+        this.waitTimeStats = waitTimeStats;
+        this.recordWaitTime = recordWaitTime;
+    }
+
+
+    @Override
+    public void run() {
+        if (!this.stopRun) {
+            if (this.waitTimeStats != null && this.recordWaitTime) {
+                this.waitTimeStats.recordWaitTime(this.request.getCode(),
+                    System.currentTimeMillis() - this.createTimestamp);
+            }
+            this.runnable.run();
+        }
+    }
+
+
+    /**
+     * 在请求执行前直接返回应答（例如排队超时），并保证请求不再被执行
+     */
+    public void returnResponse(int code, String remark) {
+        this.stopRun = true;
+        if (this.waitTimeStats != null) {
+            this.waitTimeStats.recordRejected(this.request.getCode());
+        }
+        if (!this.request.isOnewayRPC()) {
+            final RemotingCommand response = RemotingCommand.createResponseCommand(code, remark);
+            response.setOpaque(this.request.getOpaque());
+            this.channel.writeAndFlush(response);
+        }
+    }
+
+
+    public boolean isStopRun() {
+        return stopRun;
+    }
+
+
+    public long getCreateTimestamp() {
+        return createTimestamp;
+    }
+
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+
+    public RemotingCommand getRequest() {
+        return request;
+    }
+
+
+    @Override
+    public String toString() {
+        return "RequestTask [createTimestamp=" + createTimestamp + ", code=" + request.getCode()
+                + ", stopRun=" + stopRun + "]";
+    }
+}
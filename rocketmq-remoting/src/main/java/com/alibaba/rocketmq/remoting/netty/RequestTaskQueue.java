@@ -0,0 +1,484 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.netty;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSysResponseCode;
+
+
+/**
+ * 请求调度队列，作为处理器线程池的阻塞队列使用<br>
+ * 1. 按请求码划分优先级，高优先级请求（如心跳、事务结束）不会排在大批量请求后面<br>
+ * 2. 同一优先级内按连接轮询出队，单个客户端的突发流量不会饿死其他客户端<br>
+ * 3. 按排队时间而不是队列长度做快速失败，排队超过maxWaitTimeMillis的请求直接返回SYSTEM_BUSY
+ */
+public class RequestTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    public static final int PriorityHigh = 0;
+    public static final int PriorityNormal = 1;
+    public static final int PriorityLow = 2;
+    private static final int PriorityLevels = 3;
+
+    // 非RequestTask的任务统一归到这个key下
+    private static final Object DefaultClientKey = new Object();
+
+    private final int capacity;
+    // 排队时间上限，小于等于0表示不按排队时间拒绝
+    private final long maxWaitTimeMillis;
+    private final ConcurrentHashMap<Integer/* request code */, Integer/* priority */> priorityTable =
+            new ConcurrentHashMap<Integer, Integer>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+    // 每个优先级一张表，key为客户端连接，value为该连接的FIFO队列，表的遍历顺序即轮询顺序
+    private final List<LinkedHashMap<Object, ArrayDeque<Runnable>>> levels =
+            new ArrayList<LinkedHashMap<Object, ArrayDeque<Runnable>>>(PriorityLevels);
+    private int count = 0;
+
+
+    public RequestTaskQueue(final int capacity, final long maxWaitTimeMillis) {
+        this.capacity = capacity;
+        this.maxWaitTimeMillis = maxWaitTimeMillis;
+        for (int i = 0; i < PriorityLevels; i++) {
+            this.levels.add(new LinkedHashMap<Object, ArrayDeque<Runnable>>());
+        }
+    }
+
+
+    public void registerPriority(final int requestCode, final int priority) {
+        if (priority < PriorityHigh || priority > PriorityLow) {
+            throw new IllegalArgumentException("priority out of range, " + priority);
+        }
+        this.priorityTable.put(requestCode, priority);
+    }
+
+
+    private int priorityOf(final Runnable r) {
+        if (r instanceof RequestTask) {
+            Integer priority = this.priorityTable.get(((RequestTask) r).getRequest().getCode());
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return PriorityNormal;
+    }
+
+
+    private static Object clientKeyOf(final Runnable r) {
+        if (r instanceof RequestTask && ((RequestTask) r).getChannel() != null) {
+            return ((RequestTask) r).getChannel();
+        }
+        return DefaultClientKey;
+    }
+
+
+    private boolean isExpired(final Runnable r, final long now) {
+        return this.maxWaitTimeMillis > 0 && r instanceof RequestTask
+                && (now - ((RequestTask) r).getCreateTimestamp()) > this.maxWaitTimeMillis;
+    }
+
+
+    private void enqueue(final Runnable r) {
+        LinkedHashMap<Object, ArrayDeque<Runnable>> level = this.levels.get(this.priorityOf(r));
+        Object key = clientKeyOf(r);
+        ArrayDeque<Runnable> q = level.get(key);
+        if (null == q) {
+            q = new ArrayDeque<Runnable>();
+            level.put(key, q);
+        }
+        q.addLast(r);
+        this.count++;
+        this.notEmpty.signal();
+    }
+
+
+    /**
+     * 按优先级从高到低，同一优先级内按连接轮询出队，排队超时的请求放入expired
+     */
+    private Runnable dequeue(final List<RequestTask> expired) {
+        final long now = System.currentTimeMillis();
+        while (this.count > 0) {
+            for (LinkedHashMap<Object, ArrayDeque<Runnable>> level : this.levels) {
+                if (level.isEmpty()) {
+                    continue;
+                }
+
+                Iterator<Entry<Object, ArrayDeque<Runnable>>> it = level.entrySet().iterator();
+                Entry<Object, ArrayDeque<Runnable>> first = it.next();
+                it.remove();
+                ArrayDeque<Runnable> q = first.getValue();
+                Runnable r = q.pollFirst();
+                if (!q.isEmpty()) {
+                    // 放回表尾，下次轮到其他连接
+                    level.put(first.getKey(), q);
+                }
+                this.count--;
+                this.notFull.signal();
+
+                if (this.isExpired(r, now)) {
+                    expired.add((RequestTask) r);
+                    break;
+                }
+                return r;
+            }
+        }
+        return null;
+    }
+
+
+    private int collectExpired(final List<RequestTask> expired) {
+        if (this.maxWaitTimeMillis <= 0) {
+            return 0;
+        }
+
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        for (LinkedHashMap<Object, ArrayDeque<Runnable>> level : this.levels) {
+            Iterator<ArrayDeque<Runnable>> it = level.values().iterator();
+            while (it.hasNext()) {
+                ArrayDeque<Runnable> q = it.next();
+                // 每个连接的队列是FIFO，只需要检查队首
+                while (!q.isEmpty() && this.isExpired(q.peekFirst(), now)) {
+                    expired.add((RequestTask) q.pollFirst());
+                    removed++;
+                }
+                if (q.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        if (removed > 0) {
+            this.count -= removed;
+            this.notFull.signalAll();
+        }
+        return removed;
+    }
+
+
+    private static void rejectExpired(final List<RequestTask> expired) {
+        for (RequestTask task : expired) {
+            task.returnResponse(RemotingSysResponseCode.SYSTEM_BUSY,
+                "[TIMEOUT_CLEAN_QUEUE]request wait in queue too long, please try another server");
+        }
+    }
+
+
+    /**
+     * 清理排队超时的请求，并返回SYSTEM_BUSY，可定时调用以便尽早通知客户端
+     *
+     * @return 被清理的请求数
+     */
+    public int cleanExpiredRequest() {
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            this.collectExpired(expired);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        rejectExpired(expired);
+        return expired.size();
+    }
+
+
+    @Override
+    public boolean offer(Runnable r) {
+        if (null == r) {
+            throw new NullPointerException();
+        }
+
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            // 队列满时先淘汰排队超时的请求，而不是直接拒绝新请求
+            if (this.count >= this.capacity) {
+                this.collectExpired(expired);
+            }
+
+            if (this.count >= this.capacity) {
+                return false;
+            }
+
+            this.enqueue(r);
+            return true;
+        }
+        finally {
+            lock.unlock();
+            rejectExpired(expired);
+        }
+    }
+
+
+    @Override
+    public void put(Runnable r) throws InterruptedException {
+        this.offer(r, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+        if (null == r) {
+            throw new NullPointerException();
+        }
+
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (this.count >= this.capacity && this.collectExpired(expired) == 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+
+            this.enqueue(r);
+            return true;
+        }
+        finally {
+            lock.unlock();
+            rejectExpired(expired);
+        }
+    }
+
+
+    @Override
+    public Runnable poll() {
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return this.dequeue(expired);
+        }
+        finally {
+            lock.unlock();
+            rejectExpired(expired);
+        }
+    }
+
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            Runnable r = null;
+            while (null == (r = this.dequeue(expired))) {
+                this.notEmpty.await();
+            }
+            return r;
+        }
+        finally {
+            lock.unlock();
+            rejectExpired(expired);
+        }
+    }
+
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            Runnable r = null;
+            while (null == (r = this.dequeue(expired))) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return r;
+        }
+        finally {
+            lock.unlock();
+            rejectExpired(expired);
+        }
+    }
+
+
+    @Override
+    public Runnable peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (LinkedHashMap<Object, ArrayDeque<Runnable>> level : this.levels) {
+                if (!level.isEmpty()) {
+                    return level.values().iterator().next().peekFirst();
+                }
+            }
+            return null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public boolean remove(Object o) {
+        if (null == o) {
+            return false;
+        }
+
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (LinkedHashMap<Object, ArrayDeque<Runnable>> level : this.levels) {
+                Iterator<ArrayDeque<Runnable>> it = level.values().iterator();
+                while (it.hasNext()) {
+                    ArrayDeque<Runnable> q = it.next();
+                    if (q.remove(o)) {
+                        if (q.isEmpty()) {
+                            it.remove();
+                        }
+                        this.count--;
+                        this.notFull.signal();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return this.count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public int remainingCapacity() {
+        return this.capacity - this.size();
+    }
+
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (null == c) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+
+        final List<RequestTask> expired = new ArrayList<RequestTask>();
+        int n = 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Runnable r = null;
+            while (n < maxElements && (r = this.dequeue(expired)) != null) {
+                c.add(r);
+                n++;
+            }
+            return n;
+        }
+        finally {
+            lock.unlock();
+            rejectExpired(expired);
+        }
+    }
+
+
+    /**
+     * 返回快照迭代器，不支持通过迭代器删除
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<Runnable>();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (LinkedHashMap<Object, ArrayDeque<Runnable>> level : this.levels) {
+                for (ArrayDeque<Runnable> q : level.values()) {
+                    snapshot.addAll(q);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+
+            @Override
+            public Runnable next() {
+                return it.next();
+            }
+
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    public long getMaxWaitTimeMillis() {
+        return maxWaitTimeMillis;
+    }
+}
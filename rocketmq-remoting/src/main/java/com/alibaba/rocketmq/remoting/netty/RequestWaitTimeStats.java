@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.netty;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 按请求码统计请求在线程池队列中的排队时间
+ */
+public class RequestWaitTimeStats {
+    private final ConcurrentHashMap<Integer/* request code */, WaitTimeItem> waitTimeTable =
+            new ConcurrentHashMap<Integer, WaitTimeItem>(64);
+
+
+    public void recordWaitTime(final int code, final long waitTimeMillis) {
+        WaitTimeItem item = this.findItem(code);
+        item.getCount().incrementAndGet();
+        item.getTotalWaitTimeMillis().addAndGet(waitTimeMillis);
+        for (long max = item.getMaxWaitTimeMillis().get(); waitTimeMillis > max; max =
+                item.getMaxWaitTimeMillis().get()) {
+            if (item.getMaxWaitTimeMillis().compareAndSet(max, waitTimeMillis)) {
+                break;
+            }
+        }
+    }
+
+
+    public void recordRejected(final int code) {
+        this.findItem(code).getRejectedCount().incrementAndGet();
+    }
+
+
+    private WaitTimeItem findItem(final int code) {
+        WaitTimeItem item = this.waitTimeTable.get(code);
+        if (null == item) {
+            item = new WaitTimeItem();
+            WaitTimeItem prev = this.waitTimeTable.putIfAbsent(code, item);
+            if (prev != null) {
+                item = prev;
+            }
+        }
+        return item;
+    }
+
+
+    public ConcurrentHashMap<Integer, WaitTimeItem> getWaitTimeTable() {
+        return waitTimeTable;
+    }
+
+    public static class WaitTimeItem {
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalWaitTimeMillis = new AtomicLong(0);
+        private final AtomicLong maxWaitTimeMillis = new AtomicLong(0);
+        // 因排队超时被快速失败的请求数
+        private final AtomicLong rejectedCount = new AtomicLong(0);
+
+
+        public double getAvgWaitTimeMillis() {
+            long c = this.count.get();
+            return c > 0 ? (double) this.totalWaitTimeMillis.get() / c : 0;
+        }
+
+
+        public AtomicLong getCount() {
+            return count;
+        }
+
+
+        public AtomicLong getTotalWaitTimeMillis() {
+            return totalWaitTimeMillis;
+        }
+
+
+        public AtomicLong getMaxWaitTimeMillis() {
+            return maxWaitTimeMillis;
+        }
+
+
+        public AtomicLong getRejectedCount() {
+            return rejectedCount;
+        }
+
+
+        @Override
+        public String toString() {
+            return String.format("count=%d avg=%.2fms max=%dms rejected=%d", this.count.get(),
+                this.getAvgWaitTimeMillis(), this.maxWaitTimeMillis.get(), this.rejectedCount.get());
+        }
+    }
+}
@@ -23,6 +23,8 @@ import com.alibaba.rocketmq.remoting.InvokeCallback;
 import com.alibaba.rocketmq.remoting.common.SemaphoreReleaseOnlyOnce;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 
+import io.netty.util.Timeout;
+
 
 /**
  * 异步请求应答封装
@@ -54,6 +56,9 @@ public class ResponseFuture {
     // 保证回调的callback方法至多至少只被执行一次
     private final AtomicBoolean executeCallbackOnlyOnce = new AtomicBoolean(false);
 
+    // 时间轮中的超时任务，收到应答后取消
+    private volatile Timeout timeout;
+
 
     public ResponseFuture(int opaque, long timeoutMillis, InvokeCallback invokeCallback,
             SemaphoreReleaseOnlyOnce once) {
@@ -84,6 +89,20 @@ public class ResponseFuture {
     }
 
 
+    // 取消时间轮中的超时任务
+    public void cancelTimeout() {
+        final Timeout t = this.timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+
     // 判断是否超时
     public boolean isTimeout() {
         long diff = System.currentTimeMillis() - this.beginTimestamp;
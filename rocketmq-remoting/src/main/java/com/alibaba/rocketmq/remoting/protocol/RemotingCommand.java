@@ -38,6 +38,11 @@ public class RemotingCommand {
     public static String RemotingVersionKey = "rocketmq.remoting.version";
     private static volatile int ConfigVersion = -1;
     private static AtomicInteger RequestId = new AtomicInteger(0);
+    /**
+     * 客户端注册类请求（心跳、注销）使用的路由键，多连接时固定走第0条连接<br>
+     * 服务端按这条连接登记客户端，回调客户端也只会走这条连接
+     */
+    public static final int ControlChannelShardingKey = 0;
     /**
      * rpc交互的类型 0表示请求REQUEST_COMMAND ， 1表示响应 RESPONSE_COMMAND
      */
@@ -64,6 +69,9 @@ public class RemotingCommand {
      */
     private transient byte[] body;
 
+    // 客户端多连接时的路由键，相同路由键的请求总是走同一条连接，保证顺序；小于0表示不需要粘滞
+    private transient int shardingKey = -1;
+
 
     protected RemotingCommand() {
     }
@@ -395,6 +403,20 @@ public class RemotingCommand {
     }
 
 
+    @JSONField(serialize = false)
+    public int getShardingKey() {
+        return shardingKey;
+    }
+
+
+    /**
+     * 指定连接路由键，例如顺序消息按队列粘滞到同一条连接
+     */
+    public void setShardingKey(int shardingKey) {
+        this.shardingKey = shardingKey & Integer.MAX_VALUE;
+    }
+
+
     public int getCode() {
         return code;
     }
@@ -0,0 +1,54 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingClient;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.epoll.EpollSocketChannel;
+
+
+/**
+ * 服务端与客户端都使用epoll native传输
+ */
+public class EpollTransportTest {
+    @Test
+    public void test_invoke_over_epoll() throws Exception {
+        assumeTrue(RemotingUtil.isEpollAvailable());
+
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(8895);
+        serverConfig.setUseEpollNativeSelector(true);
+        RemotingServer server = new NettyRemotingServer(serverConfig);
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                return RemotingCommand.createResponseCommand(0, ctx.channel().getClass().getSimpleName());
+            }
+        }, Executors.newCachedThreadPool());
+        server.start();
+
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setUseEpollNativeSelector(true);
+        RemotingClient client = new NettyRemotingClient(clientConfig);
+        client.start();
+
+        RemotingCommand response =
+                client.invokeSync("localhost:8895", RemotingCommand.createRequestCommand(0, null), 3000);
+        assertEquals(EpollSocketChannel.class.getSimpleName(), response.getRemark());
+
+        client.shutdown();
+        server.shutdown();
+    }
+}
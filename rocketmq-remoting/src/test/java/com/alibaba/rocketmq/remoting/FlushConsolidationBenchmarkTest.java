@@ -0,0 +1,152 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingClient;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 对比开启与关闭flush合并时的请求延迟分布，以及合并节省的flush（write系统调用）次数<br>
+ * 耗时较长，默认跳过，通过 -Drocketmq.remoting.benchmark=true 开启
+ */
+public class FlushConsolidationBenchmarkTest {
+    private static final int Threads = 16;
+    private static final int RequestsPerThread = 2000;
+    private static final int OnewayRequests = 20000;
+
+
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("rocketmq.remoting.benchmark"));
+
+        Result plain = this.run(false);
+        Result consolidated = this.run(true);
+
+        System.out.println("flush consolidation disabled: " + plain);
+        System.out.println("flush consolidation enabled:  " + consolidated);
+        // 同样的请求量，不合并时每次flush都是一次write系统调用
+        if (consolidated.flushRequested > 0) {
+            long saved = consolidated.flushRequested - consolidated.flushExecuted;
+            System.out.printf("flush syscalls saved: %d of %d (%.1f%%)%n", saved, consolidated.flushRequested,
+                100.0 * saved / consolidated.flushRequested);
+        }
+    }
+
+
+    private Result run(final boolean consolidate) throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        serverConfig.setServerFlushConsolidationEnable(consolidate);
+        final AtomicInteger onewayReceived = new AtomicInteger();
+        NettyRemotingServer server = new NettyRemotingServer(serverConfig);
+        ExecutorService serverExecutor = Executors.newFixedThreadPool(8);
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                if (request.isOnewayRPC()) {
+                    onewayReceived.incrementAndGet();
+                    return null;
+                }
+                return RemotingCommand.createResponseCommand(0, null);
+            }
+        }, serverExecutor);
+        server.start();
+
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setClientFlushConsolidationEnable(consolidate);
+        final NettyRemotingClient client = new NettyRemotingClient(clientConfig);
+        client.start();
+
+        final String addr = "127.0.0.1:" + server.localListenPort();
+        final byte[] body = new byte[128];
+        // 预热并建立连接
+        for (int i = 0; i < 1000; i++) {
+            client.invokeSync(addr, RemotingCommand.createRequestCommand(0, null), 3000);
+        }
+
+        final long[] latencies = new long[Threads * RequestsPerThread];
+        final CountDownLatch latch = new CountDownLatch(Threads);
+        final long begin = System.nanoTime();
+        for (int t = 0; t < Threads; t++) {
+            final int base = t * RequestsPerThread;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < RequestsPerThread; i++) {
+                            RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+                            request.setBody(body);
+                            long start = System.nanoTime();
+                            client.invokeSync(addr, request, 3000);
+                            latencies[base + i] = System.nanoTime() - start;
+                        }
+                    }
+                    catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+        final long elapsedNanos = System.nanoTime() - begin;
+
+        for (int i = 0; i < OnewayRequests; i++) {
+            RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+            request.setBody(body);
+            client.invokeOneway(addr, request, 3000);
+        }
+        for (int i = 0; i < 100 && onewayReceived.get() < OnewayRequests; i++) {
+            Thread.sleep(50);
+        }
+
+        Result result = new Result();
+        Arrays.sort(latencies);
+        result.p50 = latencies[latencies.length / 2];
+        result.p99 = latencies[(int) (latencies.length * 0.99)];
+        result.p999 = latencies[(int) (latencies.length * 0.999)];
+        result.tps = latencies.length * 1000000000L / elapsedNanos;
+        result.flushRequested = client.getFlushConsolidationStats().getFlushRequested()
+                + server.getFlushConsolidationStats().getFlushRequested();
+        result.flushExecuted = client.getFlushConsolidationStats().getFlushExecuted()
+                + server.getFlushConsolidationStats().getFlushExecuted();
+
+        client.shutdown();
+        server.shutdown();
+        serverExecutor.shutdown();
+        return result;
+    }
+
+    static class Result {
+        long p50;
+        long p99;
+        long p999;
+        long tps;
+        long flushRequested;
+        long flushExecuted;
+
+
+        @Override
+        public String toString() {
+            return String.format("tps=%d p50=%dus p99=%dus p999=%dus flushRequested=%d flushExecuted=%d",
+                tps, p50 / 1000, p99 / 1000, p999 / 1000, flushRequested, flushExecuted);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.netty.FlushConsolidationHandler;
+import com.alibaba.rocketmq.remoting.netty.FlushConsolidationStats;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+/**
+ * 用EmbeddedChannel验证flush合并：统计真正到达底层的flush次数
+ */
+public class FlushConsolidationHandlerTest {
+    static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int flushes;
+
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            this.flushes++;
+            ctx.flush();
+        }
+    }
+
+    static class EchoHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ctx.writeAndFlush(msg);
+        }
+    }
+
+
+    @Test
+    public void test_flush_deferred_to_read_complete() throws Exception {
+        FlushCounter counter = new FlushCounter();
+        FlushConsolidationHandler handler = new FlushConsolidationHandler(256, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(counter, handler, new EchoHandler());
+
+        for (int i = 0; i < 5; i++) {
+            channel.pipeline().fireChannelRead("request-" + i);
+        }
+        assertEquals(0, counter.flushes);
+
+        channel.pipeline().fireChannelReadComplete();
+        assertEquals(1, counter.flushes);
+        assertEquals(5, channel.outboundMessages().size());
+        assertEquals(5, handler.getFlushRequested());
+        assertEquals(1, handler.getFlushExecuted());
+
+        channel.finish();
+    }
+
+
+    @Test
+    public void test_flush_outside_read_coalesced() throws Exception {
+        FlushCounter counter = new FlushCounter();
+        FlushConsolidationHandler handler = new FlushConsolidationHandler(256, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(counter, handler);
+
+        for (int i = 0; i < 3; i++) {
+            channel.writeAndFlush("response-" + i);
+        }
+        assertEquals(0, counter.flushes);
+
+        // 事件循环执行完当前任务后统一flush一次
+        channel.runPendingTasks();
+        assertEquals(1, counter.flushes);
+        assertEquals(3, channel.outboundMessages().size());
+
+        channel.finish();
+    }
+
+
+    @Test
+    public void test_flush_when_max_flushes_reached() throws Exception {
+        FlushCounter counter = new FlushCounter();
+        FlushConsolidationHandler handler = new FlushConsolidationHandler(4, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(counter, handler);
+
+        for (int i = 0; i < 9; i++) {
+            channel.writeAndFlush("response-" + i);
+        }
+        assertEquals(2, counter.flushes);
+        assertEquals(8, channel.outboundMessages().size());
+
+        channel.runPendingTasks();
+        assertEquals(3, counter.flushes);
+        assertEquals(9, channel.outboundMessages().size());
+
+        channel.finish();
+    }
+
+
+    @Test
+    public void test_close_flush_pending() throws Exception {
+        FlushCounter counter = new FlushCounter();
+        FlushConsolidationHandler handler = new FlushConsolidationHandler(256, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(counter, handler);
+
+        channel.writeAndFlush("response");
+        assertEquals(0, counter.flushes);
+
+        channel.close();
+        assertEquals(1, counter.flushes);
+        assertEquals(1, channel.outboundMessages().size());
+    }
+
+
+    @Test
+    public void test_stats_shared_by_channels() throws Exception {
+        FlushConsolidationStats stats = new FlushConsolidationStats();
+        EmbeddedChannel channel1 = new EmbeddedChannel(new FlushConsolidationHandler(256, 0, stats));
+        EmbeddedChannel channel2 = new EmbeddedChannel(new FlushConsolidationHandler(256, 0, stats));
+
+        for (int i = 0; i < 3; i++) {
+            channel1.writeAndFlush("response-" + i);
+            channel2.writeAndFlush("response-" + i);
+        }
+        channel1.runPendingTasks();
+        channel2.runPendingTasks();
+
+        // 两个连接各3次flush请求，各合并为1次flush
+        assertEquals(6, stats.getFlushRequested());
+        assertEquals(2, stats.getFlushExecuted());
+
+        channel1.finish();
+        channel2.finish();
+    }
+}
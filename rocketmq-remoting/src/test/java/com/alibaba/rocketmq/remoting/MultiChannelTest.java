@@ -0,0 +1,123 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingClient;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 同一Broker地址建立多条连接，普通请求轮询，指定路由键的请求固定走一条连接
+ */
+public class MultiChannelTest {
+    @Test
+    public void test_round_robin_and_sticky() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(8898);
+        RemotingServer server = new NettyRemotingServer(serverConfig);
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                return RemotingCommand.createResponseCommand(0,
+                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+            }
+        }, Executors.newCachedThreadPool());
+        server.start();
+
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setClientChannelsPerAddr(3);
+        RemotingClient client = new NettyRemotingClient(clientConfig);
+        client.start();
+
+        Set<String> roundRobinPeers = new HashSet<String>();
+        for (int i = 0; i < 6; i++) {
+            RemotingCommand response =
+                    client.invokeSync("localhost:8898", RemotingCommand.createRequestCommand(0, null), 3000);
+            roundRobinPeers.add(response.getRemark());
+        }
+        assertEquals(3, roundRobinPeers.size());
+
+        String stickyPeer = null;
+        for (int i = 0; i < 6; i++) {
+            RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+            request.setShardingKey(7);
+            RemotingCommand response = client.invokeSync("localhost:8898", request, 3000);
+            if (stickyPeer != null) {
+                assertEquals(stickyPeer, response.getRemark());
+            }
+            stickyPeer = response.getRemark();
+        }
+
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    @Test
+    public void test_control_request_on_one_channel() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        RemotingServer server = new NettyRemotingServer(serverConfig);
+        // 模拟Broker按连接登记客户端
+        final Set<Channel> registeredChannels =
+                Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+        server.registerProcessor(1, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                registeredChannels.add(ctx.channel());
+                return RemotingCommand.createResponseCommand(0, null);
+            }
+        }, Executors.newCachedThreadPool());
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                return RemotingCommand.createResponseCommand(0,
+                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+            }
+        }, Executors.newCachedThreadPool());
+        server.start();
+        final String addr = "localhost:" + server.localListenPort();
+
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setClientChannelsPerAddr(3);
+        RemotingClient client = new NettyRemotingClient(clientConfig);
+        client.start();
+
+        Set<String> peers = new HashSet<String>();
+        for (int i = 0; i < 6; i++) {
+            RemotingCommand heartbeat = RemotingCommand.createRequestCommand(1, null);
+            heartbeat.setShardingKey(RemotingCommand.ControlChannelShardingKey);
+            client.invokeSync(addr, heartbeat, 3000);
+
+            RemotingCommand response =
+                    client.invokeSync(addr, RemotingCommand.createRequestCommand(0, null), 3000);
+            peers.add(response.getRemark());
+        }
+
+        // 普通请求分散在多条连接上，注册类请求只落在一条连接上
+        assertTrue(peers.size() > 1);
+        assertEquals(1, registeredChannels.size());
+
+        client.shutdown();
+        server.shutdown();
+    }
+}
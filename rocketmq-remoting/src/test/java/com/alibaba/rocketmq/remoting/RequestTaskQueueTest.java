@@ -0,0 +1,103 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.netty.RequestTask;
+import com.alibaba.rocketmq.remoting.netty.RequestTaskQueue;
+import com.alibaba.rocketmq.remoting.netty.RequestWaitTimeStats;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+public class RequestTaskQueueTest {
+    private static final Runnable Noop = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+
+    private static EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    }
+
+
+    private static RequestTask newTask(EmbeddedChannel channel, int code, RequestWaitTimeStats stats) {
+        return new RequestTask(Noop, channel, RemotingCommand.createRequestCommand(code, null), stats);
+    }
+
+
+    @Test
+    public void test_priority_and_fairness() throws InterruptedException {
+        RequestTaskQueue queue = new RequestTaskQueue(100, 0);
+        queue.registerPriority(34, RequestTaskQueue.PriorityHigh);
+
+        EmbeddedChannel busyClient = newChannel();
+        EmbeddedChannel quietClient = newChannel();
+
+        RequestTask b1 = newTask(busyClient, 10, null);
+        RequestTask b2 = newTask(busyClient, 10, null);
+        RequestTask b3 = newTask(busyClient, 10, null);
+        RequestTask q1 = newTask(quietClient, 10, null);
+        RequestTask heartbeat = newTask(quietClient, 34, null);
+
+        queue.offer(b1);
+        queue.offer(b2);
+        queue.offer(b3);
+        queue.offer(q1);
+        queue.offer(heartbeat);
+        assertEquals(5, queue.size());
+
+        // 高优先级先出，同优先级按连接轮询
+        assertSame(heartbeat, queue.poll());
+        assertSame(b1, queue.poll());
+        assertSame(q1, queue.poll());
+        assertSame(b2, queue.poll());
+        assertSame(b3, queue.poll(10, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+
+    @Test
+    public void test_capacity() {
+        RequestTaskQueue queue = new RequestTaskQueue(2, 0);
+        EmbeddedChannel channel = newChannel();
+        assertTrue(queue.offer(newTask(channel, 10, null)));
+        assertTrue(queue.offer(newTask(channel, 10, null)));
+        assertTrue(!queue.offer(newTask(channel, 10, null)));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+
+    @Test
+    public void test_expired_request_rejected() throws InterruptedException {
+        RequestWaitTimeStats stats = new RequestWaitTimeStats();
+        RequestTaskQueue queue = new RequestTaskQueue(100, 10);
+        EmbeddedChannel channel = newChannel();
+
+        RequestTask expired = newTask(channel, 10, stats);
+        queue.offer(expired);
+        Thread.sleep(50);
+        RequestTask fresh = newTask(channel, 10, stats);
+        queue.offer(fresh);
+
+        assertSame(fresh, queue.poll());
+        assertTrue(expired.isStopRun());
+        fresh.run();
+
+        RemotingCommand response = (RemotingCommand) channel.readOutbound();
+        assertEquals(RemotingSysResponseCode.SYSTEM_BUSY, response.getCode());
+        assertEquals(expired.getRequest().getOpaque(), response.getOpaque());
+        assertEquals(1, stats.getWaitTimeTable().get(10).getRejectedCount().get());
+        assertEquals(1, stats.getWaitTimeTable().get(10).getCount().get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingClient;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.netty.ResponseFuture;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 异步调用超时由时间轮触发，不再依赖每秒一次的responseTable扫描
+ */
+public class ResponseTimeoutTest {
+    @Test
+    public void test_async_timeout_precise() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        RemotingServer server = new NettyRemotingServer(serverConfig);
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                Thread.sleep(2000);
+                return null;
+            }
+        }, Executors.newCachedThreadPool());
+        server.start();
+        final String addr = "localhost:" + server.localListenPort();
+
+        RemotingClient client = new NettyRemotingClient(new NettyClientConfig());
+        client.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong elapsed = new AtomicLong();
+        final long begin = System.currentTimeMillis();
+        client.invokeAsync(addr, RemotingCommand.createRequestCommand(0, null), 300,
+            new InvokeCallback() {
+                @Override
+                public void operationComplete(ResponseFuture responseFuture) {
+                    elapsed.set(System.currentTimeMillis() - begin);
+                    latch.countDown();
+                }
+            });
+
+        assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(elapsed.get() >= 300);
+        assertFalse(elapsed.get() > 900);
+
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    @Test
+    public void test_shutdown_fail_pending() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        RemotingServer server = new NettyRemotingServer(serverConfig);
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                Thread.sleep(2000);
+                return null;
+            }
+        }, Executors.newCachedThreadPool());
+        server.start();
+        final String addr = "localhost:" + server.localListenPort();
+
+        RemotingClient client = new NettyRemotingClient(new NettyClientConfig());
+        client.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.invokeAsync(addr, RemotingCommand.createRequestCommand(0, null), 30000,
+            new InvokeCallback() {
+                @Override
+                public void operationComplete(ResponseFuture responseFuture) {
+                    latch.countDown();
+                }
+            });
+
+        // 时间轮随客户端一起停止，未完成的请求必须立即得到回调
+        client.shutdown();
+        assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+
+        server.shutdown();
+    }
+}
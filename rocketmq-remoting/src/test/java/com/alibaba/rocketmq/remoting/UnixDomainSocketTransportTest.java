@@ -0,0 +1,97 @@
+package com.alibaba.rocketmq.remoting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingClient;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+
+
+/**
+ * 同机部署时，客户端连接本机地址自动改走服务端监听的本地域套接字
+ */
+public class UnixDomainSocketTransportTest {
+    @Test
+    public void test_invoke_over_domain_socket() throws Exception {
+        assumeTrue(RemotingUtil.isEpollAvailable());
+
+        File dir = File.createTempFile("rocketmq-uds", "");
+        dir.delete();
+        dir.mkdirs();
+
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        serverConfig.setUnixDomainSocketDir(dir.getPath());
+        RemotingServer server = new NettyRemotingServer(serverConfig);
+        server.registerProcessor(0, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                return RemotingCommand.createResponseCommand(0, ctx.channel().getClass().getSimpleName()
+                        + "," + RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+            }
+        }, Executors.newCachedThreadPool());
+        server.start();
+        File socketFile = new File(RemotingUtil.unixDomainSocketPath(dir.getPath(), server.localListenPort()));
+        assertTrue(socketFile.exists());
+
+        NettyClientConfig clientConfig = new NettyClientConfig();
+        clientConfig.setUnixDomainSocketDir(dir.getPath());
+        RemotingClient client = new NettyRemotingClient(clientConfig);
+        client.start();
+
+        RemotingCommand response = client.invokeSync("127.0.0.1:" + server.localListenPort(),
+            RemotingCommand.createRequestCommand(0, null), 3000);
+        assertTrue(response.getRemark(),
+            response.getRemark().startsWith(EpollDomainSocketChannel.class.getSimpleName() + ",127.0.0.1:"));
+        assertFalse(response.getRemark().endsWith(":0"));
+
+        client.shutdown();
+        server.shutdown();
+        assertFalse(socketFile.exists());
+        dir.delete();
+    }
+
+
+    @Test
+    public void test_remote_address_of_non_inet_channel() {
+        // 没有IP地址的连接视为本机连接，Broker据此填写bornHost，每条连接的端口不同
+        EmbeddedChannel channel1 = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        EmbeddedChannel channel2 = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        final String addr1 = RemotingHelper.parseChannelRemoteAddr(channel1);
+        final String addr2 = RemotingHelper.parseChannelRemoteAddr(channel2);
+        assertTrue(addr1, addr1.startsWith("127.0.0.1:"));
+        assertTrue(addr2, addr2.startsWith("127.0.0.1:"));
+        assertFalse(addr1.equals(addr2));
+        assertEquals(addr1, RemotingHelper.parseChannelRemoteAddr(channel1));
+        assertTrue(RemotingHelper.parseChannelRemoteInetAddr(channel1).getPort() > 0);
+        channel1.finish();
+        channel2.finish();
+    }
+
+
+    @Test
+    public void test_local_address() throws Exception {
+        assertTrue(RemotingUtil.isLocalAddress(InetAddress.getByName("127.0.0.1")));
+        assertFalse(RemotingUtil.isLocalAddress(InetAddress.getByName("192.0.2.1")));
+        assertTrue(RemotingUtil.unixDomainSocketPath("/tmp", 10911).endsWith("rocketmq-10911.sock"));
+    }
+}
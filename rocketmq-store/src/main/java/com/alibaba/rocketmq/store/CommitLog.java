@@ -39,6 +39,7 @@ import com.alibaba.rocketmq.store.config.BrokerRole;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 
 
 /**
@@ -350,6 +351,15 @@ public class CommitLog {
                                 .computeDeliverTimestamp(delayLevel, storeTimestamp);
                         }
                     }
+
+                    // 任意时间定时消息，tagsCode为投递时间
+                    if (TimerMessageService.TIMER_TOPIC.equals(topic)) {
+                        long deliverTimestamp = TimerMessageService.parseDeliverTimestamp(
+                            propertiesMap.get(MessageConst.PROPERTY_START_DELIVER_TIME));
+                        if (deliverTimestamp > 0) {
+                            tagsCode = deliverTimestamp;
+                        }
+                    }
                 }
             }
 
@@ -539,6 +549,33 @@ public class CommitLog {
                 msg.setTopic(topic);
                 msg.setQueueId(queueId);
             }
+            // 任意时间定时消息
+            else if (this.defaultMessageStore.getTimerMessageService() != null) {
+                long deliverTimestamp = TimerMessageService
+                    .parseDeliverTimestamp(msg.getProperty(MessageConst.PROPERTY_START_DELIVER_TIME));
+                long now = System.currentTimeMillis();
+                if (deliverTimestamp > now) {
+                    if (deliverTimestamp - now > this.defaultMessageStore.getMessageStoreConfig()
+                        .getTimerMaxDelaySeconds() * 1000L) {
+                        log.warn("timer message deliver time exceeds the max delay, topic: " + msg.getTopic()
+                                + " deliverTimestamp: " + deliverTimestamp);
+                        return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+                    }
+
+                    topic = TimerMessageService.TIMER_TOPIC;
+                    queueId = 0;
+                    tagsCode = deliverTimestamp;
+
+                    // Backup real topic, queueId
+                    MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_TOPIC, msg.getTopic());
+                    MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_QUEUE_ID,
+                        String.valueOf(msg.getQueueId()));
+                    msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+                    msg.setTopic(topic);
+                    msg.setQueueId(queueId);
+                }
+            }
         }
 
         long eclipseTimeInLock = 0;
@@ -548,52 +585,11 @@ public class CommitLog {
             // 这里设置存储时间戳，以确保有序
             // global
             msg.setStoreTimestamp(beginLockTimestamp);
-            // 获取最新的mapedfile
-            MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
-            if (null == mapedFile) {
-                log.error("create maped file1 error, topic: " + msg.getTopic() + " clientAddr: "
-                        + msg.getBornHostString());
-                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
-            }
-            result = mapedFile.appendMessage(msg, this.appendMessageCallback);
-            switch (result.getStatus()) {
-            case PUT_OK:
-                break;
-            case END_OF_FILE:
-                // Create a new file, re-write the message
-                mapedFile = this.mapedFileQueue.getLastMapedFile();
-                if (null == mapedFile) {
-                    // XXX: warn and notify me
-                    log.error("create maped file2 error, topic: " + msg.getTopic() + " clientAddr: "
-                            + msg.getBornHostString());
-                    return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
-                }
-                result = mapedFile.appendMessage(msg, this.appendMessageCallback);
-                break;
-            case MESSAGE_SIZE_EXCEEDED:
-                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
-            case UNKNOWN_ERROR:
-                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
-            default:
-                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            PutMessageResult appendResult = this.appendMessageInLock(msg, topic, queueId, tagsCode);
+            if (appendResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                return appendResult;
             }
-
-            DispatchRequest dispatchRequest = new DispatchRequest(//
-                topic, // 1
-                queueId, // 2
-                result.getWroteOffset(), // 3
-                result.getWroteBytes(), // 4
-                tagsCode, // 5
-                msg.getStoreTimestamp(), // 6
-                result.getLogicsOffset(), // 7
-                msg.getKeys(), // 8
-                /**
-                 * Transaction
-                 */
-                msg.getSysFlag(), // 9
-                msg.getPreparedTransactionOffset());// 10
-
-            this.defaultMessageStore.putDispatchRequest(dispatchRequest);
+            result = appendResult.getAppendMessageResult();
 
             eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
         } // end of synchronized
@@ -615,9 +611,11 @@ public class CommitLog {
             GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
             if (msg.isWaitStoreMsgOK()) {
                 request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+                final long beginWaitTime = System.nanoTime();
                 service.putRequest(request);
                 boolean flushOK = request
                     .waitForFlush(this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
+                storeStatsService.recordFlushLatency((System.nanoTime() - beginWaitTime) / 1000);
                 if (!flushOK) {
                     log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic() + " tags: "
                             + msg.getTags() + " client address: " + msg.getBornHostString());
@@ -642,6 +640,7 @@ public class CommitLog {
                     if (null == request) {
                         request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
                     }
+                    final long beginWaitTime = System.nanoTime();
                     service.putRequest(request);
 
                     service.getWaitNotifyObject().wakeupAll();
@@ -650,6 +649,7 @@ public class CommitLog {
                             // TODO
                             request.waitForFlush(
                                 this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
+                    storeStatsService.recordHAWaitLatency((System.nanoTime() - beginWaitTime) / 1000);
                     if (!flushOK) {
                         log.error("do sync transfer other node, wait return, but failed, topic: "
                                 + msg.getTopic() + " tags: " + msg.getTags() + " client address: "
@@ -669,6 +669,121 @@ public class CommitLog {
     }
 
 
+    /**
+     * 批量写入消息，整批只加一次锁，写入后唤醒一次刷盘线程<br>
+     * 用于定时消息到期后的批量投递，消息不再做延时处理，也不等待刷盘与同步双写<br>
+     * 除单条消息不合法外，遇到写入失败即停止，后面的消息不再写入并返回相同的失败状态，
+     * 调用方从第一条失败的消息开始重试即可，不会重复写入
+     */
+    public List<PutMessageResult> putMessages(final List<MessageExtBrokerInner> msgs) {
+        List<PutMessageResult> results = new ArrayList<PutMessageResult>(msgs.size());
+        for (MessageExtBrokerInner msg : msgs) {
+            msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
+        }
+
+        long eclipseTimeInLock = 0;
+        synchronized (this) {
+            long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            PutMessageStatus failedStatus = null;
+            for (MessageExtBrokerInner msg : msgs) {
+                if (failedStatus != null) {
+                    results.add(new PutMessageResult(failedStatus, null));
+                    continue;
+                }
+
+                msg.setStoreTimestamp(this.defaultMessageStore.getSystemClock().now());
+                PutMessageResult result =
+                        this.appendMessageInLock(msg, msg.getTopic(), msg.getQueueId(), msg.getTagsCode());
+                results.add(result);
+                if (result.getPutMessageStatus() != PutMessageStatus.PUT_OK
+                        && result.getPutMessageStatus() != PutMessageStatus.MESSAGE_ILLEGAL) {
+                    failedStatus = result.getPutMessageStatus();
+                }
+            }
+            eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+        } // end of synchronized
+
+        if (eclipseTimeInLock > 1000) {
+            // XXX: warn and notify me
+            log.warn("putMessages in lock eclipse time(ms) " + eclipseTimeInLock + ", size " + msgs.size());
+        }
+
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        for (int i = 0; i < results.size(); i++) {
+            AppendMessageResult result = results.get(i).getAppendMessageResult();
+            if (results.get(i).getPutMessageStatus() == PutMessageStatus.PUT_OK) {
+                storeStatsService.getSinglePutMessageTopicSizeTotal(msgs.get(i).getTopic())
+                    .addAndGet(result.getWroteBytes());
+            }
+        }
+
+        if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
+            ((GroupCommitService) this.flushCommitLogService).wakeup();
+        }
+        else {
+            this.flushCommitLogService.wakeup();
+        }
+
+        return results;
+    }
+
+
+    /**
+     * 在锁内将消息追加到最后一个文件，文件写满则新建文件重写，成功后分发到消费队列与索引
+     */
+    private PutMessageResult appendMessageInLock(final MessageExtBrokerInner msg, final String topic,
+            final int queueId, final long tagsCode) {
+        // 获取最新的mapedfile
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            log.error("create maped file1 error, topic: " + msg.getTopic() + " clientAddr: "
+                    + msg.getBornHostString());
+            return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+        }
+        AppendMessageResult result = mapedFile.appendMessage(msg, this.appendMessageCallback);
+        switch (result.getStatus()) {
+        case PUT_OK:
+            break;
+        case END_OF_FILE:
+            // Create a new file, re-write the message
+            mapedFile = this.mapedFileQueue.getLastMapedFile();
+            if (null == mapedFile) {
+                // XXX: warn and notify me
+                log.error("create maped file2 error, topic: " + msg.getTopic() + " clientAddr: "
+                        + msg.getBornHostString());
+                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+            }
+            result = mapedFile.appendMessage(msg, this.appendMessageCallback);
+            break;
+        case MESSAGE_SIZE_EXCEEDED:
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+        case UNKNOWN_ERROR:
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+        default:
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+        }
+
+        DispatchRequest dispatchRequest = new DispatchRequest(//
+            topic, // 1
+            queueId, // 2
+            result.getWroteOffset(), // 3
+            result.getWroteBytes(), // 4
+            tagsCode, // 5
+            msg.getStoreTimestamp(), // 6
+            result.getLogicsOffset(), // 7
+            msg.getKeys(), // 8
+            /**
+             * Transaction
+             */
+            msg.getSysFlag(), // 9
+            msg.getPreparedTransactionOffset());// 10
+
+        this.defaultMessageStore.putDispatchRequest(dispatchRequest);
+
+        return new PutMessageResult(PutMessageStatus.PUT_OK, result);
+    }
+
+
     /**
      * According to receive certain message or offset storage time if an error
      * occurs, it returns -1
@@ -784,8 +899,14 @@ public class CommitLog {
                     if (printFlushProgress) {
                         this.printFlushProgress();
                     }
-                    // 刷盘
-                    CommitLog.this.mapedFileQueue.commit(flushPhysicQueueLeastPages);
+                    // 刷盘，异步刷盘统计每次刷盘的耗时，没有数据刷盘时不统计，避免拉低耗时分布
+                    final long beginFlushTime = System.nanoTime();
+                    final boolean nothingFlushed =
+                            CommitLog.this.mapedFileQueue.commit(flushPhysicQueueLeastPages);
+                    if (!nothingFlushed) {
+                        CommitLog.this.defaultMessageStore.getStoreStatsService()
+                            .recordFlushLatency((System.nanoTime() - beginFlushTime) / 1000);
+                    }
                     long storeTimestamp = CommitLog.this.mapedFileQueue.getStoreTimestamp();
                     if (storeTimestamp > 0) {
                         CommitLog.this.defaultMessageStore.getStoreCheckpoint()
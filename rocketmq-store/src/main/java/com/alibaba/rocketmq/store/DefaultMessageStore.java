@@ -50,6 +50,7 @@ import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.index.IndexService;
 import com.alibaba.rocketmq.store.index.QueryOffsetResult;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 import com.alibaba.rocketmq.store.stats.BrokerStatsManager;
 
 
@@ -87,6 +88,8 @@ public class DefaultMessageStore implements MessageStore {
     private final HAService haService;
     // 定时服务
     private final ScheduleMessageService scheduleMessageService;
+    // 任意时间定时消息服务，只在Master上开启
+    private final TimerMessageService timerMessageService;
     // 运行时数据统计
     private final StoreStatsService storeStatsService;
     // 运行过程标志位
@@ -103,6 +106,10 @@ public class DefaultMessageStore implements MessageStore {
     private final ScheduledExecutorService scheduledExecutorService =
             Executors.newSingleThreadScheduledExecutor(new ThreadFactoryImpl("StoreScheduledThread"));
     private final BrokerStatsManager brokerStatsManager;
+    // 消息写入ConsumeQueue后的通知
+    private volatile MessageArrivingListener messageArrivingListener;
+    // 冷数据预读服务
+    private final ReadAheadService readAheadService;
 
 
     public DefaultMessageStore(final MessageStoreConfig messageStoreConfig,
@@ -123,6 +130,8 @@ public class DefaultMessageStore implements MessageStore {
         this.storeStatsService = new StoreStatsService();
         this.indexService = new IndexService(this);
         this.haService = new HAService(this);
+        this.readAheadService =
+                messageStoreConfig.isReadAheadEnable() ? new ReadAheadService(this) : null;
 
         switch (this.messageStoreConfig.getBrokerRole()) {
         case SLAVE:
@@ -140,6 +149,10 @@ public class DefaultMessageStore implements MessageStore {
             this.scheduleMessageService = null;
         }
 
+        this.timerMessageService =
+                messageStoreConfig.isTimerEnable() && messageStoreConfig.getBrokerRole() != SLAVE
+                        ? new TimerMessageService(this) : null;
+
         // load过程依赖此服务，所以提前启动
         this.allocateMapedFileService.start();
         this.dispatchMessageService.start();
@@ -186,6 +199,11 @@ public class DefaultMessageStore implements MessageStore {
             // 加载 Consume Queue
             result = result && this.loadConsumeQueue();
 
+            // 加载时间轮
+            if (null != this.timerMessageService) {
+                result = result && this.timerMessageService.load();
+            }
+
             if (result) {
                 this.storeCheckpoint = new StoreCheckpoint(
                     StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
@@ -220,6 +238,22 @@ public class DefaultMessageStore implements MessageStore {
             }
         }, 1000 * 60, this.messageStoreConfig.getCleanResourceInterval(), TimeUnit.MILLISECONDS);
 
+        // 定时清除长时间没有拉取的预读状态
+        if (this.readAheadService != null) {
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DefaultMessageStore.this.readAheadService
+                            .cleanIdleState(ReadAheadService.StateIdleMillis);
+                    }
+                    catch (Throwable e) {
+                        log.warn("cleanIdleState exception", e);
+                    }
+                }
+            }, 1, 1, TimeUnit.MINUTES);
+        }
+
         // 定时清理完全不使用的队列
         // this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
         // @Override
@@ -245,7 +279,8 @@ public class DefaultMessageStore implements MessageStore {
         while (it.hasNext()) {
             Entry<String, ConcurrentHashMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
-            if (!topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                    && !topic.equals(TimerMessageService.TIMER_TOPIC)) {
                 ConcurrentHashMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 Iterator<Entry<Integer, ConsumeQueue>> itQT = queueTable.entrySet().iterator();
                 while (itQT.hasNext()) {
@@ -305,6 +340,10 @@ public class DefaultMessageStore implements MessageStore {
             this.scheduleMessageService.start();
         }
 
+        if (this.timerMessageService != null) {
+            this.timerMessageService.start();
+        }
+
         if (this.reputMessageService != null) {
             this.reputMessageService.setReputFromOffset(this.commitLog.getMaxOffset());
             this.reputMessageService.start();
@@ -339,8 +378,16 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService.shutdown();
             }
 
+            if (this.timerMessageService != null) {
+                this.timerMessageService.shutdown();
+            }
+
             this.haService.shutdown();
 
+            if (this.readAheadService != null) {
+                this.readAheadService.shutdown();
+            }
+
             this.storeStatsService.shutdown();
             this.dispatchMessageService.shutdown();
             this.indexService.shutdown();
@@ -443,6 +490,90 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public List<PutMessageResult> putMessages(List<MessageExtBrokerInner> msgs) {
+        List<PutMessageResult> results = new ArrayList<PutMessageResult>(msgs.size());
+        if (this.shutdown) {
+            log.warn("message store has shutdown, so putMessages is forbidden");
+            return this.fillPutMessageResults(results, msgs.size(), PutMessageStatus.SERVICE_NOT_AVAILABLE);
+        }
+
+        if (BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()) {
+            long value = this.printTimes.getAndIncrement();
+            if ((value % 50000) == 0) {
+                log.warn("message store is slave mode, so putMessages is forbidden ");
+            }
+
+            return this.fillPutMessageResults(results, msgs.size(), PutMessageStatus.SERVICE_NOT_AVAILABLE);
+        }
+
+        if (!this.runningFlags.isWriteable()) {
+            long value = this.printTimes.getAndIncrement();
+            if ((value % 50000) == 0) {
+                log.warn("message store is not writeable, so putMessages is forbidden "
+                        + this.runningFlags.getFlagBits());
+            }
+
+            return this.fillPutMessageResults(results, msgs.size(), PutMessageStatus.SERVICE_NOT_AVAILABLE);
+        }
+        else {
+            this.printTimes.set(0);
+        }
+
+        // 不合法的消息单独返回失败，其余消息批量写入
+        List<MessageExtBrokerInner> legalMsgs = new ArrayList<MessageExtBrokerInner>(msgs.size());
+        for (MessageExtBrokerInner msg : msgs) {
+            if (msg.getTopic().length() > Byte.MAX_VALUE) {
+                log.warn("putMessages message topic length too long " + msg.getTopic().length());
+            }
+            else if (msg.getPropertiesString() != null
+                    && msg.getPropertiesString().length() > Short.MAX_VALUE) {
+                log.warn("putMessages message properties length too long "
+                        + msg.getPropertiesString().length());
+            }
+            else {
+                legalMsgs.add(msg);
+            }
+        }
+
+        long beginTime = this.getSystemClock().now();
+        List<PutMessageResult> legalResults = legalMsgs.isEmpty() ? new ArrayList<PutMessageResult>()
+                : this.commitLog.putMessages(legalMsgs);
+        long eclipseTime = this.getSystemClock().now() - beginTime;
+        if (eclipseTime > 1000) {
+            log.warn("putMessages not in lock eclipse time(ms) " + eclipseTime + ", size " + msgs.size());
+        }
+        this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+
+        int legalIndex = 0;
+        for (MessageExtBrokerInner msg : msgs) {
+            PutMessageResult result = null;
+            if (legalIndex < legalMsgs.size() && legalMsgs.get(legalIndex) == msg) {
+                result = legalResults.get(legalIndex++);
+            }
+            else {
+                result = new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            }
+
+            this.storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
+            if (!result.isOk()) {
+                this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
+            }
+            results.add(result);
+        }
+
+        return results;
+    }
+
+
+    private List<PutMessageResult> fillPutMessageResults(final List<PutMessageResult> results, final int size,
+            final PutMessageStatus status) {
+        for (int i = 0; i < size; i++) {
+            results.add(new PutMessageResult(status, null));
+        }
+        return results;
+    }
+
+
     public SystemClock getSystemClock() {
         return systemClock;
     }
@@ -549,7 +680,7 @@ public class DefaultMessageStore implements MessageStore {
                                     nextPhyFileStartOffset = Long.MIN_VALUE;
 
                                     // 统计读取磁盘落后情况
-                                    if (diskFallRecorded) {
+                                    if (!diskFallRecorded && brokerStatsManager != null) {
                                         diskFallRecorded = true;
                                         long fallBehind = consumeQueue.getMaxPhysicOffset() - offsetPy;
                                         brokerStatsManager.recordDiskFallBehind(group, topic, queueId,
@@ -584,6 +715,12 @@ public class DefaultMessageStore implements MessageStore {
                         long memory = (long) (StoreUtil.TotalPhysicalMemorySize
                                 * (this.messageStoreConfig.getAccessMessageInMemoryMaxRatio() / 100.0));
                         getResult.setSuggestPullingFromSlave(diff > memory);
+
+                        // 顺序拉取磁盘上的数据时，提前预读后续区域
+                        if (this.readAheadService != null && GetMessageStatus.FOUND == status) {
+                            this.readAheadService.onMessagePulled(group, topic, queueId, offset,
+                                nextBeginOffset, maxPhyOffsetPulling, diff > memory);
+                        }
                     }
                     finally {
                         // 必须释放资源
@@ -729,6 +866,15 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.buildRunningStats(result);
             }
+
+            if (this.timerMessageService != null) {
+                this.timerMessageService.buildRunningStats(result);
+            }
+        }
+
+        // 冷数据预读
+        if (this.readAheadService != null) {
+            result.put("readAheadBytes", String.valueOf(this.readAheadService.getReadAheadBytes()));
         }
 
         result.put(RunningStats.commitLogMinOffset.name(),
@@ -1169,6 +1315,11 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public void setMessageArrivingListener(MessageArrivingListener messageArrivingListener) {
+        this.messageArrivingListener = messageArrivingListener;
+    }
+
+
     public void putDispatchRequest(final DispatchRequest dispatchRequest) {
         this.dispatchMessageService.putRequest(dispatchRequest);
     }
@@ -1214,6 +1365,11 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public TimerMessageService getTimerMessageService() {
+        return timerMessageService;
+    }
+
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
@@ -1637,9 +1793,30 @@ public class DefaultMessageStore implements MessageStore {
         }
 
 
+        /**
+         * 通知异常不能中断分发，否则本批后续消息不会写入ConsumeQueue，且整批会被重复分发
+         */
+        private void notifyMessageArriving(final DispatchRequest req) {
+            MessageArrivingListener listener = DefaultMessageStore.this.messageArrivingListener;
+            if (listener != null) {
+                try {
+                    listener.arriving(req.getTopic(), req.getQueueId(), req.getConsumeQueueOffset() + 1);
+                }
+                catch (Throwable e) {
+                    DefaultMessageStore.log.warn("notify message arriving exception, " + req.getTopic()
+                            + " " + req.getQueueId(), e);
+                }
+            }
+        }
+
+
         private void doDispatch() {
             if (!this.requestsRead.isEmpty()) {
+                // 统计消息从写入CommitLog到分发的延迟
+                final long now = System.currentTimeMillis();
                 for (DispatchRequest req : this.requestsRead) {
+                    DefaultMessageStore.this.storeStatsService
+                        .recordDispatchLatency((now - req.getStoreTimestamp()) * 1000);
 
                     final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
                     // 1、分发消息位置信息到ConsumeQueue
@@ -1650,6 +1827,8 @@ public class DefaultMessageStore implements MessageStore {
                         DefaultMessageStore.this.putMessagePostionInfo(req.getTopic(), req.getQueueId(),
                             req.getCommitLogOffset(), req.getMsgSize(), req.getTagsCode(),
                             req.getStoreTimestamp(), req.getConsumeQueueOffset());
+                        // 唤醒等待该队列的拉消息请求
+                        this.notifyMessageArriving(req);
                         break;
                     case MessageSysFlag.TransactionPreparedType:
                     case MessageSysFlag.TransactionRollbackType:
@@ -1843,7 +2022,8 @@ public class DefaultMessageStore implements MessageStore {
             Entry<String, ConcurrentHashMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
             // Topic可以删除
-            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                    && !topic.equals(TimerMessageService.TIMER_TOPIC)) {
                 ConcurrentHashMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 for (ConsumeQueue cq : queueTable.values()) {
                     cq.destroy();
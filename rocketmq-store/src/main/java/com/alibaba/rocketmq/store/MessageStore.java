@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.store;
 
 import java.net.SocketAddress;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -62,6 +63,12 @@ public interface MessageStore {
     public PutMessageResult putMessage(final MessageExtBrokerInner msg);
 
 
+    /**
+     * 批量存储消息，整批只加一次锁，返回结果与消息一一对应
+     */
+    public List<PutMessageResult> putMessages(final List<MessageExtBrokerInner> msgs);
+
+
     /**
      * 读取消息，如果types为null，则不做过滤
      */
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+
+
+/**
+ * 冷数据预读<br>
+ * 识别按顺序消费的订阅组/队列，在单独的IO线程中提前访问后续CommitLog区域的每个页，
+ * 让缺页中断发生在预读线程里，而不是阻塞拉消息线程
+ */
+public class ReadAheadService {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    private static final String KEY_SEPARATOR = "@";
+    // 超过这个时间没有拉取的队列，清除预读状态
+    public static final long StateIdleMillis = 1000 * 60 * 2;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final ConcurrentHashMap<String/* group@topic@queueId */, ReadAheadState> stateTable =
+            new ConcurrentHashMap<String, ReadAheadState>(256);
+    private final ThreadPoolExecutor readAheadExecutor;
+    // 累计预读的字节数
+    private final AtomicLong readAheadBytes = new AtomicLong(0);
+
+
+    public ReadAheadService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        final int threads = defaultMessageStore.getMessageStoreConfig().getReadAheadThreadPoolNums();
+        // 队列满时直接丢弃，预读只是优化
+        this.readAheadExecutor = new ThreadPoolExecutor(threads, threads, 1000 * 60, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(1024), new ThreadFactoryImpl("ReadAheadThread_"),
+            new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+
+    /**
+     * 拉消息结束后调用
+     * 
+     * @param offset
+     *            本次拉取的起始逻辑Offset
+     * @param nextBeginOffset
+     *            下次拉取的起始逻辑Offset
+     * @param phyOffset
+     *            本次拉取到的最后一条消息的物理Offset
+     * @param inDisk
+     *            本次拉取的数据是否已经不在内存中
+     */
+    public void onMessagePulled(final String group, final String topic, final int queueId,
+            final long offset, final long nextBeginOffset, final long phyOffset, final boolean inDisk) {
+        final String key = group + KEY_SEPARATOR + topic + KEY_SEPARATOR + queueId;
+        if (!inDisk) {
+            // 已经追上内存中的数据，不再需要预读
+            if (!this.stateTable.isEmpty()) {
+                this.stateTable.remove(key);
+            }
+            return;
+        }
+
+        ReadAheadState state = this.stateTable.get(key);
+        if (null == state) {
+            state = new ReadAheadState();
+            ReadAheadState prev = this.stateTable.putIfAbsent(key, state);
+            if (prev != null) {
+                state = prev;
+            }
+        }
+
+        state.lastPullTimestamp = System.currentTimeMillis();
+        // 只对顺序拉取的队列预读，第一次拉取或者Offset跳跃时只记录位置
+        final boolean sequential = state.nextBeginOffset == offset;
+        state.nextBeginOffset = nextBeginOffset;
+        if (!sequential) {
+            state.readAheadPhyOffset = phyOffset;
+            return;
+        }
+
+        final long readAheadSize = this.defaultMessageStore.getMessageStoreConfig().getReadAheadSizeBytes();
+        // 已预读的数据还剩一半以上时不补
+        if (state.readAheadPhyOffset - phyOffset > readAheadSize / 2) {
+            return;
+        }
+
+        final long begin = Math.max(phyOffset, state.readAheadPhyOffset);
+        final long end =
+                Math.min(phyOffset + readAheadSize, this.defaultMessageStore.getCommitLog().getMaxOffset());
+        if (begin >= end || !state.running.compareAndSet(false, true)) {
+            return;
+        }
+
+        state.readAheadPhyOffset = end;
+        final ReadAheadState runningState = state;
+        try {
+            this.readAheadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ReadAheadService.this.readAheadBytes.addAndGet(
+                            ReadAheadService.this.touchPages(begin, end));
+                    }
+                    catch (Throwable e) {
+                        log.warn("read ahead commitlog exception", e);
+                    }
+                    finally {
+                        runningState.running.set(false);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            runningState.running.set(false);
+        }
+    }
+
+
+    /**
+     * 逐页访问[begin, end)区间，触发缺页加载
+     */
+    private long touchPages(final long begin, final long end) {
+        long pos = begin;
+        long touched = 0;
+        while (pos < end) {
+            SelectMapedBufferResult result = this.defaultMessageStore.getCommitLog().getData(pos, false);
+            if (null == result) {
+                break;
+            }
+
+            try {
+                ByteBuffer byteBuffer = result.getByteBuffer();
+                final int len = (int) Math.min(byteBuffer.limit(), end - pos);
+                if (len <= 0) {
+                    break;
+                }
+                for (int i = 0; i < len; i += MapedFile.OS_PAGE_SIZE) {
+                    byteBuffer.get(i);
+                }
+                pos += len;
+                touched += len;
+            }
+            finally {
+                result.release();
+            }
+        }
+        return touched;
+    }
+
+
+    /**
+     * 清除超过idleMillis没有拉取的队列，例如Consumer下线或者Topic被删除
+     * 
+     * @return 清除的队列数
+     */
+    public int cleanIdleState(final long idleMillis) {
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        Iterator<Entry<String, ReadAheadState>> it = this.stateTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, ReadAheadState> next = it.next();
+            if (now - next.getValue().lastPullTimestamp > idleMillis) {
+                it.remove();
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            log.info("cleanIdleState remove {} idle read ahead state", removed);
+        }
+        return removed;
+    }
+
+
+    public void shutdown() {
+        this.readAheadExecutor.shutdown();
+    }
+
+
+    public long getReadAheadBytes() {
+        return readAheadBytes.get();
+    }
+
+
+    public int getStateCount() {
+        return stateTable.size();
+    }
+
+    static class ReadAheadState {
+        // 期望的下一次拉取Offset，用来识别顺序消费
+        volatile long nextBeginOffset = -1;
+        // 已经预读到的物理Offset
+        volatile long readAheadPhyOffset = 0;
+        // 最后一次拉取的时间，用于清除空闲队列
+        volatile long lastPullTimestamp = System.currentTimeMillis();
+        final AtomicBoolean running = new AtomicBoolean(false);
+    }
+}
@@ -28,6 +28,8 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.stats.LatencyHistogram;
+import com.alibaba.rocketmq.common.stats.LatencySnapshot;
 
 
 /**
@@ -79,6 +81,14 @@ public class StoreStatsService extends ServiceThread {
     // 针对采样线程加锁
     private ReentrantLock lockSampling = new ReentrantLock();
     private long lastPrintTimestamp = System.currentTimeMillis();
+    // 刷盘、同步双写等待、消息分发的延迟分布，单位微秒
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final LatencyHistogram haWaitLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    // 上一个打印周期的延迟分布
+    private volatile LatencySnapshot flushLatencyInMinute = new LatencySnapshot();
+    private volatile LatencySnapshot haWaitLatencyInMinute = new LatencySnapshot();
+    private volatile LatencySnapshot dispatchLatencyInMinute = new LatencySnapshot();
 
 
     public StoreStatsService() {
@@ -456,6 +466,9 @@ public class StoreStatsService extends ServiceThread {
         result.put("getMissTps", String.valueOf(this.getGetMissTps()));
         result.put("getTotalTps", String.valueOf(this.getGetTotalTps()));
         result.put("getTransferedTps", String.valueOf(this.getGetTransferedTps()));
+        result.put("flushLatencyInMinute", this.flushLatencyInMinute.toString());
+        result.put("haWaitLatencyInMinute", this.haWaitLatencyInMinute.toString());
+        result.put("dispatchLatencyInMinute", this.dispatchLatencyInMinute.toString());
 
         return result;
     }
@@ -528,10 +541,47 @@ public class StoreStatsService extends ServiceThread {
             log.info("get_miss_tps {}", this.getGetMissTps(PrintTPSInterval));
 
             log.info("get_transfered_tps {}", this.getGetTransferedTps(PrintTPSInterval));
+
+            this.flushLatencyInMinute = this.flushLatency.snapshotAndReset();
+            this.haWaitLatencyInMinute = this.haWaitLatency.snapshotAndReset();
+            this.dispatchLatencyInMinute = this.dispatchLatency.snapshotAndReset();
+            log.info("flush_latency {}", this.flushLatencyInMinute);
+            log.info("ha_wait_latency {}", this.haWaitLatencyInMinute);
+            log.info("dispatch_latency {}", this.dispatchLatencyInMinute);
         }
     }
 
 
+    public void recordFlushLatency(final long latencyMicros) {
+        this.flushLatency.record(latencyMicros);
+    }
+
+
+    public void recordHAWaitLatency(final long latencyMicros) {
+        this.haWaitLatency.record(latencyMicros);
+    }
+
+
+    public void recordDispatchLatency(final long latencyMicros) {
+        this.dispatchLatency.record(latencyMicros);
+    }
+
+
+    public LatencySnapshot getFlushLatencyInMinute() {
+        return flushLatencyInMinute;
+    }
+
+
+    public LatencySnapshot getHaWaitLatencyInMinute() {
+        return haWaitLatencyInMinute;
+    }
+
+
+    public LatencySnapshot getDispatchLatencyInMinute() {
+        return dispatchLatencyInMinute;
+    }
+
+
     @Override
     public String getServiceName() {
         return StoreStatsService.class.getSimpleName();
@@ -126,9 +126,33 @@ public class MessageStoreConfig {
     // 定时消息相关
     private String messageDelayLevel = "1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h";
     private long flushDelayOffsetInterval = 1000 * 10;
+    // 到期延时消息并行解码的线程数
+    private int scheduleDeliverThreadNums = 4;
+    // 每批批量写入的到期延时消息数
+    private int scheduleDeliverBatchSize = 32;
     // 磁盘空间超过90%警戒水位，自动开始删除文件
     @ImportantField
     private boolean cleanFileForciblyEnable = true;
+    // 顺序消费磁盘上的数据时，是否预读后续CommitLog区域
+    private boolean readAheadEnable = false;
+    // 每个队列的预读窗口大小
+    private int readAheadSizeBytes = 1024 * 1024 * 4;
+    // 预读线程数
+    private int readAheadThreadPoolNums = 2;
+    // 是否支持任意投递时间的定时消息（时间轮）
+    private boolean timerEnable = false;
+    // 时间轮精度，即每个槽位的时间跨度
+    private int timerPrecisionMs = 1000;
+    // 时间轮覆盖的时间窗口，超出窗口的消息到期后滚动到下一圈
+    private int timerRollWindowSeconds = 60 * 60 * 24;
+    // 定时消息最长延时，消息每滚动一圈重新写入CommitLog，不受CommitLog保留时间限制
+    private int timerMaxDelaySeconds = 60 * 60 * 24 * 40;
+    // 到期消息投递线程数
+    private int timerDeliverThreadNums = 4;
+    // 每个投递任务的消息数
+    private int timerDeliverBatchSize = 32;
+    // 每个TimerLog文件存储的记录数
+    private int timerLogFileRecords = 3000000;
 
 
     public int getMapedFileSizeCommitLog() {
@@ -592,4 +616,124 @@ public class MessageStoreConfig {
     public void setStorePathRootDir(String storePathRootDir) {
         this.storePathRootDir = storePathRootDir;
     }
+
+
+    public boolean isReadAheadEnable() {
+        return readAheadEnable;
+    }
+
+
+    public void setReadAheadEnable(boolean readAheadEnable) {
+        this.readAheadEnable = readAheadEnable;
+    }
+
+
+    public int getReadAheadSizeBytes() {
+        return readAheadSizeBytes;
+    }
+
+
+    public void setReadAheadSizeBytes(int readAheadSizeBytes) {
+        this.readAheadSizeBytes = readAheadSizeBytes;
+    }
+
+
+    public int getScheduleDeliverThreadNums() {
+        return scheduleDeliverThreadNums;
+    }
+
+
+    public void setScheduleDeliverThreadNums(int scheduleDeliverThreadNums) {
+        this.scheduleDeliverThreadNums = scheduleDeliverThreadNums;
+    }
+
+
+    public int getScheduleDeliverBatchSize() {
+        return scheduleDeliverBatchSize;
+    }
+
+
+    public void setScheduleDeliverBatchSize(int scheduleDeliverBatchSize) {
+        this.scheduleDeliverBatchSize = scheduleDeliverBatchSize;
+    }
+
+
+    public boolean isTimerEnable() {
+        return timerEnable;
+    }
+
+
+    public void setTimerEnable(boolean timerEnable) {
+        this.timerEnable = timerEnable;
+    }
+
+
+    public int getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+
+    public void setTimerPrecisionMs(int timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+
+    public int getTimerRollWindowSeconds() {
+        return timerRollWindowSeconds;
+    }
+
+
+    public void setTimerRollWindowSeconds(int timerRollWindowSeconds) {
+        this.timerRollWindowSeconds = timerRollWindowSeconds;
+    }
+
+
+    public int getTimerMaxDelaySeconds() {
+        return timerMaxDelaySeconds;
+    }
+
+
+    public void setTimerMaxDelaySeconds(int timerMaxDelaySeconds) {
+        this.timerMaxDelaySeconds = timerMaxDelaySeconds;
+    }
+
+
+    public int getTimerDeliverThreadNums() {
+        return timerDeliverThreadNums;
+    }
+
+
+    public void setTimerDeliverThreadNums(int timerDeliverThreadNums) {
+        this.timerDeliverThreadNums = timerDeliverThreadNums;
+    }
+
+
+    public int getTimerDeliverBatchSize() {
+        return timerDeliverBatchSize;
+    }
+
+
+    public void setTimerDeliverBatchSize(int timerDeliverBatchSize) {
+        this.timerDeliverBatchSize = timerDeliverBatchSize;
+    }
+
+
+    public int getTimerLogFileRecords() {
+        return timerLogFileRecords;
+    }
+
+
+    public void setTimerLogFileRecords(int timerLogFileRecords) {
+        this.timerLogFileRecords = timerLogFileRecords;
+    }
+
+
+    public int getReadAheadThreadPoolNums() {
+        return readAheadThreadPoolNums;
+    }
+
+
+    public void setReadAheadThreadPoolNums(int readAheadThreadPoolNums) {
+        this.readAheadThreadPoolNums = readAheadThreadPoolNums;
+    }
 }
@@ -45,6 +45,21 @@ public class StorePathConfigHelper {
     }
 
 
+    public static String getTimerLogStorePath(final String rootDir) {
+        return rootDir + File.separator + "timerlog";
+    }
+
+
+    public static String getTimerWheelStorePath(final String rootDir) {
+        return rootDir + File.separator + "timerwheel";
+    }
+
+
+    public static String getTimerCheckpointPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "timerCheckpoint.json";
+    }
+
+
     public static String getTranStateTableStorePath(final String rootDir) {
         return rootDir + File.separator + "transaction" + File.separator + "statetable";
     }
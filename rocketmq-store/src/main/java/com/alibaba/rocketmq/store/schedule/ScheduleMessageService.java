@@ -15,17 +15,24 @@
  */
 package com.alibaba.rocketmq.store.schedule;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.TopicFilterType;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.message.MessageAccessor;
@@ -57,8 +64,13 @@ public class ScheduleMessageService extends ConfigManager {
     // 延时计算到了哪里
     private final ConcurrentHashMap<Integer /* level */, Long/* offset */> offsetTable =
             new ConcurrentHashMap<Integer, Long>(32);
+    // 每个level的投递延迟，即当前待投递消息已经到期了多久
+    private final ConcurrentHashMap<Integer /* level */, Long/* lag timeMillis */> lagTable =
+            new ConcurrentHashMap<Integer, Long>(32);
     // 定时器
     private final Timer timer = new Timer("ScheduleMessageTimerThread", true);
+    // 到期消息并行解码线程池
+    private final ExecutorService deliverExecutor;
     // 存储顶层对象
     private final DefaultMessageStore defaultMessageStore;
     // 最大值
@@ -67,6 +79,9 @@ public class ScheduleMessageService extends ConfigManager {
 
     public ScheduleMessageService(final DefaultMessageStore defaultMessageStore) {
         this.defaultMessageStore = defaultMessageStore;
+        this.deliverExecutor = Executors.newFixedThreadPool(
+            defaultMessageStore.getMessageStoreConfig().getScheduleDeliverThreadNums(),
+            new ThreadFactoryImpl("ScheduleDeliverThread_"));
     }
 
 
@@ -81,6 +96,13 @@ public class ScheduleMessageService extends ConfigManager {
             String key = String.format("%s_%d", RunningStats.scheduleMessageOffset.name(), next.getKey());
             stats.put(key, value);
         }
+
+        it = this.lagTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Integer, Long> next = it.next();
+            String key = String.format("%s_%d", RunningStats.scheduleMessageLag.name(), next.getKey());
+            stats.put(key, String.valueOf(next.getValue()));
+        }
     }
 
 
@@ -141,6 +163,7 @@ public class ScheduleMessageService extends ConfigManager {
 
     public void shutdown() {
         this.timer.cancel();
+        this.deliverExecutor.shutdown();
     }
 
 
@@ -220,6 +243,42 @@ public class ScheduleMessageService extends ConfigManager {
         return true;
     }
 
+
+    /**
+     * 还原定时消息的真实Topic与队列，用于到期后重新投递
+     */
+    static MessageExtBrokerInner messageTimeup(MessageExt msgExt) {
+        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        msgInner.setBody(msgExt.getBody());
+        msgInner.setFlag(msgExt.getFlag());
+        MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
+        long tagsCodeValue =
+                MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+        msgInner.setTagsCode(tagsCodeValue);
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgExt.getProperties()));
+
+        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setBornTimestamp(msgExt.getBornTimestamp());
+        msgInner.setBornHost(msgExt.getBornHost());
+        msgInner.setStoreHost(msgExt.getStoreHost());
+        msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+
+        msgInner.setWaitStoreMsgOK(false);
+        MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_DELAY_TIME_LEVEL);
+
+        // 恢复Topic
+        msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+
+        // 恢复QueueId
+        String queueIdStr = msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID);
+        int queueId = Integer.parseInt(queueIdStr);
+        msgInner.setQueueId(queueId);
+
+        return msgInner;
+    }
+
     class DeliverDelayedMessageTimerTask extends TimerTask {
         private final int delayLevel;
         private final long offset;
@@ -273,6 +332,9 @@ public class ScheduleMessageService extends ConfigManager {
                 SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(this.offset);
                 if (bufferCQ != null) {
                     try {
+                        final int batchSize = ScheduleMessageService.this.defaultMessageStore
+                            .getMessageStoreConfig().getScheduleDeliverBatchSize();
+                        List<DeliverRequest> batch = new ArrayList<DeliverRequest>(batchSize);
                         long nextOffset = offset;
                         int i = 0;
                         for (; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize) {
@@ -287,53 +349,22 @@ public class ScheduleMessageService extends ConfigManager {
                             nextOffset = offset + (i / ConsumeQueue.CQStoreUnitSize);
 
                             long countdown = deliverTimestamp - now;
-                            // 时间到了，该投递
+                            // 时间到了，攒够一批再投递
                             if (countdown <= 0) {
-                                MessageExt msgExt = ScheduleMessageService.this.defaultMessageStore
-                                    .lookMessageByOffset(offsetPy, sizePy);
-
-                                if (msgExt != null) {
-                                    try {
-                                        MessageExtBrokerInner msgInner = this.messageTimeup(msgExt);
-                                        PutMessageResult putMessageResult =
-                                                ScheduleMessageService.this.defaultMessageStore
-                                                    .putMessage(msgInner);
-                                        // 成功
-                                        if (putMessageResult != null && putMessageResult
-                                            .getPutMessageStatus() == PutMessageStatus.PUT_OK) {
-                                            continue;
-                                        }
-                                        // 失败
-                                        else {
-                                            // XXX: warn and notify me
-                                            log.error(
-                                                "ScheduleMessageService, a message time up, but reput it failed, topic: {} msgId {}",
-                                                msgExt.getTopic(), msgExt.getMsgId());
-                                            ScheduleMessageService.this.timer
-                                                .schedule(new DeliverDelayedMessageTimerTask(this.delayLevel,
-                                                    nextOffset), DELAY_FOR_A_PERIOD);
-                                            ScheduleMessageService.this.updateOffset(this.delayLevel,
-                                                nextOffset);
-                                            return;
-                                        }
-                                    }
-                                    catch (Exception e) {
-                                        /*
-                                         * XXX: warn and notify me
-                                         * msgExt里面的内容不完整
-                                         * ，如没有REAL_QID,REAL_TOPIC之类的
-                                         * ，导致数据无法正常的投递到正确的消费队列，所以暂时先直接跳过该条消息
-                                         */
-                                        log.error(
-                                            "ScheduleMessageService, messageTimeup execute error, drop it. msgExt="
-                                                    + msgExt + ", nextOffset=" + nextOffset + ",offsetPy="
-                                                    + offsetPy + ",sizePy=" + sizePy,
-                                            e);
+                                batch.add(new DeliverRequest(nextOffset, offsetPy, sizePy, deliverTimestamp));
+                                if (batch.size() >= batchSize) {
+                                    if (!this.deliverBatch(batch)) {
+                                        return;
                                     }
+                                    batch.clear();
                                 }
                             }
-                            // 时候未到，继续定时
+                            // 时候未到，先投递已到期的消息，再继续定时
                             else {
+                                if (!this.deliverBatch(batch)) {
+                                    return;
+                                }
+                                ScheduleMessageService.this.lagTable.put(this.delayLevel, 0L);
                                 ScheduleMessageService.this.timer.schedule(
                                     new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset),
                                     countdown);
@@ -342,6 +373,11 @@ public class ScheduleMessageService extends ConfigManager {
                             }
                         } // end of for
 
+                        if (!this.deliverBatch(batch)) {
+                            return;
+                        }
+                        ScheduleMessageService.this.lagTable.put(this.delayLevel, 0L);
+
                         nextOffset = offset + (i / ConsumeQueue.CQStoreUnitSize);
                         ScheduleMessageService.this.timer.schedule(
                             new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset),
@@ -373,36 +409,147 @@ public class ScheduleMessageService extends ConfigManager {
         }
 
 
-        private MessageExtBrokerInner messageTimeup(MessageExt msgExt) {
-            MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
-            msgInner.setBody(msgExt.getBody());
-            msgInner.setFlag(msgExt.getFlag());
-            MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+        /**
+         * 并行读取并解码一批到期消息，然后批量写入真实Topic<br>
+         * 有消息写入失败时，从第一条失败的消息开始重新定时，并返回false；不合法的消息直接跳过
+         */
+        private boolean deliverBatch(final List<DeliverRequest> batch) {
+            if (batch.isEmpty()) {
+                return true;
+            }
+
+            ScheduleMessageService.this.lagTable.put(this.delayLevel,
+                System.currentTimeMillis() - batch.get(0).getDeliverTimestamp());
+
+            List<Future<MessageExtBrokerInner>> futures =
+                    new ArrayList<Future<MessageExtBrokerInner>>(batch.size());
+            for (final DeliverRequest request : batch) {
+                futures.add(ScheduleMessageService.this.deliverExecutor
+                    .submit(new Callable<MessageExtBrokerInner>() {
+                        @Override
+                        public MessageExtBrokerInner call() throws Exception {
+                            return DeliverDelayedMessageTimerTask.this.decodeMessage(request);
+                        }
+                    }));
+            }
 
-            TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
-            long tagsCodeValue =
-                    MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
-            msgInner.setTagsCode(tagsCodeValue);
-            msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgExt.getProperties()));
+            List<MessageExtBrokerInner> msgs = new ArrayList<MessageExtBrokerInner>(batch.size());
+            List<DeliverRequest> requests = new ArrayList<DeliverRequest>(batch.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    MessageExtBrokerInner msgInner = futures.get(i).get();
+                    if (msgInner != null) {
+                        msgs.add(msgInner);
+                        requests.add(batch.get(i));
+                    }
+                }
+                catch (Exception e) {
+                    log.error("ScheduleMessageService, decode delayed message exception", e);
+                    this.scheduleRetry(batch.get(i).getCqOffset());
+                    return false;
+                }
+            }
 
-            msgInner.setSysFlag(msgExt.getSysFlag());
-            msgInner.setBornTimestamp(msgExt.getBornTimestamp());
-            msgInner.setBornHost(msgExt.getBornHost());
-            msgInner.setStoreHost(msgExt.getStoreHost());
-            msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+            if (msgs.isEmpty()) {
+                return true;
+            }
 
-            msgInner.setWaitStoreMsgOK(false);
-            MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_DELAY_TIME_LEVEL);
+            // 写入失败时后面的消息都未写入，从第一条失败的消息开始重试
+            List<PutMessageResult> results = ScheduleMessageService.this.defaultMessageStore.putMessages(msgs);
+            for (int i = 0; i < results.size(); i++) {
+                PutMessageResult putMessageResult = results.get(i);
+                if (putMessageResult != null
+                        && putMessageResult.getPutMessageStatus() == PutMessageStatus.MESSAGE_ILLEGAL) {
+                    // 重试也无法写入，直接跳过
+                    log.error("ScheduleMessageService, a message time up, but it is illegal, drop it. "
+                            + "topic: {} offsetPy {}", msgs.get(i).getTopic(), requests.get(i).getOffsetPy());
+                    continue;
+                }
 
-            // 恢复Topic
-            msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+                // 失败
+                if (putMessageResult == null
+                        || putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                    // XXX: warn and notify me
+                    log.error(
+                        "ScheduleMessageService, a message time up, but reput it failed, topic: {} offsetPy {}",
+                        msgs.get(i).getTopic(), requests.get(i).getOffsetPy());
+                    this.scheduleRetry(requests.get(i).getCqOffset());
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+
+        private void scheduleRetry(final long nextOffset) {
+            ScheduleMessageService.this.timer.schedule(
+                new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset), DELAY_FOR_A_PERIOD);
+            ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
+        }
+
+
+        /**
+         * 从CommitLog读取消息并还原真实Topic，消息不存在或者内容不完整时返回null，跳过该条消息
+         */
+        private MessageExtBrokerInner decodeMessage(final DeliverRequest request) {
+            MessageExt msgExt = ScheduleMessageService.this.defaultMessageStore
+                .lookMessageByOffset(request.getOffsetPy(), request.getSizePy());
+            if (null == msgExt) {
+                return null;
+            }
+
+            try {
+                return ScheduleMessageService.messageTimeup(msgExt);
+            }
+            catch (Exception e) {
+                /*
+                 * XXX: warn and notify me
+                 * msgExt里面的内容不完整
+                 * ，如没有REAL_QID,REAL_TOPIC之类的
+                 * ，导致数据无法正常的投递到正确的消费队列，所以暂时先直接跳过该条消息
+                 */
+                log.error("ScheduleMessageService, messageTimeup execute error, drop it. msgExt=" + msgExt
+                        + ", nextOffset=" + request.getCqOffset() + ",offsetPy=" + request.getOffsetPy()
+                        + ",sizePy=" + request.getSizePy(),
+                    e);
+                return null;
+            }
+        }
+    }
+
+    static class DeliverRequest {
+        private final long cqOffset;
+        private final long offsetPy;
+        private final int sizePy;
+        private final long deliverTimestamp;
+
+
+        public DeliverRequest(long cqOffset, long offsetPy, int sizePy, long deliverTimestamp) {
+            this.cqOffset = cqOffset;
+            this.offsetPy = offsetPy;
+            this.sizePy = sizePy;
+            this.deliverTimestamp = deliverTimestamp;
+        }
+
+
+        public long getCqOffset() {
+            return cqOffset;
+        }
+
+
+        public long getOffsetPy() {
+            return offsetPy;
+        }
+
+
+        public int getSizePy() {
+            return sizePy;
+        }
 
-            // 恢复QueueId
-            String queueIdStr = msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID);
-            int queueId = Integer.parseInt(queueIdStr);
-            msgInner.setQueueId(queueId);
 
-            return msgInner;
+        public long getDeliverTimestamp() {
+            return deliverTimestamp;
         }
     }
 }
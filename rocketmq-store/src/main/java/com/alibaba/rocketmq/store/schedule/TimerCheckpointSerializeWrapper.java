@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 时间轮进度，序列化包装
+ */
+public class TimerCheckpointSerializeWrapper extends RemotingSerializable {
+    // TIMER_TOPIC消费队列已经放入时间轮的位置
+    private long enqueueOffset = 0;
+    // 该时间之前的槽位都已经投递完成
+    private long committedReadTimeMs = 0;
+
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+
+    public void setEnqueueOffset(long enqueueOffset) {
+        this.enqueueOffset = enqueueOffset;
+    }
+
+
+    public long getCommittedReadTimeMs() {
+        return committedReadTimeMs;
+    }
+
+
+    public void setCommittedReadTimeMs(long committedReadTimeMs) {
+        this.committedReadTimeMs = committedReadTimeMs;
+    }
+}
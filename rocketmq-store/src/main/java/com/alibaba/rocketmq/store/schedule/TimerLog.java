@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+
+
+/**
+ * 时间轮的记录文件，定长记录顺序追加，同一槽位的记录通过prevPos串成链表
+ */
+public class TimerLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    /**
+     * 记录格式<br>
+     * expireTimeMs(8) + prevPos(8) + offsetPy(8) + sizePy(4) + deliverTimestamp(8) + slotTimeMs(8)<br>
+     * expireTimeMs单调递增，时间轮读进度超过该值后记录不再被引用，用于删除过期文件
+     */
+    public static final int UnitSize = 44;
+
+    private final MapedFileQueue mapedFileQueue;
+    private final int mapedFileSize;
+    private final ByteBuffer byteBufferItem = ByteBuffer.allocate(UnitSize);
+
+
+    public TimerLog(final String storePath, final int fileRecords) {
+        this.mapedFileSize = fileRecords * UnitSize;
+        this.mapedFileQueue = new MapedFileQueue(storePath, this.mapedFileSize, null);
+    }
+
+
+    public boolean load() {
+        boolean result = this.mapedFileQueue.load();
+        log.info("load timer log " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+
+    /**
+     * 从倒数第三个文件开始，找到最后一条有效记录
+     */
+    public void recover() {
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (mapedFiles.isEmpty()) {
+            return;
+        }
+
+        int index = mapedFiles.size() - 3;
+        if (index < 0) {
+            index = 0;
+        }
+
+        MapedFile mapedFile = mapedFiles.get(index);
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        long processOffset = mapedFile.getFileFromOffset();
+        long mapedFileOffset = 0;
+        while (true) {
+            for (int i = 0; i < this.mapedFileSize; i += UnitSize) {
+                long expireTimeMs = byteBuffer.getLong(i);
+                int sizePy = byteBuffer.getInt(i + 24);
+                if (expireTimeMs > 0 && sizePy > 0) {
+                    mapedFileOffset = i + UnitSize;
+                }
+                else {
+                    break;
+                }
+            }
+
+            if (mapedFileOffset == this.mapedFileSize && index + 1 < mapedFiles.size()) {
+                index++;
+                mapedFile = mapedFiles.get(index);
+                byteBuffer = mapedFile.sliceByteBuffer();
+                processOffset = mapedFile.getFileFromOffset();
+                mapedFileOffset = 0;
+            }
+            else {
+                break;
+            }
+        }
+
+        processOffset += mapedFileOffset;
+        this.mapedFileQueue.truncateDirtyFiles(processOffset);
+        log.info("recover timer log over, max offset " + processOffset);
+    }
+
+
+    /**
+     * 只有时间轮入队线程调用
+     *
+     * @return 记录的位置，失败返回-1
+     */
+    public long append(final long expireTimeMs, final long prevPos, final long offsetPy, final int sizePy,
+            final long deliverTimestamp, final long slotTimeMs) {
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            log.error("create timer log maped file error");
+            return -1;
+        }
+
+        this.byteBufferItem.flip();
+        this.byteBufferItem.limit(UnitSize);
+        this.byteBufferItem.putLong(expireTimeMs);
+        this.byteBufferItem.putLong(prevPos);
+        this.byteBufferItem.putLong(offsetPy);
+        this.byteBufferItem.putInt(sizePy);
+        this.byteBufferItem.putLong(deliverTimestamp);
+        this.byteBufferItem.putLong(slotTimeMs);
+
+        long pos = mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+        if (mapedFile.appendMessage(this.byteBufferItem.array())) {
+            return pos;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * @return 位置非法或文件已删除返回null
+     */
+    public TimerRequest read(final long pos) {
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(pos);
+        if (null == mapedFile) {
+            return null;
+        }
+
+        SelectMapedBufferResult result =
+                mapedFile.selectMapedBuffer((int) (pos % this.mapedFileSize), UnitSize);
+        if (null == result) {
+            return null;
+        }
+
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            byteBuffer.getLong();
+            long prevPos = byteBuffer.getLong();
+            long offsetPy = byteBuffer.getLong();
+            int sizePy = byteBuffer.getInt();
+            long deliverTimestamp = byteBuffer.getLong();
+            long slotTimeMs = byteBuffer.getLong();
+            return new TimerRequest(offsetPy, sizePy, deliverTimestamp, prevPos, slotTimeMs);
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    public boolean commit(final int flushLeastPages) {
+        return this.mapedFileQueue.commit(flushLeastPages);
+    }
+
+
+    /**
+     * 删除最后一条记录也已经过期的文件
+     */
+    public int deleteExpiredFile(final long currReadTimeMs) {
+        return this.mapedFileQueue.deleteExpiredFileByOffset(currReadTimeMs, UnitSize);
+    }
+
+
+    public long getMaxOffset() {
+        return this.mapedFileQueue.getMaxOffset();
+    }
+
+
+    public void shutdown() {
+        this.mapedFileQueue.shutdown(1000 * 3);
+    }
+
+
+    public void destroy() {
+        this.mapedFileQueue.destroy();
+    }
+}
@@ -0,0 +1,543 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+
+
+/**
+ * 任意时间定时消息服务<br>
+ * 消息先写入TIMER_TOPIC，入队线程把消费队列中的消息按投递时间放入持久化的时间轮，
+ * 出队线程按槽位扫描到期消息，交给投递线程池批量写回真实Topic。
+ * 超出滚动周期的消息先放在周期末尾的槽位，到期后重新写入CommitLog再次入队（多圈滚动），
+ * 避免原消息所在的CommitLog文件过期删除后无法投递。
+ * 进度定期持久化，重启后从上次完成的槽位继续，可能重复投递，不会丢失。
+ */
+public class TimerMessageService extends ConfigManager {
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // 投递失败后重试间隔
+    private static final long DELAY_FOR_A_WHILE = 100L;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final int precisionMs;
+    // 时间轮覆盖的时间窗口
+    private final long windowMs;
+    // 滚动周期，不超过窗口，并且远小于CommitLog保留时间
+    private final long rollMs;
+    private TimerLog timerLog;
+    private TimerWheel timerWheel;
+
+    // TIMER_TOPIC消费队列已经放入时间轮的位置
+    private volatile long enqueueOffset = 0;
+    // 下一个待读取的槽位，入队与出队都在timerWheel锁内访问
+    private volatile long currReadTimeMs = 0;
+    // 该时间之前的槽位都已投递完成
+    private volatile long committedReadTimeMs = 0;
+    // 刷盘前记录的进度，保证持久化的进度不超过已刷盘的数据
+    private volatile long checkpointEnqueueOffset = 0;
+    private volatile long checkpointReadTimeMs = 0;
+
+    private final AtomicLong deliverCount = new AtomicLong(0);
+    private final AtomicLong rollCount = new AtomicLong(0);
+
+    private final TimerEnqueueService timerEnqueueService = new TimerEnqueueService();
+    private final TimerDequeueService timerDequeueService = new TimerDequeueService();
+    private final ExecutorService deliverExecutor;
+    private final ScheduledExecutorService scheduledExecutorService = Executors
+        .newSingleThreadScheduledExecutor(new ThreadFactoryImpl("TimerMessageScheduledThread"));
+
+
+    public TimerMessageService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        MessageStoreConfig config = defaultMessageStore.getMessageStoreConfig();
+        this.precisionMs = config.getTimerPrecisionMs();
+        this.windowMs = config.getTimerRollWindowSeconds() * 1000L;
+        long reservedMs = config.getFileReservedTime() * 60L * 60 * 1000;
+        long rollMs = Math.min(this.windowMs, reservedMs / 2);
+        this.rollMs = Math.max(rollMs - rollMs % this.precisionMs, this.precisionMs);
+        if (this.rollMs < this.windowMs) {
+            log.warn("timer roll window {}ms exceeds half of the commit log reserved time, roll every {}ms",
+                this.windowMs, this.rollMs);
+        }
+        this.deliverExecutor = Executors.newFixedThreadPool(config.getTimerDeliverThreadNums(),
+            new ThreadFactoryImpl("TimerDeliverThread_"));
+    }
+
+
+    /**
+     * 解析消息指定的投递时间
+     *
+     * @return 未指定或格式非法返回-1
+     */
+    public static long parseDeliverTimestamp(final String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException e) {
+                log.warn("illegal timer message deliver time, " + value);
+            }
+        }
+
+        return -1;
+    }
+
+
+    public boolean load() {
+        boolean result = super.load();
+        try {
+            String rootDir = this.defaultMessageStore.getMessageStoreConfig().getStorePathRootDir();
+            this.timerLog = new TimerLog(StorePathConfigHelper.getTimerLogStorePath(rootDir),
+                this.defaultMessageStore.getMessageStoreConfig().getTimerLogFileRecords());
+            result = result && this.timerLog.load();
+            if (result) {
+                this.timerLog.recover();
+            }
+
+            // 槽位数是窗口的两倍，保证正在写入的槽位不会覆盖尚未读取的槽位
+            int slotsTotal = (int) (this.windowMs / this.precisionMs) * 2;
+            this.timerWheel = new TimerWheel(StorePathConfigHelper.getTimerWheelStorePath(rootDir),
+                slotsTotal, this.precisionMs);
+        }
+        catch (IOException e) {
+            log.error("load timer wheel exception", e);
+            return false;
+        }
+
+        if (this.committedReadTimeMs <= 0) {
+            this.committedReadTimeMs = this.alignSlotTime(System.currentTimeMillis());
+        }
+        this.currReadTimeMs = this.committedReadTimeMs;
+        log.info("load timer message service, enqueueOffset {} committedReadTimeMs {}", this.enqueueOffset,
+            this.committedReadTimeMs);
+        return result;
+    }
+
+
+    public void start() {
+        this.timerEnqueueService.start();
+        this.timerDequeueService.start();
+
+        // 定时将时间轮与进度刷盘
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TimerMessageService.this.flush();
+                }
+                catch (Exception e) {
+                    log.error("flush timer message service exception", e);
+                }
+            }
+        }, 10000, this.defaultMessageStore.getMessageStoreConfig().getFlushDelayOffsetInterval(),
+            TimeUnit.MILLISECONDS);
+    }
+
+
+    public void shutdown() {
+        this.scheduledExecutorService.shutdown();
+        this.timerEnqueueService.shutdown();
+        this.timerDequeueService.shutdown();
+        this.deliverExecutor.shutdown();
+        if (this.timerLog != null && this.timerWheel != null) {
+            this.flush();
+            this.timerWheel.shutdown();
+            this.timerLog.shutdown();
+        }
+    }
+
+
+    private void flush() {
+        this.checkpointEnqueueOffset = this.enqueueOffset;
+        this.checkpointReadTimeMs = this.committedReadTimeMs;
+        this.timerLog.commit(0);
+        this.timerWheel.flush();
+        this.persist();
+
+        int deleteCount = this.timerLog.deleteExpiredFile(this.checkpointReadTimeMs);
+        if (deleteCount > 0) {
+            log.info("delete expired timer log files, count {}", deleteCount);
+        }
+    }
+
+
+    private long alignSlotTime(final long timeMs) {
+        return timeMs - timeMs % this.precisionMs;
+    }
+
+
+    /**
+     * 放入时间轮，已经过期的消息放入下一个读取的槽位，超出滚动周期的消息放在周期末尾等待滚动
+     */
+    private boolean enqueue(final long offsetPy, final int sizePy, final long deliverTimestamp) {
+        synchronized (this.timerWheel) {
+            long slotTime = this.alignSlotTime(deliverTimestamp);
+            if (slotTime < this.currReadTimeMs) {
+                slotTime = this.currReadTimeMs;
+            }
+
+            long maxSlotTime = this.currReadTimeMs + this.rollMs - this.precisionMs;
+            if (slotTime > maxSlotTime) {
+                slotTime = maxSlotTime;
+            }
+
+            long prevPos = this.timerWheel.getSlotLastPos(slotTime);
+            int num = this.timerWheel.getSlotNum(slotTime);
+            long pos = this.timerLog.append(this.currReadTimeMs + this.windowMs, prevPos, offsetPy, sizePy,
+                deliverTimestamp, slotTime);
+            if (pos < 0) {
+                return false;
+            }
+
+            this.timerWheel.putSlot(slotTime, pos, num + 1);
+            return true;
+        }
+    }
+
+
+    /**
+     * 把TIMER_TOPIC消费队列中新到的消息放入时间轮
+     *
+     * @return 是否有新消息
+     */
+    private boolean enqueueFromConsumeQueue() {
+        ConsumeQueue cq = this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, 0);
+        if (null == cq) {
+            return false;
+        }
+
+        SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(this.enqueueOffset);
+        if (null == bufferCQ) {
+            // 消费队列文件已经被删除
+            long cqMinOffset = cq.getMinOffsetInQuque();
+            if (this.enqueueOffset < cqMinOffset) {
+                log.error("timer CQ offset invalid. offset=" + this.enqueueOffset + ", cqMinOffset="
+                        + cqMinOffset);
+                this.enqueueOffset = cqMinOffset;
+            }
+
+            // 异常恢复后消费队列被截断，进度超过了队列末尾，从末尾继续，否则新消息永远不会入队
+            long cqMaxOffset = cq.getMaxOffsetInQuque();
+            if (this.enqueueOffset > cqMaxOffset) {
+                log.error("timer CQ offset invalid. offset=" + this.enqueueOffset + ", cqMaxOffset="
+                        + cqMaxOffset);
+                this.enqueueOffset = cqMaxOffset;
+            }
+            return false;
+        }
+
+        try {
+            int i = 0;
+            for (; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize) {
+                long offsetPy = bufferCQ.getByteBuffer().getLong();
+                int sizePy = bufferCQ.getByteBuffer().getInt();
+                // 队列里存储的tagsCode实际是投递时间
+                long tagsCode = bufferCQ.getByteBuffer().getLong();
+
+                if (!this.enqueue(offsetPy, sizePy, tagsCode)) {
+                    log.error("enqueue timer message failed, offsetPy {} deliverTimestamp {}", offsetPy,
+                        tagsCode);
+                    break;
+                }
+                this.enqueueOffset++;
+            }
+            return i > 0;
+        }
+        finally {
+            bufferCQ.release();
+        }
+    }
+
+
+    /**
+     * 读取一个到期的槽位并投递，投递完成后才推进持久化进度
+     *
+     * @return 是否读取了槽位
+     */
+    private boolean dequeue() throws InterruptedException {
+        final long slotTime;
+        final long lastPos;
+        synchronized (this.timerWheel) {
+            slotTime = this.currReadTimeMs;
+            // 槽位的时间段全部到期才投递，不会提前投递
+            if (slotTime + this.precisionMs > System.currentTimeMillis()) {
+                return false;
+            }
+
+            lastPos = this.timerWheel.getSlotLastPos(slotTime);
+            this.currReadTimeMs = slotTime + this.precisionMs;
+        }
+
+        // 超出滚动周期的消息与到期消息一样重新写入CommitLog，前者仍带有投递时间，会再次进入TIMER_TOPIC
+        List<TimerRequest> deliverList = new ArrayList<TimerRequest>();
+        long pos = lastPos;
+        while (pos >= 0) {
+            TimerRequest request = this.timerLog.read(pos);
+            if (null == request || request.getSlotTimeMs() != slotTime) {
+                log.error("timer log record invalid, slot {} pos {} {}", slotTime, pos, request);
+                break;
+            }
+
+            deliverList.add(request);
+            pos = request.getPrevPos();
+        }
+
+        if (!deliverList.isEmpty()) {
+            this.deliverInBatch(deliverList);
+        }
+
+        if (!this.timerDequeueService.isStoped()) {
+            this.committedReadTimeMs = slotTime + this.precisionMs;
+        }
+        return true;
+    }
+
+
+    private void deliverInBatch(final List<TimerRequest> deliverList) throws InterruptedException {
+        final int batchSize = this.defaultMessageStore.getMessageStoreConfig().getTimerDeliverBatchSize();
+        final int batchNum = (deliverList.size() + batchSize - 1) / batchSize;
+        final CountDownLatch latch = new CountDownLatch(batchNum);
+        for (int i = 0; i < batchNum; i++) {
+            final List<TimerRequest> batch =
+                    deliverList.subList(i * batchSize, Math.min(deliverList.size(), (i + 1) * batchSize));
+            this.deliverExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (TimerRequest request : batch) {
+                            TimerMessageService.this.deliver(request,
+                                request.getDeliverTimestamp() >= request.getSlotTimeMs() + precisionMs);
+                        }
+                    }
+                    catch (Throwable e) {
+                        log.error("deliver timer message exception", e);
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        latch.await();
+    }
+
+
+    /**
+     * @param roll
+     *            未到期，保留投递时间重新写入，CommitLog会再次把它放入TIMER_TOPIC
+     */
+    private void deliver(final TimerRequest request, final boolean roll) throws InterruptedException {
+        MessageExt msgExt =
+                this.defaultMessageStore.lookMessageByOffset(request.getOffsetPy(), request.getSizePy());
+        if (null == msgExt) {
+            log.error("timer message not found in commit log, drop it. {}", request);
+            return;
+        }
+
+        MessageExtBrokerInner msgInner;
+        try {
+            msgInner = ScheduleMessageService.messageTimeup(msgExt);
+            if (!roll) {
+                MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_START_DELIVER_TIME);
+            }
+            msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+        }
+        catch (Exception e) {
+            // 消息内容不完整，无法还原到真实Topic，直接跳过
+            log.error("timer message timeup error, drop it. msgExt=" + msgExt + ", " + request, e);
+            return;
+        }
+
+        while (!this.timerDequeueService.isStoped()) {
+            PutMessageResult putMessageResult = this.defaultMessageStore.putMessage(msgInner);
+            if (putMessageResult != null) {
+                switch (putMessageResult.getPutMessageStatus()) {
+                case PUT_OK:
+                case FLUSH_DISK_TIMEOUT:
+                case FLUSH_SLAVE_TIMEOUT:
+                case SLAVE_NOT_AVAILABLE:
+                    if (roll) {
+                        this.rollCount.incrementAndGet();
+                    }
+                    else {
+                        this.deliverCount.incrementAndGet();
+                    }
+                    return;
+                case MESSAGE_ILLEGAL:
+                    log.error("timer message illegal, drop it. topic: {} msgId {}", msgExt.getTopic(),
+                        msgExt.getMsgId());
+                    return;
+                default:
+                    break;
+                }
+            }
+
+            log.warn("timer message time up, but reput it failed, retry later. topic: {} msgId {}",
+                msgExt.getTopic(), msgExt.getMsgId());
+            Thread.sleep(DELAY_FOR_A_WHILE);
+        }
+    }
+
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        long maxOffset = this.defaultMessageStore.getMaxOffsetInQuque(TIMER_TOPIC, 0);
+        stats.put("timerMessageOffset", String.format("%d,%d", this.enqueueOffset, maxOffset));
+        stats.put("timerReadBehindMs", String.valueOf(System.currentTimeMillis() - this.committedReadTimeMs));
+        stats.put("timerDeliverCount", String.valueOf(this.deliverCount.get()));
+        stats.put("timerRollCount", String.valueOf(this.rollCount.get()));
+    }
+
+
+    @Override
+    public String encode() {
+        return this.encode(false);
+    }
+
+
+    @Override
+    public String encode(final boolean prettyFormat) {
+        TimerCheckpointSerializeWrapper wrapper = new TimerCheckpointSerializeWrapper();
+        wrapper.setEnqueueOffset(this.checkpointEnqueueOffset);
+        wrapper.setCommittedReadTimeMs(this.checkpointReadTimeMs);
+        return wrapper.toJson(prettyFormat);
+    }
+
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            TimerCheckpointSerializeWrapper wrapper =
+                    TimerCheckpointSerializeWrapper.fromJson(jsonString, TimerCheckpointSerializeWrapper.class);
+            if (wrapper != null) {
+                this.enqueueOffset = wrapper.getEnqueueOffset();
+                this.committedReadTimeMs = wrapper.getCommittedReadTimeMs();
+                this.checkpointEnqueueOffset = this.enqueueOffset;
+                this.checkpointReadTimeMs = this.committedReadTimeMs;
+            }
+        }
+    }
+
+
+    @Override
+    public String configFilePath() {
+        return StorePathConfigHelper.getTimerCheckpointPath(this.defaultMessageStore.getMessageStoreConfig()
+            .getStorePathRootDir());
+    }
+
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+
+    public long getCommittedReadTimeMs() {
+        return committedReadTimeMs;
+    }
+
+
+    public long getDeliverCount() {
+        return deliverCount.get();
+    }
+
+
+    public long getRollCount() {
+        return rollCount.get();
+    }
+
+    class TimerEnqueueService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    if (!TimerMessageService.this.enqueueFromConsumeQueue()) {
+                        this.waitForRunning(DELAY_FOR_A_WHILE);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_A_WHILE);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return TimerEnqueueService.class.getSimpleName();
+        }
+    }
+
+    class TimerDequeueService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    if (!TimerMessageService.this.dequeue()) {
+                        this.waitForRunning(DELAY_FOR_A_WHILE);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_A_WHILE);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return TimerDequeueService.class.getSimpleName();
+        }
+    }
+}
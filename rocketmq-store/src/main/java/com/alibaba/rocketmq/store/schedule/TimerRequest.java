@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+/**
+ * 时间轮中的一条定时消息
+ */
+public class TimerRequest {
+    private final long offsetPy;
+    private final int sizePy;
+    private final long deliverTimestamp;
+    // 同一槽位中的前一条记录，-1表示没有
+    private final long prevPos;
+    // 所属槽位，用于校验异常恢复后链表是否仍然有效
+    private final long slotTimeMs;
+
+
+    public TimerRequest(long offsetPy, int sizePy, long deliverTimestamp, long prevPos, long slotTimeMs) {
+        this.offsetPy = offsetPy;
+        this.sizePy = sizePy;
+        this.deliverTimestamp = deliverTimestamp;
+        this.prevPos = prevPos;
+        this.slotTimeMs = slotTimeMs;
+    }
+
+
+    public long getOffsetPy() {
+        return offsetPy;
+    }
+
+
+    public int getSizePy() {
+        return sizePy;
+    }
+
+
+    public long getDeliverTimestamp() {
+        return deliverTimestamp;
+    }
+
+
+    public long getPrevPos() {
+        return prevPos;
+    }
+
+
+    public long getSlotTimeMs() {
+        return slotTimeMs;
+    }
+
+
+    @Override
+    public String toString() {
+        return "TimerRequest [offsetPy=" + offsetPy + ", sizePy=" + sizePy + ", deliverTimestamp="
+                + deliverTimestamp + "]";
+    }
+}
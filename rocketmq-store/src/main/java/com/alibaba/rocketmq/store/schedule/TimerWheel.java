@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+
+
+/**
+ * 持久化的时间轮，每个槽位对应一个时间段，记录该时间段在TimerLog中最后一条记录的位置
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    /**
+     * 槽位格式<br>
+     * timeMs(8) + lastPos(8) + num(4)<br>
+     * timeMs与请求的时间不一致说明是上一圈遗留的数据，视为空槽位
+     */
+    public static final int SlotSize = 20;
+
+    private final int slotsTotal;
+    private final int precisionMs;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+
+
+    public TimerWheel(final String fileName, final int slotsTotal, final int precisionMs) throws IOException {
+        this.slotsTotal = slotsTotal;
+        this.precisionMs = precisionMs;
+
+        File file = new File(fileName);
+        MapedFile.ensureDirOK(file.getParent());
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, (long) slotsTotal * SlotSize);
+        log.info("load timer wheel " + fileName + ", slots " + slotsTotal + ", precision " + precisionMs + "ms");
+    }
+
+
+    private int slotIndex(final long timeMs) {
+        return (int) ((timeMs / this.precisionMs) % this.slotsTotal) * SlotSize;
+    }
+
+
+    public synchronized long getSlotLastPos(final long timeMs) {
+        int index = this.slotIndex(timeMs);
+        if (this.mappedByteBuffer.getLong(index) != timeMs) {
+            return -1;
+        }
+        return this.mappedByteBuffer.getLong(index + 8);
+    }
+
+
+    public synchronized int getSlotNum(final long timeMs) {
+        int index = this.slotIndex(timeMs);
+        if (this.mappedByteBuffer.getLong(index) != timeMs) {
+            return 0;
+        }
+        return this.mappedByteBuffer.getInt(index + 16);
+    }
+
+
+    public synchronized void putSlot(final long timeMs, final long lastPos, final int num) {
+        int index = this.slotIndex(timeMs);
+        this.mappedByteBuffer.putLong(index, timeMs);
+        this.mappedByteBuffer.putLong(index + 8, lastPos);
+        this.mappedByteBuffer.putInt(index + 16, num);
+    }
+
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+
+    public void shutdown() {
+        this.flush();
+        MapedFile.clean(this.mappedByteBuffer);
+
+        try {
+            this.fileChannel.close();
+        }
+        catch (IOException e) {
+            log.error("close timer wheel exception", e);
+        }
+    }
+
+
+    public int getSlotsTotal() {
+        return slotsTotal;
+    }
+
+
+    public int getPrecisionMs() {
+        return precisionMs;
+    }
+}
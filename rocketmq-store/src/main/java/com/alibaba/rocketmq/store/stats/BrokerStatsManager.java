@@ -1,17 +1,29 @@
 package com.alibaba.rocketmq.store.stats;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.stats.LatencyHistogramSet;
+import com.alibaba.rocketmq.common.stats.LatencySnapshot;
 import com.alibaba.rocketmq.common.stats.MomentStatsItemSet;
 import com.alibaba.rocketmq.common.stats.StatsItem;
 import com.alibaba.rocketmq.common.stats.StatsItemSet;
+import com.alibaba.rocketmq.common.stats.StatsSnapshot;
+import com.alibaba.rocketmq.common.stats.StatsTimeSeries;
+import com.alibaba.rocketmq.common.stats.StatsTimeSeriesSet;
 
 
 public class BrokerStatsManager {
@@ -26,8 +38,20 @@ public class BrokerStatsManager {
     public static final String SNDBCK_PUT_NUMS = "SNDBCK_PUT_NUMS";
     public static final String BROKER_PUT_NUMS = "BROKER_PUT_NUMS";
     public static final String BROKER_GET_NUMS = "BROKER_GET_NUMS";
+    // 处理心跳的耗时，单位微秒
+    public static final String BROKER_HEARTBEAT_COST = "BROKER_HEARTBEAT_COST";
 
     private final HashMap<String, StatsItemSet> statsTable = new HashMap<String, StatsItemSet>();
+
+    /**
+     * 延迟分布统计，单位微秒
+     */
+    public static final String TOPIC_SEND_LATENCY = "TOPIC_SEND_LATENCY";
+    public static final String GROUP_PULL_LATENCY = "GROUP_PULL_LATENCY";
+    public static final String BROKER_SEND_LATENCY = "BROKER_SEND_LATENCY";
+    public static final String BROKER_PULL_LATENCY = "BROKER_PULL_LATENCY";
+    private final HashMap<String, LatencyHistogramSet> latencyTable =
+            new HashMap<String, LatencyHistogramSet>();
     private final String clusterName;
 
     /**
@@ -36,6 +60,20 @@ public class BrokerStatsManager {
     public static final String GROUP_GET_FALL = "GROUP_GET_FALL";
     private final MomentStatsItemSet momentStatsItemSet =
             new MomentStatsItemSet(GROUP_GET_FALL, scheduledExecutorService, log);
+    // 最近一分钟各订阅组读磁盘落后的最大值，记录时间点后清零
+    private final ConcurrentHashMap<String/* topic@group */, AtomicLong> diskFallBehindInMinute =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * 分钟级时间序列，保留最近一小时，Topic按topic统计，订阅组按topic@group统计
+     */
+    public static final String TOPIC_TIME_SERIES = "TOPIC_TIME_SERIES";
+    public static final String GROUP_TIME_SERIES = "GROUP_TIME_SERIES";
+    private static final int TimeSeriesCapacity = 60;
+    private final StatsTimeSeriesSet topicTimeSeries = new StatsTimeSeriesSet(TOPIC_TIME_SERIES,
+        new String[] { "PUT_NUMS", "PUT_SIZE" }, TimeSeriesCapacity);
+    private final StatsTimeSeriesSet groupTimeSeries = new StatsTimeSeriesSet(GROUP_TIME_SERIES,
+        new String[] { "GET_NUMS", "GET_SIZE", "CONSUMER_LAG", "DISK_FALL_BEHIND" }, TimeSeriesCapacity);
 
 
     public BrokerStatsManager(String clusterName) {
@@ -55,6 +93,17 @@ public class BrokerStatsManager {
             new StatsItemSet(BROKER_PUT_NUMS, this.scheduledExecutorService, log));
         this.statsTable.put(BROKER_GET_NUMS,
             new StatsItemSet(BROKER_GET_NUMS, this.scheduledExecutorService, log));
+        this.statsTable.put(BROKER_HEARTBEAT_COST,
+            new StatsItemSet(BROKER_HEARTBEAT_COST, this.scheduledExecutorService, log));
+
+        this.latencyTable.put(TOPIC_SEND_LATENCY,
+            new LatencyHistogramSet(TOPIC_SEND_LATENCY, this.scheduledExecutorService, log));
+        this.latencyTable.put(GROUP_PULL_LATENCY,
+            new LatencyHistogramSet(GROUP_PULL_LATENCY, this.scheduledExecutorService, log));
+        this.latencyTable.put(BROKER_SEND_LATENCY,
+            new LatencyHistogramSet(BROKER_SEND_LATENCY, this.scheduledExecutorService, log));
+        this.latencyTable.put(BROKER_PULL_LATENCY,
+            new LatencyHistogramSet(BROKER_PULL_LATENCY, this.scheduledExecutorService, log));
     }
 
 
@@ -110,6 +159,59 @@ public class BrokerStatsManager {
     }
 
 
+    public void incBrokerHeartbeatCost(final int costMicros) {
+        this.statsTable.get(BROKER_HEARTBEAT_COST).addValue(this.clusterName, costMicros, 1);
+    }
+
+
+    /**
+     * 最近一分钟的心跳TPS与平均耗时（微秒）
+     */
+    public StatsSnapshot getBrokerHeartbeatCostInMinute() {
+        return this.statsTable.get(BROKER_HEARTBEAT_COST).getStatsDataInMinute(this.clusterName);
+    }
+
+
+    public void recordSendLatency(final String topic, final long latencyMicros) {
+        this.latencyTable.get(TOPIC_SEND_LATENCY).record(topic, latencyMicros);
+        this.latencyTable.get(BROKER_SEND_LATENCY).record(this.clusterName, latencyMicros);
+    }
+
+
+    public void recordPullLatency(final String group, final String topic, final long latencyMicros) {
+        this.latencyTable.get(GROUP_PULL_LATENCY).record(topic + "@" + group, latencyMicros);
+        this.latencyTable.get(BROKER_PULL_LATENCY).record(this.clusterName, latencyMicros);
+    }
+
+
+    public boolean isLatencyStats(final String statsName) {
+        return this.latencyTable.containsKey(statsName);
+    }
+
+
+    /**
+     * 上一分钟的延迟分布，没有数据时返回null
+     */
+    public LatencySnapshot getLatencyInMinute(final String statsName, final String statsKey) {
+        LatencyHistogramSet histogramSet = this.latencyTable.get(statsName);
+        if (histogramSet != null) {
+            return histogramSet.getSnapshotInMinute(statsKey);
+        }
+
+        return null;
+    }
+
+
+    public LatencySnapshot getBrokerSendLatencyInMinute() {
+        return this.getLatencyInMinute(BROKER_SEND_LATENCY, this.clusterName);
+    }
+
+
+    public LatencySnapshot getBrokerPullLatencyInMinute() {
+        return this.getLatencyInMinute(BROKER_PULL_LATENCY, this.clusterName);
+    }
+
+
     public void incSendBackNums(final String group, final String topic) {
         this.statsTable.get(SNDBCK_PUT_NUMS).addValue(topic + "@" + group, 1, 1);
     }
@@ -124,5 +226,96 @@ public class BrokerStatsManager {
             final long fallBehind) {
         final String statsKey = String.format("%d@%s@%s", queueId, topic, group);
         this.momentStatsItemSet.getAndCreateStatsItem(statsKey).getValue().set(fallBehind);
+
+        final String key = topic + "@" + group;
+        AtomicLong maxFallBehind = this.diskFallBehindInMinute.get(key);
+        if (null == maxFallBehind) {
+            maxFallBehind = new AtomicLong(0);
+            AtomicLong prev = this.diskFallBehindInMinute.putIfAbsent(key, maxFallBehind);
+            if (prev != null) {
+                maxFallBehind = prev;
+            }
+        }
+
+        long value = maxFallBehind.get();
+        while (fallBehind > value && !maxFallBehind.compareAndSet(value, fallBehind)) {
+            value = maxFallBehind.get();
+        }
+    }
+
+
+    /**
+     * 记录一个分钟级时间点，每分钟整点调用一次<br>
+     * 收发数量与大小取最近一分钟的累计值，读磁盘落后取最近一分钟内的最大值，都为0的Key不记录
+     * 
+     * @param consumerLagTable
+     *            topic@group -> 各队列消费落后的消息数之和
+     */
+    public void recordTimeSeries(final Map<String/* topic@group */, Long> consumerLagTable) {
+        final long timestamp = (System.currentTimeMillis() + 1000 * 30) / (1000 * 60) * (1000 * 60);
+
+        Map<String, long[]> topicValueTable = new HashMap<String, long[]>();
+        StatsItemSet topicPutNums = this.statsTable.get(TOPIC_PUT_NUMS);
+        StatsItemSet topicPutSize = this.statsTable.get(TOPIC_PUT_SIZE);
+        for (String topic : topicPutNums.getStatsItemTable().keySet()) {
+            long putNums = topicPutNums.getStatsDataInMinute(topic).getSum();
+            long putSize = topicPutSize.getStatsDataInMinute(topic).getSum();
+            if (putNums > 0 || putSize > 0) {
+                topicValueTable.put(topic, new long[] { putNums, putSize });
+            }
+        }
+        this.topicTimeSeries.append(timestamp, topicValueTable);
+
+        Map<String, long[]> groupValueTable = new HashMap<String, long[]>();
+        StatsItemSet groupGetNums = this.statsTable.get(GROUP_GET_NUMS);
+        StatsItemSet groupGetSize = this.statsTable.get(GROUP_GET_SIZE);
+        for (String key : groupGetNums.getStatsItemTable().keySet()) {
+            long getNums = groupGetNums.getStatsDataInMinute(key).getSum();
+            long getSize = groupGetSize.getStatsDataInMinute(key).getSum();
+            if (getNums > 0 || getSize > 0) {
+                groupValueTable.put(key, new long[] { getNums, getSize, 0, 0 });
+            }
+        }
+
+        for (Entry<String, Long> entry : consumerLagTable.entrySet()) {
+            if (entry.getValue() > 0) {
+                findOrCreateValues(groupValueTable, entry.getKey())[2] = entry.getValue();
+            }
+        }
+
+        // 取本分钟内的最大值并清零，本分钟没有读磁盘的订阅组不再记录
+        Iterator<Entry<String, AtomicLong>> it = this.diskFallBehindInMinute.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, AtomicLong> entry = it.next();
+            long fallBehind = entry.getValue().getAndSet(0);
+            if (fallBehind > 0) {
+                findOrCreateValues(groupValueTable, entry.getKey())[3] = fallBehind;
+            }
+            else {
+                it.remove();
+            }
+        }
+        this.groupTimeSeries.append(timestamp, groupValueTable);
+    }
+
+
+    private static long[] findOrCreateValues(final Map<String, long[]> valueTable, final String key) {
+        long[] values = valueTable.get(key);
+        if (null == values) {
+            values = new long[4];
+            valueTable.put(key, values);
+        }
+        return values;
+    }
+
+
+    /**
+     * 导出时间戳大于beginTimestamp的时间序列
+     */
+    public List<StatsTimeSeries> exportTimeSeries(final long beginTimestamp) {
+        List<StatsTimeSeries> seriesList = new ArrayList<StatsTimeSeries>(2);
+        seriesList.add(this.topicTimeSeries.export(beginTimestamp));
+        seriesList.add(this.groupTimeSeries.export(beginTimestamp));
+        return seriesList;
     }
 }
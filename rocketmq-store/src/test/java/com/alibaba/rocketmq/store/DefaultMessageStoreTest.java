@@ -1,10 +1,16 @@
 package com.alibaba.rocketmq.store;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.AfterClass;
@@ -12,7 +18,9 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.alibaba.rocketmq.store.config.FlushDiskType;
+import com.alibaba.rocketmq.common.stats.StatsTimeSeries;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.stats.BrokerStatsManager;
 
 
 /**
@@ -171,4 +179,123 @@ public class DefaultMessageStoreTest {
         master.destroy();
         System.out.println("================================================================");
     }
+
+
+    @Test
+    public void test_disk_fall_behind_time_series() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "disk_fall_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        BrokerStatsManager brokerStatsManager = new BrokerStatsManager("DefaultCluster");
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, brokerStatsManager);
+        try {
+            assertTrue(master.load());
+            master.start();
+            for (int i = 0; i < 4; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                master.putMessage(msg);
+            }
+
+            long begin = System.currentTimeMillis();
+            while (master.getMaxOffsetInQuque("AAA", 0) < 4 && System.currentTimeMillis() - begin < 5000) {
+                Thread.sleep(10);
+            }
+
+            // 从第一条开始读，落后后面三条消息
+            GetMessageResult result = master.getMessage("GROUP_A", "AAA", 0, 0, 1, null);
+            assertEquals(GetMessageStatus.FOUND, result.getStatus());
+            result.release();
+
+            brokerStatsManager.recordTimeSeries(new HashMap<String, Long>());
+            long[] fallBehind = findGroupMetric(brokerStatsManager, "AAA@GROUP_A", "DISK_FALL_BEHIND");
+            assertNotNull(fallBehind);
+            assertTrue(fallBehind[fallBehind.length - 1] > 0);
+
+            // 下一分钟没有读取，不再沿用上一分钟的值
+            brokerStatsManager.recordTimeSeries(new HashMap<String, Long>());
+            fallBehind = findGroupMetric(brokerStatsManager, "AAA@GROUP_A", "DISK_FALL_BEHIND");
+            assertEquals(0, fallBehind[fallBehind.length - 1]);
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+            brokerStatsManager.shutdown();
+        }
+    }
+
+
+    @Test
+    public void test_dispatch_when_arriving_listener_fails() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        final int totalMsgs = 10;
+
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "arriving_fail_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        final AtomicInteger arrivingTimes = new AtomicInteger(0);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        // 模拟拉消息线程池已满
+        master.setMessageArrivingListener(new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long maxOffset) {
+                arrivingTimes.incrementAndGet();
+                throw new RejectedExecutionException("pull thread pool is full");
+            }
+        });
+        try {
+            assertTrue(master.load());
+            master.start();
+            for (int i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                master.putMessage(msg);
+            }
+
+            long begin = System.currentTimeMillis();
+            while (master.getMaxOffsetInQuque("AAA", 0) < totalMsgs
+                    && System.currentTimeMillis() - begin < 5000) {
+                Thread.sleep(10);
+            }
+
+            // 通知失败不影响写入ConsumeQueue，也不会重复分发
+            assertEquals(totalMsgs, master.getMaxOffsetInQuque("AAA", 0));
+            Thread.sleep(100);
+            assertEquals(totalMsgs, arrivingTimes.get());
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+
+    private static long[] findGroupMetric(final BrokerStatsManager brokerStatsManager, final String key,
+            final String metricName) {
+        List<StatsTimeSeries> seriesList = brokerStatsManager.exportTimeSeries(0);
+        for (StatsTimeSeries series : seriesList) {
+            if (BrokerStatsManager.GROUP_TIME_SERIES.equals(series.getStatsName())) {
+                return series.getMetric(key, metricName);
+            }
+        }
+        return null;
+    }
 }
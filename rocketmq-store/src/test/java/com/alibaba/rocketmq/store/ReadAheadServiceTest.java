@@ -0,0 +1,124 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 冷数据预读：只对顺序拉取且落在磁盘上的队列预读，追上内存或者长时间不拉取时清除状态
+ */
+public class ReadAheadServiceTest {
+    private static final String Group = "ReadAheadGroup";
+    private static final String Topic = "ReadAheadTopic";
+
+    private static DefaultMessageStore store;
+    private ReadAheadService readAheadService;
+
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "read_ahead_store_"
+                + System.currentTimeMillis();
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setStorePathRootDir(rootDir);
+        config.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        config.setMapedFileSizeCommitLog(1024 * 1024);
+        config.setMapedFileSizeConsumeQueue(1024 * 16);
+        config.setMaxHashSlotNum(100);
+        config.setMaxIndexNum(1000 * 10);
+        config.setReadAheadSizeBytes(1024 * 64);
+
+        store = new DefaultMessageStore(config, null);
+        assertTrue(store.load());
+        store.start();
+
+        for (int i = 0; i < 100; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic(Topic);
+            msg.setTags("TAG1");
+            msg.setBody(new byte[512]);
+            msg.setQueueId(0);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+            msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            assertEquals(PutMessageStatus.PUT_OK, store.putMessage(msg).getPutMessageStatus());
+        }
+    }
+
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        store.shutdown();
+        store.destroy();
+    }
+
+
+    @Before
+    public void setUp() {
+        this.readAheadService = new ReadAheadService(store);
+    }
+
+
+    @After
+    public void tearDown() {
+        this.readAheadService.shutdown();
+    }
+
+
+    @Test
+    public void test_sequential_cold_pull_read_ahead() throws Exception {
+        // 第一次拉取只记录位置
+        this.readAheadService.onMessagePulled(Group, Topic, 0, 0, 10, 0, true);
+        assertEquals(1, this.readAheadService.getStateCount());
+        Thread.sleep(100);
+        assertEquals(0, this.readAheadService.getReadAheadBytes());
+
+        // 顺序拉取触发预读
+        this.readAheadService.onMessagePulled(Group, Topic, 0, 10, 20, 0, true);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (this.readAheadService.getReadAheadBytes() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.readAheadService.getReadAheadBytes() > 0);
+
+        // 追上内存中的数据后清除状态
+        this.readAheadService.onMessagePulled(Group, Topic, 0, 20, 30, 0, false);
+        assertEquals(0, this.readAheadService.getStateCount());
+    }
+
+
+    @Test
+    public void test_offset_jump_not_read_ahead() throws Exception {
+        this.readAheadService.onMessagePulled(Group, Topic, 0, 0, 10, 0, true);
+        this.readAheadService.onMessagePulled(Group, Topic, 0, 50, 60, 0, true);
+        Thread.sleep(100);
+        assertEquals(0, this.readAheadService.getReadAheadBytes());
+    }
+
+
+    @Test
+    public void test_clean_idle_state() throws Exception {
+        this.readAheadService.onMessagePulled(Group, Topic, 0, 0, 10, 0, true);
+        this.readAheadService.onMessagePulled(Group, Topic, 1, 0, 10, 0, true);
+        assertEquals(2, this.readAheadService.getStateCount());
+
+        assertEquals(0, this.readAheadService.cleanIdleState(ReadAheadService.StateIdleMillis));
+        assertEquals(2, this.readAheadService.getStateCount());
+
+        Thread.sleep(20);
+        assertEquals(2, this.readAheadService.cleanIdleState(10));
+        assertEquals(0, this.readAheadService.getStateCount());
+    }
+}
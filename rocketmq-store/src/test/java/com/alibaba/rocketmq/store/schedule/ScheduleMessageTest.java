@@ -3,11 +3,17 @@
  */
 package com.alibaba.rocketmq.store.schedule;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.AfterClass;
@@ -122,4 +128,118 @@ public class ScheduleMessageTest {
         master.destroy();
         System.out.println("================================================================");
     }
+
+
+    @Test
+    public void test_delay_message_batch_deliver() throws Exception {
+        int totalMsgs = 100;
+        MessageBody = StoreMessage.getBytes();
+
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "schedule_store_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 16);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(1000 * 10);
+        messageStoreConfig.setScheduleDeliverBatchSize(16);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        try {
+            assertTrue(master.load());
+            master.start();
+
+            for (int i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setQueueId(0);
+                msg.setSysFlag(0);
+                msg.setDelayTimeLevel(1);
+                PutMessageResult result = master.putMessage(msg);
+                assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            }
+
+            long begin = System.currentTimeMillis();
+            while (master.getMaxOffsetInQuque("AAA", 0) < totalMsgs
+                    && System.currentTimeMillis() - begin < 1000 * 10) {
+                Thread.sleep(50);
+            }
+
+            // 所有到期消息都被批量投递到真实Topic
+            assertEquals(totalMsgs, master.getMaxOffsetInQuque("AAA", 0));
+            HashMap<String, String> stats = new HashMap<String, String>();
+            master.getScheduleMessageService().buildRunningStats(stats);
+            assertTrue(stats.containsKey("scheduleMessageLag_1"));
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+
+    @Test
+    public void test_delay_message_batch_fail_in_middle() throws Exception {
+        final int totalMsgs = 16;
+        final int failIndex = 5;
+        MessageBody = StoreMessage.getBytes();
+
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "schedule_store_"
+                + System.currentTimeMillis();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 16);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(1000 * 10);
+        messageStoreConfig.setScheduleDeliverBatchSize(totalMsgs);
+
+        // 第一次批量写入时第failIndex条失败，按CommitLog的约定后面的消息都不写入
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null) {
+            @Override
+            public List<PutMessageResult> putMessages(List<MessageExtBrokerInner> msgs) {
+                if (msgs.size() <= failIndex || !failed.compareAndSet(false, true)) {
+                    return super.putMessages(msgs);
+                }
+
+                List<PutMessageResult> results =
+                        new ArrayList<PutMessageResult>(super.putMessages(msgs.subList(0, failIndex)));
+                while (results.size() < msgs.size()) {
+                    results.add(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null));
+                }
+                return results;
+            }
+        };
+        try {
+            assertTrue(master.load());
+            master.start();
+
+            for (int i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setQueueId(0);
+                msg.setSysFlag(0);
+                msg.setDelayTimeLevel(1);
+                PutMessageResult result = master.putMessage(msg);
+                assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            }
+
+            long begin = System.currentTimeMillis();
+            while (master.getMaxOffsetInQuque("AAA", 0) < totalMsgs
+                    && System.currentTimeMillis() - begin < 1000 * 20) {
+                Thread.sleep(50);
+            }
+
+            // 从失败的消息开始重试，已写入的消息不会重复投递
+            assertTrue(failed.get());
+            Thread.sleep(500);
+            assertEquals(totalMsgs, master.getMaxOffsetInQuque("AAA", 0));
+        }
+        finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package com.alibaba.rocketmq.store.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+
+
+public class TimerMessageServiceTest {
+    private static final String Topic = "TimerTopicTest";
+
+
+    private MessageExtBrokerInner buildMessage(long deliverTimestamp) throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(Topic);
+        msg.setTags("TAG1");
+        msg.setBody("timer message".getBytes());
+        msg.setQueueId(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        msg.setStartDeliverTime(deliverTimestamp);
+        return msg;
+    }
+
+
+    private static MessageStoreConfig buildConfig(final String rootDir) {
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setStorePathRootDir(rootDir);
+        config.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        config.setMapedFileSizeCommitLog(1024 * 1024);
+        config.setMapedFileSizeConsumeQueue(1024 * 16);
+        config.setMaxHashSlotNum(100);
+        config.setMaxIndexNum(1000 * 10);
+        config.setTimerEnable(true);
+        config.setTimerPrecisionMs(100);
+        config.setTimerRollWindowSeconds(1);
+        config.setTimerLogFileRecords(1000);
+        return config;
+    }
+
+
+    @Test
+    public void test_deliver_on_time() throws Exception {
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "timer_store_"
+                + System.currentTimeMillis();
+        MessageStoreConfig config = buildConfig(rootDir);
+
+        DefaultMessageStore store = new DefaultMessageStore(config, null);
+        try {
+            assertTrue(store.load());
+            store.start();
+
+            // 投递时间超出1秒的时间轮窗口，需要滚动一圈
+            long deliverTimestamp = System.currentTimeMillis() + 1500;
+            for (int i = 0; i < 10; i++) {
+                PutMessageResult result = store.putMessage(this.buildMessage(deliverTimestamp));
+                assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            }
+
+            // 超过最长延时的消息被拒绝
+            PutMessageResult illegal = store.putMessage(this.buildMessage(System.currentTimeMillis()
+                    + config.getTimerMaxDelaySeconds() * 1000L * 2));
+            assertEquals(PutMessageStatus.MESSAGE_ILLEGAL, illegal.getPutMessageStatus());
+
+            assertEquals(0, store.getMaxOffsetInQuque(Topic, 0));
+
+            while (store.getMaxOffsetInQuque(Topic, 0) < 10
+                    && System.currentTimeMillis() < deliverTimestamp + 5000) {
+                Thread.sleep(50);
+            }
+
+            assertEquals(10, store.getMaxOffsetInQuque(Topic, 0));
+            assertTrue(System.currentTimeMillis() >= deliverTimestamp);
+            assertNotNull(store.lookMessageByOffset(store.getCommitLogOffsetInQueue(Topic, 0, 0)));
+
+            // 滚动时重新写入CommitLog，不依赖原消息所在的文件
+            assertEquals(10, store.getTimerMessageService().getRollCount());
+            assertEquals(10, store.getTimerMessageService().getDeliverCount());
+            assertEquals(20, store.getMaxOffsetInQuque(TimerMessageService.TIMER_TOPIC, 0));
+        }
+        finally {
+            store.shutdown();
+            store.destroy();
+        }
+    }
+
+
+    @Test
+    public void test_checkpoint_beyond_consume_queue() throws Exception {
+        String rootDir = System.getProperty("java.io.tmpdir") + File.separator + "timer_store_"
+                + System.currentTimeMillis();
+        MessageStoreConfig config = buildConfig(rootDir);
+
+        // 异常恢复后消费队列被截断，检查点记录的进度超过了队列末尾
+        TimerCheckpointSerializeWrapper wrapper = new TimerCheckpointSerializeWrapper();
+        wrapper.setEnqueueOffset(100);
+        MixAll.string2File(wrapper.toJson(), StorePathConfigHelper.getTimerCheckpointPath(rootDir));
+
+        DefaultMessageStore store = new DefaultMessageStore(config, null);
+        try {
+            assertTrue(store.load());
+            assertEquals(100, store.getTimerMessageService().getEnqueueOffset());
+            store.start();
+
+            long deliverTimestamp = System.currentTimeMillis() + 500;
+            for (int i = 0; i < 5; i++) {
+                PutMessageResult result = store.putMessage(this.buildMessage(deliverTimestamp));
+                assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            }
+
+            while (store.getMaxOffsetInQuque(Topic, 0) < 5
+                    && System.currentTimeMillis() < deliverTimestamp + 5000) {
+                Thread.sleep(50);
+            }
+
+            assertEquals(5, store.getMaxOffsetInQuque(Topic, 0));
+            assertEquals(5, store.getTimerMessageService().getEnqueueOffset());
+        }
+        finally {
+            store.shutdown();
+            store.destroy();
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.admin.ConsumeStats;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
 import com.alibaba.rocketmq.common.admin.RollbackStats;
 import com.alibaba.rocketmq.common.admin.TopicStatsTable;
 import com.alibaba.rocketmq.common.message.MessageExt;
@@ -171,6 +172,13 @@ public class DefaultMQAdminExt extends ClientConfig implements MQAdminExt {
     }
 
 
+    @Override
+    public ConsumeStatsBatch examineAllConsumeStats(String brokerAddr) throws RemotingException,
+            InterruptedException, MQBrokerException {
+        return this.defaultMQAdminExtImpl.examineAllConsumeStats(brokerAddr);
+    }
+
+
     @Override
     public ConsumeStats examineConsumeStats(String consumerGroup, String topic)
             throws RemotingException, MQClientException, InterruptedException, MQBrokerException {
@@ -352,6 +360,14 @@ public class DefaultMQAdminExt extends ClientConfig implements MQAdminExt {
     }
 
 
+    @Override
+    public Map<MessageQueue, Long> resetOffsetByTimestamp(String topic, String group, long timestamp,
+            boolean isForce, ResetOffsetCallback callback)
+                    throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
+        return defaultMQAdminExtImpl.resetOffsetByTimestamp(topic, group, timestamp, isForce, callback);
+    }
+
+
     @Override
     public Map<String, Map<MessageQueue, Long>> getConsumeStatus(String topic, String group,
             String clientAddr)
@@ -437,4 +453,12 @@ public class DefaultMQAdminExt extends ClientConfig implements MQAdminExt {
             MQClientException, InterruptedException {
         return this.defaultMQAdminExtImpl.ViewBrokerStatsData(brokerAddr, statsName, statsKey);
     }
+
+
+    @Override
+    public StatsTimeSeriesBody getBrokerStatsTimeSeries(String brokerAddr, long beginTimestamp)
+            throws RemotingConnectException, RemotingSendRequestException, RemotingTimeoutException,
+            MQClientException, InterruptedException {
+        return this.defaultMQAdminExtImpl.getBrokerStatsTimeSeries(brokerAddr, beginTimestamp);
+    }
 }
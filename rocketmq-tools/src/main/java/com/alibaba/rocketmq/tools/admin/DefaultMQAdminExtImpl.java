@@ -18,6 +18,13 @@ package com.alibaba.rocketmq.tools.admin;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 
@@ -30,6 +37,7 @@ import com.alibaba.rocketmq.client.impl.factory.MQClientInstance;
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.ServiceState;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.admin.*;
@@ -226,6 +234,13 @@ public class DefaultMQAdminExtImpl implements MQAdminExt, MQAdminExtInner {
     }
 
 
+    @Override
+    public ConsumeStatsBatch examineAllConsumeStats(String brokerAddr) throws RemotingException,
+            InterruptedException, MQBrokerException {
+        return this.mqClientInstance.getMQClientAPIImpl().getAllConsumeStats(brokerAddr, 15000);
+    }
+
+
     @Override
     public ClusterInfo examineBrokerClusterInfo() throws InterruptedException, MQBrokerException,
             RemotingTimeoutException, RemotingSendRequestException, RemotingConnectException {
@@ -546,25 +561,98 @@ public class DefaultMQAdminExtImpl implements MQAdminExt, MQAdminExtInner {
     public Map<MessageQueue, Long> resetOffsetByTimestamp(String topic, String group, long timestamp,
             boolean isForce)
                     throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
+        return this.resetOffsetByTimestamp(topic, group, timestamp, isForce, null);
+    }
+
+
+    @Override
+    public Map<MessageQueue, Long> resetOffsetByTimestamp(final String topic, final String group,
+            final long timestamp, final boolean isForce, final ResetOffsetCallback callback)
+                    throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
         TopicRouteData topicRouteData = this.examineTopicRouteInfo(topic);
         List<BrokerData> brokerDatas = topicRouteData.getBrokerDatas();
         Map<MessageQueue, Long> allOffsetTable = new HashMap<MessageQueue, Long>();
-        if (brokerDatas != null) {
+        if (null == brokerDatas || brokerDatas.isEmpty()) {
+            return allOffsetTable;
+        }
+
+        // 各Broker并行重置，按完成的先后顺序回调
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(brokerDatas.size(), 32),
+            new ThreadFactoryImpl("ResetOffsetThread_"));
+        CompletionService<Map<MessageQueue, Long>> completionService =
+                new ExecutorCompletionService<Map<MessageQueue, Long>>(executor);
+        Map<Future<Map<MessageQueue, Long>>, String> brokerNameTable =
+                new HashMap<Future<Map<MessageQueue, Long>>, String>();
+        try {
             for (BrokerData brokerData : brokerDatas) {
-                String addr = brokerData.selectBrokerAddr();
+                final String addr = brokerData.selectBrokerAddr();
                 if (addr != null) {
-                    Map<MessageQueue, Long> offsetTable = this.mqClientInstance.getMQClientAPIImpl()
-                        .invokeBrokerToResetOffset(addr, topic, group, timestamp, isForce, 5000);
+                    Future<Map<MessageQueue, Long>> future =
+                            completionService.submit(new Callable<Map<MessageQueue, Long>>() {
+                                @Override
+                                public Map<MessageQueue, Long> call() throws Exception {
+                                    return DefaultMQAdminExtImpl.this.mqClientInstance.getMQClientAPIImpl()
+                                        .invokeBrokerToResetOffset(addr, topic, group, timestamp, isForce,
+                                            5000);
+                                }
+                            });
+                    brokerNameTable.put(future, brokerData.getBrokerName());
+                }
+            }
+
+            Throwable firstException = null;
+            for (int i = 0; i < brokerNameTable.size(); i++) {
+                Future<Map<MessageQueue, Long>> future = completionService.take();
+                String brokerName = brokerNameTable.get(future);
+                try {
+                    Map<MessageQueue, Long> offsetTable = future.get();
                     if (offsetTable != null) {
                         allOffsetTable.putAll(offsetTable);
+                        if (callback != null) {
+                            callback.onBrokerReset(brokerName, offsetTable);
+                        }
                     }
                 }
+                catch (ExecutionException e) {
+                    log.warn("resetOffsetByTimestamp exception, broker: " + brokerName, e.getCause());
+                    if (callback != null) {
+                        callback.onBrokerException(brokerName, e.getCause());
+                    }
+                    // Consumer不在线时调用方会退回老的重置方式，这个异常优先于先完成的Broker的其他异常
+                    if (null == firstException
+                            || (isConsumerNotOnline(e.getCause()) && !isConsumerNotOnline(firstException))) {
+                        firstException = e.getCause();
+                    }
+                }
+            }
+
+            if (firstException instanceof RemotingException) {
+                throw (RemotingException) firstException;
+            }
+            else if (firstException instanceof MQClientException) {
+                throw (MQClientException) firstException;
+            }
+            else if (firstException instanceof InterruptedException) {
+                throw (InterruptedException) firstException;
+            }
+            else if (firstException != null) {
+                throw new MQClientException("reset offset by timestamp failed", firstException);
             }
         }
+        finally {
+            executor.shutdownNow();
+        }
+
         return allOffsetTable;
     }
 
 
+    private static boolean isConsumerNotOnline(final Throwable e) {
+        return e instanceof MQClientException
+                && ResponseCode.CONSUMER_NOT_ONLINE == ((MQClientException) e).getResponseCode();
+    }
+
+
     @Override
     public Map<String, Map<MessageQueue, Long>> getConsumeStatus(String topic, String group,
             String clientAddr)
@@ -860,4 +948,13 @@ public class DefaultMQAdminExtImpl implements MQAdminExt, MQAdminExtInner {
         return this.mqClientInstance.getMQClientAPIImpl().ViewBrokerStatsData(brokerAddr, statsName, statsKey,
             3000);
     }
+
+
+    @Override
+    public StatsTimeSeriesBody getBrokerStatsTimeSeries(String brokerAddr, long beginTimestamp)
+            throws RemotingConnectException, RemotingSendRequestException, RemotingTimeoutException,
+            MQClientException, InterruptedException {
+        return this.mqClientInstance.getMQClientAPIImpl().getBrokerStatsTimeSeries(brokerAddr,
+            beginTimestamp, 3000);
+    }
 }
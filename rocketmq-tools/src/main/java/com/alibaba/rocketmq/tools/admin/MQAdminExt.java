@@ -26,6 +26,7 @@ import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.admin.ConsumeStats;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
 import com.alibaba.rocketmq.common.admin.RollbackStats;
 import com.alibaba.rocketmq.common.admin.TopicStatsTable;
 import com.alibaba.rocketmq.common.message.MessageExt;
@@ -169,6 +170,19 @@ public interface MQAdminExt extends MQAdmin {
             throws RemotingException, MQClientException, InterruptedException, MQBrokerException;
 
 
+    /**
+     * 一次查询Broker上所有订阅组的消费进度
+     * 
+     * @param brokerAddr
+     * @return
+     * @throws RemotingException
+     * @throws InterruptedException
+     * @throws MQBrokerException
+     */
+    public ConsumeStatsBatch examineAllConsumeStats(final String brokerAddr) throws RemotingException,
+            InterruptedException, MQBrokerException;
+
+
     /**
      * 查看集群信息
      * 
@@ -428,6 +442,27 @@ public interface MQAdminExt extends MQAdmin {
                     throws RemotingException, MQBrokerException, InterruptedException, MQClientException;
 
 
+    /**
+     * 按照时间回溯消费进度，各Broker并行执行，每个Broker完成后回调一次<br>
+     * 有Broker失败时其他Broker仍然会执行，全部结束后抛出异常，有Consumer不在线的异常时优先抛出它，否则抛出第一个异常
+     * 
+     * @param topic
+     * @param group
+     * @param timestamp
+     * @param isForce
+     * @param callback
+     *            可以为null
+     * @throws RemotingException
+     * @throws MQBrokerException
+     * @throws InterruptedException
+     * @throws MQClientException
+     * @return
+     */
+    public Map<MessageQueue, Long> resetOffsetByTimestamp(String topic, String group, long timestamp,
+            boolean isForce, ResetOffsetCallback callback)
+                    throws RemotingException, MQBrokerException, InterruptedException, MQClientException;
+
+
     /**
      * 重置消费进度，无论Consumer是否在线，都可以执行。不保证最终结果是否成功，需要调用方通过消费进度查询来再次确认
      * 
@@ -619,4 +654,22 @@ public interface MQAdminExt extends MQAdmin {
     public BrokerStatsData ViewBrokerStatsData(final String brokerAddr, final String statsName,
             final String statsKey) throws RemotingConnectException, RemotingSendRequestException,
                     RemotingTimeoutException, MQClientException, InterruptedException;
+
+
+    /**
+     * 拉取Broker按Topic、订阅组统计的分钟级时间序列，包括收发数量、大小、消费落后和读磁盘落后
+     * 
+     * @param brokerAddr
+     * @param beginTimestamp
+     *            只返回时间戳大于此值的点，首次拉取传0
+     * @return
+     * @throws RemotingConnectException
+     * @throws RemotingSendRequestException
+     * @throws RemotingTimeoutException
+     * @throws MQClientException
+     * @throws InterruptedException
+     */
+    public StatsTimeSeriesBody getBrokerStatsTimeSeries(String brokerAddr, long beginTimestamp)
+            throws RemotingConnectException, RemotingSendRequestException, RemotingTimeoutException,
+            MQClientException, InterruptedException;
 }
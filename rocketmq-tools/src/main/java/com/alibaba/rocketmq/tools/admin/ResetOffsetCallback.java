@@ -0,0 +1,16 @@
+package com.alibaba.rocketmq.tools.admin;
+
+import java.util.Map;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+
+/**
+ * 按时间重置消费进度时，每个Broker完成后回调一次，按完成的先后顺序在调用线程中执行
+ */
+public interface ResetOffsetCallback {
+    public void onBrokerReset(final String brokerName, final Map<MessageQueue, Long> offsetTable);
+
+
+    public void onBrokerException(final String brokerName, final Throwable e);
+}
@@ -16,6 +16,7 @@ import com.alibaba.rocketmq.common.protocol.ResponseCode;
 import com.alibaba.rocketmq.remoting.RPCHook;
 import com.alibaba.rocketmq.srvutil.ServerUtil;
 import com.alibaba.rocketmq.tools.admin.DefaultMQAdminExt;
+import com.alibaba.rocketmq.tools.admin.ResetOffsetCallback;
 import com.alibaba.rocketmq.tools.command.SubCommand;
 
 
@@ -84,9 +85,58 @@ public class ResetOffsetByTimeCommand implements SubCommand {
             }
 
             defaultMQAdminExt.start();
-            Map<MessageQueue, Long> offsetTable;
+            // 各Broker并行重置，完成一个打印一个
+            final String header = String.format(
+                "rollback consumer offset by specified group[%s], topic[%s], force[%s], timestamp(string)[%s], "
+                        + "timestamp(long)[%s]\n",
+                group, topic, force, timeStampStr, timestamp);
             try {
-                offsetTable = defaultMQAdminExt.resetOffsetByTimestamp(topic, group, timestamp, force);
+                defaultMQAdminExt.resetOffsetByTimestamp(topic, group, timestamp, force,
+                    new ResetOffsetCallback() {
+                        private boolean headerPrinted = false;
+
+
+                        private void printHeader() {
+                            if (!this.headerPrinted) {
+                                this.headerPrinted = true;
+                                System.out.print(header);
+                                System.out.printf("%-40s  %-40s  %-40s\n", //
+                                    "#brokerName", //
+                                    "#queueId", //
+                                    "#offset");
+                            }
+                        }
+
+
+                        @Override
+                        public void onBrokerReset(String brokerName, Map<MessageQueue, Long> offsetTable) {
+                            this.printHeader();
+                            Iterator<Map.Entry<MessageQueue, Long>> iterator =
+                                    offsetTable.entrySet().iterator();
+                            while (iterator.hasNext()) {
+                                Map.Entry<MessageQueue, Long> entry = iterator.next();
+                                System.out.printf("%-40s  %-40d  %-40d\n", //
+                                    UtilAll.frontStringAtLeast(entry.getKey().getBrokerName(), 32), //
+                                    entry.getKey().getQueueId(), //
+                                    entry.getValue());
+                            }
+                        }
+
+
+                        @Override
+                        public void onBrokerException(String brokerName, Throwable e) {
+                            // Consumer不在线时退回老的重置方式，不打印
+                            if (e instanceof MQClientException
+                                    && ResponseCode.CONSUMER_NOT_ONLINE == ((MQClientException) e)
+                                        .getResponseCode()) {
+                                return;
+                            }
+                            this.printHeader();
+                            System.out.printf("%-40s  reset failed, %s\n", //
+                                UtilAll.frontStringAtLeast(brokerName, 32), //
+                                e);
+                        }
+                    });
             }
             catch (MQClientException e) {
                 if (ResponseCode.CONSUMER_NOT_ONLINE == e.getResponseCode()) {
@@ -96,25 +146,6 @@ public class ResetOffsetByTimeCommand implements SubCommand {
                 }
                 throw e;
             }
-
-            System.out.printf(
-                "rollback consumer offset by specified group[%s], topic[%s], force[%s], timestamp(string)[%s], "
-                        + "timestamp(long)[%s]\n",
-                group, topic, force, timeStampStr, timestamp);
-
-            System.out.printf("%-40s  %-40s  %-40s\n", //
-                "#brokerName", //
-                "#queueId", //
-                "#offset");
-
-            Iterator<Map.Entry<MessageQueue, Long>> iterator = offsetTable.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<MessageQueue, Long> entry = iterator.next();
-                System.out.printf("%-40s  %-40d  %-40d\n", //
-                    UtilAll.frontStringAtLeast(entry.getKey().getBrokerName(), 32), //
-                    entry.getKey().getQueueId(), //
-                    entry.getValue());
-            }
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -41,6 +41,10 @@ public class StatsAllSubCommand implements SubCommand {
         opt.setRequired(false);
         options.addOption(opt);
 
+        opt = new Option("l", "latency", false, "print send and pull latency P99(us) in the last minute");
+        opt.setRequired(false);
+        options.addOption(opt);
+
         return options;
     }
 
@@ -62,8 +66,32 @@ public class StatsAllSubCommand implements SubCommand {
     }
 
 
+    /**
+     * 各Broker上一分钟延迟P99的最大值，没有数据返回0
+     */
+    public static long computeMaxP99(final DefaultMQAdminExt admin, final TopicRouteData topicRouteData,
+            final String statsName, final String statsKey) {
+        long maxP99 = 0;
+        for (BrokerData bd : topicRouteData.getBrokerDatas()) {
+            String masterAddr = bd.getBrokerAddrs().get(MixAll.MASTER_ID);
+            if (masterAddr != null) {
+                try {
+                    BrokerStatsData bsd = admin.ViewBrokerStatsData(masterAddr, statsName, statsKey);
+                    if (bsd.getLatencyMinute() != null) {
+                        maxP99 = Math.max(maxP99, bsd.getLatencyMinute().getP99());
+                    }
+                }
+                catch (Exception e) {
+                }
+            }
+        }
+
+        return maxP99;
+    }
+
+
     public static void printTopicDetail(final DefaultMQAdminExt admin, final String topic,
-            final boolean activeTopic)
+            final boolean activeTopic, final boolean printLatency)
                     throws RemotingException, MQClientException, InterruptedException, MQBrokerException {
         TopicRouteData topicRouteData = admin.examineTopicRouteInfo(topic);
 
@@ -73,6 +101,9 @@ public class StatsAllSubCommand implements SubCommand {
 
         long inMsgCntToday = 0;
 
+        final String sendLatency = printLatency ? String.format(" %12d",
+            computeMaxP99(admin, topicRouteData, BrokerStatsManager.TOPIC_SEND_LATENCY, topic)) : "";
+
         // 统计Topic写入
         for (BrokerData bd : topicRouteData.getBrokerDatas()) {
             String masterAddr = bd.getBrokerAddrs().get(MixAll.MASTER_ID);
@@ -111,14 +142,18 @@ public class StatsAllSubCommand implements SubCommand {
 
                 if (!activeTopic || (inMsgCntToday > 0) || //
                         (outMsgCntToday > 0)) {
+                    String pullLatency = printLatency ? String.format(" %12d", computeMaxP99(admin,
+                        topicRouteData, BrokerStatsManager.GROUP_PULL_LATENCY, topic + "@" + group)) : "";
                     // 打印
-                    System.out.printf("%-32s  %-32s %11.2f %11.2f %14d %14d\n", //
+                    System.out.printf("%-32s  %-32s %11.2f %11.2f %14d %14d%s%s\n", //
                         UtilAll.frontStringAtLeast(topic, 32), //
                         UtilAll.frontStringAtLeast(group, 32), //
                         inTPS, //
                         outTPS, //
                         inMsgCntToday, //
-                        outMsgCntToday//
+                        outMsgCntToday, //
+                        sendLatency, //
+                        pullLatency//
                     );
                 }
             }
@@ -127,13 +162,14 @@ public class StatsAllSubCommand implements SubCommand {
         else {
             if (!activeTopic || (inMsgCntToday > 0)) {
                 // 打印
-                System.out.printf("%-32s  %-32s %11.2f %11s %14d %14s\n", //
+                System.out.printf("%-32s  %-32s %11.2f %11s %14d %14s%s\n", //
                     UtilAll.frontStringAtLeast(topic, 32), //
                     "", //
                     inTPS, //
                     "", //
                     inMsgCntToday, //
-                    "NO_CONSUMER"//
+                    "NO_CONSUMER", //
+                    sendLatency//
                 );
             }
         }
@@ -151,17 +187,19 @@ public class StatsAllSubCommand implements SubCommand {
 
             TopicList topicList = defaultMQAdminExt.fetchAllTopicList();
 
-            System.out.printf("%-32s  %-32s %11s %11s %14s %14s\n", //
+            boolean activeTopic = commandLine.hasOption('a');
+            boolean printLatency = commandLine.hasOption('l');
+
+            System.out.printf("%-32s  %-32s %11s %11s %14s %14s%s\n", //
                 "#Topic", //
                 "#Consumer Group", //
                 "#InTPS", //
                 "#OutTPS", //
                 "#InMsg24Hour", //
-                "#OutMsg24Hour"//
+                "#OutMsg24Hour", //
+                printLatency ? String.format(" %12s %12s", "#SendP99(us)", "#PullP99(us)") : ""//
             );
 
-            boolean activeTopic = commandLine.hasOption('a');
-
             for (String topic : topicList.getTopicList()) {
                 if (topic.startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)
                         || topic.startsWith(MixAll.DLQ_GROUP_TOPIC_PREFIX)) {
@@ -169,7 +207,7 @@ public class StatsAllSubCommand implements SubCommand {
                 }
 
                 try {
-                    printTopicDetail(defaultMQAdminExt, topic, activeTopic);
+                    printTopicDetail(defaultMQAdminExt, topic, activeTopic, printLatency);
                 }
                 catch (Exception e) {
                 }
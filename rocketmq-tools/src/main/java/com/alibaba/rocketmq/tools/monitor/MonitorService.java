@@ -21,13 +21,16 @@ import com.alibaba.rocketmq.common.MQVersion;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.admin.ConsumeStats;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
 import com.alibaba.rocketmq.common.admin.OffsetWrapper;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.body.ClusterInfo;
 import com.alibaba.rocketmq.common.protocol.body.Connection;
 import com.alibaba.rocketmq.common.protocol.body.ConsumerConnection;
 import com.alibaba.rocketmq.common.protocol.body.ConsumerRunningInfo;
 import com.alibaba.rocketmq.common.protocol.body.TopicList;
+import com.alibaba.rocketmq.common.protocol.route.BrokerData;
 import com.alibaba.rocketmq.common.protocol.topic.OffsetMovedEvent;
 import com.alibaba.rocketmq.remoting.RPCHook;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
@@ -136,13 +139,16 @@ public class MonitorService {
         long beginTime = System.currentTimeMillis();
         this.monitorListener.beginRound();
 
+        // 每个Broker一次调用拉取所有订阅组的消费进度
+        ConsumeStatsBatch consumeStatsBatch = this.fetchAllConsumeStats();
+
         TopicList topicList = defaultMQAdminExt.fetchAllTopicList();
         for (String topic : topicList.getTopicList()) {
             if (topic.startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
                 String consumerGroup = topic.substring(MixAll.RETRY_GROUP_TOPIC_PREFIX.length());
                 // 监控消费进度
                 try {
-                    this.reportUndoneMsgs(consumerGroup);
+                    this.reportUndoneMsgs(consumerGroup, consumeStatsBatch);
                 }
                 catch (Exception e) {
                     // log.error("reportUndoneMsgs Exception", e);
@@ -163,6 +169,42 @@ public class MonitorService {
     }
 
 
+    /**
+     * 合并所有Broker的消费进度，有Broker不支持批量查询时返回null，退回按订阅组查询
+     */
+    private ConsumeStatsBatch fetchAllConsumeStats() {
+        ConsumeStatsBatch result = new ConsumeStatsBatch();
+        try {
+            ClusterInfo clusterInfo = defaultMQAdminExt.examineBrokerClusterInfo();
+            for (BrokerData bd : clusterInfo.getBrokerAddrTable().values()) {
+                String addr = bd.selectBrokerAddr();
+                if (null == addr) {
+                    continue;
+                }
+
+                ConsumeStatsBatch batch = defaultMQAdminExt.examineAllConsumeStats(addr);
+                for (Entry<String, ConsumeStats> next : batch.getConsumeStatsTable().entrySet()) {
+                    ConsumeStats cs = result.getConsumeStatsTable().get(next.getKey());
+                    if (null == cs) {
+                        result.getConsumeStatsTable().put(next.getKey(), next.getValue());
+                        continue;
+                    }
+
+                    cs.getOffsetTable().putAll(next.getValue().getOffsetTable());
+                    cs.setConsumeTps(cs.getConsumeTps() + next.getValue().getConsumeTps());
+                }
+                result.getLastStoreTimestampTable().putAll(batch.getLastStoreTimestampTable());
+            }
+        }
+        catch (Exception e) {
+            log.warn("fetchAllConsumeStats Exception, query consume stats by group", e);
+            return null;
+        }
+
+        return result;
+    }
+
+
     public void reportConsumerRunningInfo(final String consumerGroup)
             throws InterruptedException, MQBrokerException, RemotingException, MQClientException {
         ConsumerConnection cc = defaultMQAdminExt.examineConsumerConnectionInfo(consumerGroup);
@@ -194,13 +236,21 @@ public class MonitorService {
     }
 
 
-    private void reportUndoneMsgs(final String consumerGroup) {
+    private void reportUndoneMsgs(final String consumerGroup, final ConsumeStatsBatch consumeStatsBatch) {
         ConsumeStats cs = null;
-        try {
-            cs = defaultMQAdminExt.examineConsumeStats(consumerGroup);
+        if (consumeStatsBatch != null) {
+            cs = consumeStatsBatch.getConsumeStatsTable().get(consumerGroup);
+            if (null == cs) {
+                return;
+            }
         }
-        catch (Exception e) {
-            return;
+        else {
+            try {
+                cs = defaultMQAdminExt.examineConsumeStats(consumerGroup);
+            }
+            catch (Exception e) {
+                return;
+            }
         }
 
         ConsumerConnection cc = null;
@@ -238,7 +288,7 @@ public class MonitorService {
                     UndoneMsgs undoneMsgs = new UndoneMsgs();
                     undoneMsgs.setConsumerGroup(consumerGroup);
                     undoneMsgs.setTopic(next.getKey());
-                    this.computeUndoneMsgs(undoneMsgs, next.getValue());
+                    this.computeUndoneMsgs(undoneMsgs, next.getValue(), consumeStatsBatch);
                     this.monitorListener.reportUndoneMsgs(undoneMsgs);
                     this.reportFailedMsgs(consumerGroup, next.getKey());
                 }
@@ -247,7 +297,8 @@ public class MonitorService {
     }
 
 
-    private void computeUndoneMsgs(final UndoneMsgs undoneMsgs, final ConsumeStats consumeStats) {
+    private void computeUndoneMsgs(final UndoneMsgs undoneMsgs, final ConsumeStats consumeStats,
+            final ConsumeStatsBatch consumeStatsBatch) {
         long total = 0;
         long singleMax = 0;
         long delayMax = 0;
@@ -267,7 +318,16 @@ public class MonitorService {
             }
 
             // Delay
-            if (ow.getLastTimestamp() > 0) {
+            if (ow.getLastTimestamp() > 0 && consumeStatsBatch != null) {
+                Long lastStoreTimestamp = consumeStatsBatch.getLastStoreTimestampTable().get(mq);
+                if (lastStoreTimestamp != null) {
+                    long delay = lastStoreTimestamp - ow.getLastTimestamp();
+                    if (delay > delayMax) {
+                        delayMax = delay;
+                    }
+                }
+            }
+            else if (ow.getLastTimestamp() > 0) {
                 try {
                     long maxOffset = this.defaultMQPullConsumer.maxOffset(mq);
                     if (maxOffset > 0) {
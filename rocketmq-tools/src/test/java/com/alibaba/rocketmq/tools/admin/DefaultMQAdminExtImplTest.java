@@ -0,0 +1,230 @@
+package com.alibaba.rocketmq.tools.admin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ResetOffsetBody;
+import com.alibaba.rocketmq.common.protocol.route.BrokerData;
+import com.alibaba.rocketmq.common.protocol.route.QueueData;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 按时间重置消费进度时各Broker并行执行、按完成顺序回调，以及失败时抛出的异常
+ */
+public class DefaultMQAdminExtImplTest {
+    private static final String Topic = "TopicTest";
+    private static final String Group = "GroupTest";
+
+    // brokerA同时充当Name Server
+    private BrokerStub brokerA;
+    private BrokerStub brokerB;
+    private DefaultMQAdminExt defaultMQAdminExt;
+
+    /**
+     * 按设定的延迟与应答码响应重置请求
+     */
+    private static class BrokerStub implements NettyRequestProcessor {
+        private final String brokerName;
+        private final NettyRemotingServer server;
+        private volatile long delayMillis = 0;
+        private volatile int responseCode = ResponseCode.SUCCESS;
+        private volatile TopicRouteData topicRouteData;
+        private final AtomicInteger resetTimes = new AtomicInteger(0);
+
+
+        BrokerStub(final String brokerName) {
+            this.brokerName = brokerName;
+            NettyServerConfig serverConfig = new NettyServerConfig();
+            serverConfig.setListenPort(0);
+            this.server = new NettyRemotingServer(serverConfig);
+            this.server.registerProcessor(RequestCode.GET_ROUTEINTO_BY_TOPIC, this,
+                Executors.newSingleThreadExecutor());
+            this.server.registerProcessor(RequestCode.INVOKE_BROKER_TO_RESET_OFFSET, this,
+                Executors.newSingleThreadExecutor());
+            this.server.start();
+        }
+
+
+        String getAddr() {
+            return "127.0.0.1:" + this.server.localListenPort();
+        }
+
+
+        @Override
+        public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                throws Exception {
+            RemotingCommand response = RemotingCommand.createResponseCommand(null);
+            if (RequestCode.GET_ROUTEINTO_BY_TOPIC == request.getCode()) {
+                response.setCode(ResponseCode.SUCCESS);
+                response.setBody(this.topicRouteData.encode());
+                return response;
+            }
+
+            this.resetTimes.incrementAndGet();
+            Thread.sleep(this.delayMillis);
+            response.setCode(this.responseCode);
+            if (ResponseCode.SUCCESS == this.responseCode) {
+                Map<MessageQueue, Long> offsetTable = new HashMap<MessageQueue, Long>();
+                offsetTable.put(new MessageQueue(Topic, this.brokerName, 0), 100L);
+                ResetOffsetBody body = new ResetOffsetBody();
+                body.setOffsetTable(offsetTable);
+                response.setBody(body.encode());
+            }
+            else {
+                response.setRemark(this.brokerName + " reset failed");
+            }
+            return response;
+        }
+    }
+
+    /**
+     * 按回调顺序记录每个Broker的结果
+     */
+    private static class RecordCallback implements ResetOffsetCallback {
+        private final List<String> resetBrokers = new CopyOnWriteArrayList<String>();
+        private final List<String> exceptionBrokers = new CopyOnWriteArrayList<String>();
+
+
+        @Override
+        public void onBrokerReset(String brokerName, Map<MessageQueue, Long> offsetTable) {
+            this.resetBrokers.add(brokerName);
+        }
+
+
+        @Override
+        public void onBrokerException(String brokerName, Throwable e) {
+            this.exceptionBrokers.add(brokerName);
+        }
+    }
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.brokerA = new BrokerStub("broker-a");
+        this.brokerB = new BrokerStub("broker-b");
+
+        TopicRouteData topicRouteData = new TopicRouteData();
+        topicRouteData.setQueueDatas(new ArrayList<QueueData>());
+        topicRouteData.setBrokerDatas(new ArrayList<BrokerData>());
+        topicRouteData.setFilterServerTable(new HashMap<String, List<String>>());
+        for (BrokerStub broker : new BrokerStub[] { this.brokerA, this.brokerB }) {
+            QueueData queueData = new QueueData();
+            queueData.setBrokerName(broker.brokerName);
+            queueData.setReadQueueNums(1);
+            queueData.setWriteQueueNums(1);
+            queueData.setPerm(6);
+            topicRouteData.getQueueDatas().add(queueData);
+
+            BrokerData brokerData = new BrokerData();
+            brokerData.setBrokerName(broker.brokerName);
+            brokerData.setBrokerAddrs(new HashMap<Long, String>());
+            brokerData.getBrokerAddrs().put(MixAll.MASTER_ID, broker.getAddr());
+            topicRouteData.getBrokerDatas().add(brokerData);
+        }
+        this.brokerA.topicRouteData = topicRouteData;
+
+        this.defaultMQAdminExt = new DefaultMQAdminExt();
+        this.defaultMQAdminExt.setInstanceName("DefaultMQAdminExtImplTest_" + System.nanoTime());
+        this.defaultMQAdminExt.setNamesrvAddr(this.brokerA.getAddr());
+        this.defaultMQAdminExt.start();
+    }
+
+
+    @After
+    public void tearDown() {
+        this.defaultMQAdminExt.shutdown();
+        this.brokerA.server.shutdown();
+        this.brokerB.server.shutdown();
+    }
+
+
+    @Test
+    public void test_reset_in_parallel() throws Exception {
+        this.brokerA.delayMillis = 1000;
+        this.brokerB.delayMillis = 1000;
+        RecordCallback callback = new RecordCallback();
+
+        long begin = System.currentTimeMillis();
+        Map<MessageQueue, Long> offsetTable =
+                this.defaultMQAdminExt.resetOffsetByTimestamp(Topic, Group, begin, false, callback);
+        // 两个Broker同时执行，总耗时接近单个Broker的耗时
+        assertTrue(System.currentTimeMillis() - begin < 1900);
+
+        assertEquals(2, offsetTable.size());
+        assertEquals(100L, offsetTable.get(new MessageQueue(Topic, "broker-a", 0)).longValue());
+        assertEquals(100L, offsetTable.get(new MessageQueue(Topic, "broker-b", 0)).longValue());
+        assertEquals(2, callback.resetBrokers.size());
+        assertTrue(callback.exceptionBrokers.isEmpty());
+    }
+
+
+    @Test
+    public void test_callback_in_finish_order() throws Exception {
+        this.brokerA.delayMillis = 500;
+        this.brokerB.responseCode = ResponseCode.SYSTEM_ERROR;
+        RecordCallback callback = new RecordCallback();
+
+        try {
+            this.defaultMQAdminExt.resetOffsetByTimestamp(Topic, Group, System.currentTimeMillis(), false,
+                callback);
+            fail("broker-b failed, expect exception");
+        }
+        catch (MQClientException e) {
+            assertEquals(ResponseCode.SYSTEM_ERROR, e.getResponseCode());
+        }
+
+        // 失败的Broker先完成，另一个Broker仍然执行了重置
+        assertEquals(1, this.brokerA.resetTimes.get());
+        assertEquals(1, callback.exceptionBrokers.size());
+        assertEquals("broker-b", callback.exceptionBrokers.get(0));
+        assertEquals(1, callback.resetBrokers.size());
+        assertEquals("broker-a", callback.resetBrokers.get(0));
+    }
+
+
+    @Test
+    public void test_consumer_not_online_preferred() throws Exception {
+        // 其他异常先返回，Consumer不在线的异常后返回
+        this.brokerA.responseCode = ResponseCode.SYSTEM_ERROR;
+        this.brokerB.delayMillis = 500;
+        this.brokerB.responseCode = ResponseCode.CONSUMER_NOT_ONLINE;
+        RecordCallback callback = new RecordCallback();
+
+        try {
+            this.defaultMQAdminExt.resetOffsetByTimestamp(Topic, Group, System.currentTimeMillis(), false,
+                callback);
+            fail("both brokers failed, expect exception");
+        }
+        catch (MQClientException e) {
+            assertEquals(ResponseCode.CONSUMER_NOT_ONLINE, e.getResponseCode());
+        }
+
+        assertEquals(2, callback.exceptionBrokers.size());
+        assertEquals("broker-a", callback.exceptionBrokers.get(0));
+        assertEquals("broker-b", callback.exceptionBrokers.get(1));
+    }
+}
@@ -0,0 +1,249 @@
+package com.alibaba.rocketmq.tools.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.admin.ConsumeStats;
+import com.alibaba.rocketmq.common.admin.ConsumeStatsBatch;
+import com.alibaba.rocketmq.common.admin.OffsetWrapper;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ClusterInfo;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerConnection;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerRunningInfo;
+import com.alibaba.rocketmq.common.protocol.body.TopicList;
+import com.alibaba.rocketmq.common.protocol.header.namesrv.GetRouteInfoRequestHeader;
+import com.alibaba.rocketmq.common.protocol.route.BrokerData;
+import com.alibaba.rocketmq.common.protocol.route.QueueData;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSysResponseCode;
+import io.netty.channel.ChannelHandlerContext;
+
+
+/**
+ * 按Broker批量查询消费进度，Broker不支持时退回按订阅组查询
+ */
+public class MonitorServiceTest {
+    private static final String Topic = "TopicTest";
+    private static final String Group = "GroupTest";
+    private static final String BrokerName = "broker-a";
+
+    // 同时充当Name Server与Broker
+    private NettyRemotingServer server;
+    private String serverAddr;
+    private MonitorService monitorService;
+    private final AtomicBoolean batchSupported = new AtomicBoolean(true);
+    private final AtomicInteger allConsumeStatsTimes = new AtomicInteger(0);
+    private final AtomicInteger consumeStatsTimes = new AtomicInteger(0);
+    private final List<UndoneMsgs> undoneMsgsList = new CopyOnWriteArrayList<UndoneMsgs>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        NettyServerConfig serverConfig = new NettyServerConfig();
+        serverConfig.setListenPort(0);
+        this.server = new NettyRemotingServer(serverConfig);
+        NettyRequestProcessor processor = new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request)
+                    throws Exception {
+                return MonitorServiceTest.this.processRequest(request);
+            }
+        };
+        int[] requestCodes = new int[] { RequestCode.GET_BROKER_CLUSTER_INFO,
+                                         RequestCode.GET_ALL_TOPIC_LIST_FROM_NAMESERVER,
+                                         RequestCode.GET_ROUTEINTO_BY_TOPIC, RequestCode.GET_CONSUME_STATS,
+                                         RequestCode.GET_ALL_CONSUME_STATS,
+                                         RequestCode.GET_CONSUMER_CONNECTION_LIST };
+        for (int requestCode : requestCodes) {
+            this.server.registerProcessor(requestCode, processor, Executors.newSingleThreadExecutor());
+        }
+        this.server.start();
+        this.serverAddr = "127.0.0.1:" + this.server.localListenPort();
+
+        MonitorConfig monitorConfig = new MonitorConfig();
+        monitorConfig.setNamesrvAddr(this.serverAddr);
+        this.monitorService = new MonitorService(monitorConfig, new MonitorListener() {
+            @Override
+            public void beginRound() {
+            }
+
+
+            @Override
+            public void reportUndoneMsgs(UndoneMsgs undoneMsgs) {
+                undoneMsgsList.add(undoneMsgs);
+            }
+
+
+            @Override
+            public void reportFailedMsgs(FailedMsgs failedMsgs) {
+            }
+
+
+            @Override
+            public void reportDeleteMsgsEvent(DeleteMsgsEvent deleteMsgsEvent) {
+            }
+
+
+            @Override
+            public void reportConsumerRunningInfo(TreeMap<String, ConsumerRunningInfo> criTable) {
+            }
+
+
+            @Override
+            public void endRound() {
+            }
+        }, null);
+        this.monitorService.start();
+    }
+
+
+    @After
+    public void tearDown() {
+        this.monitorService.shutdown();
+        this.server.shutdown();
+    }
+
+
+    private RemotingCommand processRequest(final RemotingCommand request) throws Exception {
+        RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        response.setCode(ResponseCode.SUCCESS);
+
+        switch (request.getCode()) {
+        case RequestCode.GET_BROKER_CLUSTER_INFO:
+            ClusterInfo clusterInfo = new ClusterInfo();
+            clusterInfo.setBrokerAddrTable(new HashMap<String, BrokerData>());
+            clusterInfo.getBrokerAddrTable().put(BrokerName, this.buildBrokerData());
+            clusterInfo.setClusterAddrTable(new HashMap<String, Set<String>>());
+            response.setBody(clusterInfo.encode());
+            break;
+        case RequestCode.GET_ALL_TOPIC_LIST_FROM_NAMESERVER:
+            TopicList topicList = new TopicList();
+            topicList.setTopicList(new HashSet<String>());
+            topicList.getTopicList().add(Topic);
+            topicList.getTopicList().add(MixAll.getRetryTopic(Group));
+            response.setBody(topicList.encode());
+            break;
+        case RequestCode.GET_ROUTEINTO_BY_TOPIC:
+            GetRouteInfoRequestHeader routeHeader = (GetRouteInfoRequestHeader) request
+                .decodeCommandCustomHeader(GetRouteInfoRequestHeader.class);
+            if (!MixAll.getRetryTopic(Group).equals(routeHeader.getTopic())) {
+                response.setCode(ResponseCode.TOPIC_NOT_EXIST);
+                break;
+            }
+            response.setBody(this.buildTopicRouteData().encode());
+            break;
+        case RequestCode.GET_ALL_CONSUME_STATS:
+            this.allConsumeStatsTimes.incrementAndGet();
+            if (!this.batchSupported.get()) {
+                response.setCode(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED);
+                break;
+            }
+            ConsumeStatsBatch batch = new ConsumeStatsBatch();
+            batch.getConsumeStatsTable().put(Group, this.buildConsumeStats());
+            response.setBody(batch.encode());
+            break;
+        case RequestCode.GET_CONSUME_STATS:
+            this.consumeStatsTimes.incrementAndGet();
+            response.setBody(this.buildConsumeStats().encode());
+            break;
+        case RequestCode.GET_CONSUMER_CONNECTION_LIST:
+            response.setBody(new ConsumerConnection().encode());
+            break;
+        default:
+            response.setCode(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED);
+            break;
+        }
+        return response;
+    }
+
+
+    private BrokerData buildBrokerData() {
+        BrokerData brokerData = new BrokerData();
+        brokerData.setBrokerName(BrokerName);
+        brokerData.setBrokerAddrs(new HashMap<Long, String>());
+        brokerData.getBrokerAddrs().put(MixAll.MASTER_ID, this.serverAddr);
+        return brokerData;
+    }
+
+
+    private TopicRouteData buildTopicRouteData() {
+        QueueData queueData = new QueueData();
+        queueData.setBrokerName(BrokerName);
+        queueData.setReadQueueNums(1);
+        queueData.setWriteQueueNums(1);
+        queueData.setPerm(6);
+
+        TopicRouteData topicRouteData = new TopicRouteData();
+        topicRouteData.setQueueDatas(new ArrayList<QueueData>());
+        topicRouteData.getQueueDatas().add(queueData);
+        topicRouteData.setBrokerDatas(new ArrayList<BrokerData>());
+        topicRouteData.getBrokerDatas().add(this.buildBrokerData());
+        topicRouteData.setFilterServerTable(new HashMap<String, List<String>>());
+        return topicRouteData;
+    }
+
+
+    private ConsumeStats buildConsumeStats() {
+        OffsetWrapper offsetWrapper = new OffsetWrapper();
+        offsetWrapper.setBrokerOffset(10);
+        offsetWrapper.setConsumerOffset(4);
+
+        ConsumeStats consumeStats = new ConsumeStats();
+        consumeStats.getOffsetTable().put(new MessageQueue(Topic, BrokerName, 0), offsetWrapper);
+        return consumeStats;
+    }
+
+
+    private UndoneMsgs findUndoneMsgs() {
+        for (UndoneMsgs undoneMsgs : this.undoneMsgsList) {
+            if (Group.equals(undoneMsgs.getConsumerGroup()) && Topic.equals(undoneMsgs.getTopic())) {
+                return undoneMsgs;
+            }
+        }
+        return null;
+    }
+
+
+    @Test
+    public void test_all_consume_stats() throws Exception {
+        this.monitorService.doMonitorWork();
+
+        assertEquals(1, this.allConsumeStatsTimes.get());
+        assertEquals(0, this.consumeStatsTimes.get());
+        assertEquals(6, this.findUndoneMsgs().getUndoneMsgsTotal());
+    }
+
+
+    @Test
+    public void test_fallback_when_broker_rejects() throws Exception {
+        this.batchSupported.set(false);
+        this.monitorService.doMonitorWork();
+
+        // 批量查询被拒绝，本轮按订阅组查询，结果相同
+        assertEquals(1, this.allConsumeStatsTimes.get());
+        assertTrue(this.consumeStatsTimes.get() > 0);
+        assertEquals(6, this.findUndoneMsgs().getUndoneMsgsTotal());
+    }
+}